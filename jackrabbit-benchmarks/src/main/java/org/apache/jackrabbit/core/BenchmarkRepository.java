@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.QueryHandler;
+import org.apache.jackrabbit.core.state.SharedItemStateManager;
+
+/**
+ * Test fixture shared by the microbenchmarks that need a running repository.
+ * Starts a repository with the default configuration in a temporary directory
+ * and populates the default workspace with a balanced tree of
+ * <code>nt:unstructured</code> nodes. The fixture lives in the
+ * <code>org.apache.jackrabbit.core</code> package so it can hand out the
+ * workspace internals (shared item state manager, query handler) that are
+ * not reachable through the JCR API.
+ */
+public class BenchmarkRepository {
+
+    /**
+     * Name of the root node of the generated content tree.
+     */
+    public static final String TREE_ROOT = "benchmark";
+
+    private final File directory;
+
+    private final RepositoryImpl repository;
+
+    private final SessionImpl session;
+
+    private final List<NodeId> nodeIds = new ArrayList<NodeId>();
+
+    /**
+     * Starts a new repository and creates a tree with the given shape
+     * below <code>/benchmark</code>.
+     *
+     * @param depth  number of levels below the tree root
+     * @param fanout number of child nodes per node
+     * @throws Exception if the repository cannot be started or populated
+     */
+    public BenchmarkRepository(int depth, int fanout) throws Exception {
+        directory = File.createTempFile("jackrabbit-benchmark", "");
+        directory.delete();
+        directory.mkdirs();
+        repository = RepositoryImpl.create(RepositoryConfig.install(directory));
+        session = (SessionImpl) repository.login(
+                new SimpleCredentials("admin", "admin".toCharArray()));
+
+        Node root = session.getRootNode().addNode(TREE_ROOT, "nt:unstructured");
+        nodeIds.add(((NodeImpl) root).getNodeId());
+        createTree(root, depth, fanout);
+        session.save();
+    }
+
+    private void createTree(Node parent, int depth, int fanout)
+            throws RepositoryException {
+        if (depth == 0) {
+            return;
+        }
+        for (int i = 0; i < fanout; i++) {
+            Node node = parent.addNode("node" + i, "nt:unstructured");
+            node.setProperty("title", "Node " + i + " at depth " + depth);
+            node.setProperty("count", (long) i);
+            node.setProperty("created", Calendar.getInstance());
+            node.setProperty("tags", new String[] { "a", "b", "c" + i });
+            nodeIds.add(((NodeImpl) node).getNodeId());
+            createTree(node, depth - 1, fanout);
+        }
+    }
+
+    /**
+     * @return an admin session on the default workspace
+     */
+    public SessionImpl getSession() {
+        return session;
+    }
+
+    /**
+     * @return identifiers of all nodes in the generated tree, in document
+     *         order starting with the tree root
+     */
+    public List<NodeId> getNodeIds() {
+        return nodeIds;
+    }
+
+    /**
+     * @return the shared item state manager of the default workspace
+     * @throws RepositoryException if the workspace is not available
+     */
+    public SharedItemStateManager getSharedItemStateManager()
+            throws RepositoryException {
+        return repository.getWorkspaceStateManager(
+                session.getWorkspace().getName());
+    }
+
+    /**
+     * @return the query handler of the default workspace
+     * @throws RepositoryException if the workspace is not available
+     */
+    public QueryHandler getQueryHandler() throws RepositoryException {
+        return repository.getSearchManager(
+                session.getWorkspace().getName()).getQueryHandler();
+    }
+
+    /**
+     * Logs out, shuts down the repository and removes its directory.
+     */
+    public void dispose() {
+        try {
+            session.logout();
+            repository.shutdown();
+        } finally {
+            FileUtils.deleteQuietly(directory);
+        }
+    }
+
+}
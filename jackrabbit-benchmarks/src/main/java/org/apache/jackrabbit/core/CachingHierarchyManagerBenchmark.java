@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.SharedItemStateManager;
+import org.apache.jackrabbit.spi.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link CachingHierarchyManager#getPath(org.apache.jackrabbit.core.id.ItemId)}
+ * and {@link CachingHierarchyManager#resolveNodePath(Path)} both against a
+ * warm path cache and against a freshly created manager.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CachingHierarchyManagerBenchmark {
+
+    private BenchmarkRepository repository;
+
+    private SharedItemStateManager manager;
+
+    private NodeId[] nodeIds;
+
+    private Path[] paths;
+
+    private CachingHierarchyManager warm;
+
+    private int position;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repository = new BenchmarkRepository(4, 8);
+        manager = repository.getSharedItemStateManager();
+
+        List<NodeId> ids = repository.getNodeIds();
+        nodeIds = ids.toArray(new NodeId[ids.size()]);
+
+        warm = new CachingHierarchyManager(RepositoryImpl.ROOT_NODE_ID, manager);
+        paths = new Path[nodeIds.length];
+        for (int i = 0; i < nodeIds.length; i++) {
+            paths[i] = warm.getPath(nodeIds[i]);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        repository.dispose();
+    }
+
+    private int next() {
+        position = (position + 1) % nodeIds.length;
+        return position;
+    }
+
+    @Benchmark
+    public Path getPathCached() throws Exception {
+        return warm.getPath(nodeIds[next()]);
+    }
+
+    @Benchmark
+    public Path getPathUncached() throws Exception {
+        CachingHierarchyManager cold =
+            new CachingHierarchyManager(RepositoryImpl.ROOT_NODE_ID, manager);
+        return cold.getPath(nodeIds[next()]);
+    }
+
+    @Benchmark
+    public NodeId resolveNodePathCached() throws Exception {
+        return warm.resolveNodePath(paths[next()]);
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.PropertyEntry;
+import org.apache.jackrabbit.core.util.StringIndex;
+import org.apache.jackrabbit.core.value.InternalValue;
+import org.apache.jackrabbit.spi.NameFactory;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link BundleBinding#readBundle(java.io.InputStream, NodeId)} and
+ * {@link BundleBinding#writeBundle(java.io.OutputStream, NodePropBundle)}
+ * for bundles of varying size.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BundleBindingBenchmark {
+
+    private static final NameFactory factory = NameFactoryImpl.getInstance();
+
+    /**
+     * Number of string properties in the bundle.
+     */
+    @Param({ "5", "50" })
+    public int properties;
+
+    /**
+     * Number of child node entries in the bundle.
+     */
+    @Param({ "0", "100", "10000" })
+    public int children;
+
+    private BundleBinding binding;
+
+    private NodePropBundle bundle;
+
+    private byte[] serialized;
+
+    private ByteArrayOutputStream buffer;
+
+    @Setup
+    public void setUp() throws Exception {
+        binding = new BundleBinding(null, null, new MapIndex(), new MapIndex(), null);
+
+        NodeId id = NodeId.randomId();
+        bundle = new NodePropBundle(id);
+        bundle.setParentId(NodeId.randomId());
+        bundle.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        bundle.setMixinTypeNames(Collections.singleton(NameConstants.MIX_CREATED));
+        bundle.setSharedSet(Collections.<NodeId>emptySet());
+
+        PropertyEntry created = new PropertyEntry(
+                new PropertyId(id, NameConstants.JCR_CREATED));
+        created.setType(PropertyType.DATE);
+        created.setMultiValued(false);
+        created.setValues(new InternalValue[] {
+                InternalValue.create(Calendar.getInstance()) });
+        bundle.addProperty(created);
+
+        for (int i = 0; i < properties; i++) {
+            PropertyEntry entry = new PropertyEntry(
+                    new PropertyId(id, factory.create("", "property" + i)));
+            entry.setType(PropertyType.STRING);
+            entry.setMultiValued(false);
+            entry.setValues(new InternalValue[] {
+                    InternalValue.create("value of property " + i) });
+            bundle.addProperty(entry);
+        }
+        for (int i = 0; i < children; i++) {
+            bundle.addChildNodeEntry(
+                    factory.create("", "child" + i), NodeId.randomId());
+        }
+
+        buffer = new ByteArrayOutputStream();
+        binding.writeBundle(buffer, bundle);
+        serialized = buffer.toByteArray();
+    }
+
+    @Benchmark
+    public NodePropBundle readBundle() throws Exception {
+        return binding.readBundle(
+                new ByteArrayInputStream(serialized), bundle.getId());
+    }
+
+    @Benchmark
+    public int writeBundle() throws Exception {
+        buffer.reset();
+        binding.writeBundle(buffer, bundle);
+        return buffer.size();
+    }
+
+    /**
+     * Simple in-memory string index, equivalent to the name and namespace
+     * indexes kept by the persistence managers once warmed up.
+     */
+    private static class MapIndex implements StringIndex {
+
+        private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+        private final List<String> strings = new ArrayList<String>();
+
+        public synchronized int stringToIndex(String string) {
+            Integer index = indexes.get(string);
+            if (index == null) {
+                index = strings.size();
+                strings.add(string);
+                indexes.put(string, index);
+            }
+            return index;
+        }
+
+        public synchronized String indexToString(int index) {
+            return strings.get(index);
+        }
+
+    }
+
+}
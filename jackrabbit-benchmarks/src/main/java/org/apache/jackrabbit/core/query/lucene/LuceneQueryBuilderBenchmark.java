@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.query.Query;
+
+import org.apache.jackrabbit.core.BenchmarkRepository;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.spi.commons.query.QueryParser;
+import org.apache.jackrabbit.spi.commons.query.QueryRootNode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the translation of parsed XPath query trees into Lucene queries
+ * by {@link LuceneQueryBuilder#createQuery}. Parsing of the statement is
+ * measured separately so the two costs can be told apart.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class LuceneQueryBuilderBenchmark {
+
+    @Param({
+        "//element(*, nt:unstructured)[@count = 3]",
+        "/jcr:root/benchmark//*[jcr:contains(., 'depth') and @count > 2] order by @created descending",
+        "/jcr:root/benchmark/node1/node2/*[@title = 'Node 3 at depth 2' or @tags = 'c4']"
+    })
+    public String statement;
+
+    private BenchmarkRepository repository;
+
+    private SessionImpl session;
+
+    private SearchIndex index;
+
+    private QueryRootNode root;
+
+    @Setup
+    public void setUp() throws Exception {
+        repository = new BenchmarkRepository(2, 8);
+        session = repository.getSession();
+        index = (SearchIndex) repository.getQueryHandler();
+        root = parse();
+    }
+
+    @TearDown
+    public void tearDown() {
+        repository.dispose();
+    }
+
+    @Benchmark
+    public QueryRootNode parse() throws Exception {
+        return QueryParser.parse(
+                statement, Query.XPATH, session, index.getQueryNodeFactory());
+    }
+
+    @Benchmark
+    public org.apache.lucene.search.Query createQuery() throws Exception {
+        return LuceneQueryBuilder.createQuery(
+                root, session, index.getContext().getItemStateManager(),
+                index.getNamespaceMappings(), index.getTextAnalyzer(),
+                index.getContext().getPropertyTypeRegistry(),
+                index.getSynonymProvider(), index.getIndexFormatVersion(),
+                new PerQueryCache());
+    }
+
+}
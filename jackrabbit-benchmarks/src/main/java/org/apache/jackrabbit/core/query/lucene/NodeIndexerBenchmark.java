@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jackrabbit.core.BenchmarkRepository;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ItemStateManager;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.lucene.document.Document;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the creation of Lucene documents for node states through
+ * {@link SearchIndex#createDocument}, which drives {@link NodeIndexer#createDoc()}
+ * with the configuration of the workspace search index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NodeIndexerBenchmark {
+
+    private BenchmarkRepository repository;
+
+    private SearchIndex index;
+
+    private NodeState[] states;
+
+    private int position;
+
+    @Setup
+    public void setUp() throws Exception {
+        repository = new BenchmarkRepository(3, 8);
+        index = (SearchIndex) repository.getQueryHandler();
+
+        ItemStateManager manager = index.getContext().getItemStateManager();
+        List<NodeId> ids = repository.getNodeIds();
+        states = new NodeState[ids.size()];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = (NodeState) manager.getItemState(ids.get(i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        repository.dispose();
+    }
+
+    @Benchmark
+    public Document createDocument() throws Exception {
+        position = (position + 1) % states.length;
+        return index.createDocument(
+                states[position], index.getNamespaceMappings(),
+                index.getIndexFormatVersion());
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jackrabbit.core.BenchmarkRepository;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link SharedItemStateManager#getItemState(org.apache.jackrabbit.core.id.ItemId)}
+ * for node and property states of a populated workspace. Run with
+ * <code>-t</code> greater than one to observe contention on the shared
+ * item state cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+@State(Scope.Benchmark)
+public class SharedItemStateManagerBenchmark {
+
+    private BenchmarkRepository repository;
+
+    private SharedItemStateManager manager;
+
+    private NodeId[] nodeIds;
+
+    private PropertyId[] propertyIds;
+
+    @Setup
+    public void setUp() throws Exception {
+        repository = new BenchmarkRepository(4, 8);
+        manager = repository.getSharedItemStateManager();
+
+        List<NodeId> ids = repository.getNodeIds();
+        nodeIds = ids.toArray(new NodeId[ids.size()]);
+        propertyIds = new PropertyId[nodeIds.length - 1];
+        for (int i = 1; i < nodeIds.length; i++) {
+            propertyIds[i - 1] = new PropertyId(
+                    nodeIds[i], NameFactoryImpl.getInstance().create("", "title"));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        repository.dispose();
+    }
+
+    /**
+     * Per-thread cursor so that concurrent threads walk different ids.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int position = (int) (Math.random() * Integer.MAX_VALUE);
+
+        int next(int length) {
+            position = (position + 1) & Integer.MAX_VALUE;
+            return position % length;
+        }
+
+    }
+
+    @Benchmark
+    public ItemState getNodeState(Cursor cursor) throws Exception {
+        return manager.getItemState(nodeIds[cursor.next(nodeIds.length)]);
+    }
+
+    @Benchmark
+    public ItemState getPropertyState(Cursor cursor) throws Exception {
+        return manager.getItemState(propertyIds[cursor.next(propertyIds.length)]);
+    }
+
+    @Benchmark
+    public boolean hasNodeState(Cursor cursor) {
+        return manager.hasItemState(nodeIds[cursor.next(nodeIds.length)]);
+    }
+
+}
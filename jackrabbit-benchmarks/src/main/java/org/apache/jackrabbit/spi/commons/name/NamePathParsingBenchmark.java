@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.spi.commons.name;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.NameFactory;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.PathFactory;
+import org.apache.jackrabbit.spi.commons.conversion.DefaultNamePathResolver;
+import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceMapping;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing of names and paths, both from their internal string
+ * form through {@link NameFactoryImpl} and {@link PathFactoryImpl} and from
+ * their JCR form through an uncached {@link NamePathResolver}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NamePathParsingBenchmark {
+
+    private static final NameFactory NAME_FACTORY = NameFactoryImpl.getInstance();
+
+    private static final PathFactory PATH_FACTORY = PathFactoryImpl.getInstance();
+
+    private final String expandedName = "{http://www.jcp.org/jcr/1.0}content";
+
+    private final String jcrName = "jcr:content";
+
+    private final String jcrPath = "/content/site/en/products[2]/jcr:content/par/text";
+
+    private String internalPath;
+
+    private NamePathResolver resolver;
+
+    @Setup
+    public void setUp() throws Exception {
+        NamespaceMapping mapping = new NamespaceMapping();
+        mapping.setMapping("", "");
+        mapping.setMapping("jcr", "http://www.jcp.org/jcr/1.0");
+        resolver = new DefaultNamePathResolver(mapping, false);
+        internalPath = resolver.getQPath(jcrPath).getString();
+    }
+
+    @Benchmark
+    public Name createName() {
+        return NAME_FACTORY.create(expandedName);
+    }
+
+    @Benchmark
+    public Path createPath() {
+        return PATH_FACTORY.create(internalPath);
+    }
+
+    @Benchmark
+    public Name parseJcrName() throws Exception {
+        return resolver.getQName(jcrName);
+    }
+
+    @Benchmark
+    public Path parseJcrPath() throws Exception {
+        return resolver.getQPath(jcrPath);
+    }
+
+}
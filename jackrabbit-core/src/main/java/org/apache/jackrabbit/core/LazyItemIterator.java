@@ -55,6 +55,9 @@ public class LazyItemIterator implements NodeIterator, PropertyIterator {
     /** Logger instance for this class */
     private static Logger log = LoggerFactory.getLogger(LazyItemIterator.class);
 
+    /** number of child nodes whose states are prefetched at once */
+    private static final int PREFETCH_SIZE = 100;
+
     /**
      * The session context used to access the repository.
      */
@@ -75,6 +78,9 @@ public class LazyItemIterator implements NodeIterator, PropertyIterator {
     /** prefetched item to be returned on <code>{@link #next()}</code> */
     private Item next;
 
+    /** the position up to which child node states have been prefetched */
+    private int prefetchedStates;
+
     /**
      * Creates a new <code>LazyItemIterator</code> instance.
      *
@@ -115,6 +121,9 @@ public class LazyItemIterator implements NodeIterator, PropertyIterator {
         next = null;
         while (next == null && pos < idList.size()) {
             ItemId id = idList.get(pos);
+            if (parentId != null && pos >= prefetchedStates) {
+                prefetchStates();
+            }
             try {
                 if (parentId != null) {
                     next = itemMgr.getNode((NodeId) id, parentId);
@@ -158,6 +167,23 @@ public class LazyItemIterator implements NodeIterator, PropertyIterator {
         }
     }
 
+    /**
+     * Prefetches the states of the next {@link #PREFETCH_SIZE} child nodes,
+     * so that the persistence manager can load them with a few requests
+     * instead of one per node.
+     */
+    private void prefetchStates() {
+        int end = Math.min(idList.size(), pos + PREFETCH_SIZE);
+        if (end - pos > 1) {
+            List<NodeId> ids = new ArrayList<NodeId>(end - pos);
+            for (ItemId id : idList.subList(pos, end)) {
+                ids.add((NodeId) id);
+            }
+            sessionContext.getWorkspace().getItemStateManager().prefetch(ids);
+        }
+        prefetchedStates = end;
+    }
+
     //---------------------------------------------------------< NodeIterator >
     /**
      * {@inheritDoc}
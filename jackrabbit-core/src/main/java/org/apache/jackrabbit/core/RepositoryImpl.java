@@ -2086,7 +2086,8 @@ public class RepositoryImpl extends AbstractRepository
                 throw new RepositoryException(msg, ise);
             }
 
-            dispatcher = new ObservationDispatcher();
+            dispatcher = new ObservationDispatcher(
+                    context.getRepositoryStatistics());
 
             // register the observation factory of that workspace
             delegatingDispatcher.addDispatcher(dispatcher);
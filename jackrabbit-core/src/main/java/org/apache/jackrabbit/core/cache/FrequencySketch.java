@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+/**
+ * Probabilistic estimate of how often keys have been accessed recently,
+ * used by {@link TinyLFUCache} to decide whether a new entry is worth
+ * evicting an existing one. This is a count-min sketch with four 4-bit
+ * counters per key, stored sixteen to a <code>long</code>. All counters
+ * are halved once the number of recorded accesses reaches ten times the
+ * table size, so that the estimate follows changes in the access pattern.
+ * <p>
+ * This class is not thread-safe; {@link TinyLFUCache} only uses it while
+ * holding its eviction lock.
+ */
+class FrequencySketch {
+
+    private static final long[] SEED = {
+        0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L,
+        0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+
+    private static final long ONE_MASK = 0x1111111111111111L;
+
+    private long[] table = new long[1];
+
+    private int sampleSize = 10;
+
+    private int size = 0;
+
+    /**
+     * Grows the sketch so that it can tell apart the frequencies of at
+     * least the given number of keys. Growing the sketch discards all
+     * recorded frequencies.
+     *
+     * @param maximum expected number of distinct keys
+     */
+    void ensureCapacity(long maximum) {
+        int capacity = (int) Math.min(Math.max(maximum, 1), 1 << 30);
+        if (table.length >= capacity) {
+            return;
+        }
+        table = new long[Integer.highestOneBit(capacity - 1) << 1];
+        sampleSize = 10 * table.length;
+        size = 0;
+    }
+
+    /**
+     * Returns the number of keys this sketch is sized for.
+     *
+     * @return sketch capacity
+     */
+    int getCapacity() {
+        return table.length;
+    }
+
+    /**
+     * Returns the estimated number of recent accesses of the given key,
+     * up to a maximum of 15.
+     *
+     * @param key cache key
+     * @return estimated access frequency
+     */
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        int frequency = Integer.MAX_VALUE;
+        for (int i = 0; i < 4; i++) {
+            int index = indexOf(hash, i);
+            int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    /**
+     * Records an access of the given key.
+     *
+     * @param key cache key
+     */
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        int start = (hash & 3) << 2;
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i), start + i);
+        }
+        if (added && ++size >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        int offset = counter << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Halves all counters, so that old accesses gradually lose weight.
+     */
+    private void reset() {
+        int odd = 0;
+        for (int i = 0; i < table.length; i++) {
+            odd += Long.bitCount(table[i] & ONE_MASK);
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        size = (size - (odd >>> 2)) >>> 1;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEED[i]) * SEED[i];
+        h += h >>> 32;
+        return ((int) h) & (table.length - 1);
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+}
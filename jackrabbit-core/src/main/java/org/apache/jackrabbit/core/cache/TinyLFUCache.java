@@ -0,0 +1,780 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent cache with lock-free reads and a W-TinyLFU eviction policy.
+ * <p>
+ * Entries are kept in a {@link ConcurrentHashMap}, so {@link #get(Object)}
+ * never blocks. Reads are recorded in small per-thread-group buffers that
+ * are applied to the eviction policy in batches by whichever thread manages
+ * to acquire the eviction lock; when a buffer is full further reads are
+ * simply not recorded. Writes update the policy directly while holding the
+ * eviction lock.
+ * <p>
+ * New entries are admitted to a small LRU window (1% of the maximum size).
+ * Entries leaving the window compete with the least recently used entry of
+ * the probation segment of the main space, and the one with the lower
+ * estimated access frequency (see {@link FrequencySketch}) is evicted. An
+ * entry in the probation segment that is accessed again is promoted to the
+ * protected segment, which takes up to 80% of the main space. This keeps
+ * frequently used entries cached while one-off accesses, like those of a
+ * traversal over the whole repository, only churn the window.
+ * <p>
+ * The {@link #load(Object, Loader)} method coalesces concurrent loads of
+ * the same missing entry, so that only one thread calls the loader while
+ * the others wait for its result. The {@link #loadAll(Collection, BulkLoader)}
+ * method loads a number of missing entries at once.
+ */
+public class TinyLFUCache<K, V> extends AbstractCache {
+
+    /**
+     * Loads missing cache entries.
+     *
+     * @see TinyLFUCache#load(Object, Loader)
+     */
+    public interface Loader<K, V, E extends Exception> {
+
+        /**
+         * Loads the value for the given key.
+         *
+         * @param key entry key
+         * @return entry value, never <code>null</code>
+         * @throws E if the value could not be loaded
+         */
+        V load(K key) throws E;
+
+        /**
+         * Returns the estimated memory size of a loaded value.
+         *
+         * @param value entry value
+         * @return entry size in bytes
+         */
+        long getSize(V value);
+
+    }
+
+    /**
+     * Loads a number of missing cache entries at once.
+     *
+     * @see TinyLFUCache#loadAll(Collection, BulkLoader)
+     */
+    public interface BulkLoader<K, V, E extends Exception>
+            extends Loader<K, V, E> {
+
+        /**
+         * Loads the values for the given keys.
+         *
+         * @param keys entry keys
+         * @return the loaded values; keys without a value are not cached
+         * @throws E if the values could not be loaded
+         */
+        Map<K, V> loadAll(Collection<K> keys) throws E;
+
+    }
+
+    /**
+     * Lower bound of the expected entry size, used to size the frequency
+     * sketch for the maximum number of entries that fit in the cache.
+     */
+    private static final int ESTIMATED_ENTRY_SIZE = 256;
+
+    /**
+     * Number of read buffers. Threads are mapped to the buffers by their
+     * identifier to spread the contention on the buffer counters.
+     */
+    private static final int NUMBER_OF_READ_BUFFERS =
+        Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1);
+
+    /**
+     * Number of slots in each read buffer; a power of two.
+     */
+    private static final int READ_BUFFER_SIZE = 64;
+
+    /**
+     * Number of pending reads in a buffer after which a reading thread
+     * tries to drain the buffers.
+     */
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 16;
+
+    private static final int DEAD = -1;
+
+    private static final int WINDOW = 0;
+
+    private static final int PROBATION = 1;
+
+    private static final int PROTECTED = 2;
+
+    private final String name;
+
+    private final ConcurrentMap<K, Node<K, V>> data =
+        new ConcurrentHashMap<K, Node<K, V>>();
+
+    /**
+     * Loads that are in progress, see {@link #load(Object, Loader)}.
+     */
+    private final ConcurrentMap<K, Loading<V>> loading =
+        new ConcurrentHashMap<K, Loading<V>>();
+
+    @SuppressWarnings("unchecked")
+    private final ReadBuffer<K, V>[] readBuffers =
+        new ReadBuffer[NUMBER_OF_READ_BUFFERS];
+
+    /**
+     * Guards the eviction policy: the access queues, their sizes and the
+     * frequency sketch. All changes of the cache contents are also made
+     * while holding this lock.
+     */
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final AccessQueue<K, V> window = new AccessQueue<K, V>();
+
+    private final AccessQueue<K, V> probation = new AccessQueue<K, V>();
+
+    private final AccessQueue<K, V> protectedQueue = new AccessQueue<K, V>();
+
+    private final FrequencySketch sketch = new FrequencySketch();
+
+    private long windowSize = 0;
+
+    private long protectedSize = 0;
+
+    public TinyLFUCache(String name) {
+        this.name = name;
+        for (int i = 0; i < readBuffers.length; i++) {
+            readBuffers[i] = new ReadBuffer<K, V>();
+        }
+    }
+
+    /**
+     * Checks if the identified entry is cached. This does not count as an
+     * access of the entry.
+     *
+     * @param key entry key
+     * @return <code>true</code> if the entry is cached,
+     *         <code>false</code> otherwise
+     */
+    public boolean containsKey(K key) {
+        return data.containsKey(key);
+    }
+
+    /**
+     * Returns the identified cache entry.
+     *
+     * @param key entry key
+     * @return entry value, or <code>null</code> if not found
+     */
+    public V get(K key) {
+        recordCacheAccess();
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            recordCacheMiss();
+            return null;
+        }
+        ReadBuffer<K, V> buffer = readBuffers[
+            (int) Thread.currentThread().getId() & (readBuffers.length - 1)];
+        if (buffer.offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * Returns the identified entry, loading and caching it if it is not
+     * cached. Concurrent calls for the same key are coalesced: only one
+     * thread invokes the loader, while the others wait for its result. If
+     * that load fails, a waiting thread retries it with its own loader.
+     * <p>
+     * A loaded value is not cached if the entry is put or removed while it
+     * is being loaded, as it may be outdated by then. Threads waiting for
+     * such a load retry it.
+     * <p>
+     * This method does not record a cache access, as it is meant to be
+     * called after {@link #get(Object)} has returned <code>null</code>.
+     *
+     * @param key entry key
+     * @param loader loads the entry if needed
+     * @return entry value
+     * @throws E if the loader failed
+     */
+    public <E extends Exception> V load(K key, Loader<K, V, E> loader)
+            throws E {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                Node<K, V> node = data.get(key);
+                if (node != null) {
+                    return node.value;
+                }
+
+                Loading<V> mine = new Loading<V>();
+                Loading<V> other = loading.putIfAbsent(key, mine);
+                if (other == null) {
+                    return load(key, loader, mine);
+                }
+
+                while (true) {
+                    try {
+                        other.done.await();
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (other.succeeded && !other.invalidated) {
+                    return other.value;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private <E extends Exception> V load(
+            K key, Loader<K, V, E> loader, Loading<V> mine) throws E {
+        V value = null;
+        boolean succeeded = false;
+        try {
+            // another thread may have completed a load just before we
+            // registered ours
+            Node<K, V> node = data.get(key);
+            if (node != null) {
+                value = node.value;
+            } else {
+                value = loader.load(key);
+                long size = loader.getSize(value);
+                evictionLock.lock();
+                try {
+                    if (!mine.invalidated && value != null) {
+                        putLocked(key, value, size);
+                    }
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
+            succeeded = true;
+            return value;
+        } finally {
+            mine.value = value;
+            mine.succeeded = succeeded;
+            loading.remove(key, mine);
+            mine.done.countDown();
+        }
+    }
+
+    /**
+     * Loads and caches the entries for the given keys that are neither
+     * cached nor already being loaded by another thread. Concurrent calls of
+     * {@link #load(Object, Loader)} for one of these keys wait for this
+     * method to complete instead of loading the entry themselves. As with
+     * single loads, values of entries that are put or removed in the
+     * meantime are not cached, and no cache access is recorded.
+     *
+     * @param keys entry keys
+     * @param loader loads the entries
+     * @throws E if the loader failed
+     */
+    public <E extends Exception> void loadAll(
+            Collection<K> keys, BulkLoader<K, V, E> loader) throws E {
+        Map<K, Loading<V>> mine = new LinkedHashMap<K, Loading<V>>();
+        Map<K, V> values = null;
+        try {
+            for (K key : keys) {
+                if (!data.containsKey(key) && !mine.containsKey(key)) {
+                    Loading<V> l = new Loading<V>();
+                    if (loading.putIfAbsent(key, l) == null) {
+                        mine.put(key, l);
+                    }
+                }
+            }
+            // skip entries whose load completed just before we registered
+            // ours; waiting threads retry and find them in the cache
+            Collection<K> missing = new ArrayList<K>(mine.size());
+            for (K key : mine.keySet()) {
+                if (!data.containsKey(key)) {
+                    missing.add(key);
+                }
+            }
+            if (missing.isEmpty()) {
+                return;
+            }
+
+            values = loader.loadAll(missing);
+            evictionLock.lock();
+            try {
+                for (Map.Entry<K, Loading<V>> entry : mine.entrySet()) {
+                    V value = values.get(entry.getKey());
+                    if (value != null && !entry.getValue().invalidated) {
+                        putLocked(entry.getKey(), value, loader.getSize(value));
+                    }
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        } finally {
+            for (Map.Entry<K, Loading<V>> entry : mine.entrySet()) {
+                Loading<V> l = entry.getValue();
+                if (values != null) {
+                    l.value = values.get(entry.getKey());
+                    l.succeeded = l.value != null;
+                }
+                loading.remove(entry.getKey(), l);
+                l.done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Adds the given entry to the cache.
+     *
+     * @param key entry key
+     * @param value entry value
+     * @param size entry size
+     * @return the previous value, or <code>null</code>
+     */
+    public V put(K key, V value, long size) {
+        evictionLock.lock();
+        try {
+            invalidateLoading(key);
+            return putLocked(key, value, size);
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Adds the given entry to the cache unless it is already cached. Unlike
+     * {@link #put(Object, Object, long)}, this does not invalidate loads of
+     * the entry that are in progress.
+     *
+     * @param key entry key
+     * @param value entry value
+     * @param size entry size
+     * @return the cached value, or <code>null</code> if the given value
+     *         was added
+     */
+    public V putIfAbsent(K key, V value, long size) {
+        Node<K, V> node = data.get(key);
+        if (node != null) {
+            return node.value;
+        }
+        evictionLock.lock();
+        try {
+            node = data.get(key);
+            if (node != null) {
+                return node.value;
+            }
+            putLocked(key, value, size);
+            return null;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the identified entry from the cache.
+     *
+     * @param key entry key
+     * @return removed entry, or <code>null</code> if not found
+     */
+    public V remove(K key) {
+        if (!data.containsKey(key) && !loading.containsKey(key)) {
+            // nothing to remove or invalidate
+            return null;
+        }
+        evictionLock.lock();
+        try {
+            invalidateLoading(key);
+            Node<K, V> node = data.remove(key);
+            if (node != null) {
+                unlink(node);
+                return node.value;
+            } else {
+                return null;
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear() {
+        evictionLock.lock();
+        try {
+            for (Loading<V> l : loading.values()) {
+                l.invalidated = true;
+            }
+            drainReadBuffers();
+            for (Node<K, V> node : data.values()) {
+                unlink(node);
+            }
+            data.clear();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    /**
+     * Checks if the cache size is zero.
+     */
+    public boolean isEmpty() {
+        return data.isEmpty();
+    }
+
+    /**
+     * Sets the maximum size of the cache and evicts any excess items until
+     * the current size falls within the given limit.
+     */
+    @Override
+    public void setMaxMemorySize(long size) {
+        evictionLock.lock();
+        try {
+            super.setMaxMemorySize(size);
+            sketch.ensureCapacity(size / ESTIMATED_ENTRY_SIZE);
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    public long getElementCount() {
+        return data.size();
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + getClass().getSimpleName() + "@"
+                + Integer.toHexString(hashCode()) + "]";
+    }
+
+    //----------------------------------------------------------< internal >
+
+    /**
+     * Marks a load in progress for the given key as outdated. Must be
+     * called while holding the eviction lock.
+     */
+    private void invalidateLoading(K key) {
+        Loading<V> l = loading.get(key);
+        if (l != null) {
+            l.invalidated = true;
+        }
+    }
+
+    /**
+     * Adds an entry to the window and evicts excess entries. Must be
+     * called while holding the eviction lock.
+     */
+    private V putLocked(K key, V value, long size) {
+        drainReadBuffers();
+
+        Node<K, V> node = new Node<K, V>(key, value, size);
+        Node<K, V> previous = data.put(key, node);
+        if (previous != null) {
+            unlink(previous);
+        }
+        node.queue = WINDOW;
+        window.add(node);
+        windowSize += size;
+        recordSizeChange(size);
+
+        if (data.size() > sketch.getCapacity()) {
+            sketch.ensureCapacity(2L * data.size());
+        }
+        sketch.increment(key);
+
+        evict();
+        return previous != null ? previous.value : null;
+    }
+
+    /**
+     * Applies all recorded reads to the eviction policy. Must be called
+     * while holding the eviction lock.
+     */
+    private void drainReadBuffers() {
+        for (ReadBuffer<K, V> buffer : readBuffers) {
+            buffer.drain(this);
+        }
+    }
+
+    /**
+     * Records an access of a cached entry in the eviction policy. Must be
+     * called while holding the eviction lock.
+     */
+    private void onAccess(Node<K, V> node) {
+        if (node.queue == DEAD) {
+            // evicted, removed or replaced since it was read
+            return;
+        }
+        sketch.increment(node.key);
+        if (node.queue == WINDOW) {
+            window.moveToEnd(node);
+        } else if (node.queue == PROBATION) {
+            probation.remove(node);
+            node.queue = PROTECTED;
+            protectedQueue.add(node);
+            protectedSize += node.size;
+            long maxProtected = (getMaxMemorySize() - getMaxWindowSize()) / 5 * 4;
+            while (protectedSize > maxProtected
+                    && protectedQueue.head != node) {
+                Node<K, V> demoted = protectedQueue.head;
+                protectedQueue.remove(demoted);
+                protectedSize -= demoted.size;
+                demoted.queue = PROBATION;
+                probation.add(demoted);
+            }
+        } else {
+            protectedQueue.moveToEnd(node);
+        }
+    }
+
+    /**
+     * Moves entries that overflow the window to the probation segment and
+     * evicts entries until the cache is small enough. An entry leaving the
+     * window is evicted instead of the probation victim unless it has been
+     * accessed more often, so ties favour the entries already in the main
+     * space. Must be called while holding the eviction lock.
+     */
+    private void evict() {
+        long maxWindow = getMaxWindowSize();
+        while (windowSize > maxWindow && window.head != null) {
+            Node<K, V> candidate = window.head;
+            window.remove(candidate);
+            windowSize -= candidate.size;
+            candidate.queue = PROBATION;
+            probation.add(candidate);
+
+            while (isTooBig()) {
+                Node<K, V> victim = probation.head;
+                if (victim == candidate
+                        || sketch.frequency(candidate.key)
+                            <= sketch.frequency(victim.key)) {
+                    evict(candidate);
+                    break;
+                }
+                evict(victim);
+            }
+        }
+
+        // the window and the protected segment may still be too large
+        while (isTooBig()) {
+            Node<K, V> victim = probation.head;
+            if (victim == null) {
+                victim = protectedQueue.head;
+            }
+            if (victim == null) {
+                victim = window.head;
+            }
+            if (victim == null) {
+                break;
+            }
+            evict(victim);
+        }
+    }
+
+    private void evict(Node<K, V> node) {
+        data.remove(node.key, node);
+        unlink(node);
+    }
+
+    /**
+     * Removes an entry from its access queue and updates the sizes. Must be
+     * called while holding the eviction lock.
+     */
+    private void unlink(Node<K, V> node) {
+        if (node.queue == WINDOW) {
+            window.remove(node);
+            windowSize -= node.size;
+        } else if (node.queue == PROBATION) {
+            probation.remove(node);
+        } else if (node.queue == PROTECTED) {
+            protectedQueue.remove(node);
+            protectedSize -= node.size;
+        } else {
+            return;
+        }
+        node.queue = DEAD;
+        recordSizeChange(-node.size);
+    }
+
+    private long getMaxWindowSize() {
+        return getMaxMemorySize() / 100;
+    }
+
+    private static final class Node<K, V> {
+
+        private final K key;
+
+        private final V value;
+
+        private final long size;
+
+        /**
+         * The access queue this entry is linked in, or {@link #DEAD}.
+         * Guarded by the eviction lock, as are the links.
+         */
+        private int queue = DEAD;
+
+        private Node<K, V> previous;
+
+        private Node<K, V> next;
+
+        Node(K key, V value, long size) {
+            this.key = key;
+            this.value = value;
+            this.size = size;
+        }
+
+    }
+
+    /**
+     * Doubly linked list of entries, from the least to the most recently
+     * used one.
+     */
+    private static final class AccessQueue<K, V> {
+
+        private Node<K, V> head;
+
+        private Node<K, V> tail;
+
+        void add(Node<K, V> node) {
+            node.previous = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.previous == null) {
+                head = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+        }
+
+        void moveToEnd(Node<K, V> node) {
+            if (node != tail) {
+                remove(node);
+                add(node);
+            }
+        }
+
+    }
+
+    /**
+     * Bounded buffer of recorded reads. Any number of threads may offer
+     * entries, but only the holder of the eviction lock drains the buffer.
+     * Reads are dropped when the buffer is full.
+     */
+    private static final class ReadBuffer<K, V> {
+
+        private final AtomicReferenceArray<Node<K, V>> slots =
+            new AtomicReferenceArray<Node<K, V>>(READ_BUFFER_SIZE);
+
+        private final AtomicLong writes = new AtomicLong();
+
+        /**
+         * Number of drained slots. Only written while holding the eviction
+         * lock.
+         */
+        private volatile long reads = 0;
+
+        /**
+         * Records a read of the given entry.
+         *
+         * @return <code>true</code> if the buffer should be drained
+         */
+        boolean offer(Node<K, V> node) {
+            long w = writes.get();
+            long pending = w - reads;
+            if (pending >= READ_BUFFER_SIZE) {
+                return true;
+            }
+            if (writes.compareAndSet(w, w + 1)) {
+                slots.lazySet((int) w & (READ_BUFFER_SIZE - 1), node);
+                pending++;
+            }
+            return pending >= READ_BUFFER_DRAIN_THRESHOLD;
+        }
+
+        void drain(TinyLFUCache<K, V> cache) {
+            long r = reads;
+            long w = writes.get();
+            for (; r < w; r++) {
+                int index = (int) r & (READ_BUFFER_SIZE - 1);
+                Node<K, V> node = slots.get(index);
+                if (node == null) {
+                    // claimed, but not yet written
+                    break;
+                }
+                slots.lazySet(index, null);
+                cache.onAccess(node);
+            }
+            reads = r;
+        }
+
+    }
+
+    /**
+     * A load in progress.
+     */
+    private static final class Loading<V> {
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile V value;
+
+        private volatile boolean succeeded;
+
+        /**
+         * Set if the entry was put or removed during the load. Only written
+         * while holding the eviction lock.
+         */
+        private volatile boolean invalidated;
+
+    }
+
+}
@@ -16,10 +16,20 @@
  */
 package org.apache.jackrabbit.core.cluster;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.jcr.RepositoryException;
@@ -37,6 +47,7 @@ import org.apache.jackrabbit.core.journal.RecordProducer;
 import org.apache.jackrabbit.core.nodetype.InvalidNodeTypeDefException;
 import org.apache.jackrabbit.core.observation.EventState;
 import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.version.InternalVersionManagerImpl;
 import org.apache.jackrabbit.core.xml.ClonedInputSource;
 import org.apache.jackrabbit.spi.PrivilegeDefinition;
@@ -52,13 +63,36 @@ import EDU.oswego.cs.dl.util.concurrent.Mutex;
  */
 public class ClusterNode implements Runnable,
         NamespaceEventChannel, NodeTypeEventChannel, RecordConsumer,
-        ClusterRecordProcessor, WorkspaceEventChannel, PrivilegeEventChannel  {
+        ClusterRecordProcessor, WorkspaceEventChannel, PrivilegeEventChannel,
+        RevisionListener {
 
     /**
      * System property specifying a node id to use.
      */
     public static final String SYSTEM_PROPERTY_NODE_ID = "org.apache.jackrabbit.core.cluster.node_id";
 
+    /**
+     * System property specifying the number of update records a
+     * synchronization must find before it switches to catch-up mode, in which
+     * consecutive updates of a workspace are applied together and the updates
+     * of different workspaces are applied concurrently. A value of zero
+     * disables catch-up mode.
+     */
+    public static final String SYSTEM_PROPERTY_CATCH_UP_THRESHOLD =
+        "org.apache.jackrabbit.core.cluster.catchUpThreshold";
+
+    /**
+     * System property specifying the number of threads applying workspace
+     * updates in catch-up mode.
+     */
+    public static final String SYSTEM_PROPERTY_CATCH_UP_THREADS =
+        "org.apache.jackrabbit.core.cluster.catchUpThreads";
+
+    /**
+     * Revision marker used when no record has been applied yet.
+     */
+    private static final long NO_REVISION = Long.MIN_VALUE;
+
     /**
      * Producer identifier.
      */
@@ -119,6 +153,17 @@ public class ClusterNode implements Runnable,
      */
     private Thread syncThread;
 
+    /**
+     * Monitor the synchronization thread waits on between synchronizations.
+     */
+    private final Object syncSignal = new Object();
+
+    /**
+     * Flag indicating whether a notification requested an immediate
+     * synchronization, guarded by {@link #syncSignal}.
+     */
+    private boolean syncRequested;
+
     /**
      * Mutex used when syncing.
      */
@@ -203,6 +248,66 @@ public class ClusterNode implements Runnable,
      */
     private boolean disableAutoSync;
 
+    /**
+     * Channel notifying other cluster nodes about new revisions, or
+     * <code>null</code>.
+     */
+    private NotificationChannel notificationChannel;
+
+    /**
+     * Number of update records from which on a synchronization switches to
+     * catch-up mode.
+     */
+    private int catchUpThreshold =
+        Integer.getInteger(SYSTEM_PROPERTY_CATCH_UP_THRESHOLD, 100);
+
+    /**
+     * Number of threads applying workspace updates in catch-up mode.
+     */
+    private int catchUpThreads =
+        Integer.getInteger(SYSTEM_PROPERTY_CATCH_UP_THREADS, 4);
+
+    /**
+     * Thread currently synchronizing through {@link #sync()} or
+     * {@link #syncOnStartup()}, or <code>null</code>. Update records are only
+     * applied in catch-up mode by this thread.
+     */
+    private volatile Thread catchUpThread;
+
+    /**
+     * Update records read but not yet applied by the current synchronization.
+     */
+    private final List<ChangeLogRecord> pendingRecords = new ArrayList<ChangeLogRecord>();
+
+    /**
+     * Flag indicating whether the current synchronization is in catch-up mode.
+     */
+    private boolean catchingUp;
+
+    /**
+     * Revision of the last record applied by the current synchronization.
+     */
+    private long appliedRevision = NO_REVISION;
+
+    /**
+     * Flag indicating whether the current synchronization failed to apply
+     * a record.
+     */
+    private boolean syncFailed;
+
+    /**
+     * Revisions of update records that were applied in catch-up mode after
+     * a record of another workspace had failed. The next synchronization
+     * reads them again, but skips them.
+     */
+    private final Set<Long> appliedAhead =
+        Collections.synchronizedSet(new HashSet<Long>());
+
+    /**
+     * Executor applying workspace updates in catch-up mode, created lazily.
+     */
+    private ExecutorService catchUpExecutor;
+
     /**
      * Initialize this cluster node.
      *
@@ -231,6 +336,7 @@ public class ClusterNode implements Runnable,
             instanceRevision = journal.getInstanceRevision();
             journal.register(this);
             producer = journal.getProducer(PRODUCER_ID);
+            notificationChannel = cc.getNotificationChannel();
         } catch (RepositoryException e) {
             throw new ClusterException(
                     "Cluster initialization failed: " + this, e);
@@ -260,6 +366,25 @@ public class ClusterNode implements Runnable,
         return stopDelay;
     }
     
+    /**
+     * Set the number of update records a synchronization must find before
+     * it switches to catch-up mode. A value of zero disables catch-up mode.
+     *
+     * @param catchUpThreshold number of update records
+     */
+    public void setCatchUpThreshold(int catchUpThreshold) {
+        this.catchUpThreshold = catchUpThreshold;
+    }
+
+    /**
+     * Set the number of threads applying workspace updates in catch-up mode.
+     *
+     * @param catchUpThreads number of threads
+     */
+    public void setCatchUpThreads(int catchUpThreads) {
+        this.catchUpThreads = catchUpThreads;
+    }
+
     /**
      * Disable periodic background synchronization. Used for testing purposes, only.
      */
@@ -282,17 +407,27 @@ public class ClusterNode implements Runnable,
                 t.start();
                 syncThread = t;
             }
+            if (notificationChannel != null) {
+                notificationChannel.start(clusterNodeId, this);
+            }
             status = STARTED;
         }
     }
 
     /**
-     * Run loop that will sync this node after some delay.
+     * Run loop that will sync this node after some delay, or as soon as
+     * another cluster node notifies about new revisions.
      */
     public void run() {
         for (;;) {
             try {
-                if (stopLatch.attempt(syncDelay)) {
+                synchronized (syncSignal) {
+                    if (!syncRequested && syncDelay > 0) {
+                        syncSignal.wait(syncDelay);
+                    }
+                    syncRequested = false;
+                }
+                if (stopLatch.attempt(0)) {
                     break;
                 }
             } catch (InterruptedException e) {
@@ -337,7 +472,15 @@ public class ClusterNode implements Runnable,
             // while we were waiting to acquire the syncLock.
             if (count == syncCount.get()) {
                 syncCount.incrementAndGet();
-                journal.sync(startup);
+                catchUpThread = Thread.currentThread();
+                try {
+                    journal.sync(startup);
+                } finally {
+                    catchUpThread = null;
+                    // records left over by a failed synchronization are read
+                    // again by the next one, as the revision was not updated
+                    resetCatchUp();
+                }
             }
         } catch (JournalException e) {
             throw new ClusterException(e.getMessage(), e.getCause());
@@ -373,6 +516,10 @@ public class ClusterNode implements Runnable,
             status = STOPPED;
 
             stopLatch.release();
+            requestSync();
+            if (notificationChannel != null) {
+                notificationChannel.close();
+            }
 
             // Give synchronization thread some time to finish properly before
             // closing down the journal (see JCR-1553)
@@ -384,6 +531,11 @@ public class ClusterNode implements Runnable,
                     log.warn(msg);
                 }
             }
+            synchronized (this) {
+                if (catchUpExecutor != null) {
+                    catchUpExecutor.shutdown();
+                }
+            }
             if (journal != null) {
                 journal.close();
             }
@@ -440,6 +592,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            notifyRevision(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -476,6 +629,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            notifyRevision(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -506,6 +660,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            notifyRevision(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -536,6 +691,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            notifyRevision(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -575,6 +731,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            notifyRevision(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -609,6 +766,11 @@ public class ClusterNode implements Runnable,
          */
         private static final String ATTRIBUTE_UPDATE_SIZE = "updateSize";
 
+        /**
+         * Attribute name used to store the record whose commit is pending.
+         */
+        private static final String ATTRIBUTE_PENDING_RECORD = "pendingRecord";
+
         /**
          * Workspace name.
          */
@@ -701,7 +863,8 @@ public class ClusterNode implements Runnable,
                 long recordRevision = record.getRevision();
                 setRevision(recordRevision);
 
-                long journalUpdateSize = record.update();
+                long journalUpdateSize = record.updateDeferred();
+                update.setAttribute(ATTRIBUTE_PENDING_RECORD, record);
 
                 log.debug("Stored record '{}' to Journal ({})", recordRevision, journalUpdateSize);
 
@@ -723,6 +886,28 @@ public class ClusterNode implements Runnable,
             }
         }
 
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Waits until the journal has committed the record of the update,
+         * then notifies the other cluster nodes about its revision.
+         */
+        @Override
+        public void updateFinished(Update update) throws ClusterException {
+            Record record = (Record) update.getAttribute(ATTRIBUTE_PENDING_RECORD);
+            if (record == null) {
+                return;
+            }
+            update.setAttribute(ATTRIBUTE_PENDING_RECORD, null);
+            try {
+                record.awaitCommit();
+            } catch (JournalException e) {
+                String msg = "Unable to commit log entry: " + e.getMessage();
+                throw new ClusterException(msg, e);
+            }
+            notifyRevision(record.getRevision());
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -858,17 +1043,53 @@ public class ClusterNode implements Runnable,
         log.info("Processing revision: " + record.getRevision());
 
         try {
-            deserializer.deserialize(record).process(this);
+            ClusterRecord clusterRecord = deserializer.deserialize(record);
+            if (clusterRecord instanceof ChangeLogRecord && catchUpThreshold > 0
+                    && catchUpThread == Thread.currentThread()) {
+                pendingRecords.add((ChangeLogRecord) clusterRecord);
+                if (pendingRecords.size() >= catchUpThreshold) {
+                    catchingUp = true;
+                    applyPendingRecords();
+                }
+                return;
+            }
+            applyPendingRecords();
+            if (appliedAhead.remove(record.getRevision())) {
+                log.debug("Revision {} has already been applied.", record.getRevision());
+            } else {
+                clusterRecord.process(this);
+            }
         } catch (JournalException e) {
             String msg = "Unable to read revision '" + record.getRevision() + "'.";
             log.error(msg, e);
         }
+        appliedRevision = record.getRevision();
     }
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Update records still pending are applied first. If the current
+     * synchronization failed to apply a record, the revision is only
+     * advanced up to the last record applied.
      */
     public void setRevision(long revision) {
+        if (catchUpThread == Thread.currentThread()) {
+            try {
+                applyPendingRecords();
+            } catch (IllegalStateException e) {
+                log.error("Could not synchronize to revision " + revision + ".", e);
+            }
+            boolean failed = syncFailed;
+            long applied = appliedRevision;
+            resetCatchUp();
+            if (failed) {
+                if (applied == NO_REVISION) {
+                    return;
+                }
+                revision = applied;
+            }
+        }
         try {
             instanceRevision.set(revision);
         } catch (JournalException e) {
@@ -876,14 +1097,63 @@ public class ClusterNode implements Runnable,
         }
     }
 
+    //-------------------------------------------------------- RevisionListener
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Wakes up the synchronization thread, unless the revision is already
+     * known to this cluster node.
+     */
+    public void revisionAppended(String clusterNodeId, long revision) {
+        if (revision > getRevision()) {
+            log.debug("Revision {} appended by cluster node {}", revision, clusterNodeId);
+            requestSync();
+        }
+    }
+
+    /**
+     * Requests an immediate synchronization by the synchronization thread.
+     */
+    private void requestSync() {
+        synchronized (syncSignal) {
+            syncRequested = true;
+            syncSignal.notifyAll();
+        }
+    }
+
+    /**
+     * Notifies the other cluster nodes about a record appended by this node.
+     *
+     * @param revision revision of the appended record
+     */
+    private void notifyRevision(long revision) {
+        if (notificationChannel != null) {
+            notificationChannel.notifyRevision(revision);
+        }
+    }
+
     //--------------------------------------------------- ClusterRecordProcessor
 
     /**
      * {@inheritDoc}
      */
     public void process(ChangeLogRecord record) {
-        String workspace = record.getWorkspace();
+        UpdateEventListener listener = getUpdateListener(record.getWorkspace());
+        if (listener != null) {
+            externalUpdate(listener, Collections.singletonList(record));
+        }
+    }
 
+    /**
+     * Returns the listener receiving the updates of a workspace, making the
+     * workspace available if necessary.
+     *
+     * @param workspace workspace name, or <code>null</code> for the version
+     *                  storage
+     * @return update listener, or <code>null</code> if not available
+     */
+    private UpdateEventListener getUpdateListener(String workspace) {
         UpdateEventListener listener = null;
         if (workspace != null) {
             listener = wspUpdateListeners.get(workspace);
@@ -899,7 +1169,6 @@ public class ClusterNode implements Runnable,
                 if (listener ==  null) {
                     String msg = "Update listener unavailable for workspace: " + workspace;
                     log.error(msg);
-                    return;
                 }
             }
         } else {
@@ -908,22 +1177,41 @@ public class ClusterNode implements Runnable,
             } else {
                 String msg = "Version update listener unavailable.";
                 log.error(msg);
-                return;
             }
         }
+        return listener;
+    }
+
+    /**
+     * Delivers update records of the same workspace to its listener. Multiple
+     * records are delivered as one update, containing all changes and events.
+     *
+     * @param listener update listener
+     * @param records update records, in revision order
+     * @throws IllegalStateException if the listener is in an illegal state
+     */
+    private void externalUpdate(UpdateEventListener listener, List<ChangeLogRecord> records) {
+        ChangeLogRecord last = records.get(records.size() - 1);
         try {
-            List<EventState> eventStates = record.getEvents();
+            List<EventState> events = new ArrayList<EventState>();
+            for (ChangeLogRecord record : records) {
+                List<EventState> eventStates = record.getEvents();
 
-            String path = getFirstUserId(eventStates)
-                    + "@" + workspace
-                    + ":" + EventState.getCommonPath(eventStates, null);
+                String path = getFirstUserId(eventStates)
+                        + "@" + record.getWorkspace()
+                        + ":" + EventState.getCommonPath(eventStates, null);
 
-            updateCount.compareAndSet(Integer.MAX_VALUE, 0);
-           	auditLogger.info("[{}] {} {}", new Object[]{updateCount.incrementAndGet(), 
-                    record.getRevision(), path});
+                updateCount.compareAndSet(Integer.MAX_VALUE, 0);
+               	auditLogger.info("[{}] {} {}", new Object[]{updateCount.incrementAndGet(), 
+                        record.getRevision(), path});
 
-            listener.externalUpdate(record.getChanges(), eventStates,
-                    record.getTimestamp(), record.getUserData());
+                events.addAll(eventStates);
+            }
+            ChangeLog changes = records.size() == 1
+                    ? last.getChanges() : mergeChanges(records);
+
+            listener.externalUpdate(changes, events,
+                    last.getTimestamp(), last.getUserData());
         } catch (RepositoryException e) {
             String msg = "Unable to deliver update events: " + e.getMessage();
             log.error(msg);
@@ -933,6 +1221,271 @@ public class ClusterNode implements Runnable,
         }
     }
 
+    /**
+     * Merges the changes of multiple update records of the same workspace.
+     * An item deleted by the last record touching it is reported as deleted,
+     * any other item as modified, so that cached states are reloaded even if
+     * the item had been added by one of the records.
+     *
+     * @param records update records, in revision order
+     * @return merged changes
+     */
+    private static ChangeLog mergeChanges(List<ChangeLogRecord> records) {
+        Map<Object, ItemState> modified = new LinkedHashMap<Object, ItemState>();
+        Map<Object, ItemState> deleted = new LinkedHashMap<Object, ItemState>();
+        for (ChangeLogRecord record : records) {
+            ChangeLog changes = record.getChanges();
+            for (ItemState state : changes.addedStates()) {
+                deleted.remove(state.getId());
+                modified.put(state.getId(), state);
+            }
+            for (ItemState state : changes.modifiedStates()) {
+                deleted.remove(state.getId());
+                modified.put(state.getId(), state);
+            }
+            for (ItemState state : changes.deletedStates()) {
+                modified.remove(state.getId());
+                deleted.put(state.getId(), state);
+            }
+        }
+        ChangeLog merged = new ChangeLog();
+        for (ItemState state : modified.values()) {
+            state.setStatus(ItemState.STATUS_EXISTING_MODIFIED);
+            merged.modified(state);
+        }
+        for (ItemState state : deleted.values()) {
+            state.setStatus(ItemState.STATUS_EXISTING_REMOVED);
+            merged.deleted(state);
+        }
+        return merged;
+    }
+
+    /**
+     * Applies the update records read by the current synchronization. In
+     * catch-up mode, consecutive records of a workspace are delivered as one
+     * update and the workspaces are updated concurrently, otherwise records
+     * are applied one by one.
+     *
+     * @throws IllegalStateException if a record could not be applied
+     */
+    private void applyPendingRecords() {
+        if (pendingRecords.isEmpty()) {
+            return;
+        }
+        List<ChangeLogRecord> records = new ArrayList<ChangeLogRecord>(pendingRecords);
+        pendingRecords.clear();
+
+        boolean[] applied = new boolean[records.size()];
+        for (int i = 0; i < applied.length; i++) {
+            applied[i] = appliedAhead.remove(records.get(i).getRevision());
+        }
+        IllegalStateException[] failures = new IllegalStateException[records.size()];
+        if (catchingUp) {
+            applyInCatchUpMode(records, applied, failures);
+        } else {
+            applyRecords(records, applied, failures);
+        }
+        for (int i = 0; i < failures.length; i++) {
+            if (failures[i] != null) {
+                syncFailed = true;
+                if (i > 0) {
+                    appliedRevision = records.get(i - 1).getRevision();
+                }
+                // the records of other workspaces may have been applied
+                // beyond the failed one, remember them to skip them later
+                for (int j = i + 1; j < applied.length; j++) {
+                    if (applied[j]) {
+                        appliedAhead.add(records.get(j).getRevision());
+                    }
+                }
+                throw failures[i];
+            }
+        }
+        appliedRevision = records.get(records.size() - 1).getRevision();
+    }
+
+    /**
+     * Applies update records grouped by workspace. The updates of the
+     * version storage are applied by the current thread, which may hold the
+     * versioning lock, the updates of the other workspaces by the catch-up
+     * executor.
+     *
+     * @param records update records, in revision order
+     * @param applied flags the records that have been applied; records
+     *                already flagged are skipped
+     * @param failures receives the failure of the first record of each
+     *                 workspace that could not be applied
+     */
+    private void applyInCatchUpMode(List<ChangeLogRecord> records,
+            final boolean[] applied, final IllegalStateException[] failures) {
+        Map<String, List<Integer>> workspaces = new LinkedHashMap<String, List<Integer>>();
+        for (int i = 0; i < records.size(); i++) {
+            if (applied[i]) {
+                continue;
+            }
+            String workspace = records.get(i).getWorkspace();
+            List<Integer> indexes = workspaces.get(workspace);
+            if (indexes == null) {
+                indexes = new ArrayList<Integer>();
+                workspaces.put(workspace, indexes);
+            }
+            indexes.add(i);
+        }
+
+        boolean concurrent = workspaces.size() > 1 && catchUpThreads > 1;
+        Map<Future<?>, List<Integer>> futures = new LinkedHashMap<Future<?>, List<Integer>>();
+        Map<Runnable, List<Integer>> inline = new LinkedHashMap<Runnable, List<Integer>>();
+        for (Map.Entry<String, List<Integer>> entry : workspaces.entrySet()) {
+            final UpdateEventListener listener = getUpdateListener(entry.getKey());
+            if (listener == null) {
+                continue;
+            }
+            final List<Integer> indexes = entry.getValue();
+            final List<ChangeLogRecord> list = new ArrayList<ChangeLogRecord>();
+            for (int index : indexes) {
+                list.add(records.get(index));
+            }
+            Runnable task = new Runnable() {
+                public void run() {
+                    applyBatches(listener, list, indexes, applied, failures);
+                }
+            };
+            if (concurrent && entry.getKey() != null) {
+                futures.put(getCatchUpExecutor().submit(task), indexes);
+            } else {
+                inline.put(task, indexes);
+            }
+        }
+        for (Map.Entry<Runnable, List<Integer>> entry : inline.entrySet()) {
+            try {
+                entry.getKey().run();
+            } catch (RuntimeException e) {
+                unexpectedFailure(e, entry.getValue(), applied, failures);
+            }
+        }
+        for (Map.Entry<Future<?>, List<Integer>> entry : futures.entrySet()) {
+            try {
+                entry.getKey().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while applying updates.", e);
+            } catch (ExecutionException e) {
+                unexpectedFailure(e.getCause(), entry.getValue(), applied, failures);
+            }
+        }
+    }
+
+    /**
+     * Records an unexpected failure while applying the update records of a
+     * workspace at the index of its first record that has not been applied.
+     *
+     * @param cause cause of the failure
+     * @param indexes indexes of the records of the workspace
+     * @param applied flags the records that have been applied
+     * @param failures receives the failure
+     */
+    private static void unexpectedFailure(Throwable cause, List<Integer> indexes,
+            boolean[] applied, IllegalStateException[] failures) {
+        String msg = "Unexpected error while applying updates.";
+        log.error(msg, cause);
+        for (int index : indexes) {
+            if (!applied[index]) {
+                failures[index] = new IllegalStateException(msg, cause);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies the update records of one workspace, delivering consecutive
+     * records with the same user data as one update. Stops at the first
+     * update that fails.
+     *
+     * @param listener update listener
+     * @param records update records of the workspace, in revision order
+     * @param indexes indexes of the records among all pending records
+     * @param applied flags the records that have been applied
+     * @param failures receives the failure at the index of the first record
+     *                 of the failed update
+     */
+    private void applyBatches(UpdateEventListener listener, List<ChangeLogRecord> records,
+            List<Integer> indexes, boolean[] applied, IllegalStateException[] failures) {
+        int start = 0;
+        while (start < records.size()) {
+            String userData = records.get(start).getUserData();
+            int end = start + 1;
+            while (end < records.size() && (userData == null
+                    ? records.get(end).getUserData() == null
+                    : userData.equals(records.get(end).getUserData()))) {
+                end++;
+            }
+            try {
+                externalUpdate(listener, records.subList(start, end));
+            } catch (IllegalStateException e) {
+                failures[indexes.get(start)] = e;
+                return;
+            }
+            for (; start < end; start++) {
+                applied[indexes.get(start)] = true;
+            }
+        }
+    }
+
+    /**
+     * Applies update records one by one, stopping at the first record that
+     * fails.
+     *
+     * @param records update records, in revision order
+     * @param applied flags the records that have been applied; records
+     *                already flagged are skipped
+     * @param failures receives the failure at the index of the failed record
+     */
+    private void applyRecords(List<ChangeLogRecord> records, boolean[] applied,
+            IllegalStateException[] failures) {
+        for (int i = 0; i < records.size(); i++) {
+            if (applied[i]) {
+                continue;
+            }
+            try {
+                records.get(i).process(this);
+                applied[i] = true;
+            } catch (IllegalStateException e) {
+                failures[i] = e;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the executor applying workspace updates in catch-up mode.
+     *
+     * @return executor
+     */
+    private synchronized ExecutorService getCatchUpExecutor() {
+        if (catchUpExecutor == null) {
+            catchUpExecutor = Executors.newFixedThreadPool(catchUpThreads, new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ClusterNode-CatchUp-" + clusterNodeId
+                            + "-" + counter.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return catchUpExecutor;
+    }
+
+    /**
+     * Resets the state of the current synchronization.
+     */
+    private void resetCatchUp() {
+        pendingRecords.clear();
+        catchingUp = false;
+        appliedRevision = NO_REVISION;
+        syncFailed = false;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -1073,6 +1626,7 @@ public class ClusterNode implements Runnable,
             record.write();
             record.update();
             setRevision(record.getRevision());
+            notifyRevision(record.getRevision());
             succeeded = true;
         } catch (JournalException e) {
             String msg = "Unable to create log entry: " + e.getMessage();
@@ -1106,6 +1660,7 @@ public class ClusterNode implements Runnable,
                 record.write();
                 record.update();
                 setRevision(record.getRevision());
+                notifyRevision(record.getRevision());
                 succeeded = true;
             }
         } catch (JournalException e) {
@@ -0,0 +1,201 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Notification channel sending UDP datagrams to a fixed list of peers. Each
+ * datagram contains the id of the sending cluster node and the appended
+ * revision. It is configured through the following properties:
+ * <ul>
+ * <li><code>port</code>: the UDP port to receive notifications on; if not
+ * specified, an ephemeral port is used</li>
+ * <li><code>peers</code>: comma separated list of <code>host:port</code>
+ * addresses of the other cluster nodes</li>
+ * </ul>
+ */
+public class DatagramNotificationChannel implements NotificationChannel, Runnable {
+
+    /**
+     * Logger.
+     */
+    private static Logger log = LoggerFactory.getLogger(DatagramNotificationChannel.class);
+
+    /**
+     * Maximum size of a notification datagram.
+     */
+    private static final int MAX_PACKET_SIZE = 512;
+
+    /**
+     * Local port, bean property.
+     */
+    private int port;
+
+    /**
+     * Peer addresses, bean property.
+     */
+    private String peers = "";
+
+    /**
+     * Resolved peer addresses.
+     */
+    private final List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+
+    /**
+     * Id of the local cluster node.
+     */
+    private String clusterNodeId;
+
+    /**
+     * Listener of the local cluster node.
+     */
+    private RevisionListener listener;
+
+    /**
+     * Socket used to send and receive notifications.
+     */
+    private DatagramSocket socket;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start(String clusterNodeId, RevisionListener listener)
+            throws ClusterException {
+        this.clusterNodeId = clusterNodeId;
+        this.listener = listener;
+        for (String peer : peers.split(",")) {
+            peer = peer.trim();
+            if (peer.length() > 0) {
+                int colon = peer.lastIndexOf(':');
+                if (colon == -1) {
+                    throw new ClusterException("Invalid peer address: " + peer);
+                }
+                try {
+                    addresses.add(new InetSocketAddress(peer.substring(0, colon),
+                            Integer.parseInt(peer.substring(colon + 1))));
+                } catch (IllegalArgumentException e) {
+                    throw new ClusterException("Invalid peer address: " + peer, e);
+                }
+            }
+        }
+        try {
+            socket = new DatagramSocket(port);
+        } catch (SocketException e) {
+            throw new ClusterException("Unable to open notification socket.", e);
+        }
+        Thread t = new Thread(this, "ClusterNode-Notification-" + clusterNodeId);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void notifyRevision(long revision) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeUTF(clusterNodeId);
+            out.writeLong(revision);
+            byte[] data = buffer.toByteArray();
+            for (InetSocketAddress address : addresses) {
+                socket.send(new DatagramPacket(data, data.length, address));
+            }
+        } catch (IOException e) {
+            log.warn("Unable to send notification for revision " + revision + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Receive loop, runs until the channel is closed.
+     */
+    public void run() {
+        byte[] buffer = new byte[MAX_PACKET_SIZE];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                        packet.getData(), packet.getOffset(), packet.getLength()));
+                String id = in.readUTF();
+                long revision = in.readLong();
+                if (!id.equals(clusterNodeId)) {
+                    listener.revisionAppended(id, revision);
+                }
+            } catch (IOException e) {
+                if (!socket.isClosed()) {
+                    log.warn("Unable to receive notification: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Returns the port notifications are received on.
+     *
+     * @return local port, or <code>-1</code> if the channel is not started
+     */
+    public int getLocalPort() {
+        return socket != null ? socket.getLocalPort() : -1;
+    }
+
+    /**
+     * Bean getters
+     */
+    public int getPort() {
+        return port;
+    }
+
+    public String getPeers() {
+        return peers;
+    }
+
+    /**
+     * Bean setters
+     */
+    public void setPort(int port) {
+        this.port = port;
+    }
+
+    public void setPeers(String peers) {
+        this.peers = peers;
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Notification channel connecting the cluster nodes running inside the same
+ * JVM, mainly useful for testing. Channels are connected if they use the same
+ * name. It is configured through the following properties:
+ * <ul>
+ * <li><code>name</code>: the name of the channel (default = <code>default</code>)</li>
+ * </ul>
+ */
+public class LoopbackNotificationChannel implements NotificationChannel {
+
+    /**
+     * Started channels by their names.
+     */
+    private static final Map<String, List<LoopbackNotificationChannel>> CHANNELS =
+        new HashMap<String, List<LoopbackNotificationChannel>>();
+
+    /**
+     * Channel name, bean property.
+     */
+    private String name = "default";
+
+    /**
+     * Id of the local cluster node.
+     */
+    private String clusterNodeId;
+
+    /**
+     * Listener of the local cluster node.
+     */
+    private RevisionListener listener;
+
+    /**
+     * {@inheritDoc}
+     */
+    public void start(String clusterNodeId, RevisionListener listener) {
+        this.clusterNodeId = clusterNodeId;
+        this.listener = listener;
+        synchronized (CHANNELS) {
+            List<LoopbackNotificationChannel> channels = CHANNELS.get(name);
+            if (channels == null) {
+                channels = new ArrayList<LoopbackNotificationChannel>();
+                CHANNELS.put(name, channels);
+            }
+            channels.add(this);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void notifyRevision(long revision) {
+        List<LoopbackNotificationChannel> channels;
+        synchronized (CHANNELS) {
+            channels = CHANNELS.get(name);
+            if (channels == null) {
+                return;
+            }
+            channels = new ArrayList<LoopbackNotificationChannel>(channels);
+        }
+        for (LoopbackNotificationChannel channel : channels) {
+            if (channel != this) {
+                channel.listener.revisionAppended(clusterNodeId, revision);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void close() {
+        synchronized (CHANNELS) {
+            List<LoopbackNotificationChannel> channels = CHANNELS.get(name);
+            if (channels != null) {
+                channels.remove(this);
+                if (channels.isEmpty()) {
+                    CHANNELS.remove(name);
+                }
+            }
+        }
+    }
+
+    /**
+     * Bean getters
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Bean setters
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+}
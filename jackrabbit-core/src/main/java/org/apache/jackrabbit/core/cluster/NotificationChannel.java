@@ -0,0 +1,51 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+/**
+ * Channel used by cluster nodes to notify each other about new journal
+ * revisions, so that a notified cluster node can synchronize immediately
+ * instead of waiting for its next periodic synchronization. Notifications
+ * are hints only: a notification may get lost, in which case the changes
+ * are picked up by the periodic synchronization.
+ */
+public interface NotificationChannel {
+
+    /**
+     * Starts receiving notifications from other cluster nodes.
+     *
+     * @param clusterNodeId id of the local cluster node
+     * @param listener listener receiving notifications of other cluster nodes
+     * @throws ClusterException if the channel cannot be started
+     */
+    void start(String clusterNodeId, RevisionListener listener) throws ClusterException;
+
+    /**
+     * Notifies the other cluster nodes that records up to the given revision
+     * have been appended to the journal. Implementations must not block and
+     * must not throw exceptions on transmission errors.
+     *
+     * @param revision revision of the appended record
+     */
+    void notifyRevision(long revision);
+
+    /**
+     * Stops receiving notifications and releases all resources.
+     */
+    void close();
+
+}
@@ -45,6 +45,17 @@ public interface UpdateEventChannel {
      */
     void updateCommitted(Update update, String path);
 
+    /**
+     * Called when a committed update operation has released its locks. The
+     * event channel may wait here until the update has been transmitted.
+     *
+     * @param update update operation
+     * @throws ClusterException if the update could not be transmitted
+     */
+    default void updateFinished(Update update) throws ClusterException {
+        // nothing to be done here
+    }
+
     /**
      * Called when an a update operation has been cancelled.
      *
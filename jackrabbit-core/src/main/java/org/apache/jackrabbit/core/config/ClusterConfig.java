@@ -18,6 +18,7 @@ package org.apache.jackrabbit.core.config;
 
 import javax.jcr.RepositoryException;
 
+import org.apache.jackrabbit.core.cluster.NotificationChannel;
 import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.JournalFactory;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
@@ -47,6 +48,11 @@ public class ClusterConfig implements JournalFactory {
      */
     private final JournalFactory jf;
 
+    /**
+     * Notification channel configuration, or <code>null</code>.
+     */
+    private final BeanConfig notification;
+
     /**
      * Creates a new cluster configuration.
      *
@@ -68,10 +74,25 @@ public class ClusterConfig implements JournalFactory {
      */
     public ClusterConfig(String id, long syncDelay,
                          long stopDelay, JournalFactory jf) {
+        this(id, syncDelay, stopDelay, jf, null);
+    }
+
+    /**
+     * Creates a new cluster configuration.
+     *
+     * @param id custom cluster node id
+     * @param syncDelay syncDelay, in milliseconds
+     * @param stopDelay stopDelay in milliseconds
+     * @param jf journal factory
+     * @param notification notification channel configuration, or <code>null</code>
+     */
+    public ClusterConfig(String id, long syncDelay, long stopDelay,
+                         JournalFactory jf, BeanConfig notification) {
         this.id = id;
         this.syncDelay = syncDelay;
         this.stopDelay = stopDelay < 0 ? syncDelay * 10 : stopDelay;
         this.jf = jf;
+        this.notification = notification;
     }
 
     /**
@@ -112,4 +133,18 @@ public class ClusterConfig implements JournalFactory {
         return jf.getJournal(resolver);
     }
 
+    /**
+     * Returns a new notification channel instance.
+     *
+     * @return notification channel, or <code>null</code> if none is configured
+     * @throws ConfigurationException if the channel can not be created
+     */
+    public NotificationChannel getNotificationChannel()
+            throws ConfigurationException {
+        if (notification == null) {
+            return null;
+        }
+        return notification.newInstance(NotificationChannel.class);
+    }
+
 }
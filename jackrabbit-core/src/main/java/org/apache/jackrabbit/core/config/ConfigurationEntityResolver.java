@@ -30,6 +30,7 @@ import org.xml.sax.SAXException;
  * This simple resolver contains mappings for the following
  * public identifiers used for the Jackrabbit configuration files:
  * <ul>
+ * <li><code>-//The Apache Software Foundation//DTD Jackrabbit 2.24//EN</code></li>
  * <li><code>-//The Apache Software Foundation//DTD Jackrabbit 2.6//EN</code></li>
  * <li><code>-//The Apache Software Foundation//DTD Jackrabbit 2.4//EN</code></li>
  * <li><code>-//The Apache Software Foundation//DTD Jackrabbit 2.0//EN</code></li>
@@ -42,6 +43,7 @@ import org.xml.sax.SAXException;
  * <p>
  * Also the following system identifiers are mapped to local resources:
  * <ul>
+ * <li><code>http://jackrabbit.apache.org/dtd/repository-2.24.dtd</code></li>
  * <li><code>http://jackrabbit.apache.org/dtd/repository-2.6.dtd</code></li>
  * <li><code>http://jackrabbit.apache.org/dtd/repository-2.4.dtd</code></li>
  * <li><code>http://jackrabbit.apache.org/dtd/repository-2.0.dtd</code></li>
@@ -77,6 +79,20 @@ public class ConfigurationEntityResolver implements EntityResolver {
      * Creates the singleton instance of this class.
      */
     private ConfigurationEntityResolver() {
+        // Apache Jackrabbit 2.24 DTD
+        publicIds.put(
+                "-//The Apache Software Foundation//DTD Jackrabbit 2.24//EN",
+                "repository-2.24.dtd");
+        systemIds.put(
+                "http://jackrabbit.apache.org/dtd/repository-2.24.dtd",
+                "repository-2.24.dtd");
+        publicIds.put(
+                "-//The Apache Software Foundation//DTD Jackrabbit 2.24 Elements//EN",
+                "repository-2.24-elements.dtd");
+        systemIds.put(
+                "http://jackrabbit.apache.org/dtd/repository-2.24-elements.dtd",
+                "repository-2.24-elements.dtd");
+
         // Apache Jackrabbit 2.6 DTD
         publicIds.put(
                 "-//The Apache Software Foundation//DTD Jackrabbit 2.6//EN",
@@ -136,6 +136,9 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
     /** Name of the journal configuration element. */
     public static final String JOURNAL_ELEMENT = "Journal";
 
+    /** Name of the notification channel configuration element. */
+    public static final String NOTIFICATION_ELEMENT = "Notification";
+
     /** Name of the data store configuration element. */
     public static final String DATA_STORE_ELEMENT = "DataStore";
 
@@ -844,11 +847,16 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
      * <pre>
      *   &lt;Cluster&gt;
      *     &lt;Journal ...&gt;
-     *   &lt;/Journal&gt;
+     *     &lt;/Journal&gt;
+     *     &lt;Notification ...&gt;
+     *     &lt;/Notification&gt;
+     *   &lt;/Cluster&gt;
      * </pre>
      * <p>
      * <code>Cluster</code> is a {@link #parseBeanConfig(Element,String) bean configuration}
-     * element.
+     * element. The optional <code>Notification</code> bean configuration element
+     * configures the channel used to notify other cluster nodes about new revisions;
+     * it is declared by the Jackrabbit 2.24 configuration DTD.
      * <p>
      * Clustering is an optional feature. If the cluster element is not found, then this
      * method returns <code>null</code>.
@@ -895,7 +903,13 @@ public class RepositoryConfigurationParser extends ConfigurationParser {
                         element, STOP_DELAY_ATTRIBUTE, "-1")));
 
                 JournalFactory jf = getJournalFactory(element, home, id);
-                return new ClusterConfig(id, syncDelay, stopDelay, jf);
+                BeanConfig notification = null;
+                Element notificationElement =
+                    getElement(element, NOTIFICATION_ELEMENT, false);
+                if (notificationElement != null) {
+                    notification = parseBeanConfig(notificationElement);
+                }
+                return new ClusterConfig(id, syncDelay, stopDelay, jf, notification);
             }
         }
         return null;
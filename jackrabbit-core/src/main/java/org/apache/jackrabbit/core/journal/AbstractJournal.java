@@ -20,6 +20,7 @@ import java.io.File;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.jackrabbit.core.util.XAReentrantWriterPreferenceReadWriteLock;
 import org.apache.jackrabbit.core.version.InternalVersionManagerImpl;
@@ -40,6 +41,11 @@ public abstract class AbstractJournal implements Journal {
      */
     private static Logger log = LoggerFactory.getLogger(AbstractJournal.class);
 
+    /**
+     * Default minimum size of a record body to be compressed.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+
     /**
      * Journal id.
      */
@@ -90,6 +96,23 @@ public abstract class AbstractJournal implements Journal {
      */
     private InternalVersionManagerImpl internalVersionManager;
 
+    /**
+     * Format version of the records appended. Bean property.
+     */
+    private int recordVersion = AbstractRecord.FORMAT_VERSION_1;
+
+    /**
+     * Minimum size of a record body to be compressed, in the compact record
+     * format. A negative value disables compression. Bean property.
+     */
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+    /**
+     * Index from points in time to the revisions appended or synchronized
+     * by then.
+     */
+    private final RevisionIndex revisionIndex = new RevisionIndex();
+
     /**
      * {@inheritDoc}
      */
@@ -97,6 +120,12 @@ public abstract class AbstractJournal implements Journal {
         this.id = id;
         this.resolver = resolver;
         this.npResolver = new DefaultNamePathResolver(resolver, true);
+
+        if (recordVersion != AbstractRecord.FORMAT_VERSION_1
+                && recordVersion != AbstractRecord.FORMAT_VERSION_2) {
+            String msg = "Unsupported record version: " + recordVersion;
+            throw new JournalException(msg);
+        }
     }
 
     /**
@@ -269,6 +298,7 @@ public abstract class AbstractJournal implements Journal {
             for (RecordConsumer consumer : consumers.values()) {
                 consumer.setRevision(stopRevision);
             }
+            revisionIndex.put(System.currentTimeMillis(), stopRevision);
             log.debug("Synchronized from revision " + startRevision + " to revision: " + stopRevision);
         }
     }
@@ -343,9 +373,22 @@ public abstract class AbstractJournal implements Journal {
      *                   successful
      */
     public void unlock(boolean successful) {
+        unlock(successful, false);
+    }
+
+    /**
+     * Unlock the journal revision. If <code>deferCommit</code> is set, the
+     * records appended while the journal was locked may be committed later,
+     * and {@link #awaitCommit(long)} has to be called to wait for the commit.
+     *
+     * @param successful flag indicating whether the update process was
+     *                   successful
+     * @param deferCommit whether the commit may be deferred
+     */
+    protected void unlock(boolean successful, boolean deferCommit) {
         log.debug("Unlock the journal revision. Successful: " + successful);
     	try {
-    		doUnlock(successful);
+    		doUnlock(successful, deferCommit);
     	} finally {
     		//Should not happen that a RuntimeException will be thrown in subCode, but it's safer
     		//to release the rwLock in finally block.
@@ -353,6 +396,30 @@ public abstract class AbstractJournal implements Journal {
     	}
     }
 
+    /**
+     * Waits until the record appended with the given revision has been
+     * committed. Called by an appended record after the journal has been
+     * unlocked successfully. Subclass overridable; by default, records are
+     * committed when the journal is unlocked.
+     *
+     * @param revision revision of the appended record
+     * @throws JournalException if the record could not be committed
+     */
+    protected void awaitCommit(long revision) throws JournalException {
+        // nothing to be done here
+    }
+
+    /**
+     * Returns whether other threads are waiting to lock the journal revision.
+     * May be used by subclasses while unlocking, to defer work that can be
+     * shared with the next update.
+     *
+     * @return <code>true</code> if other updates are waiting for the lock
+     */
+    protected boolean hasWaitingUpdates() {
+        return rwLock.hasWaitingWriters();
+    }
+
     /**
      * Lock the journal revision. Subclass responsibility.
      *
@@ -392,6 +459,61 @@ public abstract class AbstractJournal implements Journal {
      */
     protected abstract void doUnlock(boolean successful);
 
+    /**
+     * Unlock the journal revision, possibly deferring the commit of the
+     * appended records. Subclass overridable; the default implementation
+     * calls {@link #doUnlock(boolean)}.
+     *
+     * @param successful flag indicating whether the update process was
+     *                   successful
+     * @param deferCommit whether the commit may be deferred
+     */
+    protected void doUnlock(boolean successful, boolean deferCommit) {
+        doUnlock(successful);
+    }
+
+    /**
+     * Return an iterator over at most <code>maxRecords</code> records after
+     * the specified revision. Subclasses may override this to fetch only the
+     * requested number of records from the underlying storage.
+     *
+     * @param startRevision start point (exclusive)
+     * @param maxRecords maximum number of records to return
+     * @return an iterator over the records after the specified revision.
+     * @throws JournalException if an error occurs
+     */
+    public RecordIterator getRecords(long startRevision, final int maxRecords)
+            throws JournalException {
+        final RecordIterator iterator = getRecords(startRevision);
+        return new RecordIterator() {
+            private int count;
+            public boolean hasNext() {
+                return count < maxRecords && iterator.hasNext();
+            }
+            public Record nextRecord() throws JournalException {
+                if (count >= maxRecords) {
+                    throw new NoSuchElementException();
+                }
+                count++;
+                return iterator.nextRecord();
+            }
+            public void close() {
+                iterator.close();
+            }
+        };
+    }
+
+    /**
+     * Return the index from points in time to the revisions of this journal.
+     * Entries are added when records are appended or synchronized, and may
+     * be added by readers that learn the time of a record.
+     *
+     * @return revision index
+     */
+    public RevisionIndex getRevisionIndex() {
+        return revisionIndex;
+    }
+
     /**
      * Return this journal's identifier.
      *
@@ -463,4 +585,41 @@ public abstract class AbstractJournal implements Journal {
      public void setRevision(String revision) {
          this.revision = revision;
      }
+
+     /**
+      * @return the format version of the records appended
+      */
+     public int getRecordVersion() {
+         return recordVersion;
+     }
+
+     /**
+      * Set the format version of the records appended. Records are read in
+      * any supported format, but version 2 records can not be read by
+      * cluster nodes running an earlier release, so the version should only
+      * be raised once all cluster nodes have been upgraded.
+      *
+      * @param recordVersion {@link AbstractRecord#FORMAT_VERSION_1} (default)
+      *                      or {@link AbstractRecord#FORMAT_VERSION_2}
+      */
+     public void setRecordVersion(int recordVersion) {
+         this.recordVersion = recordVersion;
+     }
+
+     /**
+      * @return the minimum size of a record body to be compressed
+      */
+     public int getCompressionThreshold() {
+         return compressionThreshold;
+     }
+
+     /**
+      * Set the minimum size of a record body to be compressed, when appending
+      * records in version 2 format. A negative value disables compression.
+      *
+      * @param compressionThreshold size in bytes
+      */
+     public void setCompressionThreshold(int compressionThreshold) {
+         this.compressionThreshold = compressionThreshold;
+     }
 }
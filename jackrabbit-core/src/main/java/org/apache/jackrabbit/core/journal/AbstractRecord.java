@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.core.journal;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -51,6 +53,42 @@ import org.apache.jackrabbit.spi.commons.privilege.PrivilegeDefinitionWriter;
  */
 public abstract class AbstractRecord implements Record {
 
+    /**
+     * Record format writing primitives with their <code>DataOutput</code>
+     * representation, readable by all versions.
+     */
+    public static final int FORMAT_VERSION_1 = 1;
+
+    /**
+     * Compact record format, starting with a header and writing numbers as
+     * variable length integers, strings as UTF-8 and names and paths
+     * occurring more than once as indexes. The record body may be
+     * compressed. Can only be read by versions that support it.
+     */
+    public static final int FORMAT_VERSION_2 = 2;
+
+    /**
+     * First byte of a record in a format other than version 1. Version 1
+     * records always start with the boolean of the workspace name.
+     */
+    static final byte FORMAT_MARKER = (byte) 0xCA;
+
+    /**
+     * Length of the record header in a format other than version 1:
+     * marker, format version and compression.
+     */
+    static final int HEADER_LENGTH = 3;
+
+    /**
+     * Indicator for an uncompressed record body.
+     */
+    static final byte UNCOMPRESSED = 0;
+
+    /**
+     * Indicator for a record body compressed with deflate.
+     */
+    static final byte DEFLATED = 1;
+
     /**
      * Indicator for a literal UUID.
      */
@@ -66,6 +104,16 @@ public abstract class AbstractRecord implements Record {
      */
     private final BidiMap<NodeId, Integer> nodeIdIndex = new DualHashBidiMap<>();
 
+    /**
+     * Maps Name to Integer index, in the compact format.
+     */
+    private final BidiMap<Name, Integer> nameIndex = new DualHashBidiMap<>();
+
+    /**
+     * Maps Path to Integer index, in the compact format.
+     */
+    private final BidiMap<Path, Integer> pathIndex = new DualHashBidiMap<>();
+
     /**
      * Namespace resolver.
      */
@@ -90,6 +138,9 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public void writeQName(Name name) throws JournalException {
+        if (isCompact() && writeIndex(nameIndex, name)) {
+            return;
+        }
         try {
             writeString(resolver.getJCRName(name));
         } catch (NamespaceException e) {
@@ -110,6 +161,9 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public void writePath(Path path) throws JournalException {
+        if (isCompact() && writeIndex(pathIndex, path)) {
+            return;
+        }
         try {
             writeString(resolver.getJCRPath(path));
         } catch (NamespaceException e) {
@@ -194,8 +248,16 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Name readQName() throws JournalException {
+        Name name = isCompact() ? readIndex(nameIndex) : null;
+        if (name != null) {
+            return name;
+        }
         try {
-            return resolver.getQName(readString());
+            name = resolver.getQName(readString());
+            if (isCompact()) {
+                nameIndex.put(name, nameIndex.size());
+            }
+            return name;
         } catch (NameException e) {
             String msg = "Unknown prefix error while reading name.";
             throw new JournalException(msg, e);
@@ -209,6 +271,15 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Path readPathElement() throws JournalException {
+        if (isCompact()) {
+            Name name = readQName();
+            int index = readInt();
+            if (index != 0) {
+                return PathFactoryImpl.getInstance().create(name, index);
+            } else {
+                return PathFactoryImpl.getInstance().create(name);
+            }
+        }
         try {
             Name name = resolver.getQName(readString());
             int index = readInt();
@@ -230,8 +301,16 @@ public abstract class AbstractRecord implements Record {
      * {@inheritDoc}
      */
     public Path readPath() throws JournalException {
+        Path path = isCompact() ? readIndex(pathIndex) : null;
+        if (path != null) {
+            return path;
+        }
         try {
-            return resolver.getQPath(readString());
+            path = resolver.getQPath(readString());
+            if (isCompact()) {
+                pathIndex.put(path, pathIndex.size());
+            }
+            return path;
         } catch (MalformedPathException e) {
             String msg = "Malformed path error while reading path.";
             throw new JournalException(msg, e);
@@ -318,6 +397,95 @@ public abstract class AbstractRecord implements Record {
         }
     }
 
+    /**
+     * Return a flag indicating whether this record uses the compact format
+     * of {@link #FORMAT_VERSION_2}. Subclass overridable.
+     *
+     * @return <code>true</code> if this record is in compact format;
+     *         <code>false</code> otherwise
+     * @throws JournalException if the format can not be determined
+     */
+    protected boolean isCompact() throws JournalException {
+        return false;
+    }
+
+    /**
+     * Write the index of a name or path, or zero followed by the value
+     * itself if it occurs for the first time.
+     *
+     * @param index index of the values written so far
+     * @param value value to write
+     * @return <code>true</code> if the index of the value was written;
+     *         <code>false</code> if the value must be written
+     * @throws JournalException if an error occurs
+     */
+    private <T> boolean writeIndex(BidiMap<T, Integer> index, T value)
+            throws JournalException {
+        Integer i = index.get(value);
+        if (i != null) {
+            writeInt(i + 1);
+            return true;
+        }
+        index.put(value, index.size());
+        writeInt(0);
+        return false;
+    }
+
+    /**
+     * Read the index of a name or path written by {@link #writeIndex}.
+     *
+     * @param index index of the values read so far
+     * @return value referenced, or <code>null</code> if the value follows
+     * @throws JournalException if an error occurs
+     */
+    private <T> T readIndex(BidiMap<T, Integer> index) throws JournalException {
+        int i = readInt();
+        if (i == 0) {
+            return null;
+        }
+        T value = index.getKey(i - 1);
+        if (value == null) {
+            throw new JournalException("Unknown index found: " + i);
+        }
+        return value;
+    }
+
+    /**
+     * Write a variable length long, using one byte for values between
+     * -64 and 63.
+     *
+     * @param out data output
+     * @param n value
+     * @throws IOException if an I/O error occurs
+     */
+    static void writeVarLong(DataOutput out, long n) throws IOException {
+        long v = (n << 1) ^ (n >> 63);
+        while ((v & ~0x7FL) != 0) {
+            out.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.writeByte((int) v);
+    }
+
+    /**
+     * Read a variable length long written by {@link #writeVarLong}.
+     *
+     * @param in data input
+     * @return value
+     * @throws IOException if an I/O error occurs
+     */
+    static long readVarLong(DataInput in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readByte();
+            v |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (v >>> 1) ^ -(v & 1);
+            }
+        }
+        throw new IOException("Malformed variable length number.");
+    }
+
     /**
      * Get a <code>NodeId</code>'s existing cache index, creating a new entry
      * if necessary.
@@ -21,11 +21,17 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.core.data.db.ResettableTempFileInputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -70,6 +76,22 @@ public class AppendRecord extends AbstractRecord {
      */
     private final String producerId;
 
+    /**
+     * Flag indicating whether this record is written in the compact format.
+     */
+    private final boolean compact;
+
+    /**
+     * Minimum size of a compact record body to be compressed, or a negative
+     * value if the record body should not be compressed.
+     */
+    private final int compressionThreshold;
+
+    /**
+     * Compression of the record body.
+     */
+    private byte compression = UNCOMPRESSED;
+
     /**
      * This record's revision.
      */
@@ -112,6 +134,8 @@ public class AppendRecord extends AbstractRecord {
         this.journal = journal;
         this.producerId = producerId;
         this.revision = 0L;
+        this.compact = journal.getRecordVersion() == FORMAT_VERSION_2;
+        this.compressionThreshold = journal.getCompressionThreshold();
 
         byteOut = new ByteArrayOutputStream(DEFAULT_IN_MEMORY_SIZE);
         dataOut = new DataOutputStream(byteOut);
@@ -147,6 +171,14 @@ public class AppendRecord extends AbstractRecord {
         this.revision = revision;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isCompact() {
+        return compact;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -168,7 +200,11 @@ public class AppendRecord extends AbstractRecord {
         checkOutput();
 
         try {
-            dataOut.writeChar(c);
+            if (compact) {
+                writeVarLong(dataOut, c);
+            } else {
+                dataOut.writeChar(c);
+            }
         } catch (IOException e) {
             String msg = "I/O error while writing character.";
             throw new JournalException(msg, e);
@@ -196,7 +232,11 @@ public class AppendRecord extends AbstractRecord {
         checkOutput();
 
         try {
-            dataOut.writeInt(n);
+            if (compact) {
+                writeVarLong(dataOut, n);
+            } else {
+                dataOut.writeInt(n);
+            }
         } catch (IOException e) {
             String msg = "I/O error while writing integer.";
             throw new JournalException(msg, e);
@@ -210,7 +250,11 @@ public class AppendRecord extends AbstractRecord {
         checkOutput();
 
         try {
-            dataOut.writeLong(n);
+            if (compact) {
+                writeVarLong(dataOut, n);
+            } else {
+                dataOut.writeLong(n);
+            }
         } catch (IOException e) {
             String msg = "I/O error while writing long.";
             throw new JournalException(msg, e);
@@ -224,7 +268,15 @@ public class AppendRecord extends AbstractRecord {
         checkOutput();
 
         try {
-            if (s == null) {
+            if (compact) {
+                if (s == null) {
+                    writeVarLong(dataOut, 0);
+                } else {
+                    byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                    writeVarLong(dataOut, b.length + 1);
+                    dataOut.write(b);
+                }
+            } else if (s == null) {
                 dataOut.writeBoolean(true);
             } else {
                 dataOut.writeBoolean(false);
@@ -254,18 +306,57 @@ public class AppendRecord extends AbstractRecord {
      * {@inheritDoc}
      */
     public long update() throws JournalException {
+        long length = update(false);
+        journal.awaitCommit(getRevision());
+        return length;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public long updateDeferred() throws JournalException {
+        return update(true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void awaitCommit() throws JournalException {
+        journal.awaitCommit(getRevision());
+    }
+
+    /**
+     * Appends the changes to the journal and unlocks it.
+     *
+     * @param deferCommit whether the journal may defer the commit
+     * @return the size of the record that was saved
+     * @throws JournalException if an error occurs
+     */
+    private long update(boolean deferCommit) throws JournalException {
         boolean succeeded = false;
+        int length;
 
         try {
-            int length = dataOut.size();
+            length = dataOut.size();
             closeOutput();
 
+            if (compact && compressionThreshold >= 0 && length >= compressionThreshold) {
+                length = deflate(length);
+            }
             InputStream in = openInput();
+            if (compact) {
+                byte[] header = new byte[] {
+                        FORMAT_MARKER, (byte) FORMAT_VERSION_2, compression };
+                in = new SequenceInputStream(new ByteArrayInputStream(header), in);
+                length += HEADER_LENGTH;
+            }
 
             try {
                 journal.append(this, in, length);
+                journal.getRevisionIndex().put(System.currentTimeMillis(), getRevision());
                 succeeded = true;
-                return length;
             } finally {
                 try {
                     in.close();
@@ -277,8 +368,9 @@ public class AppendRecord extends AbstractRecord {
         } finally {
             dispose();
 
-            journal.unlock(succeeded);
+            journal.unlock(succeeded, deferCommit);
         }
+        return length;
     }
 
     /**
@@ -308,6 +400,63 @@ public class AppendRecord extends AbstractRecord {
         }
     }
 
+    /**
+     * Compress the record written, keeping it in memory or in a file like the
+     * uncompressed record. The uncompressed record is kept if compression
+     * does not reduce its size.
+     *
+     * @param length length of the record written
+     * @return length of the record to append
+     * @throws JournalException if an error occurs
+     */
+    private int deflate(int length) throws JournalException {
+        File deflatedFile = null;
+        ByteArrayOutputStream deflatedBytes = null;
+        try {
+            OutputStream out;
+            if (file != null) {
+                deflatedFile = File.createTempFile(DEFAULT_PREFIX, DEFAULT_EXT);
+                out = new BufferedOutputStream(new FileOutputStream(deflatedFile));
+            } else {
+                deflatedBytes = new ByteArrayOutputStream(length / 2);
+                out = deflatedBytes;
+            }
+            // not using openInput(), which deletes the file when closed
+            InputStream in = file != null
+                    ? new FileInputStream(file)
+                    : new ByteArrayInputStream(byteOut.toByteArray());
+            try {
+                DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+                IOUtils.copy(in, deflater);
+                deflater.close();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            if (deflatedFile != null) {
+                deflatedFile.delete();
+            }
+            String msg = "I/O error while compressing record.";
+            throw new JournalException(msg, e);
+        }
+
+        if (deflatedFile != null) {
+            if (deflatedFile.length() >= length) {
+                deflatedFile.delete();
+                return length;
+            }
+            file.delete();
+            file = deflatedFile;
+        } else {
+            if (deflatedBytes.size() >= length) {
+                return length;
+            }
+            byteOut = deflatedBytes;
+        }
+        compression = DEFLATED;
+        return (int) (file != null ? file.length() : byteOut.size());
+    }
+
     /**
      * Check output size and eventually switch to file output.
      *
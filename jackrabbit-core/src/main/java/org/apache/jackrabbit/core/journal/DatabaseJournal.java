@@ -23,6 +23,7 @@ import org.apache.jackrabbit.core.util.db.ConnectionHelper;
 import org.apache.jackrabbit.core.util.db.DatabaseAware;
 import org.apache.jackrabbit.core.util.db.DbUtility;
 import org.apache.jackrabbit.core.util.db.StreamWrapper;
+import org.apache.jackrabbit.data.core.TransactionContext;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,13 +31,25 @@ import org.slf4j.LoggerFactory;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.RepositoryException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import javax.sql.DataSource;
 
 /**
@@ -66,10 +79,36 @@ import javax.sql.DataSource;
  * which equals 24 hours)</li>
  * <li><code>janitorFirstRunHourOfDay</code>: specifies the hour at which the clean-up
  * thread initiates its first run (default = <code>3</code> which means 3:00 at night)</li>
+ * <li><code>janitorBatchSize</code>: the maximum number of revisions the clean-up thread
+ * deletes with a single statement; with a positive value, the clean-up thread starts
+ * right away and runs every <code>janitorSleep</code> seconds, deleting old revisions
+ * in batches of this size (default = <code>0</code>, which deletes all old revisions
+ * with a single statement)</li>
  * <li><code>schemaCheckEnabled</code>:  whether the schema check during initialization is enabled
  * (default = <code>true</code>)</li>
+ * <li><code>groupCommitSize</code>: the maximum number of local updates whose records
+ * are committed to the journal table in a single transaction; values below 2 disable
+ * group commit (default = <code>1</code>)</li>
  * </ul>
  * <p>
+ * With group commit enabled, an update that finishes while other updates of this
+ * cluster node are waiting for the journal lock keeps the global revision locked and
+ * passes it on to the next update, which then neither has to lock the global revision
+ * table again nor to synchronize with the journal, since no other cluster node can
+ * append records in the meantime. The records of the group are inserted in a single
+ * transaction together with the new global and local revisions when the last update
+ * of the group unlocks the journal. Only workspace updates keep a group open, and
+ * each of them waits for the group to be committed once it has released its item
+ * state locks; it fails if the group could not be committed. Group commit uses a
+ * connection of its own, which is shared by the updates of the group, but executes
+ * its statements through the {@link ConnectionHelper}.
+ * <p>
+ * The janitor deletes the revisions that all cluster nodes listed in the
+ * <code>LOCAL_REVISIONS</code> table have consumed, so the entries of cluster nodes
+ * that have been removed must be deleted from that table. The journal registers a
+ * {@link DatabaseJournalStatsMXBean} with the platform MBean server, which shows the
+ * lag of each cluster node along with the journal size and the janitor progress.
+ * <p>
  * JNDI can be used to get the connection. In this case, use the javax.naming.InitialContext as the driver,
  * and the JNDI name as the URL. If the user and password are configured in the JNDI resource,
  * they should not be configured here. Example JNDI settings:
@@ -90,6 +129,17 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     private static final String LOCAL_REVISIONS_TABLE = "LOCAL_REVISIONS";
 
+    /**
+     * Maximum number of record bytes held back by an open group commit.
+     */
+    private static final int MAX_GROUP_COMMIT_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Milliseconds after which an update waiting for the commit of its group
+     * checks whether it has to commit the group itself.
+     */
+    private static final long GROUP_COMMIT_CHECK_INTERVAL = 100;
+
     /**
      * Logger.
      */
@@ -130,6 +180,11 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     ConnectionHelper conHelper;
 
+    /**
+     * The data source, used for the connection of a group commit.
+     */
+    private DataSource dataSource;
+
     /**
      * Auto commit level.
      */
@@ -168,11 +223,91 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
 
     private Thread janitorThread;
 
+    /**
+     * Maximum number of revisions deleted by the janitor with a single
+     * statement, or <code>0</code> to delete all at once.
+     */
+    private int janitorBatchSize = 0;
+
+    /**
+     * Journal statistics.
+     */
+    private final Statistics statistics = new Statistics();
+
+    /**
+     * Name of the registered statistics MBean, or <code>null</code>.
+     */
+    private ObjectName statisticsName;
+
     /**
      * Whether the schema check must be done during initialization.
      */
     private boolean schemaCheckEnabled = true;
 
+    /**
+     * Maximum number of updates committed together, bean property.
+     */
+    private int groupCommitSize = 1;
+
+    /**
+     * Connection holding the lock on the global revision table while a group
+     * commit is open, <code>null</code> otherwise.
+     */
+    private Connection groupConnection;
+
+    /**
+     * Value of the global revision table when the open group was started.
+     */
+    private long groupRevision;
+
+    /**
+     * Number of updates that have joined the open group.
+     */
+    private int groupSize;
+
+    /**
+     * Records of the open group that still have to be inserted.
+     */
+    private final List<GroupRecord> groupRecords = new ArrayList<GroupRecord>();
+
+    /**
+     * Number of record bytes held by {@link #groupRecords}.
+     */
+    private int groupBytes;
+
+    /**
+     * Local revision to be stored when the open group is committed, or
+     * <code>null</code>.
+     */
+    private Long groupLocalRevision;
+
+    /**
+     * Thread or transaction that currently holds the journal lock within the
+     * open group, or <code>null</code>.
+     */
+    private Object groupOwner;
+
+    /**
+     * Number of nested locks held by {@link #groupOwner}.
+     */
+    private int groupLocks;
+
+    /**
+     * Whether the current lock joined an already open group.
+     */
+    private boolean groupJoined;
+
+    /**
+     * Outcome of the open group commit.
+     */
+    private GroupCommit groupCommit;
+
+    /**
+     * Group commits that updates are waiting for after unlocking the journal,
+     * by thread or transaction.
+     */
+    private final Map<Object, GroupCommit> groupWaiters = new HashMap<Object, GroupCommit>();
+
     /**
      * The instance that manages the local revision.
      */
@@ -188,6 +323,11 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     protected String updateGlobalStmtSQL;
 
+    /**
+     * SQL statement setting the global revision to a given value.
+     */
+    protected String setGlobalStmtSQL;
+
     /**
      * SQL statement returning the global revision.
      */
@@ -208,6 +348,16 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     protected String cleanRevisionStmtSQL;
 
+    /**
+     * SQL statement returning the lowest revision in the journal table.
+     */
+    protected String selectMinRevisionStmtSQL;
+
+    /**
+     * SQL statement returning the local revisions of all cluster nodes.
+     */
+    protected String selectLocalRevisionsStmtSQL;
+
     /**
      * SQL statement returning the local revision of this cluster node.
      */
@@ -256,7 +406,8 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         init();
 
         try {
-            conHelper = createConnectionHelper(getDataSource());
+            dataSource = getDataSource();
+            conHelper = createConnectionHelper(dataSource);
 
             // make sure schemaObjectPrefix consists of legal name characters only
             schemaObjectPrefix = conHelper.prepareDbIdentifier(schemaObjectPrefix);
@@ -277,6 +428,7 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
             String msg = "Unable to create connection.";
             throw new JournalException(msg, e);
         }
+        registerStatistics();
         log.info("DatabaseJournal initialized.");
     }
 
@@ -378,7 +530,13 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
             janitorThread = new Thread(new RevisionTableJanitor(), "Jackrabbit-ClusterRevisionJanitor");
             janitorThread.setDaemon(true);
             janitorThread.start();
-            log.info("Cluster revision janitor thread started; first run scheduled at " + janitorNextRun.getTime());
+            if (janitorBatchSize > 0) {
+                log.info("Cluster revision janitor thread started; running every "
+                        + janitorSleep + " seconds");
+            } else {
+                log.info("Cluster revision janitor thread started; first run scheduled at "
+                        + janitorNextRun.getTime());
+            }
         } else {
             log.info("Cluster revision janitor thread not started");
         }
@@ -422,6 +580,22 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Limits the number of rows fetched from the database.
+     */
+    @Override
+    public RecordIterator getRecords(long startRevision, int maxRecords)
+            throws JournalException {
+        try {
+            return new DatabaseRecordIterator(conHelper.exec(selectRevisionsStmtSQL, new Object[]{Long.valueOf(
+                    startRevision)}, false, maxRecords), getResolver(), getNamePathResolver());
+        } catch (SQLException e) {
+            throw new JournalException("Unable to return record iterator.", e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -447,6 +621,9 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      */
     @Override
     protected void doSync(long startRevision, boolean startup) throws JournalException {
+        // a group left open for an update that never came must not keep the
+        // global revision locked
+        closeGroup();
         if (!startup) {
             // if the cluster node is not starting do a normal sync
             doSync(startRevision);
@@ -464,6 +641,20 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Synchronization is skipped for an update that joined an open group
+     * commit, because this cluster node has held the lock on the global
+     * revision ever since the group was started.
+     */
+    @Override
+    protected void doSync(long startRevision) throws JournalException {
+        if (!isGroupJoined()) {
+            super.doSync(startRevision);
+        }
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -471,8 +662,15 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      * named <code>GLOBAL_REVISION</code>, which effectively write-locks this
      * table. The updated value is then saved away and remembered in the
      * appended record, because a save may entail multiple appends (JCR-884).
+     * With group commit enabled, an open group is joined instead and the
+     * revision is incremented in memory only.
      */
     protected void doLock() throws JournalException {
+        if (groupCommitSize > 1) {
+            lockGroup();
+            return;
+        }
+
         ResultSet rs = null;
         boolean succeeded = false;
 
@@ -505,7 +703,256 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
      * {@inheritDoc}
      */
     protected void doUnlock(boolean successful) {
-        endBatch(successful);
+        doUnlock(successful, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * With group commit enabled, the group is only kept open for a deferred
+     * commit.
+     */
+    @Override
+    protected void doUnlock(boolean successful, boolean deferCommit) {
+        if (groupCommitSize > 1) {
+            unlockGroup(successful, deferCommit);
+        } else {
+            endBatch(successful);
+        }
+    }
+
+    /**
+     * Locks the journal within a group commit, either by joining the open
+     * group or by locking the global revision table and starting a new one.
+     *
+     * @throws JournalException if the global revision table can't be locked
+     */
+    private synchronized void lockGroup() throws JournalException {
+        Object owner = TransactionContext.getCurrentThreadId();
+        if (groupConnection == null) {
+            groupConnection = openGroup();
+            groupCommit = new GroupCommit();
+            groupRevision = lockedRevision;
+            groupSize = 0;
+            groupJoined = false;
+        } else {
+            // the global revision table is still locked by the open group
+            lockedRevision++;
+            groupJoined = groupLocks == 0;
+        }
+        if (groupLocks == 0) {
+            groupSize++;
+        }
+        groupOwner = owner;
+        groupLocks++;
+    }
+
+    /**
+     * Starts a group commit on a new connection by incrementing the global
+     * revision, which locks the table until the group is committed.
+     *
+     * @return the connection of the group
+     * @throws JournalException if the global revision table can't be locked
+     */
+    private Connection openGroup() throws JournalException {
+        Connection con = null;
+        ResultSet rs = null;
+        boolean succeeded = false;
+        try {
+            con = dataSource.getConnection();
+            con.setAutoCommit(false);
+            conHelper.update(con, updateGlobalStmtSQL);
+            rs = conHelper.query(con, selectGlobalStmtSQL);
+            if (!rs.next()) {
+                 throw new JournalException("No revision available.");
+            }
+            lockedRevision = rs.getLong(1);
+            succeeded = true;
+            return con;
+        } catch (SQLException e) {
+            throw new JournalException("Unable to lock global revision table.", e);
+        } finally {
+            DbUtility.close(rs);
+            if (!succeeded && con != null) {
+                rollbackGroup(con);
+            }
+        }
+    }
+
+    /**
+     * Unlocks the journal within a group commit. The group is kept open if
+     * the commit may be deferred, other updates are waiting for the lock and
+     * the group limits are not reached yet, and committed otherwise. A
+     * successful update then waits for the commit in
+     * {@link #awaitCommit(long)}.
+     *
+     * @param successful whether the update was successful
+     * @param deferCommit whether the commit may be deferred
+     */
+    private synchronized void unlockGroup(boolean successful, boolean deferCommit) {
+        groupJoined = false;
+        if (--groupLocks > 0 || groupConnection == null) {
+            return;
+        }
+        Object owner = groupOwner;
+        groupOwner = null;
+        if (!successful && groupRecords.isEmpty()) {
+            // nothing else depends on the group, undo the revision increments
+            Connection con = groupConnection;
+            GroupCommit commit = groupCommit;
+            groupConnection = null;
+            groupCommit = null;
+            groupLocalRevision = null;
+            rollbackGroup(con);
+            commit.done = true;
+            notifyAll();
+            return;
+        }
+        if (successful) {
+            groupWaiters.put(owner, groupCommit);
+        }
+        if (!deferCommit
+                || groupSize >= groupCommitSize
+                || groupBytes >= MAX_GROUP_COMMIT_BYTES
+                || !hasWaitingUpdates()) {
+            // the revision of a failed update is left as a gap in the journal
+            commitGroup();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * With group commit enabled, waits until the group of the update has
+     * been committed. The group is committed by the last update that
+     * joins it, or here, once no other update is about to join it.
+     */
+    @Override
+    protected void awaitCommit(long revision) throws JournalException {
+        if (groupCommitSize > 1) {
+            awaitGroup(revision);
+        }
+    }
+
+    /**
+     * Waits until the group that the calling thread or transaction has
+     * unlocked the journal in has been committed.
+     *
+     * @param revision revision of the update
+     * @throws JournalException if the group could not be committed
+     */
+    private synchronized void awaitGroup(long revision) throws JournalException {
+        GroupCommit commit = groupWaiters.remove(TransactionContext.getCurrentThreadId());
+        if (commit == null) {
+            return;
+        }
+        try {
+            while (!commit.done) {
+                if (commit == groupCommit && groupLocks == 0 && !hasWaitingUpdates()) {
+                    commitGroup();
+                } else {
+                    wait(GROUP_COMMIT_CHECK_INTERVAL);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            String msg = "Interrupted while waiting for the commit of revision " + revision + ".";
+            throw new JournalException(msg, e);
+        }
+        if (commit.failure != null) {
+            String msg = "Unable to commit revision " + revision + ".";
+            throw new JournalException(msg, commit.failure);
+        }
+    }
+
+    /**
+     * Commits the open group, if any, provided no update holds the journal
+     * lock within the group.
+     */
+    private synchronized void closeGroup() {
+        if (groupConnection != null && groupLocks == 0) {
+            commitGroup();
+        }
+    }
+
+    /**
+     * Returns whether the current lock joined an already open group.
+     *
+     * @return <code>true</code> if the group was joined
+     */
+    private synchronized boolean isGroupJoined() {
+        return groupJoined;
+    }
+
+    /**
+     * Defers storing the local revision to the commit of the open group if
+     * the calling thread holds the journal lock within the group.
+     *
+     * @param localRevision local revision
+     * @return <code>true</code> if the local revision has been deferred
+     */
+    private synchronized boolean deferLocalRevision(long localRevision) {
+        if (groupConnection != null && groupLocks > 0 && TransactionContext.isSameThreadId(
+                groupOwner, TransactionContext.getCurrentThreadId())) {
+            groupLocalRevision = localRevision;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Inserts the records of the open group and stores the global and local
+     * revisions, then commits and closes the group and wakes up the updates
+     * waiting for it.
+     */
+    private synchronized void commitGroup() {
+        Connection con = groupConnection;
+        GroupCommit commit = groupCommit;
+        List<GroupRecord> records = new ArrayList<GroupRecord>(groupRecords);
+        Long localRevision = groupLocalRevision;
+        groupConnection = null;
+        groupCommit = null;
+        groupRecords.clear();
+        groupBytes = 0;
+        groupLocalRevision = null;
+
+        try {
+            if (lockedRevision != groupRevision) {
+                conHelper.update(con, setGlobalStmtSQL, lockedRevision);
+            }
+            for (GroupRecord record : records) {
+                conHelper.update(con, insertRevisionStmtSQL, record.revision, getId(), record.producerId,
+                        new StreamWrapper(new ByteArrayInputStream(record.data), record.data.length));
+            }
+            if (localRevision != null) {
+                conHelper.update(con, updateLocalRevisionStmtSQL, localRevision, getId());
+            }
+            con.commit();
+            DbUtility.close(con, null, null);
+        } catch (SQLException e) {
+            log.error("Unable to commit " + records.size() + " journal record(s) up to revision "
+                    + lockedRevision + ".", e);
+            commit.failure = e;
+            rollbackGroup(con);
+        } finally {
+            commit.done = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Rolls back and closes the connection of a group.
+     *
+     * @param con connection
+     */
+    private static void rollbackGroup(Connection con) {
+        try {
+            con.rollback();
+        } catch (SQLException e) {
+            log.warn("Unable to roll back journal group commit.", e);
+        } finally {
+            DbUtility.close(con, null, null);
+        }
     }
 
     private void startBatch() throws SQLException {
@@ -541,6 +988,10 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
     protected void append(AppendRecord record, InputStream in, int length)
             throws JournalException {
 
+        if (groupCommitSize > 1) {
+            appendToGroup(record, in, length);
+            return;
+        }
         try {
             conHelper.exec(insertRevisionStmtSQL, record.getRevision(), getId(), record.getProducerId(),
                 new StreamWrapper(in, length));
@@ -551,13 +1002,79 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         }
     }
 
+    /**
+     * Adds a record to the open group, to be inserted when the group is
+     * committed.
+     *
+     * @param record record to append
+     * @param in input stream
+     * @param length number of bytes in input stream
+     * @throws JournalException if the record can't be read
+     */
+    private synchronized void appendToGroup(AppendRecord record, InputStream in, int length)
+            throws JournalException {
+        if (groupConnection == null) {
+            throw new JournalException("Journal is not locked.");
+        }
+        try {
+            byte[] data = IOUtils.toByteArray(in, length);
+            groupRecords.add(new GroupRecord(record.getRevision(), record.getProducerId(), data));
+            groupBytes += length;
+        } catch (IOException e) {
+            String msg = "Unable to append revision " + record.getRevision() + ".";
+            throw new JournalException(msg, e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     public void close() {
+        closeGroup();
         if (janitorThread != null) {
             janitorThread.interrupt();
         }
+        unregisterStatistics();
+    }
+
+    /**
+     * Return the statistics of this journal.
+     *
+     * @return statistics
+     */
+    public DatabaseJournalStatsMXBean getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Registers the statistics of this journal with the platform MBean
+     * server. Failures are logged, but do not prevent the journal from
+     * being used.
+     */
+    private void registerStatistics() {
+        try {
+            ObjectName name = new ObjectName("org.apache.jackrabbit:type=DatabaseJournal,id="
+                    + ObjectName.quote(getId()));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(statistics, name);
+            statisticsName = name;
+        } catch (JMException e) {
+            log.warn("Unable to register journal statistics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Unregisters the statistics of this journal, if registered.
+     */
+    private void unregisterStatistics() {
+        if (statisticsName != null) {
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                server.unregisterMBean(statisticsName);
+            } catch (JMException e) {
+                log.warn("Unable to unregister journal statistics: " + e.getMessage());
+            }
+            statisticsName = null;
+        }
     }
 
     /**
@@ -602,6 +1119,9 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         updateGlobalStmtSQL =
             "update " + schemaObjectPrefix + "GLOBAL_REVISION"
             + " set REVISION_ID = REVISION_ID + 1";
+        setGlobalStmtSQL =
+            "update " + schemaObjectPrefix + "GLOBAL_REVISION"
+            + " set REVISION_ID = ?";
         selectGlobalStmtSQL =
             "select REVISION_ID from "
             + schemaObjectPrefix + "GLOBAL_REVISION";
@@ -613,6 +1133,10 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
             "select MIN(REVISION_ID) from " + schemaObjectPrefix + "LOCAL_REVISIONS";
         cleanRevisionStmtSQL =
             "delete from " + schemaObjectPrefix + "JOURNAL " + "where REVISION_ID < ?";
+        selectMinRevisionStmtSQL =
+            "select MIN(REVISION_ID) from " + schemaObjectPrefix + "JOURNAL";
+        selectLocalRevisionsStmtSQL =
+            "select JOURNAL_ID, REVISION_ID from " + schemaObjectPrefix + "LOCAL_REVISIONS";
         getLocalRevisionStmtSQL =
             "select REVISION_ID from " + schemaObjectPrefix + "LOCAL_REVISIONS "
             + "where JOURNAL_ID = ?";
@@ -680,6 +1204,14 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         return janitorNextRun.get(Calendar.HOUR_OF_DAY);
     }
 
+    /**
+     * @return the maximum number of revisions the janitor deletes with a
+     *         single statement
+     */
+    public int getJanitorBatchSize() {
+        return janitorBatchSize;
+    }
+
     /**
      * Bean setters
      */
@@ -743,6 +1275,15 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         janitorNextRun.set(Calendar.MILLISECOND, 0);
     }
 
+    /**
+     * @param batchSize the maximum number of revisions the janitor deletes
+     *                  with a single statement; a positive value makes the
+     *                  janitor run every <code>janitorSleep</code> seconds
+     */
+    public void setJanitorBatchSize(int batchSize) {
+        this.janitorBatchSize = batchSize;
+    }
+
     public String getDataSourceName() {
         return dataSourceName;
     }
@@ -765,6 +1306,21 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         schemaCheckEnabled = enabled;
     }
 
+    /**
+     * @return the maximum number of updates committed together
+     */
+    public int getGroupCommitSize() {
+        return groupCommitSize;
+    }
+
+    /**
+     * @param size the maximum number of updates committed together; values
+     *             below 2 disable group commit
+     */
+    public void setGroupCommitSize(int size) {
+        groupCommitSize = size;
+    }
+
     /**
      * This class manages the local revision of the cluster node. It
      * persists the local revision in the LOCAL_REVISIONS table in the
@@ -831,6 +1387,13 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
                 throw new IllegalStateException("instance has not yet been initialized");
             }
 
+            // Within a group commit, the local revision is stored together
+            // with the records of the group.
+            if (deferLocalRevision(localRevision)) {
+                this.localRevision = localRevision;
+                return;
+            }
+
             // Update the cached value and the table with local revisions.
             try {
                 conHelper.exec(updateLocalRevisionStmtSQL, localRevision, getId());
@@ -846,6 +1409,34 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         }
     }
 
+    /**
+     * Outcome of a group commit, shared by the updates of the group.
+     */
+    private static final class GroupCommit {
+
+        private boolean done;
+
+        private SQLException failure;
+    }
+
+    /**
+     * A record held back by an open group commit.
+     */
+    private static final class GroupRecord {
+
+        private final long revision;
+
+        private final String producerId;
+
+        private final byte[] data;
+
+        GroupRecord(long revision, String producerId, byte[] data) {
+            this.revision = revision;
+            this.producerId = producerId;
+            this.data = data;
+        }
+    }
+
     /**
      * Class for maintaining the revision table. This is only useful if all
      * JR information except the search index is in the database (i.e., node types
@@ -859,13 +1450,18 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
         public void run() {
             while (!Thread.currentThread().isInterrupted()) {
                 try {
-                    log.info("Next clean-up run scheduled at " + janitorNextRun.getTime());
-                    long sleepTime = janitorNextRun.getTimeInMillis() - System.currentTimeMillis();
-                    if (sleepTime > 0) {
-                        Thread.sleep(sleepTime);
+                    if (janitorBatchSize > 0) {
+                        cleanUpOldRevisions();
+                        Thread.sleep(janitorSleep * 1000L);
+                    } else {
+                        log.info("Next clean-up run scheduled at " + janitorNextRun.getTime());
+                        long sleepTime = janitorNextRun.getTimeInMillis() - System.currentTimeMillis();
+                        if (sleepTime > 0) {
+                            Thread.sleep(sleepTime);
+                        }
+                        cleanUpOldRevisions();
+                        janitorNextRun.add(Calendar.SECOND, janitorSleep);
                     }
-                    cleanUpOldRevisions();
-                    janitorNextRun.add(Calendar.SECOND, janitorSleep);
                 } catch (InterruptedException e) {
                     Thread.currentThread().interrupt();
                 }
@@ -877,6 +1473,7 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
          * Cleans old revisions from the clustering table.
          */
         protected void cleanUpOldRevisions() {
+            long start = System.currentTimeMillis();
             ResultSet rs = null;
             try {
                 long minRevision = 0;
@@ -885,12 +1482,22 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
                 if (cleanUp) {
                     minRevision = rs.getLong(1);
                 }
+                DbUtility.close(rs);
+                rs = null;
 
                 // Clean up if necessary:
-                if (cleanUp) {
-                    conHelper.exec(cleanRevisionStmtSQL, minRevision);
+                int count = 0;
+                if (cleanUp && janitorBatchSize > 0) {
+                    count = cleanUpInBatches(minRevision);
+                    if (count > 0) {
+                        log.info("Cleaned " + count + " old revisions up to revision "
+                                + minRevision + ".");
+                    }
+                } else if (cleanUp) {
+                    count = conHelper.update(cleanRevisionStmtSQL, minRevision);
                     log.info("Cleaned old revisions up to revision " + minRevision + ".");
                 }
+                statistics.cleanedUp(count, System.currentTimeMillis() - start);
 
             } catch (Exception e) {
                 log.warn("Failed to clean up old revisions.", e);
@@ -898,5 +1505,176 @@ public class DatabaseJournal extends AbstractJournal implements DatabaseAware {
                 DbUtility.close(rs);
             }
         }
+
+        /**
+         * Deletes the revisions below the given revision, starting with the
+         * oldest revisions and deleting at most <code>janitorBatchSize</code>
+         * revisions per statement, so that no statement holds many locks or
+         * runs for a long time.
+         *
+         * @param minRevision revision consumed by all cluster nodes
+         * @return number of records deleted
+         * @throws SQLException if an error occurs
+         */
+        private int cleanUpInBatches(long minRevision) throws SQLException {
+            int count = 0;
+            while (!Thread.currentThread().isInterrupted()) {
+                long oldest = getOldestRevision();
+                if (oldest < 0 || oldest >= minRevision) {
+                    break;
+                }
+                long revision = Math.min(oldest + janitorBatchSize, minRevision);
+                count += conHelper.update(cleanRevisionStmtSQL, revision);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Returns the revision of the oldest record in the journal table.
+     *
+     * @return oldest revision, or <code>-1</code> if the table is empty
+     * @throws SQLException if an error occurs
+     */
+    private long getOldestRevision() throws SQLException {
+        ResultSet rs = null;
+        try {
+            rs = conHelper.exec(selectMinRevisionStmtSQL, null, false, 0);
+            if (rs.next()) {
+                long revision = rs.getLong(1);
+                if (!rs.wasNull()) {
+                    return revision;
+                }
+            }
+            return -1;
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
+    /**
+     * Returns the global revision.
+     *
+     * @return global revision
+     * @throws SQLException if an error occurs
+     */
+    private long getGlobalRevision() throws SQLException {
+        ResultSet rs = null;
+        try {
+            rs = conHelper.exec(selectGlobalStmtSQL, null, false, 0);
+            if (!rs.next()) {
+                throw new SQLException("No revision available.");
+            }
+            return rs.getLong(1);
+        } finally {
+            DbUtility.close(rs);
+        }
+    }
+
+    /**
+     * Journal statistics, computed from the journal tables when requested
+     * and updated by the janitor.
+     */
+    private class Statistics implements DatabaseJournalStatsMXBean {
+
+        /**
+         * Number of records deleted by the janitor.
+         */
+        private final AtomicLong cleanedRevisions = new AtomicLong();
+
+        /**
+         * Number of janitor runs.
+         */
+        private final AtomicLong cleanUpRuns = new AtomicLong();
+
+        /**
+         * Records deleted per second by the last janitor run that deleted
+         * records.
+         */
+        private volatile double cleanUpThroughput;
+
+        /**
+         * Time of the last janitor run.
+         */
+        private volatile long lastCleanUpTime;
+
+        /**
+         * Records a janitor run.
+         *
+         * @param count number of records deleted
+         * @param duration duration of the run in milliseconds
+         */
+        void cleanedUp(int count, long duration) {
+            cleanedRevisions.addAndGet(count);
+            cleanUpRuns.incrementAndGet();
+            if (count > 0) {
+                cleanUpThroughput = count * 1000.0 / Math.max(duration, 1);
+            }
+            lastCleanUpTime = System.currentTimeMillis();
+        }
+
+        public long getGlobalRevision() {
+            try {
+                return DatabaseJournal.this.getGlobalRevision();
+            } catch (SQLException e) {
+                log.warn("Unable to read global revision: " + e.getMessage());
+                return -1;
+            }
+        }
+
+        public long getOldestRevision() {
+            try {
+                return DatabaseJournal.this.getOldestRevision();
+            } catch (SQLException e) {
+                log.warn("Unable to read oldest revision: " + e.getMessage());
+                return -1;
+            }
+        }
+
+        public long getJournalSize() {
+            try {
+                long oldest = DatabaseJournal.this.getOldestRevision();
+                if (oldest < 0) {
+                    return 0;
+                }
+                return DatabaseJournal.this.getGlobalRevision() - oldest + 1;
+            } catch (SQLException e) {
+                log.warn("Unable to read journal size: " + e.getMessage());
+                return -1;
+            }
+        }
+
+        public Map<String, Long> getLocalRevisionLag() {
+            Map<String, Long> lag = new LinkedHashMap<String, Long>();
+            ResultSet rs = null;
+            try {
+                long globalRevision = DatabaseJournal.this.getGlobalRevision();
+                rs = conHelper.exec(selectLocalRevisionsStmtSQL, null, false, 0);
+                while (rs.next()) {
+                    lag.put(rs.getString(1), globalRevision - rs.getLong(2));
+                }
+            } catch (SQLException e) {
+                log.warn("Unable to read local revisions: " + e.getMessage());
+            } finally {
+                DbUtility.close(rs);
+            }
+            return lag;
+        }
+
+        public long getCleanedRevisions() {
+            return cleanedRevisions.get();
+        }
+
+        public long getCleanUpRuns() {
+            return cleanUpRuns.get();
+        }
+
+        public double getCleanUpThroughput() {
+            return cleanUpThroughput;
+        }
+
+        public long getLastCleanUpTime() {
+            return lastCleanUpTime;
+        }
     }
 }
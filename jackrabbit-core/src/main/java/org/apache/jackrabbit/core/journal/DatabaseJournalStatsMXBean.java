@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.util.Map;
+
+/**
+ * Management interface of a {@link DatabaseJournal}, exposing the size of the
+ * journal table, the distance of each cluster node to the latest revision
+ * and the progress of the revision table janitor.
+ */
+public interface DatabaseJournalStatsMXBean {
+
+    /**
+     * Return the global revision, i.e. the revision of the latest record.
+     *
+     * @return global revision, or <code>-1</code> if it can not be read
+     */
+    long getGlobalRevision();
+
+    /**
+     * Return the revision of the oldest record in the journal table.
+     *
+     * @return oldest revision, or <code>-1</code> if the journal table is
+     *         empty or can not be read
+     */
+    long getOldestRevision();
+
+    /**
+     * Return the number of records in the journal table, estimated from
+     * the range of revisions it contains.
+     *
+     * @return number of records, or <code>-1</code> if it can not be read
+     */
+    long getJournalSize();
+
+    /**
+     * Return the number of revisions each cluster node is behind the global
+     * revision, by cluster node id. Cluster nodes that no longer exist keep
+     * the janitor from cleaning up and should be removed from the local
+     * revisions table.
+     *
+     * @return lag of each cluster node
+     */
+    Map<String, Long> getLocalRevisionLag();
+
+    /**
+     * Return the number of records deleted by the janitor since the journal
+     * was initialized.
+     *
+     * @return number of records
+     */
+    long getCleanedRevisions();
+
+    /**
+     * Return the number of janitor runs since the journal was initialized.
+     *
+     * @return number of runs
+     */
+    long getCleanUpRuns();
+
+    /**
+     * Return the number of records deleted per second by the last janitor
+     * run that deleted records.
+     *
+     * @return records per second
+     */
+    double getCleanUpThroughput();
+
+    /**
+     * Return the time of the last janitor run.
+     *
+     * @return time in milliseconds since the epoch, or <code>0</code>
+     */
+    long getLastCleanUpTime();
+
+}
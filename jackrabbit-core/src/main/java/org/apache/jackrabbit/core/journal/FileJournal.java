@@ -142,9 +142,32 @@ public class FileJournal extends AbstractJournal {
         journalFile = new File(rootDirectory, basename + "." + LOG_EXTENSION);
         globalRevision = new LockableFileRevision(new File(rootDirectory, REVISION_NAME));
 
+        indexLogFiles();
+
         log.info("FileJournal initialized at path: " + directory);
     }
 
+    /**
+     * Adds an entry to the revision index for every log file: all records
+     * in a file had been appended when the file was last modified.
+     */
+    private void indexLogFiles() {
+        RotatingLogFile[] logFiles = RotatingLogFile.listFiles(rootDirectory, basename);
+        for (int i = 0; i < logFiles.length; i++) {
+            File file = logFiles[i].getFile();
+            try {
+                FileRecordLog recordLog = new FileRecordLog(file);
+                if (!recordLog.isNew()) {
+                    // read the revision first, records may be appended concurrently
+                    long revision = recordLog.getLastRevision();
+                    getRevisionIndex().put(file.lastModified(), revision);
+                }
+            } catch (IOException e) {
+                log.warn("Unable to index journal file " + file, e);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
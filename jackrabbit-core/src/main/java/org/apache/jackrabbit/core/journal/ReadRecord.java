@@ -20,8 +20,16 @@ import org.apache.jackrabbit.spi.commons.conversion.NamePathResolver;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 import org.apache.jackrabbit.spi.Name;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 
 /**
  * Record used for reading.
@@ -58,6 +66,23 @@ public class ReadRecord extends AbstractRecord {
      */
     private boolean consumed;
 
+    /**
+     * Data input of the record body, available once the record format has
+     * been determined.
+     */
+    private DataInputStream bodyIn;
+
+    /**
+     * Input limited to the remaining bytes of a compact record, or
+     * <code>null</code>.
+     */
+    private InputStream boundedIn;
+
+    /**
+     * Flag indicating whether this record is in the compact format.
+     */
+    private boolean compact;
+
     /**
      * Create a new instance of this class.
      */
@@ -102,7 +127,7 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            return dataIn.readByte();
+            return getInput().readByte();
         } catch (IOException e) {
             String msg = "I/O error while reading byte.";
             throw new JournalException(msg, e);
@@ -116,7 +141,8 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            return dataIn.readChar();
+            DataInputStream in = getInput();
+            return compact ? (char) readVarLong(in) : in.readChar();
         } catch (IOException e) {
             String msg = "I/O error while reading character.";
             throw new JournalException(msg, e);
@@ -130,7 +156,7 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            return dataIn.readBoolean();
+            return getInput().readBoolean();
         } catch (IOException e) {
             String msg = "I/O error while reading boolean.";
             throw new JournalException(msg, e);
@@ -144,7 +170,8 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            return dataIn.readInt();
+            DataInputStream in = getInput();
+            return compact ? (int) readVarLong(in) : in.readInt();
         } catch (IOException e) {
             String msg = "I/O error while reading integer.";
             throw new JournalException(msg, e);
@@ -158,7 +185,8 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            return dataIn.readLong();
+            DataInputStream in = getInput();
+            return compact ? readVarLong(in) : in.readLong();
         } catch (IOException e) {
             String msg = "I/O error while reading long.";
             throw new JournalException(msg, e);
@@ -172,11 +200,23 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            boolean isNull = dataIn.readBoolean();
+            DataInputStream in = getInput();
+            if (compact) {
+                long n = readVarLong(in);
+                if (n == 0) {
+                    return null;
+                } else if (n < 0 || n > Integer.MAX_VALUE) {
+                    throw new IOException("Illegal string length: " + (n - 1));
+                }
+                byte[] b = new byte[(int) n - 1];
+                in.readFully(b);
+                return new String(b, StandardCharsets.UTF_8);
+            }
+            boolean isNull = in.readBoolean();
             if (isNull) {
                 return null;
             } else {
-                return dataIn.readUTF();
+                return in.readUTF();
             }
         } catch (IOException e) {
             String msg = "I/O error while reading string.";
@@ -191,7 +231,7 @@ public class ReadRecord extends AbstractRecord {
         consumed = true;
 
         try {
-            dataIn.readFully(b);
+            getInput().readFully(b);
         } catch (IOException e) {
             String msg = "I/O error while reading byte array.";
             throw new JournalException(msg, e);
@@ -207,12 +247,79 @@ public class ReadRecord extends AbstractRecord {
         if (length != 0) {
             if (!consumed) {
                 skip(length);
+            } else if (boundedIn != null) {
+                // skip what remains of a compact record, e.g. the end of
+                // the compressed data
+                IOUtils.consume(boundedIn);
             }
         } else {
             dataIn.close();
         }
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected boolean isCompact() throws JournalException {
+        try {
+            getInput();
+            return compact;
+        } catch (IOException e) {
+            String msg = "I/O error while reading record header.";
+            throw new JournalException(msg, e);
+        }
+    }
+
+    /**
+     * Return the data input of the record body. On first access, determines
+     * the record format from the first byte of the record, and reads the
+     * header of a record in compact format.
+     *
+     * @return data input
+     * @throws IOException if an I/O error occurs or the format is not supported
+     */
+    private DataInputStream getInput() throws IOException {
+        if (bodyIn != null) {
+            return bodyIn;
+        }
+        consumed = true;
+
+        PushbackInputStream in = new PushbackInputStream(dataIn, 1);
+        int b = in.read();
+        if (b != (FORMAT_MARKER & 0xFF)) {
+            if (b != -1) {
+                in.unread(b);
+            }
+            bodyIn = new DataInputStream(in);
+            return bodyIn;
+        }
+
+        InputStream body = dataIn;
+        if (length != 0) {
+            // limit reading to this record, also when closing
+            boundedIn = BoundedInputStream.builder()
+                    .setInputStream(dataIn)
+                    .setMaxCount(length - 1)
+                    .setPropagateClose(false)
+                    .get();
+            body = boundedIn;
+        }
+        int version = body.read();
+        if (version != FORMAT_VERSION_2) {
+            throw new IOException("Unsupported record format version: " + version);
+        }
+        int compression = body.read();
+        if (compression == DEFLATED) {
+            body = new BufferedInputStream(new InflaterInputStream(body));
+        } else if (compression != UNCOMPRESSED) {
+            throw new IOException("Unsupported record compression: " + compression);
+        }
+        compact = true;
+        bodyIn = new DataInputStream(body);
+        return bodyIn;
+    }
+
     /**
      * Skip exactly <code>n</code> bytes. Throws if less bytes are skipped.
      *
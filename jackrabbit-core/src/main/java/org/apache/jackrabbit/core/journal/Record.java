@@ -283,6 +283,30 @@ public interface Record {
      */
     long update() throws JournalException;
 
+    /**
+     * Update the changes made to an appended record like {@link #update()},
+     * but allow the journal to commit the record later, together with the
+     * records of subsequent updates. {@link #awaitCommit()} has to be called
+     * afterwards, as soon as no locks are held that subsequent updates may
+     * need.
+     *
+     * @return the size of the record that was saved
+     * @throws JournalException if an error occurs
+     */
+    default long updateDeferred() throws JournalException {
+        return update();
+    }
+
+    /**
+     * Wait until a record updated with {@link #updateDeferred()} has been
+     * committed.
+     *
+     * @throws JournalException if the record could not be committed
+     */
+    default void awaitCommit() throws JournalException {
+        // nothing to be done here
+    }
+
     /**
      * Cancel the changes made to an appended record.
      */
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Sparse index from points in time to journal revisions, used to seek into
+ * a journal without reading it from the beginning. An entry
+ * <code>(timestamp, revision)</code> states that all records up to and
+ * including <code>revision</code> had been appended to the journal at
+ * <code>timestamp</code>, so that records of changes made after that time
+ * can only be found after <code>revision</code>.
+ * <p>
+ * Entries are kept about {@link #RESOLUTION} milliseconds apart. If the
+ * index grows beyond {@link #MAX_ENTRIES}, every other entry is dropped,
+ * which makes the index coarser but never incorrect.
+ */
+public class RevisionIndex {
+
+    /**
+     * Minimum time in milliseconds between two consecutive entries.
+     */
+    static final long RESOLUTION = 1000;
+
+    /**
+     * Maximum number of entries kept.
+     */
+    static final int MAX_ENTRIES = 8192;
+
+    /**
+     * The entries, key=timestamp, value=revision.
+     */
+    private final TreeMap<Long, Long> entries = new TreeMap<Long, Long>();
+
+    /**
+     * Records that all revisions up to the given revision had been appended
+     * at the given time.
+     *
+     * @param timestamp time in milliseconds
+     * @param revision journal revision
+     */
+    public synchronized void put(long timestamp, long revision) {
+        Map.Entry<Long, Long> floor = entries.floorEntry(timestamp);
+        if (floor != null && floor.getValue() >= revision) {
+            // an earlier entry already covers this revision
+            return;
+        }
+        // drop later entries that the new one supersedes
+        for (Iterator<Long> it = entries.tailMap(timestamp).values().iterator(); it.hasNext();) {
+            if (it.next() <= revision) {
+                it.remove();
+            }
+        }
+        if (!entries.isEmpty() && entries.lastKey() < timestamp) {
+            // keep the entries at least RESOLUTION apart by replacing the
+            // most recent entry if it is close to the one before it
+            Long last = entries.lastKey();
+            Long before = entries.lowerKey(last);
+            if (before != null && last - before < RESOLUTION) {
+                entries.remove(last);
+            }
+        }
+        entries.put(timestamp, revision);
+        if (entries.size() > MAX_ENTRIES) {
+            boolean remove = false;
+            for (Iterator<Long> it = entries.keySet().iterator(); it.hasNext();) {
+                it.next();
+                if (remove) {
+                    it.remove();
+                }
+                remove = !remove;
+            }
+        }
+    }
+
+    /**
+     * Returns the highest revision known to have been appended before the
+     * given time. Records of changes made at or after that time can only be
+     * found after this revision.
+     *
+     * @param timestamp time in milliseconds
+     * @return the revision, or <code>null</code> if not known
+     */
+    public synchronized Long getRevision(long timestamp) {
+        SortedMap<Long, Long> head = entries.headMap(timestamp);
+        if (head.isEmpty()) {
+            return null;
+        }
+        return head.get(head.lastKey());
+    }
+
+    /**
+     * Returns the number of entries in this index.
+     *
+     * @return number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+}
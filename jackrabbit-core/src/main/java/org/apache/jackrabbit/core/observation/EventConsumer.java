@@ -16,9 +16,11 @@
  */
 package org.apache.jackrabbit.core.observation;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
@@ -132,6 +134,15 @@ class EventConsumer {
         return listener;
     }
 
+    /**
+     * Returns the <code>EventFilter</code> of this <code>EventConsumer</code>.
+     *
+     * @return the <code>EventFilter</code> of this <code>EventConsumer</code>.
+     */
+    EventFilter getEventFilter() {
+        return filter;
+    }
+
     /**
      * Checks for what {@link EventState}s this <code>EventConsumer</code> has
      * enough access rights to see the event.
@@ -139,9 +150,8 @@ class EventConsumer {
      * @param events the collection of {@link EventState}s.
      */
     void prepareEvents(EventStateCollection events) {
-        Iterator<EventState> it = events.iterator();
-        Set<ItemId> denied = null;
-        while (it.hasNext()) {
+        List<EventState> states = new ArrayList<EventState>();
+        for (Iterator<EventState> it = events.iterator(); it.hasNext();) {
             EventState state = it.next();
             if (state.getType() == Event.NODE_REMOVED
                     || state.getType() == Event.PROPERTY_REMOVED) {
@@ -151,23 +161,10 @@ class EventConsumer {
                     // we have enough access rights to see the event
                     continue;
                 }
-
-                // check read permission
-                ItemId targetId = state.getTargetId();
-                boolean granted = false;
-                try {
-                    granted = canRead(state);
-                } catch (RepositoryException e) {
-                    log.warn("Unable to check access rights for item: " + targetId);
-                }
-                if (!granted) {
-                    if (denied == null) {
-                        denied = new HashSet<ItemId>();
-                    }
-                    denied.add(targetId);
-                }
+                states.add(state);
             }
         }
+        Set<ItemId> denied = getDenied(states);
         if (denied != null) {
             accessDenied.put(events, denied);
         }
@@ -181,31 +178,19 @@ class EventConsumer {
      * @param deletedItems Iterator of deleted <code>ItemState</code>s.
      */
     void prepareDeleted(EventStateCollection events, Iterable<ItemState> deletedItems) {
-        Set<ItemId> denied = null;
         Set<ItemId> deletedIds = new HashSet<ItemId>();
         for (ItemState state : deletedItems) {
             deletedIds.add(state.getId());
         }
 
+        List<EventState> states = new ArrayList<EventState>();
         for (Iterator<EventState> it = events.iterator(); it.hasNext();) {
             EventState evState = it.next();
-            ItemId targetId = evState.getTargetId();
-            if (deletedIds.contains(targetId)) {
-                // check read permission
-                boolean granted = false;
-                try {
-                    granted = canRead(evState);
-                } catch (RepositoryException e) {
-                    log.warn("Unable to check access rights for item: " + targetId);
-                }
-                if (!granted) {
-                    if (denied == null) {
-                        denied = new HashSet<ItemId>();
-                    }
-                    denied.add(targetId);
-                }
+            if (deletedIds.contains(evState.getTargetId())) {
+                states.add(evState);
             }
         }
+        Set<ItemId> denied = getDenied(states);
         if (denied != null) {
             accessDenied.put(events, denied);
         }
@@ -224,15 +209,23 @@ class EventConsumer {
             denied = new HashSet<ItemId>();
         }
 
-        // check permissions
-        for (Iterator<EventState> it = events.iterator(); it.hasNext() && session.isLive();) {
+        // check permissions, but only for events that pass the filter
+        List<EventState> states = new ArrayList<EventState>();
+        for (Iterator<EventState> it = events.iterator(); it.hasNext();) {
             EventState state = it.next();
-            if (state.getType() == Event.NODE_ADDED
+            if ((state.getType() == Event.NODE_ADDED
                     || state.getType() == Event.PROPERTY_ADDED
-                    || state.getType() == Event.PROPERTY_CHANGED) {
-                ItemId targetId = state.getTargetId();
-                if (!canRead(state)) {
-                    denied.add(targetId);
+                    || state.getType() == Event.PROPERTY_CHANGED)
+                    && !filter.blocks(state)) {
+                states.add(state);
+            }
+        }
+        if (!states.isEmpty() && session.isLive()) {
+            boolean[] granted = canRead(states);
+            for (int i = 0; i < states.size() && session.isLive(); i++) {
+                EventState state = states.get(i);
+                if (granted != null ? !granted[i] : !canRead(state)) {
+                    denied.add(state.getTargetId());
                 }
             }
         }
@@ -294,6 +287,66 @@ class EventConsumer {
         return hashCode;
     }
 
+    /**
+     * Checks the read permission for the targets of the given events and
+     * returns the ids of the items that cannot be read.
+     *
+     * @param states the events to check.
+     * @return the ids of the items that cannot be read or <code>null</code>
+     *         if all items can be read.
+     */
+    private Set<ItemId> getDenied(List<EventState> states) {
+        if (states.isEmpty()) {
+            return null;
+        }
+        Set<ItemId> denied = null;
+        boolean[] granted = canRead(states);
+        for (int i = 0; i < states.size(); i++) {
+            EventState state = states.get(i);
+            ItemId targetId = state.getTargetId();
+            boolean canRead = false;
+            if (granted != null) {
+                canRead = granted[i];
+            } else {
+                try {
+                    canRead = canRead(state);
+                } catch (RepositoryException e) {
+                    log.warn("Unable to check access rights for item: " + targetId);
+                }
+            }
+            if (!canRead) {
+                if (denied == null) {
+                    denied = new HashSet<ItemId>();
+                }
+                denied.add(targetId);
+            }
+        }
+        return denied;
+    }
+
+    /**
+     * Checks the read permission for the targets of all given events with a
+     * single call to the access manager.
+     *
+     * @param states the events to check.
+     * @return for each event whether its target item can be read or
+     *         <code>null</code> if the items could not be checked as a batch,
+     *         e.g. because one of them does not exist anymore. The events must
+     *         then be checked one by one.
+     */
+    private boolean[] canRead(List<EventState> states) {
+        ItemId[] ids = new ItemId[states.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = states.get(i).getTargetId();
+        }
+        try {
+            return session.getAccessManager().canRead(ids);
+        } catch (RepositoryException e) {
+            log.debug("Unable to check access rights in a batch: " + e);
+            return null;
+        }
+    }
+
     /**
      * Returns <code>true</code> if the item corresponding to the specified
      * <code>eventState</code> can be read the the current session.
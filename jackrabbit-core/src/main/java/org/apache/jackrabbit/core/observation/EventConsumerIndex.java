@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.observation.Event;
+
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+
+/**
+ * <code>EventConsumerIndex</code> routes events to the consumers that may
+ * be interested in them, based on the event types and the paths of the
+ * consumers' {@link EventFilter}s. The paths are kept in a trie, so that
+ * an event is only matched against the consumers registered for one of
+ * the ancestors of the event's parent path (or for the path itself).
+ * <p>
+ * The index only narrows down the set of consumers: the returned consumers
+ * still apply their full filter (including node types, identifiers and
+ * access rights) to each event. An index is immutable and rebuilt whenever
+ * the registered consumers change.
+ */
+class EventConsumerIndex {
+
+    /**
+     * The root of the path trie.
+     */
+    private final TrieNode root = new TrieNode();
+
+    /**
+     * Consumers whose filter paths cannot be indexed, for example because
+     * they are not normalized. They are matched by event type only.
+     */
+    private final List<Entry> unindexed = new ArrayList<Entry>();
+
+    /**
+     * All consumers that accept at least one event type, in the order
+     * they were indexed.
+     */
+    private final List<Entry> all = new ArrayList<Entry>();
+
+    /**
+     * Bitwise or of the event types accepted by any consumer.
+     */
+    private long eventTypes;
+
+    /**
+     * Creates an index over the given consumers.
+     *
+     * @param consumers the consumers to index.
+     */
+    EventConsumerIndex(Collection<EventConsumer> consumers) {
+        for (EventConsumer consumer : consumers) {
+            EventFilter filter = consumer.getEventFilter();
+            long types = filter.getEventTypes();
+            if (types == 0) {
+                // blocks all events, never a candidate
+                continue;
+            }
+            Entry entry = new Entry(consumer, types);
+            all.add(entry);
+            eventTypes |= types;
+            for (Path path : filter.getPaths()) {
+                if (path.isAbsolute() && path.isNormalized()) {
+                    TrieNode node = root;
+                    Path.Element[] elements = path.getElements();
+                    for (int i = 1; i < elements.length; i++) {
+                        node = node.getOrAddChild(elements[i].getName());
+                    }
+                    if (filter.isDeep()) {
+                        node.deep.add(entry);
+                    } else {
+                        node.exact.add(entry);
+                    }
+                } else {
+                    unindexed.add(entry);
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the consumers that may accept at least one of the given events.
+     *
+     * @param events the events to dispatch.
+     * @return the candidate consumers, in no particular order.
+     */
+    Set<EventConsumer> getConsumers(EventStateCollection events) {
+        Set<EventConsumer> consumers = new LinkedHashSet<EventConsumer>();
+        if (all.isEmpty()) {
+            return consumers;
+        }
+        for (Iterator<EventState> it = events.iterator(); it.hasNext();) {
+            EventState state = it.next();
+            long type = state.getType();
+            if ((eventTypes & type) == 0) {
+                continue;
+            }
+            Path path = state.getParentPath();
+            if (type == Event.PERSIST || path == null
+                    || !path.isAbsolute() || !path.isNormalized()) {
+                // paths do not matter for persist events
+                addMatching(all, type, consumers);
+            } else {
+                addMatching(unindexed, type, consumers);
+                TrieNode node = root;
+                Path.Element[] elements = path.getElements();
+                addMatching(node.deep, type, consumers);
+                for (int i = 1; i < elements.length && node != null; i++) {
+                    node = node.getChild(elements[i].getName());
+                    if (node != null) {
+                        addMatching(node.deep, type, consumers);
+                    }
+                }
+                if (node != null) {
+                    addMatching(node.exact, type, consumers);
+                }
+            }
+            if (consumers.size() == all.size()) {
+                // no need to look further
+                break;
+            }
+        }
+        return consumers;
+    }
+
+    private static void addMatching(
+            List<Entry> entries, long type, Set<EventConsumer> consumers) {
+        for (Entry entry : entries) {
+            if ((entry.eventTypes & type) != 0) {
+                consumers.add(entry.consumer);
+            }
+        }
+    }
+
+    /**
+     * A consumer together with the event types it accepts.
+     */
+    private static final class Entry {
+
+        private final EventConsumer consumer;
+
+        private final long eventTypes;
+
+        Entry(EventConsumer consumer, long eventTypes) {
+            this.consumer = consumer;
+            this.eventTypes = eventTypes;
+        }
+
+    }
+
+    /**
+     * A node in the path trie. Children are keyed by name only, so same
+     * name siblings share a node; this is fine as the consumers apply
+     * their exact filter later on.
+     */
+    private static final class TrieNode {
+
+        private Map<Name, TrieNode> children;
+
+        /**
+         * Consumers registered for this path, including descendants.
+         */
+        private final List<Entry> deep = new ArrayList<Entry>();
+
+        /**
+         * Consumers registered for exactly this path.
+         */
+        private final List<Entry> exact = new ArrayList<Entry>();
+
+        TrieNode getChild(Name name) {
+            return children == null ? null : children.get(name);
+        }
+
+        TrieNode getOrAddChild(Name name) {
+            if (children == null) {
+                children = new HashMap<Name, TrieNode>();
+            }
+            TrieNode child = children.get(name);
+            if (child == null) {
+                child = new TrieNode();
+                children.put(name, child);
+            }
+            return child;
+        }
+
+    }
+
+}
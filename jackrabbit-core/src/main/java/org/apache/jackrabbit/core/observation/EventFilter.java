@@ -131,6 +131,34 @@ public class EventFilter {
         this.nodeTypes = nodeTypes;
     }
 
+    /**
+     * Returns the event types allowed by this filter.
+     *
+     * @return the event types allowed by this filter.
+     */
+    long getEventTypes() {
+        return eventTypes;
+    }
+
+    /**
+     * Returns the paths of the items whose events are allowed by this filter.
+     *
+     * @return the paths of this filter.
+     */
+    List<Path> getPaths() {
+        return paths;
+    }
+
+    /**
+     * Returns <code>true</code> if this filter also allows events for items
+     * below its paths.
+     *
+     * @return whether this filter applies to whole subtrees.
+     */
+    boolean isDeep() {
+        return isDeep;
+    }
+
     /**
      * Returns <code>true</code> if this <code>EventFilter</code> does not allow
      * the specified <code>EventState</code>; <code>false</code> otherwise.
@@ -21,8 +21,6 @@ import java.util.LinkedList;
 import java.util.NoSuchElementException;
 import java.util.Map;
 import java.util.WeakHashMap;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.util.Date;
 import java.util.Collections;
 import java.text.DateFormat;
@@ -34,10 +32,12 @@ import javax.jcr.observation.EventJournal;
 
 import org.apache.jackrabbit.core.SessionImpl;
 import org.apache.jackrabbit.core.cluster.PrivilegeRecord;
+import org.apache.jackrabbit.core.journal.AbstractJournal;
 import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.RecordIterator;
 import org.apache.jackrabbit.core.journal.JournalException;
 import org.apache.jackrabbit.core.journal.Record;
+import org.apache.jackrabbit.core.journal.RevisionIndex;
 import org.apache.jackrabbit.core.cluster.ClusterRecordDeserializer;
 import org.apache.jackrabbit.core.cluster.ClusterRecord;
 import org.apache.jackrabbit.core.cluster.ClusterRecordProcessor;
@@ -65,12 +65,15 @@ public class EventJournalImpl implements EventJournal {
     private static final int MIN_BUFFER_SIZE = 1024;
 
     /**
-     * Map of skip maps. Key=Journal, Value=SortedMap
-     * </p>
-     * Each sorted map has the following structure:
-     * Key=Long (timestamp), Value=Long (revision)
+     * The number of records fetched from the journal at once.
      */
-    private static final Map<Journal, SortedMap<Long, Long>> REVISION_SKIP_MAPS = new WeakHashMap<Journal, SortedMap<Long, Long>>();
+    private static final int FETCH_SIZE = 256;
+
+    /**
+     * Revision indexes of journals that do not maintain their own
+     * {@link AbstractJournal#getRevisionIndex() index}.
+     */
+    private static final Map<Journal, RevisionIndex> REVISION_INDEXES = new WeakHashMap<Journal, RevisionIndex>();
 
     /**
      * Last revision seen by this event journal.
@@ -132,14 +135,12 @@ public class EventJournalImpl implements EventJournal {
     public void skipTo(long date) {
         long time = System.currentTimeMillis();
 
-        // get skip map for this journal
-        SortedMap<Long, Long> skipMap = getSkipMap();
-        synchronized (skipMap) {
-            SortedMap<Long, Long> head = skipMap.headMap(new Long(date));
-            if (!head.isEmpty()) {
-                eventBundleBuffer.clear();
-                lastRevision = head.get(head.lastKey());
-            }
+        // seek to the last revision known to precede the date
+        Long revision = getRevisionIndex().getRevision(date);
+        if (revision != null
+                && (lastRevision == null || lastRevision.longValue() < revision.longValue())) {
+            eventBundleBuffer.clear();
+            lastRevision = revision;
         }
 
         try {
@@ -253,6 +254,11 @@ public class EventJournalImpl implements EventJournal {
          */
         private long lastTimestamp;
 
+        /**
+         * The revision of the last record processed.
+         */
+        private long lastRevision;
+
         /**
          * @return the number of events read so far.
          */
@@ -267,6 +273,13 @@ public class EventJournalImpl implements EventJournal {
             return lastTimestamp;
         }
 
+        /**
+         * @return the revision of the last record processed.
+         */
+        private long getLastRevision() {
+            return lastRevision;
+        }
+
         /**
          * {@inheritDoc}
          */
@@ -280,6 +293,7 @@ public class EventJournalImpl implements EventJournal {
                     eventBundleBuffer.add(bundle);
                     numEvents += events.size();
                     lastTimestamp = record.getTimestamp();
+                    lastRevision = record.getRevision();
                 }
             }
         }
@@ -323,51 +337,46 @@ public class EventJournalImpl implements EventJournal {
     }
 
     /**
-     * Refills the {@link #eventBundleBuffer}.
+     * Refills the {@link #eventBundleBuffer}. Records are fetched from the
+     * journal in batches of {@link #FETCH_SIZE}, until enough events are
+     * buffered or the end of the journal is reached.
      */
     private void refill() {
         assert eventBundleBuffer.isEmpty();
         try {
             RecordProcessor processor = new RecordProcessor();
             ClusterRecordDeserializer deserializer = new ClusterRecordDeserializer();
-            RecordIterator records;
-            if (lastRevision != null) {
-                log.debug("refilling event bundle buffer starting at revision {}",
-                        lastRevision);
-                records = journal.getRecords(lastRevision.longValue());
-            } else {
-                log.debug("refilling event bundle buffer starting at journal beginning");
-                records = journal.getRecords();
-            }
-            try {
-                while (processor.getNumEvents() < MIN_BUFFER_SIZE && records.hasNext()) {
-                    Record record = records.nextRecord();
-                    if (record.getProducerId().equals(producerId)) {
-                        ClusterRecord cr = deserializer.deserialize(record);
-                        if (!session.getWorkspace().getName().equals(cr.getWorkspace())) {
-                            continue;
+            int fetched;
+            do {
+                fetched = 0;
+                RecordIterator records = getRecords();
+                try {
+                    while (fetched < FETCH_SIZE && records.hasNext()) {
+                        Record record = records.nextRecord();
+                        fetched++;
+                        if (record.getProducerId().equals(producerId)) {
+                            ClusterRecord cr = deserializer.deserialize(record);
+                            if (session.getWorkspace().getName().equals(cr.getWorkspace())) {
+                                cr.process(processor);
+                            }
                         }
-                        cr.process(processor);
-                        lastRevision = new Long(cr.getRevision());
+                        lastRevision = Long.valueOf(record.getRevision());
                     }
+                } finally {
+                    records.close();
                 }
-
-                if (processor.getNumEvents() >= MIN_BUFFER_SIZE) {
-                    // remember in skip map
-                    SortedMap<Long, Long> skipMap = getSkipMap();
-                    Long timestamp = new Long(processor.getLastTimestamp());
-                    synchronized (skipMap) {
-                        if (log.isDebugEnabled()) {
-                            DateFormat df = DateFormat.getDateTimeInstance();
-                            log.debug("remember record in skip map: {} -> {}",
-                                    df.format(new Date(timestamp.longValue())),
-                                            lastRevision);
-                        }
-                        skipMap.put(timestamp, lastRevision);
-                    }
+            } while (fetched == FETCH_SIZE && processor.getNumEvents() < MIN_BUFFER_SIZE);
+
+            if (processor.getNumEvents() > 0) {
+                // remember in revision index
+                if (log.isDebugEnabled()) {
+                    DateFormat df = DateFormat.getDateTimeInstance();
+                    log.debug("remember record in revision index: {} -> {}",
+                            df.format(new Date(processor.getLastTimestamp())),
+                            processor.getLastRevision());
                 }
-            } finally {
-                records.close();
+                getRevisionIndex().put(
+                        processor.getLastTimestamp(), processor.getLastRevision());
             }
         } catch (JournalException e) {
             log.warn("Unable to read journal records", e);
@@ -375,16 +384,40 @@ public class EventJournalImpl implements EventJournal {
     }
 
     /**
-     * @return the revision skip map for this journal.
+     * Returns an iterator over the next records to read, fetching at
+     * most {@link #FETCH_SIZE} records if the journal supports it.
+     *
+     * @return record iterator
+     * @throws JournalException if an error occurs
+     */
+    private RecordIterator getRecords() throws JournalException {
+        if (lastRevision == null) {
+            log.debug("refilling event bundle buffer starting at journal beginning");
+            return journal.getRecords();
+        }
+        log.debug("refilling event bundle buffer starting at revision {}",
+                lastRevision);
+        if (journal instanceof AbstractJournal) {
+            return ((AbstractJournal) journal).getRecords(
+                    lastRevision.longValue(), FETCH_SIZE);
+        }
+        return journal.getRecords(lastRevision.longValue());
+    }
+
+    /**
+     * @return the revision index for this journal.
      */
-    private SortedMap<Long, Long> getSkipMap() {
-        synchronized (REVISION_SKIP_MAPS) {
-            SortedMap<Long, Long> map = REVISION_SKIP_MAPS.get(journal);
-            if (map == null) {
-                map = new TreeMap<Long, Long>();
-                REVISION_SKIP_MAPS.put(journal, map);
+    private RevisionIndex getRevisionIndex() {
+        if (journal instanceof AbstractJournal) {
+            return ((AbstractJournal) journal).getRevisionIndex();
+        }
+        synchronized (REVISION_INDEXES) {
+            RevisionIndex index = REVISION_INDEXES.get(journal);
+            if (index == null) {
+                index = new RevisionIndex();
+                REVISION_INDEXES.put(journal, index);
             }
-            return map;
+            return index;
         }
     }
 
@@ -16,19 +16,47 @@
  */
 package org.apache.jackrabbit.core.observation;
 
+import java.util.ArrayDeque;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.jackrabbit.api.stats.RepositoryStatistics;
 import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Dispatcher for dispatching events to listeners within a single workspace.
+ * <p>
+ * By default all asynchronous events are delivered by a single background
+ * notification thread, so that a slow listener delays the delivery to all
+ * other listeners of the workspace. If the system property
+ * <code>jackrabbit.observationThreads</code> is set to a value greater than
+ * one, each event consumer instead gets its own queue, and the queues are
+ * drained by a pool of that many notification threads. Events are still
+ * delivered to a given listener one at a time and in the order they were
+ * dispatched, but slow listeners no longer hold up the others. The number
+ * of events queued for a single listener is limited by
+ * <code>jackrabbit.maxQueuedEventsPerListener</code>, see
+ * {@link #delayIfEventQueueOverloaded()}.
+ * <p>
+ * In both modes, a warning is logged if a listener takes more than
+ * <code>jackrabbit.slowListenerThreshold</code> milliseconds (default 10000)
+ * to process a set of events, and the number of delivered events and the
+ * time spent in listeners are recorded in the repository statistics.
  */
 public final class ObservationDispatcher extends EventDispatcher
         implements Runnable {
@@ -54,6 +82,30 @@ public final class ObservationDispatcher extends EventDispatcher
      */
     private static final int MAX_QUEUED_EVENTS = Integer.parseInt(System.getProperty("jackrabbit.maxQueuedEvents", "200000"));
 
+    /**
+     * The number of notification threads. The default value 1 means all
+     * asynchronous events are delivered by a single thread.
+     */
+    private static final int OBSERVATION_THREADS = Integer.parseInt(System.getProperty("jackrabbit.observationThreads", "1"));
+
+    /**
+     * The maximum number of asynchronous events queued for a single listener
+     * if multiple notification threads are used. Defaults to
+     * {@link #MAX_QUEUED_EVENTS}.
+     */
+    private static final int MAX_QUEUED_EVENTS_PER_LISTENER = Integer.parseInt(System.getProperty("jackrabbit.maxQueuedEventsPerListener", String.valueOf(MAX_QUEUED_EVENTS)));
+
+    /**
+     * The time in milliseconds after which a listener is considered slow.
+     */
+    private static final long SLOW_LISTENER_THRESHOLD = Long.parseLong(System.getProperty("jackrabbit.slowListenerThreshold", "10000"));
+
+    /**
+     * The maximum number of event collections a notification thread
+     * delivers to one listener before it moves on to the next queue.
+     */
+    private static final int DISPATCH_BATCH_SIZE = 16;
+
     /**
      * Currently active <code>EventConsumer</code>s for notification.
      */
@@ -74,6 +126,18 @@ public final class ObservationDispatcher extends EventDispatcher
      */
     private Set<EventConsumer> synchronousReadOnlyConsumers;
 
+    /**
+     * Routing index over the asynchronous <code>EventConsumer</code>s,
+     * rebuilt when the consumers change.
+     */
+    private EventConsumerIndex asynchronousIndex;
+
+    /**
+     * Routing index over the synchronous <code>EventConsumer</code>s,
+     * rebuilt when the consumers change.
+     */
+    private EventConsumerIndex synchronousIndex;
+
     /**
      * synchronization monitor for listener changes
      */
@@ -87,33 +151,141 @@ public final class ObservationDispatcher extends EventDispatcher
     private AtomicInteger eventQueueSize = new AtomicInteger();
 
     /**
-     * The background notification thread
+     * The background notification thread, or <code>null</code> if
+     * events are delivered by the {@link #executor} thread pool.
      */
     private Thread notificationThread;
 
+    /**
+     * The pool of notification threads, or <code>null</code> if events
+     * are delivered by the single {@link #notificationThread}.
+     */
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * All threads used for event delivery.
+     */
+    private final Set<Thread> notificationThreads =
+        Collections.newSetFromMap(new ConcurrentHashMap<Thread, Boolean>());
+
+    /**
+     * The pending events per consumer, if the {@link #executor} is used.
+     */
+    private final ConcurrentMap<EventConsumer, ListenerQueue> listenerQueues =
+        new ConcurrentHashMap<EventConsumer, ListenerQueue>();
+
+    /**
+     * The maximum number of events queued for a single listener.
+     */
+    private final int maxQueuedEventsPerListener;
+
+    /**
+     * The number of listener queues that exceed
+     * {@link #maxQueuedEventsPerListener}.
+     */
+    private final AtomicInteger overloadedListeners = new AtomicInteger();
+
+    /**
+     * The number of events delivered to asynchronous listeners.
+     */
+    private final AtomicLong eventCounter;
+
+    /**
+     * The time (in nanoseconds) spent in asynchronous listeners.
+     */
+    private final AtomicLong eventDuration;
+
     private long lastError;
 
+    private long lastSlowListenerWarning;
+
     /**
      * Creates a new <code>ObservationDispatcher</code> instance
      * and starts the notification thread daemon.
      */
     public ObservationDispatcher() {
-        notificationThread = new Thread(this, "ObservationManager");
-        notificationThread.setDaemon(true);
-        notificationThread.start();
+        this(null);
+    }
+
+    /**
+     * Creates a new <code>ObservationDispatcher</code> instance that records
+     * event delivery in the given repository statistics, and starts the
+     * notification thread daemon(s).
+     *
+     * @param statistics repository statistics, or <code>null</code>
+     */
+    public ObservationDispatcher(RepositoryStatisticsImpl statistics) {
+        this(OBSERVATION_THREADS, MAX_QUEUED_EVENTS_PER_LISTENER, statistics);
+    }
+
+    /**
+     * Creates a new <code>ObservationDispatcher</code> instance.
+     *
+     * @param threads number of notification threads
+     * @param maxQueuedEventsPerListener maximum number of events queued for
+     *                                   a single listener, only used if there
+     *                                   is more than one notification thread
+     * @param statistics repository statistics, or <code>null</code>
+     */
+    ObservationDispatcher(
+            int threads, int maxQueuedEventsPerListener,
+            RepositoryStatisticsImpl statistics) {
+        this.maxQueuedEventsPerListener = maxQueuedEventsPerListener;
+        if (statistics != null) {
+            eventCounter = statistics.getCounter(
+                    RepositoryStatistics.Type.OBSERVATION_EVENT_COUNTER);
+            eventDuration = statistics.getCounter(
+                    RepositoryStatistics.Type.OBSERVATION_EVENT_DURATION);
+        } else {
+            eventCounter = new AtomicLong();
+            eventDuration = new AtomicLong();
+        }
+        if (threads > 1) {
+            ThreadFactory f = new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(
+                            r, "ObservationManager-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    notificationThreads.add(t);
+                    return t;
+                }
+            };
+            executor = new ThreadPoolExecutor(
+                    threads, threads, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), f);
+        } else {
+            executor = null;
+            notificationThread = new Thread(this, "ObservationManager");
+            notificationThread.setDaemon(true);
+            notificationThreads.add(notificationThread);
+            notificationThread.start();
+        }
     }
 
     /**
      * Disposes this <code>ObservationManager</code>. This will
-     * effectively stop the background notification thread.
+     * effectively stop the background notification thread(s) once
+     * all pending events have been delivered.
      */
     public void dispose() {
-        // dispatch dummy event to mark end of notification
-        eventQueue.add(DISPOSE_MARKER);
-        try {
-            notificationThread.join();
-        } catch (InterruptedException e) {
-            log.debug("while joining notificationThread", e);
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    log.debug("waiting for pending events to be delivered");
+                }
+            } catch (InterruptedException e) {
+                log.debug("while waiting for notification threads", e);
+            }
+        } else {
+            // dispatch dummy event to mark end of notification
+            eventQueue.add(DISPOSE_MARKER);
+            try {
+                notificationThread.join();
+            } catch (InterruptedException e) {
+                log.debug("while joining notificationThread", e);
+            }
         }
         log.info("Notification of EventListeners stopped.");
     }
@@ -141,6 +313,42 @@ public final class ObservationDispatcher extends EventDispatcher
         }
     }
 
+    /**
+     * Returns the asynchronous <code>EventConsumer</code>s that may accept
+     * at least one of the given events.
+     *
+     * @param events the events to dispatch.
+     * @return candidate consumers for the events.
+     */
+    Set<EventConsumer> getAsynchronousConsumers(EventStateCollection events) {
+        EventConsumerIndex index;
+        synchronized (consumerChange) {
+            if (asynchronousIndex == null) {
+                asynchronousIndex = new EventConsumerIndex(activeConsumers);
+            }
+            index = asynchronousIndex;
+        }
+        return index.getConsumers(events);
+    }
+
+    /**
+     * Returns the synchronous <code>EventConsumer</code>s that may accept
+     * at least one of the given events.
+     *
+     * @param events the events to dispatch.
+     * @return candidate consumers for the events.
+     */
+    Set<EventConsumer> getSynchronousConsumers(EventStateCollection events) {
+        EventConsumerIndex index;
+        synchronized (consumerChange) {
+            if (synchronousIndex == null) {
+                synchronousIndex = new EventConsumerIndex(synchronousConsumers);
+            }
+            index = synchronousIndex;
+        }
+        return index.getConsumers(events);
+    }
+
     /**
      * Implements the run method of the background notification
      * thread.
@@ -156,12 +364,7 @@ public final class ObservationDispatcher extends EventDispatcher
                     log.debug("got EventStateCollection");
                     log.debug("event delivery to " + action.getEventConsumers().size() + " consumers started...");
                     for (EventConsumer c : action.getEventConsumers()) {
-                        try {
-                            c.consumeEvents(action.getEventStates());
-                        } catch (Throwable t) {
-                            log.warn("EventConsumer " + c.getEventListener().getClass().getName() + " threw exception", t);
-                            // move on to the next consumer
-                        }
+                        deliver(c, action.getEventStates(), eventQueueSize.get());
                     }
                 }
             } catch (InterruptedException ex) {
@@ -171,6 +374,43 @@ public final class ObservationDispatcher extends EventDispatcher
         log.debug("event delivery finished.");
     }
 
+    /**
+     * Delivers events to an asynchronous consumer, and records the time
+     * it took.
+     *
+     * @param c the consumer
+     * @param events the events to deliver
+     * @param queued the number of events still waiting for the consumer,
+     *               only used for logging
+     */
+    private void deliver(EventConsumer c, EventStateCollection events, int queued) {
+        long time = System.nanoTime();
+        try {
+            c.consumeEvents(events);
+        } catch (Throwable t) {
+            log.warn("EventConsumer " + c.getEventListener().getClass().getName() + " threw exception", t);
+            // move on to the next consumer
+        }
+        time = System.nanoTime() - time;
+        eventCounter.addAndGet(events.size());
+        eventDuration.addAndGet(time);
+
+        long millis = TimeUnit.NANOSECONDS.toMillis(time);
+        if (millis > SLOW_LISTENER_THRESHOLD) {
+            long now = System.currentTimeMillis();
+            // log a warning at most every 5 seconds (to avoid filling the log file)
+            synchronized (this) {
+                if (now < lastSlowListenerWarning + 5000) {
+                    return;
+                }
+                lastSlowListenerWarning = now;
+            }
+            log.warn("EventListener {} took {} ms to process {} events, {} events are waiting",
+                    c.getEventListener().getClass().getName(), millis,
+                    events.size(), queued);
+        }
+    }
+
     /**
      * {@inheritDoc}
      * <p>
@@ -179,8 +419,8 @@ public final class ObservationDispatcher extends EventDispatcher
      */
     void prepareEvents(EventStateCollection events) {
         Set<EventConsumer> consumers = new HashSet<EventConsumer>();
-        consumers.addAll(getSynchronousConsumers());
-        consumers.addAll(getAsynchronousConsumers());
+        consumers.addAll(getSynchronousConsumers(events));
+        consumers.addAll(getAsynchronousConsumers(events));
         for (EventConsumer c : consumers) {
             c.prepareEvents(events);
         }
@@ -191,8 +431,8 @@ public final class ObservationDispatcher extends EventDispatcher
      */
     void prepareDeleted(EventStateCollection events, ChangeLog changes) {
         Set<EventConsumer> consumers = new HashSet<EventConsumer>();
-        consumers.addAll(getSynchronousConsumers());
-        consumers.addAll(getAsynchronousConsumers());
+        consumers.addAll(getSynchronousConsumers(events));
+        consumers.addAll(getAsynchronousConsumers(events));
         for (EventConsumer c : consumers) {
             c.prepareDeleted(events, changes.deletedStates());
         }
@@ -207,7 +447,7 @@ public final class ObservationDispatcher extends EventDispatcher
     void dispatchEvents(EventStateCollection events) {
         // JCR-3426: log warning when changes are done
         // with the notification thread
-        if (Thread.currentThread() == notificationThread) {
+        if (notificationThreads.contains(Thread.currentThread())) {
             log.warn("Save call with event notification thread detected. This " +
                     "may lead to a growing event queue. Enable debug log to " +
                     "see the stack trace with the class calling save().");
@@ -216,7 +456,7 @@ public final class ObservationDispatcher extends EventDispatcher
             }
         }
         // notify synchronous listeners
-        Set<EventConsumer> synchronous = getSynchronousConsumers();
+        Set<EventConsumer> synchronous = getSynchronousConsumers(events);
         if (log.isDebugEnabled()) {
             log.debug("notifying " + synchronous.size() + " synchronous listeners.");
         }
@@ -228,31 +468,61 @@ public final class ObservationDispatcher extends EventDispatcher
                 // move on to next consumer
             }
         }
-        eventQueue.add(new DispatchAction(events, getAsynchronousConsumers()));
-        eventQueueSize.addAndGet(events.size());
+        // only queue the events for listeners that may be interested
+        Set<EventConsumer> asynchronous = getAsynchronousConsumers(events);
+        if (asynchronous.isEmpty()) {
+            return;
+        }
+        if (executor != null) {
+            // the collections are shared between the listener queues, so the
+            // per-listener limit also bounds the total number of queued events
+            for (EventConsumer c : asynchronous) {
+                ListenerQueue queue;
+                do {
+                    queue = listenerQueues.get(c);
+                    if (queue == null) {
+                        queue = new ListenerQueue(c);
+                        ListenerQueue existing = listenerQueues.putIfAbsent(c, queue);
+                        if (existing != null) {
+                            queue = existing;
+                        }
+                    }
+                    // retry if the queue was retired concurrently
+                } while (!queue.add(c, events));
+            }
+        } else {
+            eventQueue.add(new DispatchAction(events, asynchronous));
+            eventQueueSize.addAndGet(events.size());
+        }
     }
 
     /**
      * Checks if the observation event queue contains more than the
      * configured {@link #MAX_QUEUED_EVENTS maximum number of events},
-     * and delays the current thread in such cases. No delay is added
-     * if the current thread is the observation thread, for example if
-     * an observation listener writes to the repository.
+     * or if more than the configured maximum number of events are queued
+     * for a single listener, and delays the current thread in such cases.
+     * No delay is added if the current thread is an observation thread, for
+     * example if an observation listener writes to the repository.
      * <p>
      * This method should only be called outside the scope of internal
      * repository access locks.
      */
     public void delayIfEventQueueOverloaded() {
-        if (eventQueueSize.get() > MAX_QUEUED_EVENTS) {
+        if (isEventQueueOverloaded()) {
             boolean logWarning = false;
             long now = System.currentTimeMillis();
             // log a warning at most every 5 seconds (to avoid filling the log file)
             if (lastError == 0 || now > lastError + 5000) {
                 logWarning = true;
-                log.warn("More than " + MAX_QUEUED_EVENTS + " events in the queue", new Exception("Stack Trace"));
+                if (overloadedListeners.get() > 0) {
+                    log.warn("More than " + maxQueuedEventsPerListener + " events in the queue of "
+                            + overloadedListeners.get() + " listener(s)", new Exception("Stack Trace"));
+                } else {
+                    log.warn("More than " + MAX_QUEUED_EVENTS + " events in the queue", new Exception("Stack Trace"));
+                }
                 lastError = now;
             }
-            if (Thread.currentThread() == notificationThread) {
+            if (notificationThreads.contains(Thread.currentThread())) {
                 if (logWarning) {
                     log.warn("Recursive notification?");
                 }
@@ -269,6 +539,17 @@ public final class ObservationDispatcher extends EventDispatcher
         }
     }
 
+    /**
+     * Returns <code>true</code> if too many events are waiting to be
+     * delivered, either in total or to a single listener.
+     *
+     * @return whether the event queue is overloaded
+     */
+    boolean isEventQueueOverloaded() {
+        return eventQueueSize.get() > MAX_QUEUED_EVENTS
+                || overloadedListeners.get() > 0;
+    }
+
     /**
      * Adds or replaces an event consumer.
      * @param consumer the <code>EventConsumer</code> to add or replace.
@@ -282,6 +563,7 @@ public final class ObservationDispatcher extends EventDispatcher
                 synchronousConsumers.add(consumer);
                 // reset read only consumer set
                 synchronousReadOnlyConsumers = null;
+                synchronousIndex = null;
             } else {
                 // remove existing if any
                 activeConsumers.remove(consumer);
@@ -289,6 +571,7 @@ public final class ObservationDispatcher extends EventDispatcher
                 activeConsumers.add(consumer);
                 // reset read only consumer set
                 readOnlyConsumers = null;
+                asynchronousIndex = null;
             }
         }
     }
@@ -303,11 +586,152 @@ public final class ObservationDispatcher extends EventDispatcher
                 synchronousConsumers.remove(consumer);
                 // reset read only listener set
                 synchronousReadOnlyConsumers = null;
+                synchronousIndex = null;
             } else {
                 activeConsumers.remove(consumer);
                 // reset read only listener set
                 readOnlyConsumers = null;
+                asynchronousIndex = null;
+            }
+        }
+        // drop the queue of the consumer unless events are still pending,
+        // in which case it is dropped once they are delivered
+        ListenerQueue queue = listenerQueues.get(consumer);
+        if (queue != null) {
+            queue.retireIfIdle();
+        }
+    }
+
+    /**
+     * The events pending for a single consumer, if multiple notification
+     * threads are used. At most one notification thread works on a queue
+     * at any time, so that events are delivered to the consumer in order.
+     */
+    private final class ListenerQueue implements Runnable {
+
+        /**
+         * The consumer key of this queue in {@link #listenerQueues}.
+         */
+        private final EventConsumer key;
+
+        /**
+         * The pending event collections. The consumer instance is kept with
+         * each collection as it may be replaced with one that has a different
+         * filter while events are pending.
+         */
+        private final Queue<DispatchAction> actions = new ArrayDeque<DispatchAction>();
+
+        /**
+         * The number of pending events.
+         */
+        private int queued;
+
+        /**
+         * Whether this queue is submitted to the executor.
+         */
+        private boolean scheduled;
+
+        /**
+         * Whether this queue was removed from {@link #listenerQueues}.
+         */
+        private boolean retired;
+
+        ListenerQueue(EventConsumer key) {
+            this.key = key;
+        }
+
+        /**
+         * Adds events to this queue and schedules it for delivery.
+         *
+         * @return <code>false</code> if the queue was already retired
+         */
+        boolean add(EventConsumer c, EventStateCollection events) {
+            synchronized (this) {
+                if (retired) {
+                    return false;
+                }
+                actions.add(new DispatchAction(
+                        events, Collections.singleton(c)));
+                updateQueued(events.size());
+                if (scheduled) {
+                    return true;
+                }
+                scheduled = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                log.debug("dispatcher disposed, events not delivered", e);
             }
+            return true;
         }
+
+        /**
+         * Removes this queue from {@link #listenerQueues} if it is empty
+         * and not scheduled.
+         */
+        synchronized void retireIfIdle() {
+            if (!scheduled && actions.isEmpty() && !retired) {
+                retired = true;
+                listenerQueues.remove(key, this);
+            }
+        }
+
+        /**
+         * Delivers up to {@link #DISPATCH_BATCH_SIZE} event collections, and
+         * then reschedules this queue if more events are pending, so that
+         * other listeners get their turn.
+         */
+        public void run() {
+            while (true) {
+                for (int i = 0; i < DISPATCH_BATCH_SIZE; i++) {
+                    DispatchAction action;
+                    int remaining;
+                    synchronized (this) {
+                        action = actions.poll();
+                        if (action == null) {
+                            break;
+                        }
+                        updateQueued(-action.getEventStates().size());
+                        remaining = queued;
+                    }
+                    for (EventConsumer c : action.getEventConsumers()) {
+                        deliver(c, action.getEventStates(), remaining);
+                    }
+                }
+                synchronized (this) {
+                    if (actions.isEmpty()) {
+                        scheduled = false;
+                        if (!getAsynchronousConsumers().contains(key)) {
+                            retireIfIdle();
+                        }
+                        return;
+                    }
+                }
+                try {
+                    executor.execute(this);
+                    return;
+                } catch (RejectedExecutionException e) {
+                    // disposed: deliver the remaining events right away
+                }
+            }
+        }
+
+        /**
+         * Updates the number of pending events, and keeps track of
+         * whether this queue is overloaded.
+         */
+        private void updateQueued(int delta) {
+            boolean wasOverloaded = queued > maxQueuedEventsPerListener;
+            queued += delta;
+            boolean isOverloaded = queued > maxQueuedEventsPerListener;
+            if (isOverloaded && !wasOverloaded) {
+                overloadedListeners.incrementAndGet();
+            } else if (wasOverloaded && !isOverloaded) {
+                overloadedListeners.decrementAndGet();
+            }
+        }
+
     }
+
 }
@@ -0,0 +1,43 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence;
+
+import java.util.Collection;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.state.ItemStateException;
+
+/**
+ * Optional interface of persistence managers that can load a number of
+ * node states at once. It is used by the shared item state manager to warm
+ * the persistence manager caches before the nodes are accessed one by one,
+ * for example when iterating over the child nodes of a node.
+ */
+public interface PrefetchingPersistenceManager {
+
+    /**
+     * Loads the given nodes into the caches of this persistence manager, so
+     * that subsequent calls of {@link PersistenceManager#load(NodeId)} for
+     * these nodes do not need to access the underlying storage. Nodes that
+     * are already cached or do not exist are ignored.
+     *
+     * @param ids ids of the nodes to load
+     * @throws ItemStateException if the nodes could not be loaded
+     */
+    void prefetch(Collection<NodeId> ids) throws ItemStateException;
+
+}
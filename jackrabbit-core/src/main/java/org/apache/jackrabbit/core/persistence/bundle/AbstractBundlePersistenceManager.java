@@ -20,9 +20,15 @@ import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_MIXINTYPE
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_PRIMARYTYPE;
 import static org.apache.jackrabbit.spi.commons.name.NameConstants.JCR_UUID;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
@@ -33,7 +39,7 @@ import javax.jcr.RepositoryException;
 import org.apache.jackrabbit.api.stats.RepositoryStatistics;
 import org.apache.jackrabbit.core.cache.Cache;
 import org.apache.jackrabbit.core.cache.CacheAccessListener;
-import org.apache.jackrabbit.core.cache.ConcurrentCache;
+import org.apache.jackrabbit.core.cache.TinyLFUCache;
 import org.apache.jackrabbit.core.cluster.UpdateEventChannel;
 import org.apache.jackrabbit.core.fs.FileSystem;
 import org.apache.jackrabbit.core.fs.FileSystemResource;
@@ -44,14 +50,17 @@ import org.apache.jackrabbit.core.persistence.CachingPersistenceManager;
 import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
 import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
+import org.apache.jackrabbit.core.persistence.PrefetchingPersistenceManager;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyCheckListener;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyChecker;
 import org.apache.jackrabbit.core.persistence.check.ConsistencyReport;
 import org.apache.jackrabbit.core.persistence.util.BLOBStore;
+import org.apache.jackrabbit.core.persistence.util.BundleBinding;
 import org.apache.jackrabbit.core.persistence.util.FileBasedIndex;
 import org.apache.jackrabbit.core.persistence.util.NodeInfo;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle.PropertyEntry;
+import org.apache.jackrabbit.core.persistence.util.OffHeapBundleCache;
 import org.apache.jackrabbit.core.state.ChangeLog;
 import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -89,13 +98,19 @@ import org.slf4j.LoggerFactory;
  * because a lot of {@link #exists(NodeId)} calls are issued that would result
  * in a useless persistence lookup if the desired bundle does not exist.
  * <p>
+ * Optionally, bundles evicted from the bundle cache can be kept in serialized
+ * form in a second cache level outside of the Java heap, see
+ * {@link #setOffHeapBundleCacheSize(String)}.
+ * <p>
  * Configuration:<br>
  * <ul>
  * <li>&lt;param name="{@link #setBundleCacheSize(String) bundleCacheSize}" value="8"/&gt;
+ * <li>&lt;param name="{@link #setOffHeapBundleCacheSize(String) offHeapBundleCacheSize}" value="0"/&gt;
  * </ul>
  */
 public abstract class AbstractBundlePersistenceManager implements
-    PersistenceManager, CachingPersistenceManager, IterablePersistenceManager, CacheAccessListener, ConsistencyChecker {
+    PersistenceManager, CachingPersistenceManager, IterablePersistenceManager,
+    PrefetchingPersistenceManager, CacheAccessListener, ConsistencyChecker {
 
     /** the audit logger */
     private static Logger auditLogger = LoggerFactory.getLogger("org.apache.jackrabbit.core.audit");
@@ -115,15 +130,19 @@ public abstract class AbstractBundlePersistenceManager implements
     /** the name of the namespace-index resource */
     protected static final String RES_NS_INDEX = "/namespaces.properties";
 
+    /** the name of the file that backs the off-heap bundle cache */
+    protected static final String OFF_HEAP_BUNDLE_CACHE_FILE = "bundlecache.mmap";
+
     /** Sentinel instance used to mark a non-existent bundle in the cache */
     private static final NodePropBundle MISSING =
         new NodePropBundle(NodeId.randomId());
 
     /**
      * The size estimate for the MISSING NodePropBundle. The sum of:
-     * - ConcurrentCache.E: 32 bytes
-     * - LinkedHashMap.Entry: 64 bytes
+     * - TinyLFUCache.Node: 40 bytes
+     * - ConcurrentHashMap.Node: 32 bytes
      * - NodeId: 32 bytes
+     * - read buffer and frequency sketch share: 24 bytes
      */
     private static final long MISSING_SIZE_ESTIMATE = 128;
 
@@ -134,7 +153,28 @@ public abstract class AbstractBundlePersistenceManager implements
     private StringIndex nameIndex;
 
     /** the cache of loaded bundles */
-    private ConcurrentCache<NodeId, NodePropBundle> bundles;
+    private TinyLFUCache<NodeId, NodePropBundle> bundles;
+
+    /** Loads missing bundles into the bundle cache. */
+    private final TinyLFUCache.Loader<NodeId, NodePropBundle, ItemStateException> bundleLoader =
+        new TinyLFUCache.Loader<NodeId, NodePropBundle, ItemStateException>() {
+            public NodePropBundle load(NodeId id) throws ItemStateException {
+                return getBundleCacheMiss(id);
+            }
+            public long getSize(NodePropBundle bundle) {
+                return bundle == MISSING ? MISSING_SIZE_ESTIMATE : bundle.getSize();
+            }
+        };
+
+    /** the off-heap cache of serialized bundles, or <code>null</code> */
+    private OffHeapBundleCache offHeapBundles;
+
+    /**
+     * Number of stores and external updates so far, guarded by the monitor
+     * of this instance. Used to discard prefetched bundles that may have
+     * been read before a concurrent change was committed.
+     */
+    private long storeCount = 0;
 
     /** The default minimum stats logging interval (in ms). */
     private static final int DEFAULT_LOG_STATS_INTERVAL = 60 * 1000;
@@ -154,6 +194,9 @@ public abstract class AbstractBundlePersistenceManager implements
     /** default size of the bundle cache */
     private long bundleCacheSize = 8 * 1024 * 1024;
 
+    /** size of the off-heap bundle cache, disabled by default */
+    private long offHeapBundleCacheSize = 0;
+
     /** Counter of read operations. */
     private AtomicLong readCounter;
 
@@ -166,6 +209,9 @@ public abstract class AbstractBundlePersistenceManager implements
     /** Counter of bundle cache accesses. */
     private AtomicLong cacheAccessCounter;
 
+    /** Counter of bundle cache hits. */
+    private AtomicLong cacheHitCounter;
+
     /** Counter of bundle read operations. */
     private AtomicLong cacheMissCounter;
 
@@ -196,6 +242,29 @@ public abstract class AbstractBundlePersistenceManager implements
         this.bundleCacheSize = Long.parseLong(bundleCacheSize) * 1024 * 1024;
     }
 
+    /**
+     * Returns the size of the off-heap bundle cache in megabytes.
+     * @return the size of the off-heap bundle cache in megabytes.
+     */
+    public String getOffHeapBundleCacheSize() {
+        return String.valueOf(offHeapBundleCacheSize / (1024 * 1024));
+    }
+
+    /**
+     * Sets the size of the off-heap bundle cache in megabytes. The off-heap
+     * cache keeps serialized bundles in a memory-mapped file in the home
+     * directory of the persistence manager, and is consulted on a miss of
+     * the bundle cache before a bundle is loaded from the persistent
+     * storage. Its contents are discarded when the persistence manager is
+     * closed. The default is 0, which disables the off-heap cache.
+     *
+     * @param offHeapBundleCacheSize the off-heap bundle cache size in megabytes.
+     */
+    public void setOffHeapBundleCacheSize(String offHeapBundleCacheSize) {
+        this.offHeapBundleCacheSize =
+            Long.parseLong(offHeapBundleCacheSize) * 1024 * 1024;
+    }
+
     /**
      * Creates the folder path for the given node id that is suitable for
      * storing states in a filesystem.
@@ -350,15 +419,16 @@ public abstract class AbstractBundlePersistenceManager implements
      * {@inheritDoc}
      */
     public synchronized void onExternalUpdate(ChangeLog changes) {
+        storeCount++;
         for (ItemState state : changes.modifiedStates()) {
-            bundles.remove(getBundleId(state));
+            evictBundle(getBundleId(state));
         }
         for (ItemState state : changes.deletedStates()) {
-            bundles.remove(getBundleId(state));
+            evictBundle(getBundleId(state));
         }
         for (ItemState state : changes.addedStates()) {
             // There may have been a cache miss entry
-            bundles.remove(getBundleId(state));
+            evictBundle(getBundleId(state));
         }
     }
 
@@ -395,6 +465,30 @@ public abstract class AbstractBundlePersistenceManager implements
     protected abstract NodePropBundle loadBundle(NodeId id)
             throws ItemStateException;
 
+    /**
+     * Loads a number of bundles from the underlying system. The default
+     * implementation calls {@link #loadBundle(NodeId)} for each id;
+     * subclasses that can load several bundles with a single request should
+     * override this method.
+     *
+     * @param ids the node ids of the bundles
+     * @return the loaded bundles; bundles that do not exist are not
+     *         contained in the returned map
+     * @throws ItemStateException if an error while loading occurs.
+     */
+    protected Map<NodeId, NodePropBundle> loadBundles(Collection<NodeId> ids)
+            throws ItemStateException {
+        Map<NodeId, NodePropBundle> bundles =
+            new HashMap<NodeId, NodePropBundle>(ids.size());
+        for (NodeId id : ids) {
+            NodePropBundle bundle = loadBundle(id);
+            if (bundle != null) {
+                bundles.put(id, bundle);
+            }
+        }
+        return bundles;
+    }
+
     /**
      * Stores a bundle to the underlying system.
      *
@@ -439,6 +533,17 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     protected abstract BLOBStore getBlobStore();
 
+    /**
+     * Returns the binding used to serialize bundles for the off-heap bundle
+     * cache. The default implementation returns <code>null</code>, which
+     * disables the off-heap bundle cache.
+     *
+     * @return the bundle binding, or <code>null</code>
+     */
+    protected BundleBinding getBundleBinding() {
+        return null;
+    }
+
     //-------------------------------------------------< PersistenceManager >---
 
     /**
@@ -449,9 +554,14 @@ public abstract class AbstractBundlePersistenceManager implements
     public void init(PMContext context) throws Exception {
         this.context = context;
         // init bundle cache
-        bundles = new ConcurrentCache<NodeId, NodePropBundle>(context.getHomeDir().getName() + "BundleCache");
+        bundles = new TinyLFUCache<NodeId, NodePropBundle>(context.getHomeDir().getName() + "BundleCache");
         bundles.setMaxMemorySize(bundleCacheSize);
         bundles.setAccessListener(this);
+        if (offHeapBundleCacheSize > 0) {
+            offHeapBundles = new OffHeapBundleCache(
+                    new File(context.getHomeDir(), OFF_HEAP_BUNDLE_CACHE_FILE),
+                    offHeapBundleCacheSize);
+        }
 
         // statistics
         RepositoryStatisticsImpl stats = context.getRepositoryStatistics();
@@ -463,6 +573,8 @@ public abstract class AbstractBundlePersistenceManager implements
                 RepositoryStatistics.Type.BUNDLE_WRITE_DURATION);
         cacheAccessCounter = stats.getCounter(
                 RepositoryStatistics.Type.BUNDLE_CACHE_ACCESS_COUNTER);
+        cacheHitCounter = stats.getCounter(
+                RepositoryStatisticsImpl.BUNDLE_CACHE_HIT_COUNTER, true);
         cacheSizeCounter = stats.getCounter(
                 RepositoryStatistics.Type.BUNDLE_CACHE_SIZE_COUNTER);
         cacheMissCounter = stats.getCounter(
@@ -479,6 +591,10 @@ public abstract class AbstractBundlePersistenceManager implements
     public void close() throws Exception {
         // clear caches
         bundles.clear();
+        if (offHeapBundles != null) {
+            offHeapBundles.close();
+            offHeapBundles = null;
+        }
     }
 
     /**
@@ -497,7 +613,10 @@ public abstract class AbstractBundlePersistenceManager implements
     /**
      * {@inheritDoc}
      *
-     * Loads the state via the appropriate NodePropBundle.
+     * Loads the state via the appropriate NodePropBundle. Only the values
+     * of the requested property are decoded from a serialized bundle, the
+     * other properties and the child node entries are decoded when they
+     * are first accessed.
      */
     public PropertyState load(PropertyId id) throws NoSuchItemStateException, ItemStateException {
         NodePropBundle bundle = getBundle(id.getParentId());
@@ -563,6 +682,45 @@ public abstract class AbstractBundlePersistenceManager implements
         return getBundle(id) != null;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Loads the bundles that are not cached yet with
+     * {@link #loadBundles(Collection)}. Unlike normal reads, prefetching is
+     * not protected by the item state locks of the shared item state
+     * manager, so the loaded bundles are only cached if no
+     * {@link #store(ChangeLog)} and no external update happened since the
+     * load started. The monitor of this instance, which a store holds from
+     * the first modified bundle until the changes are committed, is only
+     * held to check this, not while the bundles are loaded.
+     */
+    public void prefetch(Collection<NodeId> ids) throws ItemStateException {
+        List<NodeId> missing = new ArrayList<NodeId>(ids.size());
+        for (NodeId id : ids) {
+            if (!bundles.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        long count;
+        synchronized (this) {
+            count = storeCount;
+        }
+        Map<NodeId, NodePropBundle> loaded = getBundlesCacheMiss(missing);
+        synchronized (this) {
+            if (count == storeCount) {
+                for (Map.Entry<NodeId, NodePropBundle> entry : loaded.entrySet()) {
+                    NodePropBundle bundle = entry.getValue();
+                    bundles.putIfAbsent(
+                            entry.getKey(), bundle, bundleLoader.getSize(bundle));
+                }
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -588,6 +746,7 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     public synchronized void store(ChangeLog changeLog)
             throws ItemStateException {
+        storeCount++;
         boolean success = false;
         try {
             storeInternal(changeLog);
@@ -595,6 +754,9 @@ public abstract class AbstractBundlePersistenceManager implements
         } finally {
             if (!success) {
                 bundles.clear();
+                if (offHeapBundles != null) {
+                    offHeapBundles.clear();
+                }
             }
         }
     }
@@ -730,7 +892,8 @@ public abstract class AbstractBundlePersistenceManager implements
     /**
      * Gets the bundle for the given node id. Read/write synchronization
      * happens higher up at the SISM level, so we don't need to worry about
-     * conflicts here.
+     * conflicts here. Concurrent cache misses for the same id are coalesced
+     * by the bundle cache, so the bundle is loaded only once.
      *
      * @param id the id of the bundle to retrieve.
      * @return the bundle or <code>null</code> if the bundle does not exist
@@ -740,30 +903,33 @@ public abstract class AbstractBundlePersistenceManager implements
     private NodePropBundle getBundle(NodeId id) throws ItemStateException {
         NodePropBundle bundle = bundles.get(id);
         readCounter.incrementAndGet();
-        if (bundle == MISSING) {
-            return null;
-        }
         if (bundle != null) {
-            return bundle;
+            cacheHitCounter.incrementAndGet();
+        } else {
+            // cache miss
+            bundle = bundles.load(id, bundleLoader);
         }
-        // cache miss
-        return getBundleCacheMiss(id);
+        return bundle == MISSING ? null : bundle;
     }
 
     /**
-     * Called when the bundle is not present in the cache, so we'll need to load
-     * it from the PM impl.
-     * 
-     * This also updates the cache.
+     * Called by the bundle cache when the bundle is not present in the cache,
+     * so we'll need to load it from the PM impl. The bundle cache caches the
+     * returned bundle.
      * 
-     * @param id
-     * @return
-     * @throws ItemStateException
+     * @param id the id of the bundle to load
+     * @return the loaded bundle, or {@link #MISSING} if it does not exist
+     * @throws ItemStateException if an error occurs
      */
     private NodePropBundle getBundleCacheMiss(NodeId id)
             throws ItemStateException {
         long time = System.nanoTime();
-        NodePropBundle bundle = loadBundle(id);
+        NodePropBundle bundle = loadOffHeapBundle(id);
+        if (bundle != null) {
+            return bundle;
+        }
+        long stamp = offHeapBundles != null ? offHeapBundles.getStamp(id) : 0;
+        bundle = loadBundle(id);
         time = System.nanoTime() - time;
         cacheMissDuration.addAndGet(time);
         final long timeMs = time / 1000000;
@@ -771,11 +937,118 @@ public abstract class AbstractBundlePersistenceManager implements
         cacheMissCounter.incrementAndGet();
         if (bundle != null) {
             bundle.markOld();
-            bundles.put(id, bundle, bundle.getSize());
+            storeOffHeapBundle(bundle, stamp);
+            return bundle;
         } else {
-            bundles.put(id, MISSING, MISSING_SIZE_ESTIMATE);
+            return MISSING;
+        }
+    }
+
+    /**
+     * Called when a number of bundles is prefetched, see
+     * {@link #prefetch(Collection)}. Bundles that are not in the off-heap
+     * bundle cache are loaded with {@link #loadBundles(Collection)}.
+     *
+     * @param ids the ids of the bundles to load
+     * @return the loaded bundles, with {@link #MISSING} for the ones that
+     *         do not exist
+     * @throws ItemStateException if an error occurs
+     */
+    private Map<NodeId, NodePropBundle> getBundlesCacheMiss(
+            Collection<NodeId> ids) throws ItemStateException {
+        Map<NodeId, NodePropBundle> result =
+            new HashMap<NodeId, NodePropBundle>(ids.size());
+        List<NodeId> missing = new ArrayList<NodeId>(ids.size());
+        Map<NodeId, Long> stamps = new HashMap<NodeId, Long>();
+        for (NodeId id : ids) {
+            NodePropBundle bundle = loadOffHeapBundle(id);
+            if (bundle != null) {
+                result.put(id, bundle);
+            } else {
+                missing.add(id);
+                if (offHeapBundles != null) {
+                    stamps.put(id, offHeapBundles.getStamp(id));
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        long time = System.nanoTime();
+        Map<NodeId, NodePropBundle> loaded = loadBundles(missing);
+        time = System.nanoTime() - time;
+        cacheMissDuration.addAndGet(time);
+        final long timeMs = time / 1000000;
+        log.debug("Loaded {} bundles in {}ms", missing.size(), timeMs);
+        cacheMissCounter.addAndGet(missing.size());
+        for (NodeId id : missing) {
+            NodePropBundle bundle = loaded.get(id);
+            if (bundle != null) {
+                bundle.markOld();
+                Long stamp = stamps.get(id);
+                if (stamp != null) {
+                    storeOffHeapBundle(bundle, stamp);
+                }
+                result.put(id, bundle);
+            } else {
+                result.put(id, MISSING);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the bundle with the given id from the off-heap bundle cache.
+     * A bundle found there counts as a cache hit, a bundle that is not
+     * found is counted as a miss once it is loaded from the storage.
+     *
+     * @param id the id of the bundle
+     * @return the bundle, or <code>null</code> if it is not cached
+     */
+    private NodePropBundle loadOffHeapBundle(NodeId id) {
+        BundleBinding binding = getBundleBinding();
+        if (offHeapBundles == null || binding == null) {
+            return null;
+        }
+        byte[] data = offHeapBundles.get(id);
+        if (data == null) {
+            return null;
+        }
+        try {
+            NodePropBundle bundle = binding.readBundle(data, id);
+            bundle.markOld();
+            cacheHitCounter.incrementAndGet();
+            return bundle;
+        } catch (IOException e) {
+            log.warn("Discarding unreadable off-heap cache entry for bundle {}", id, e);
+            offHeapBundles.remove(id);
+            return null;
+        }
+    }
+
+    /**
+     * Adds a bundle that was loaded from the persistent storage to the
+     * off-heap bundle cache. Bundles with paged child node entries are
+     * not cached, as their serialized form does not contain the entries.
+     *
+     * @param bundle the loaded bundle
+     * @param stamp the stamp of the bundle id taken before loading it
+     */
+    private void storeOffHeapBundle(NodePropBundle bundle, long stamp) {
+        BundleBinding binding = getBundleBinding();
+        if (offHeapBundles == null || binding == null
+                || bundle.getChildNodePages() != null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                    (int) Math.min(bundle.getSize(), Integer.MAX_VALUE));
+            binding.writeBundle(out, bundle);
+            offHeapBundles.put(bundle.getId(), out.toByteArray(), stamp);
+        } catch (IOException e) {
+            log.debug("Unable to add bundle {} to the off-heap cache", bundle.getId(), e);
         }
-        return bundle;
     }
 
     /**
@@ -788,6 +1061,9 @@ public abstract class AbstractBundlePersistenceManager implements
         destroyBundle(bundle);
         bundle.removeAllProperties(getBlobStore());
         bundles.put(bundle.getId(), MISSING, MISSING_SIZE_ESTIMATE);
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(bundle.getId());
+        }
     }
 
     /**
@@ -809,11 +1085,18 @@ public abstract class AbstractBundlePersistenceManager implements
         writeCounter.incrementAndGet();
 
         bundle.markOld();
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(bundle.getId());
+        }
 
         // only put to cache if already exists. this is to ensure proper
-        // overwrite and not creating big contention during bulk loads
+        // overwrite and not creating big contention during bulk loads.
+        // otherwise make sure that a concurrent prefetch of the bundle
+        // does not cache the previous state
         if (bundles.containsKey(bundle.getId())) {
             bundles.put(bundle.getId(), bundle, bundle.getSize());
+        } else {
+            bundles.remove(bundle.getId());
         }
     }
 
@@ -859,6 +1142,9 @@ public abstract class AbstractBundlePersistenceManager implements
      */
     protected void evictBundle(NodeId id) {
         bundles.remove(id);
+        if (offHeapBundles != null) {
+            offHeapBundles.remove(id);
+        }
     }
 
     public void cacheAccessed(long accessCount) {
@@ -874,6 +1160,9 @@ public abstract class AbstractBundlePersistenceManager implements
                 return;
             }
             log.info(bundles.getCacheInfoAsString());
+            if (offHeapBundles != null) {
+                log.info(offHeapBundles.getCacheInfoAsString());
+            }
             nextLogStats = now + minLogStatsInterval;
         }
     }
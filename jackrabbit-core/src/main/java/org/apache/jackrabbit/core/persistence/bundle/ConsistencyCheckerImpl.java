@@ -177,6 +177,11 @@ public class ConsistencyCheckerImpl {
                     eventChannel.updateCancelled(update);
                 }
             }
+            try {
+                eventChannel.updateFinished(update);
+            } catch (ClusterException e) {
+                throw new RepositoryException("Cannot commit update", e);
+            }
         }
     }
 
@@ -519,7 +519,7 @@ public class InMemBundlePersistenceManager extends AbstractBundlePersistenceMana
             return null;
         }
         try {
-            return binding.readBundle(new ByteArrayInputStream(bundleStore.get(id)), id);
+            return binding.readBundle(bundleStore.get(id), id);
         } catch (Exception e) {
             String msg = "failed to read bundle: " + id + ": " + e;
             log.error(msg);
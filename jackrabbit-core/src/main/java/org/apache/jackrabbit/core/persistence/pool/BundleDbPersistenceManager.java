@@ -26,6 +26,9 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -43,10 +46,13 @@ import org.apache.jackrabbit.core.persistence.PMContext;
 import org.apache.jackrabbit.core.persistence.bundle.AbstractBundlePersistenceManager;
 import org.apache.jackrabbit.core.persistence.util.BLOBStore;
 import org.apache.jackrabbit.core.persistence.util.BundleBinding;
+import org.apache.jackrabbit.core.persistence.util.ChildNodePages;
 import org.apache.jackrabbit.core.persistence.util.ErrorHandling;
 import org.apache.jackrabbit.core.persistence.util.FileSystemBLOBStore;
 import org.apache.jackrabbit.core.persistence.util.NodeInfo;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodeEntry;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodePage;
 import org.apache.jackrabbit.core.persistence.util.Serializer;
 import org.apache.jackrabbit.core.state.ChangeLog;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -69,6 +75,7 @@ import org.slf4j.LoggerFactory;
  * Configuration:<br>
  * <ul>
  * <li>&lt;param name="{@link #setBundleCacheSize(String) bundleCacheSize}" value="8"/&gt;
+ * <li>&lt;param name="{@link #setOffHeapBundleCacheSize(String) offHeapBundleCacheSize}" value="0"/&gt;
  * <li>&lt;param name="{@link #setConsistencyCheck(String) consistencyCheck}" value="false"/&gt;
  * <li>&lt;param name="{@link #setConsistencyFix(String) consistencyFix}" value="false"/&gt;
  * <li>&lt;param name="{@link #setMinBlobSize(String) minBlobSize}" value="4096"/&gt;
@@ -81,7 +88,36 @@ import org.slf4j.LoggerFactory;
  * <li>&lt;param name="{@link #setErrorHandling(String) errorHandling}" value=""/&gt;
  * <li>&lt;param name="{@link #setBlockOnConnectionLoss(String) blockOnConnectionLoss}" value="false"/&gt;
  * <li>&lt;param name="{@link #setSchemaCheckEnabled(boolean) schemaCheckEnabled}" value="true"/&gt;
+ * <li>&lt;param name="{@link #setChildNodePageSize(String) childNodePageSize}" value="0"/&gt;
  * </ul>
+ * <p>
+ * Read operations (loading bundles and references and iterating over the
+ * stored node ids) are not synchronized: each of them executes on its own
+ * connection borrowed from the data source, so a single persistence manager
+ * can issue any number of concurrent queries. Statement caching is left to
+ * the connection pool (see the <code>poolPreparedStatements</code> setting
+ * of the {@link org.apache.jackrabbit.core.util.db.ConnectionFactory}).
+ * Write operations are synchronized on the persistence manager instance and
+ * run on the batch connection of the current {@link #store(ChangeLog)}
+ * call, so they are only visible to readers once the batch is committed.
+ * <p>
+ * If a {@link #setChildNodePageSize(String) child node page size} is set,
+ * the child node entries of nodes with more children than that are stored
+ * in pages of at most that many entries in a separate <code>CHILDREN</code>
+ * table, and the bundle only contains the page directory. Adding or
+ * removing a child node then only rewrites the affected pages, see
+ * {@link ChildNodePages}. The pages are read together with the bundle, so
+ * the bundle cache and all other users of the bundles still see the
+ * complete child node list.
+ * <p>
+ * Only the writes are incremental: loading a paged bundle reads all of its
+ * pages, and the complete child node list is still kept in memory and
+ * compared with the page directory on each change. This reduces the amount
+ * of data written for large child node lists, but the cost of a change
+ * still grows linearly with the number of child nodes. The
+ * <code>CHILDREN</code> table is created from the
+ * <code>&lt;databaseType&gt;-children.ddl</code> resource when paging is
+ * enabled, see {@link #createChildNodePageCheckSchemaOperation()}.
  */
 public class BundleDbPersistenceManager
         extends AbstractBundlePersistenceManager implements DatabaseAware {
@@ -96,7 +132,7 @@ public class BundleDbPersistenceManager
     public static final int SM_LONGLONG_KEYS = 2;
 
     /** flag indicating if this manager was initialized */
-    protected boolean initialized;
+    protected volatile boolean initialized;
 
     /** the jdbc driver name */
     protected String driver;
@@ -128,6 +164,12 @@ public class BundleDbPersistenceManager
     /** flag indicating if the consistency check should attempt to fix issues */
     protected boolean consistencyFix;
 
+    /** number of bundles that are loaded with one select statement */
+    protected static final int BUNDLE_SELECT_BATCH_SIZE = 100;
+
+    /** number of times a paged bundle is read again if its pages were modified concurrently */
+    protected static final int CHILD_NODE_PAGE_RETRIES = 3;
+
     /** initial size of buffer used to serialize objects */
     protected static final int INITIAL_BUFFER_SIZE = 1024;
 
@@ -137,16 +179,27 @@ public class BundleDbPersistenceManager
     /** indicates whether to block if the database connection is lost */
     protected boolean blockOnConnectionLoss;
 
+    /** maximum number of child node entries stored inline in a bundle, 0 to disable paging */
+    protected int childNodePageSize;
+
     // SQL statements for bundle management
     protected String bundleInsertSQL;
     protected String bundleUpdateSQL;
     protected String bundleSelectSQL;
+    protected String bundleSelectBatchSQL;
     protected String bundleDeleteSQL;
     protected String bundleSelectAllIdsFromSQL;
     protected String bundleSelectAllIdsSQL;
     protected String bundleSelectAllBundlesFromSQL;
     protected String bundleSelectAllBundlesSQL;
 
+    // SQL statements for child node page management
+    protected String childNodePageInsertSQL;
+    protected String childNodePageUpdateSQL;
+    protected String childNodePageSelectSQL;
+    protected String childNodePageDeleteSQL;
+    protected String childNodePageDeleteAllSQL;
+
     // SQL statements for NodeReference management
     protected String nodeReferenceInsertSQL;
     protected String nodeReferenceUpdateSQL;
@@ -453,6 +506,31 @@ public class BundleDbPersistenceManager
         return externalBLOBs;
     }
 
+    /**
+     * Returns the child node page size.
+     * @return the child node page size.
+     */
+    public String getChildNodePageSize() {
+        return String.valueOf(childNodePageSize);
+    }
+
+    /**
+     * Sets the maximum number of child node entries that are stored in a
+     * bundle. The child node entries of nodes with more children are stored
+     * in separate pages of at most this many entries, so that changes to
+     * very large child node lists only need to write the affected pages.
+     * All pages are still read when the node is loaded.
+     * The default is <code>0</code>, which stores all child node entries in
+     * the bundle. Setting this to <code>0</code> again later on moves the
+     * entries of paged nodes back into their bundles the next time they are
+     * modified.
+     *
+     * @param childNodePageSize the maximum number of entries per page
+     */
+    public void setChildNodePageSize(String childNodePageSize) {
+        this.childNodePageSize = Integer.parseInt(childNodePageSize);
+    }
+
     /**
      * @return whether the schema check is enabled
      */
@@ -546,6 +624,9 @@ public class BundleDbPersistenceManager
         // check if schema objects exist and create them if necessary
         if (isSchemaCheckEnabled()) {
             createCheckSchemaOperation().run();
+            if (childNodePageSize > 0) {
+                createChildNodePageCheckSchemaOperation().run();
+            }
         }
 
         // create correct blob store
@@ -602,7 +683,47 @@ public class BundleDbPersistenceManager
         InputStream in =
             AbstractBundlePersistenceManager.class.getResourceAsStream(
                     databaseType + ".ddl");
-        return new CheckSchemaOperation(conHelper, in, schemaObjectPrefix + "BUNDLE").addVariableReplacement(
+        return createCheckSchemaOperation(in, schemaObjectPrefix + "BUNDLE");
+    }
+
+    /**
+     * This method is called from {@link #init(PMContext)} after
+     * {@link #createCheckSchemaOperation()} if a
+     * {@link #setChildNodePageSize(String) child node page size} is set, and
+     * returns the {@link CheckSchemaOperation} that creates the table for the
+     * child node pages. The table was added after the other tables, so it
+     * is checked separately (see also JCR-1087). Subclasses that add
+     * variable replacements in {@link #createCheckSchemaOperation()} need
+     * to add them here as well.
+     *
+     * @return a new {@link CheckSchemaOperation} instance
+     * @throws RepositoryException if paging is not supported for the
+     *                             database type
+     */
+    protected CheckSchemaOperation createChildNodePageCheckSchemaOperation()
+            throws RepositoryException {
+        InputStream in =
+            AbstractBundlePersistenceManager.class.getResourceAsStream(
+                    databaseType + "-children.ddl");
+        if (in == null) {
+            throw new RepositoryException(
+                    "Child node pages are not supported for database type "
+                    + databaseType);
+        }
+        return createCheckSchemaOperation(in, schemaObjectPrefix + "CHILDREN");
+    }
+
+    /**
+     * Returns a {@link CheckSchemaOperation} that runs the given DDL
+     * statements if the given table does not exist.
+     *
+     * @param ddl the DDL statements
+     * @param tableName the name of the table to check
+     * @return a new {@link CheckSchemaOperation} instance
+     */
+    private CheckSchemaOperation createCheckSchemaOperation(
+            InputStream ddl, String tableName) {
+        return new CheckSchemaOperation(conHelper, ddl, tableName).addVariableReplacement(
             CheckSchemaOperation.SCHEMA_OBJECT_PREFIX_VARIABLE, schemaObjectPrefix);
     }
 
@@ -614,6 +735,14 @@ public class BundleDbPersistenceManager
         return blobStore;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected BundleBinding getBundleBinding() {
+        return binding;
+    }
+
     /**
      * Creates a suitable blobstore
      * @return a blobstore
@@ -776,7 +905,7 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      */
-    public synchronized List<NodeId> getAllNodeIds(NodeId bigger, int maxCount)
+    public List<NodeId> getAllNodeIds(NodeId bigger, int maxCount)
             throws ItemStateException, RepositoryException {
         ResultSet rs = null;
         try {
@@ -829,7 +958,7 @@ public class BundleDbPersistenceManager
      * {@inheritDoc}
      */
     @Override
-    public synchronized Map<NodeId, NodeInfo> getAllNodeInfos(NodeId bigger, int maxCount) throws ItemStateException {
+    public Map<NodeId, NodeInfo> getAllNodeInfos(NodeId bigger, int maxCount) throws ItemStateException {
         ResultSet rs = null;
         try {
             String sql = bundleSelectAllBundlesSQL;
@@ -848,8 +977,8 @@ public class BundleDbPersistenceManager
                 maxCount += 10;
             }
             rs = conHelper.exec(sql, keys, false, maxCount);
-            Map<NodeId, NodeInfo> result = new LinkedHashMap<NodeId, NodeInfo>(maxCount);
-            while ((maxCount == 0 || result.size() < maxCount) && rs.next()) {
+            List<NodePropBundle> bundles = new ArrayList<NodePropBundle>();
+            while ((maxCount == 0 || bundles.size() < maxCount) && rs.next()) {
                 NodeId current;
                 if (getStorageModel() == SM_BINARY_KEYS) {
                     current = new NodeId(rs.getBytes(1));
@@ -864,8 +993,11 @@ public class BundleDbPersistenceManager
                         continue;
                     }
                 }
-                NodePropBundle bundle = readBundle(current, rs, getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2);
-                NodeInfo nodeInfo = new NodeInfo(bundle);
+                bundles.add(readBundle(current, rs, getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2));
+            }
+            Map<NodeId, NodeInfo> result = new LinkedHashMap<NodeId, NodeInfo>(maxCount);
+            for (NodePropBundle bundle : bundles) {
+                NodeInfo nodeInfo = new NodeInfo(resolveChildNodePages(bundle));
                 result.put(nodeInfo.getId(), nodeInfo);
             }
             return result;
@@ -884,19 +1016,7 @@ public class BundleDbPersistenceManager
     @Override
     protected NodePropBundle loadBundle(NodeId id) throws ItemStateException {
         try {
-            ResultSet rs =
-                conHelper.exec(bundleSelectSQL, getKey(id), false, 0);
-            try {
-                if (rs != null && rs.next()) {
-                    return readBundle(id, rs, 1);
-                } else {
-                    return null;
-                }
-            } finally {
-            	if (rs != null) {
-            		rs.close();
-            	}
-            }
+            return resolveChildNodePages(selectBundle(id));
         } catch (SQLException e) {
         	String msg = "failed to read bundle (stacktrace on DEBUG log level): " + id + ": " + e; 
             log.error(msg);
@@ -905,6 +1025,149 @@ public class BundleDbPersistenceManager
         }
     }
 
+    /**
+     * Reads the bundle with the given id, without its child node pages.
+     *
+     * @param id bundle identifier
+     * @return the bundle, or <code>null</code> if it does not exist
+     * @throws SQLException if the bundle can not be read
+     */
+    private NodePropBundle selectBundle(NodeId id) throws SQLException {
+        ResultSet rs =
+            conHelper.exec(bundleSelectSQL, getKey(id), false, 0);
+        try {
+            if (rs != null && rs.next()) {
+                return readBundle(id, rs, 1);
+            } else {
+                return null;
+            }
+        } finally {
+        	if (rs != null) {
+        		rs.close();
+        	}
+        }
+    }
+
+    /**
+     * Reads the child node pages of the given bundle, if it has any, and
+     * adds their entries to the bundle. The bundle and its pages are read
+     * with separate statements, so the bundle is read again if the pages
+     * were modified in between.
+     *
+     * @param bundle the bundle, or <code>null</code>
+     * @return the bundle with all its child node entries
+     * @throws SQLException if the pages can not be read
+     * @throws ItemStateException if the pages do not match the bundle
+     */
+    private NodePropBundle resolveChildNodePages(NodePropBundle bundle)
+            throws SQLException, ItemStateException {
+        for (int i = 0; bundle != null && bundle.getChildNodePages() != null; i++) {
+            if (ChildNodePages.resolve(bundle, readChildNodePages(bundle.getId()))) {
+                return bundle;
+            } else if (i >= CHILD_NODE_PAGE_RETRIES) {
+                throw new ItemStateException(
+                        "Child node pages do not match bundle " + bundle.getId());
+            }
+            bundle = selectBundle(bundle.getId());
+        }
+        return bundle;
+    }
+
+    /**
+     * Reads all child node pages of the given node.
+     *
+     * @param id node identifier
+     * @return the child node entries of each page, by page number
+     * @throws SQLException if the pages can not be read or parsed
+     */
+    private Map<Integer, List<ChildNodeEntry>> readChildNodePages(NodeId id)
+            throws SQLException {
+        Map<Integer, List<ChildNodeEntry>> pages =
+            new HashMap<Integer, List<ChildNodeEntry>>();
+        ResultSet rs = null;
+        try {
+            rs = conHelper.exec(childNodePageSelectSQL, getKey(id), false, 0);
+            while (rs.next()) {
+                InputStream in;
+                if (rs.getMetaData().getColumnType(2) == Types.BLOB) {
+                    in = rs.getBlob(2).getBinaryStream();
+                } else {
+                    in = rs.getBinaryStream(2);
+                }
+                try {
+                    pages.put(rs.getInt(1), binding.readChildNodePage(in));
+                } finally {
+                    in.close();
+                }
+            }
+        } catch (IOException e) {
+            SQLException exception =
+                new SQLException("Failed to parse child node pages of " + id);
+            exception.initCause(e);
+            throw exception;
+        } finally {
+            DbUtility.close(rs);
+        }
+        return pages;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Loads the bundles in batches of {@link #BUNDLE_SELECT_BATCH_SIZE} with
+     * a single select statement each. The last batch is padded by repeating
+     * its last id, so that all batches use the same prepared statement.
+     */
+    @Override
+    protected Map<NodeId, NodePropBundle> loadBundles(Collection<NodeId> ids)
+            throws ItemStateException {
+        Map<NodeId, NodePropBundle> result =
+            new HashMap<NodeId, NodePropBundle>(ids.size());
+        List<NodeId> list = new ArrayList<NodeId>(ids);
+        for (int start = 0; start < list.size(); start += BUNDLE_SELECT_BATCH_SIZE) {
+            List<NodeId> batch = list.subList(
+                    start, Math.min(list.size(), start + BUNDLE_SELECT_BATCH_SIZE));
+            List<Object> params = new ArrayList<Object>();
+            for (int i = 0; i < BUNDLE_SELECT_BATCH_SIZE; i++) {
+                NodeId id = batch.get(Math.min(i, batch.size() - 1));
+                params.addAll(Arrays.asList(getKey(id)));
+            }
+            ResultSet rs = null;
+            try {
+                rs = conHelper.exec(bundleSelectBatchSQL, params.toArray(), false, 0);
+                while (rs.next()) {
+                    NodeId id;
+                    if (getStorageModel() == SM_BINARY_KEYS) {
+                        id = new NodeId(rs.getBytes(1));
+                    } else {
+                        id = new NodeId(rs.getLong(1), rs.getLong(2));
+                    }
+                    result.put(id, readBundle(
+                            id, rs, getStorageModel() == SM_LONGLONG_KEYS ? 3 : 2));
+                }
+            } catch (SQLException e) {
+                String msg = "failed to read bundles (stacktrace on DEBUG log level): " + batch + ": " + e;
+                log.error(msg);
+                log.debug("failed to read bundles: " + batch, e);
+                throw new ItemStateException(msg, e);
+            } finally {
+                DbUtility.close(rs);
+            }
+        }
+        for (Map.Entry<NodeId, NodePropBundle> entry : result.entrySet()) {
+            if (entry.getValue().getChildNodePages() != null) {
+                try {
+                    entry.setValue(resolveChildNodePages(entry.getValue()));
+                } catch (SQLException e) {
+                    String msg = "failed to read child node pages: " + entry.getKey();
+                    log.error(msg, e);
+                    throw new ItemStateException(msg, e);
+                }
+            }
+        }
+        return result;
+    }
+
     /**
      * Reads and parses a bundle from the BLOB in the given column of the
      * current row of the given result set. This is a helper method to
@@ -943,6 +1206,10 @@ public class BundleDbPersistenceManager
      */
     protected synchronized void storeBundle(NodePropBundle bundle) throws ItemStateException {
         try {
+            if (childNodePageSize > 0 || bundle.getChildNodePages() != null) {
+                storeChildNodePages(bundle);
+            }
+
             ByteArrayOutputStream out =
                 new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
             binding.writeBundle(out, bundle);
@@ -967,11 +1234,65 @@ public class BundleDbPersistenceManager
         }
    }
 
+    /**
+     * Writes the new and changed child node pages of the given bundle and
+     * deletes the ones that are no longer used, and updates the page
+     * directory of the bundle accordingly.
+     *
+     * @param bundle the bundle to be stored
+     * @throws Exception if the pages can not be written
+     */
+    private void storeChildNodePages(NodePropBundle bundle) throws Exception {
+        NodeId id = bundle.getId();
+        ChildNodePages layout = new ChildNodePages(
+                bundle.getChildNodePages(), bundle.getChildNodeEntries(),
+                childNodePageSize);
+        for (int number : layout.getDeletedPages()) {
+            conHelper.update(childNodePageDeleteSQL, createPageParams(id, number, null));
+        }
+        if (layout.getPages() != null) {
+            for (ChildNodePage page : layout.getPages()) {
+                if (layout.isWritten(page)) {
+                    ByteArrayOutputStream out =
+                        new ByteArrayOutputStream(INITIAL_BUFFER_SIZE);
+                    binding.writeChildNodePage(out, layout.getEntries(page));
+                    String sql = layout.isInserted(page)
+                        ? childNodePageInsertSQL : childNodePageUpdateSQL;
+                    conHelper.update(sql, createPageParams(
+                            id, page.getNumber(), out.toByteArray()));
+                }
+            }
+        }
+        bundle.setChildNodePages(layout.getPages());
+    }
+
+    /**
+     * Creates the parameters for an SQL statement on a child node page: the
+     * page data (if given), the node identifier and the page number.
+     *
+     * @param id the node id
+     * @param number the page number
+     * @param data the page data, or <code>null</code>
+     * @return an Object array that represents the parameters
+     */
+    private Object[] createPageParams(NodeId id, int number, byte[] data) {
+        List<Object> params = new ArrayList<Object>();
+        if (data != null) {
+            params.add(data);
+        }
+        params.addAll(Arrays.asList(getKey(id)));
+        params.add(number);
+        return params.toArray();
+    }
+
     /**
      * {@inheritDoc}
      */
     protected synchronized void destroyBundle(NodePropBundle bundle) throws ItemStateException {
         try {
+            if (bundle.getChildNodePages() != null) {
+                conHelper.update(childNodePageDeleteAllSQL, getKey(bundle.getId()));
+            }
             conHelper.update(bundleDeleteSQL, getKey(bundle.getId()));
         } catch (Exception e) {
             if (e instanceof NoSuchItemStateException) {
@@ -986,7 +1307,7 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      */
-    public synchronized NodeReferences loadReferencesTo(NodeId targetId)
+    public NodeReferences loadReferencesTo(NodeId targetId)
             throws NoSuchItemStateException, ItemStateException {
         if (!initialized) {
             throw new IllegalStateException("not initialized");
@@ -1021,11 +1342,9 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      *
-     * This method uses shared <code>PreparedStatements</code>, which must
-     * be used strictly sequentially. Because this method synchronizes on the
-     * persistence manager instance, there is no need to synchronize on the
-     * shared statement. If the method would not be synchronized, the shared
-     * statement must be synchronized.
+     * This method is synchronized on the persistence manager instance, so
+     * that the existence check and the following insert or update are not
+     * interleaved with another write of the same references.
      */
     public synchronized void store(NodeReferences refs) throws ItemStateException {
         if (!initialized) {
@@ -1077,7 +1396,7 @@ public class BundleDbPersistenceManager
     /**
      * {@inheritDoc}
      */
-    public synchronized boolean existsReferencesTo(NodeId targetId) throws ItemStateException {
+    public boolean existsReferencesTo(NodeId targetId) throws ItemStateException {
         if (!initialized) {
             throw new IllegalStateException("not initialized");
         }
@@ -1114,8 +1433,20 @@ public class BundleDbPersistenceManager
             bundleInsertSQL = "insert into " + schemaObjectPrefix + "BUNDLE (BUNDLE_DATA, NODE_ID) values (?, ?)";
             bundleUpdateSQL = "update " + schemaObjectPrefix + "BUNDLE set BUNDLE_DATA = ? where NODE_ID = ?";
             bundleSelectSQL = "select BUNDLE_DATA from " + schemaObjectPrefix + "BUNDLE where NODE_ID = ?";
+            StringBuilder batch = new StringBuilder("select NODE_ID, BUNDLE_DATA from ")
+                .append(schemaObjectPrefix).append("BUNDLE where NODE_ID in (?");
+            for (int i = 1; i < BUNDLE_SELECT_BATCH_SIZE; i++) {
+                batch.append(", ?");
+            }
+            bundleSelectBatchSQL = batch.append(")").toString();
             bundleDeleteSQL = "delete from " + schemaObjectPrefix + "BUNDLE where NODE_ID = ?";
 
+            childNodePageInsertSQL = "insert into " + schemaObjectPrefix + "CHILDREN (PAGE_DATA, NODE_ID, PAGE_NUMBER) values (?, ?, ?)";
+            childNodePageUpdateSQL = "update " + schemaObjectPrefix + "CHILDREN set PAGE_DATA = ? where NODE_ID = ? and PAGE_NUMBER = ?";
+            childNodePageSelectSQL = "select PAGE_NUMBER, PAGE_DATA from " + schemaObjectPrefix + "CHILDREN where NODE_ID = ?";
+            childNodePageDeleteSQL = "delete from " + schemaObjectPrefix + "CHILDREN where NODE_ID = ? and PAGE_NUMBER = ?";
+            childNodePageDeleteAllSQL = "delete from " + schemaObjectPrefix + "CHILDREN where NODE_ID = ?";
+
             nodeReferenceInsertSQL = "insert into " + schemaObjectPrefix + "REFS (REFS_DATA, NODE_ID) values (?, ?)";
             nodeReferenceUpdateSQL = "update " + schemaObjectPrefix + "REFS set REFS_DATA = ? where NODE_ID = ?";
             nodeReferenceSelectSQL = "select REFS_DATA from " + schemaObjectPrefix + "REFS where NODE_ID = ?";
@@ -1129,8 +1460,30 @@ public class BundleDbPersistenceManager
             bundleInsertSQL = "insert into " + schemaObjectPrefix + "BUNDLE (BUNDLE_DATA, NODE_ID_HI, NODE_ID_LO) values (?, ?, ?)";
             bundleUpdateSQL = "update " + schemaObjectPrefix + "BUNDLE set BUNDLE_DATA = ? where NODE_ID_HI = ? and NODE_ID_LO = ?";
             bundleSelectSQL = "select BUNDLE_DATA from " + schemaObjectPrefix + "BUNDLE where NODE_ID_HI = ? and NODE_ID_LO = ?";
+            // not all databases support WHERE (NODE_ID_HI, NODE_ID_LO) IN ((?, ?), ...)
+            StringBuilder batch = new StringBuilder("select NODE_ID_HI, NODE_ID_LO, BUNDLE_DATA from ")
+                .append(schemaObjectPrefix).append("BUNDLE where (NODE_ID_HI = ? and NODE_ID_LO = ?)");
+            for (int i = 1; i < BUNDLE_SELECT_BATCH_SIZE; i++) {
+                batch.append(" or (NODE_ID_HI = ? and NODE_ID_LO = ?)");
+            }
+            bundleSelectBatchSQL = batch.toString();
             bundleDeleteSQL = "delete from " + schemaObjectPrefix + "BUNDLE where NODE_ID_HI = ? and NODE_ID_LO = ?";
 
+            childNodePageInsertSQL =
+                "insert into " + schemaObjectPrefix + "CHILDREN"
+                + " (PAGE_DATA, NODE_ID_HI, NODE_ID_LO, PAGE_NUMBER) values (?, ?, ?, ?)";
+            childNodePageUpdateSQL =
+                "update " + schemaObjectPrefix + "CHILDREN"
+                + " set PAGE_DATA = ? where NODE_ID_HI = ? and NODE_ID_LO = ? and PAGE_NUMBER = ?";
+            childNodePageSelectSQL =
+                "select PAGE_NUMBER, PAGE_DATA from " + schemaObjectPrefix + "CHILDREN"
+                + " where NODE_ID_HI = ? and NODE_ID_LO = ?";
+            childNodePageDeleteSQL =
+                "delete from " + schemaObjectPrefix + "CHILDREN"
+                + " where NODE_ID_HI = ? and NODE_ID_LO = ? and PAGE_NUMBER = ?";
+            childNodePageDeleteAllSQL =
+                "delete from " + schemaObjectPrefix + "CHILDREN where NODE_ID_HI = ? and NODE_ID_LO = ?";
+
             nodeReferenceInsertSQL =
                 "insert into " + schemaObjectPrefix + "REFS"
                 + " (REFS_DATA, NODE_ID_HI, NODE_ID_LO) values (?, ?, ?)";
@@ -18,7 +18,8 @@ package org.apache.jackrabbit.core.persistence.pool;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.jackrabbit.core.util.StringIndex;
 import org.apache.jackrabbit.core.util.db.ConnectionHelper;
@@ -28,8 +29,8 @@ import org.apache.jackrabbit.core.util.db.DbUtility;
  * Implements a {@link StringIndex} that stores and retrieves the names from a
  * table in a database.
  * <p>
- * Note that this class is not threadsafe by itself. it needs to be synchronized
- * by the using application.
+ * This class is thread-safe: cached lookups do not block, and new strings are
+ * inserted one at a time so that a string is never added twice.
  * <p>
  * Due to a bug with oracle that treats empty strings a null values
  * (see JCR-815), all empty strings are replaced by a ' '. since names never
@@ -45,8 +46,10 @@ public class DbNameIndex implements StringIndex {
     protected String nameInsertSQL;
 
     // caches
-    private final HashMap<String, Integer> string2Index = new HashMap<String, Integer>();
-    private final HashMap<Integer, String> index2String = new HashMap<Integer, String>();
+    private final ConcurrentMap<String, Integer> string2Index =
+        new ConcurrentHashMap<String, Integer>();
+    private final ConcurrentMap<Integer, String> index2String =
+        new ConcurrentHashMap<Integer, String>();
 
     /**
      * Creates a new index that is stored in a db.
@@ -88,20 +91,36 @@ public class DbNameIndex implements StringIndex {
         // check cache
         Integer index = string2Index.get(string);
         if (index == null) {
-            String dbString = string.length() == 0 ? " " : string;
-            int idx = getIndex(dbString);
-            if (idx == -1) {
-                idx = insertString(dbString);
-            }
-            index = Integer.valueOf(idx);
-            string2Index.put(string, index);
-            index2String.put(index, string);
-            return idx;
+            return lookupOrInsert(string);
         } else {
             return index.intValue();
         }
     }
 
+    /**
+     * Looks up the index of a string that is not cached yet, inserting the
+     * string if it is not yet stored in the database.
+     *
+     * @param string the string to look up
+     * @return the index of the string
+     */
+    private synchronized int lookupOrInsert(String string) {
+        // check cache again, another thread may have inserted the string
+        Integer index = string2Index.get(string);
+        if (index != null) {
+            return index.intValue();
+        }
+        String dbString = string.length() == 0 ? " " : string;
+        int idx = getIndex(dbString);
+        if (idx == -1) {
+            idx = insertString(dbString);
+        }
+        index = Integer.valueOf(idx);
+        index2String.put(index, string);
+        string2Index.put(string, index);
+        return idx;
+    }
+
     /**
      * {@inheritDoc}
      */
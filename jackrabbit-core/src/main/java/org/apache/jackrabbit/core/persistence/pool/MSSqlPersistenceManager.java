@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.core.persistence.pool;
 
+import javax.jcr.RepositoryException;
+
 import org.apache.jackrabbit.core.util.db.CheckSchemaOperation;
 
 /**
@@ -55,6 +57,16 @@ public class MSSqlPersistenceManager extends BundleDbPersistenceManager {
             CheckSchemaOperation.TABLE_SPACE_VARIABLE, tableSpace);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected CheckSchemaOperation createChildNodePageCheckSchemaOperation()
+            throws RepositoryException {
+        return super.createChildNodePageCheckSchemaOperation().addVariableReplacement(
+            CheckSchemaOperation.TABLE_SPACE_VARIABLE, tableSpace);
+    }
+
     /**
      * Returns the configured MS SQL table space.
      * 
@@ -18,6 +18,7 @@ package org.apache.jackrabbit.core.persistence.pool;
 
 import java.sql.SQLException;
 
+import javax.jcr.RepositoryException;
 import javax.sql.DataSource;
 
 import org.apache.jackrabbit.core.persistence.PMContext;
@@ -169,11 +170,26 @@ public class OraclePersistenceManager extends BundleDbPersistenceManager {
      */
     @Override
     protected CheckSchemaOperation createCheckSchemaOperation() {
+        return addTablespaceReplacements(super.createCheckSchemaOperation());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    protected CheckSchemaOperation createChildNodePageCheckSchemaOperation()
+            throws RepositoryException {
+        return addTablespaceReplacements(
+                super.createChildNodePageCheckSchemaOperation());
+    }
+
+    private CheckSchemaOperation addTablespaceReplacements(
+            CheckSchemaOperation operation) {
         if (DEFAULT_TABLESPACE_CLAUSE.equals(indexTablespace) && !DEFAULT_TABLESPACE_CLAUSE.equals(tablespace)) {
             // tablespace was set but not indexTablespace : use the same for both
             indexTablespace = tablespace;
         }
-        return super.createCheckSchemaOperation()
+        return operation
             .addVariableReplacement(TABLESPACE_VARIABLE, tablespace)
             .addVariableReplacement(INDEX_TABLESPACE_VARIABLE, indexTablespace);
     }
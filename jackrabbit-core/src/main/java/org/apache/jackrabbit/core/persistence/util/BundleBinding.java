@@ -19,9 +19,12 @@ package org.apache.jackrabbit.core.persistence.util;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
 
 import org.apache.jackrabbit.core.data.DataStore;
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodeEntry;
 import org.apache.jackrabbit.core.util.StringIndex;
 
 /**
@@ -57,10 +60,23 @@ public class BundleBinding {
      */
     static final int VERSION_3 = 3;
 
+    /**
+     * serialization version 4, like version 3 but with variable-length
+     * binary value headers
+     */
+    static final int VERSION_4 = 4;
+
     /**
      * current version
      */
-    static final int VERSION_CURRENT = VERSION_3;
+    static final int VERSION_CURRENT = VERSION_4;
+
+    /**
+     * flag in the version byte of bundles whose child node entries are
+     * stored on separate pages, in which case the bundle contains the page
+     * directory instead of the entries
+     */
+    static final int CHILD_NODE_PAGES = 0x80;
 
     /**
      * the namespace index
@@ -92,6 +108,11 @@ public class BundleBinding {
      */
     protected final DataStore dataStore;
 
+    /**
+     * Cache of the names used in serialized bundles.
+     */
+    final BundleNameCache nameCache = new BundleNameCache();
+
     /**
      * Creates a new bundle binding
      *
@@ -152,6 +173,21 @@ public class BundleBinding {
         return new BundleReader(this, in).readBundle(id);
     }
 
+    /**
+     * Deserializes a <code>NodePropBundle</code> from a byte array. The
+     * values of the properties in the bundle may be decoded lazily from the
+     * given array, so the array must not be modified afterwards.
+     *
+     * @param data the serialized bundle
+     * @param id the node id for the new bundle
+     * @return the bundle
+     * @throws IOException if an I/O error occurs.
+     */
+    public NodePropBundle readBundle(byte[] data, NodeId id)
+            throws IOException {
+        return new BundleReader(this, data).readBundle(id);
+    }
+
     /**
      * Serializes a <code>NodePropBundle</code> to a data output stream
      *
@@ -164,4 +200,31 @@ public class BundleBinding {
         new BundleWriter(this, out).writeBundle(bundle);
     }
 
+    /**
+     * Deserializes a page of child node entries.
+     *
+     * @param in the input stream
+     * @return the child node entries on the page
+     * @throws IOException if an I/O error occurs.
+     * @see NodePropBundle#getChildNodePages()
+     */
+    public List<ChildNodeEntry> readChildNodePage(InputStream in)
+            throws IOException {
+        return new BundleReader(this, in).readChildNodePage();
+    }
+
+    /**
+     * Serializes a page of child node entries.
+     *
+     * @param out the output stream
+     * @param entries the child node entries on the page
+     * @throws IOException if an I/O error occurs.
+     * @see NodePropBundle#getChildNodePages()
+     */
+    public void writeChildNodePage(
+            OutputStream out, Collection<ChildNodeEntry> entries)
+            throws IOException {
+        new BundleWriter(this, out).writeChildNodePage(entries);
+    }
+
 }
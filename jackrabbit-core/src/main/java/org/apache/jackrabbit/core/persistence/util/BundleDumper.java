@@ -39,6 +39,8 @@ public class BundleDumper {
     private static final int VERSION_1 = 1;
     private static final int VERSION_2 = 2;
     private static final int VERSION_3 = 3;
+    private static final int VERSION_4 = 4;
+    private static final int CHILD_NODE_PAGES = 0x80;
 
     private static final int BINARY_IN_BLOB_STORE = -1;
     private static final int BINARY_IN_DATA_STORE = -2;
@@ -97,6 +99,8 @@ public class BundleDumper {
 
     private int version;
 
+    private boolean paged;
+
     private final String[] namespaces =
         // NOTE: The length of this array must be seven
         { "", null, null, null, null, null, null };
@@ -128,7 +132,12 @@ public class BundleDumper {
             ByteArrayInputStream bin = new ByteArrayInputStream(bundle);
             this.in = new DataInputStream(bin);
             version = in.readUnsignedByte();
+            paged = (version & CHILD_NODE_PAGES) != 0;
+            version &= ~CHILD_NODE_PAGES;
             buffer.append("version: ").append(version).append("\n");
+            if (paged) {
+                buffer.append("child nodes paged\n");
+            }
             if (version >= VERSION_3) {
                 readBundleNew();
             } else {
@@ -180,8 +189,14 @@ public class BundleDumper {
         // child nodes (list of name/uuid pairs)
         int nn = readVarInt((b >> 2) & 3, 3);
         for (int i = 0; i < nn; i++) {
-            buffer.append("child node: ").append(readQName()).
-                    append(" id: ").append(readNodeId()).append("\n");
+            if (paged) {
+                buffer.append("child node page: ").append(readVarInt()).
+                        append(" count: ").append(readVarInt()).
+                        append(" fingerprint: ").append(in.readLong()).append("\n");
+            } else {
+                buffer.append("child node: ").append(readQName()).
+                        append(" id: ").append(readNodeId()).append("\n");
+            }
         }
 
         // read shared set
@@ -318,7 +333,12 @@ public class BundleDumper {
         for (int i = 0; i < count; i++) {
             switch (type) {
                 case BINARY:
-                    int size = in.readInt();
+                    int size;
+                    if (version >= VERSION_4) {
+                        size = readVarInt() - 2;
+                    } else {
+                        size = in.readInt();
+                    }
                     if (size == BINARY_IN_DATA_STORE) {
                         buffer.append("  value: binary in datastore: ").append(readString()).append("\n");
                     } else if (size == BINARY_IN_BLOB_STORE) {
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+
+/**
+ * Cache of the names and namespace URIs that are not covered by
+ * {@link BundleNames}. The reader looks up names by their UTF-8
+ * serialization, so a cached name is returned without creating temporary
+ * strings, and the writer looks up the UTF-8 serialization of a name
+ * without encoding it again.
+ * <p>
+ * The cache consists of fixed size hash tables where a new entry simply
+ * replaces any older one in the same slot. Entries are immutable, so the
+ * tables can be used by concurrent readers and writers without locking.
+ */
+class BundleNameCache {
+
+    /**
+     * Size of the name tables, must be a power of two.
+     */
+    private static final int NAME_CACHE_SIZE = 1024;
+
+    /**
+     * Size of the namespace table, must be a power of two.
+     */
+    private static final int NAMESPACE_CACHE_SIZE = 64;
+
+    /**
+     * Names by the hash code of their serialization.
+     */
+    private final Entry[] decoded = new Entry[NAME_CACHE_SIZE];
+
+    /**
+     * Names by their own hash code.
+     */
+    private final Entry[] encoded = new Entry[NAME_CACHE_SIZE];
+
+    /**
+     * Namespace URIs by the hash code of their serialization.
+     */
+    private final Entry[] namespaces = new Entry[NAMESPACE_CACHE_SIZE];
+
+    /**
+     * Returns the namespace URI serialized in the given bytes.
+     *
+     * @param data byte array
+     * @param offset offset of the UTF-8 encoded namespace URI
+     * @param length length of the UTF-8 encoded namespace URI
+     * @return namespace URI
+     */
+    String getNamespaceURI(byte[] data, int offset, int length) {
+        int hash = hash(0, data, offset, length);
+        int i = hash & (namespaces.length - 1);
+        Entry entry = namespaces[i];
+        if (entry == null || !entry.matches(null, data, offset, length)) {
+            String uri = new String(data, offset, length, StandardCharsets.UTF_8);
+            entry = new Entry(null, Arrays.copyOfRange(data, offset, offset + length), uri);
+            namespaces[i] = entry;
+        }
+        return entry.uri;
+    }
+
+    /**
+     * Returns the name with the given namespace URI whose local name is
+     * serialized in the given bytes.
+     *
+     * @param uri namespace URI
+     * @param data byte array
+     * @param offset offset of the UTF-8 encoded local name
+     * @param length length of the UTF-8 encoded local name
+     * @return name
+     */
+    Name getName(String uri, byte[] data, int offset, int length) {
+        int hash = hash(uri.hashCode(), data, offset, length);
+        int i = hash & (decoded.length - 1);
+        Entry entry = decoded[i];
+        if (entry == null || !entry.matches(uri, data, offset, length)) {
+            String local = new String(data, offset, length, StandardCharsets.UTF_8);
+            Name name = NameFactoryImpl.getInstance().create(uri, local);
+            entry = new Entry(name, Arrays.copyOfRange(data, offset, offset + length), uri);
+            decoded[i] = entry;
+            encoded[name.hashCode() & (encoded.length - 1)] = entry;
+        }
+        return entry.name;
+    }
+
+    /**
+     * Returns the UTF-8 encoded local name of the given name. The returned
+     * array must not be modified.
+     *
+     * @param name name
+     * @return UTF-8 encoded local name
+     */
+    byte[] getLocalNameBytes(Name name) {
+        int i = name.hashCode() & (encoded.length - 1);
+        Entry entry = encoded[i];
+        if (entry == null || !entry.name.equals(name)) {
+            byte[] bytes = name.getLocalName().getBytes(StandardCharsets.UTF_8);
+            entry = new Entry(name, bytes, name.getNamespaceURI());
+            encoded[i] = entry;
+            decoded[hash(entry.uri.hashCode(), bytes, 0, bytes.length)
+                    & (decoded.length - 1)] = entry;
+        }
+        return entry.bytes;
+    }
+
+    private static int hash(int hash, byte[] data, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + data[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Entry {
+
+        /**
+         * The cached name, or <code>null</code> for a namespace entry.
+         */
+        private final Name name;
+
+        /**
+         * UTF-8 encoded local name or namespace URI.
+         */
+        private final byte[] bytes;
+
+        /**
+         * Namespace URI of the name or of the namespace entry.
+         */
+        private final String uri;
+
+        Entry(Name name, byte[] bytes, String uri) {
+            this.name = name;
+            this.bytes = bytes;
+            this.uri = uri;
+        }
+
+        boolean matches(String uri, byte[] data, int offset, int length) {
+            return (uri == null || uri.equals(this.uri))
+                && Arrays.equals(bytes, 0, bytes.length, data, offset, offset + length);
+        }
+
+    }
+
+}
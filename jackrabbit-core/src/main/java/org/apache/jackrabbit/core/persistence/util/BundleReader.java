@@ -19,22 +19,29 @@ package org.apache.jackrabbit.core.persistence.util;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.apache.commons.io.IOExceptionWithCause;
-import org.apache.commons.io.input.CountingInputStream;
+import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodeEntry;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodePage;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
 import org.apache.jackrabbit.spi.commons.name.NameConstants;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.GregorianCalendar;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 import java.util.TimeZone;
 import java.math.BigDecimal;
@@ -44,6 +51,14 @@ import javax.jcr.PropertyType;
 /**
  * Bundle deserializer. See the {@link BundleWriter} class for details of
  * the serialization format.
+ * <p>
+ * The bundle is decoded directly from a byte array. In bundles written
+ * using serialization version 3 or later, the values of properties that
+ * are not of type BINARY or NAME and the child node entries are only
+ * located when the bundle is read, and decoded when they are first
+ * accessed, see {@link NodePropBundle.PropertyEntry#getValues()} and
+ * {@link NodePropBundle#getChildNodeEntries()}. A single property can
+ * thus be read from a bundle without decoding the rest of it.
  *
  * @see BundleWriter
  */
@@ -98,17 +113,23 @@ class BundleReader {
     private final BundleBinding binding;
 
     /**
-     * Counter for the number of bytes read from the input stream.
+     * The serialized data.
      */
-    private final CountingInputStream cin;
+    private final byte[] data;
 
     /**
-     * Wrapper for reading structured data from the input stream.
+     * Current read position within the serialized data.
      */
-    private final DataInputStream in;
+    private int pos;
 
     private final int version;
 
+    /**
+     * Whether the child node entries of the bundle are stored on separate
+     * pages, see {@link BundleBinding#CHILD_NODE_PAGES}.
+     */
+    private final boolean paged;
+
     /**
      * The default namespace and the first six other namespaces used in this
      * bundle. Used by the {@link #readName()} method to keep track of
@@ -127,10 +148,36 @@ class BundleReader {
      */
     public BundleReader(BundleBinding binding, InputStream stream)
             throws IOException {
+        this(binding, IOUtils.toByteArray(stream));
+    }
+
+    /**
+     * Creates a new bundle deserializer.
+     *
+     * @param binding bundle binding
+     * @param data the serialized bundle, must not be modified afterwards
+     * @throws IOException if an I/O error occurs.
+     */
+    public BundleReader(BundleBinding binding, byte[] data)
+            throws IOException {
+        this.binding = binding;
+        this.data = data;
+        int b = readUnsignedByte();
+        this.version = b & ~BundleBinding.CHILD_NODE_PAGES;
+        this.paged = (b & BundleBinding.CHILD_NODE_PAGES) != 0;
+    }
+
+    /**
+     * Creates a deserializer for the property values starting at the given
+     * offset of a bundle with the given serialization version.
+     */
+    private BundleReader(
+            BundleBinding binding, byte[] data, int offset, int version) {
         this.binding = binding;
-        this.cin = new CountingInputStream(stream);
-        this.in = new DataInputStream(cin);
-        this.version = in.readUnsignedByte();
+        this.data = data;
+        this.pos = offset;
+        this.version = version;
+        this.paged = false;
     }
 
     /**
@@ -141,17 +188,34 @@ class BundleReader {
      * @throws IOException if an I/O error occurs.
      */
     public NodePropBundle readBundle(NodeId id) throws IOException {
-        long start = cin.getByteCount();
+        int start = pos;
         NodePropBundle bundle = new NodePropBundle(id);
         if (version >= BundleBinding.VERSION_3) {
             readBundleNew(bundle);
         } else {
             readBundleOld(bundle);
         }
-        bundle.setSize(cin.getByteCount() - start);
+        bundle.setSize(pos - start);
         return bundle;
     }
 
+    /**
+     * Deserializes a page of child node entries written by
+     * {@link BundleWriter#writeChildNodePage(java.util.Collection)}.
+     *
+     * @return the child node entries on the page
+     * @throws IOException if an I/O error occurs.
+     */
+    public List<ChildNodeEntry> readChildNodePage() throws IOException {
+        int count = readVarInt();
+        List<ChildNodeEntry> entries = new ArrayList<ChildNodeEntry>(count);
+        for (int i = 0; i < count; i++) {
+            Name name = readName();
+            entries.add(new ChildNodeEntry(name, readNodeId()));
+        }
+        return entries;
+    }
+
     private void readBundleNew(NodePropBundle bundle) throws IOException {
         // node type
         bundle.setNodeTypeName(readName());
@@ -166,7 +230,7 @@ class BundleReader {
         // read modcount
         bundle.setModCount((short) readVarInt());
 
-        int b = in.readUnsignedByte();
+        int b = readUnsignedByte();
         bundle.setReferenceable((b & 1) != 0);
 
         // mixin types
@@ -190,12 +254,28 @@ class BundleReader {
             bundle.addProperty(readPropertyEntry(id));
         }
 
-        // child nodes (list of name/uuid pairs)
+        // child nodes (list of name/uuid pairs, or the page directory)
         int nn = readVarInt((b >> 2) & 3, 3);
-        for (int i = 0; i < nn; i++) {
-            Name name = readQName();
-            NodeId id = readNodeId();
-            bundle.addChildNodeEntry(name, id);
+        if (paged) {
+            List<ChildNodePage> pages = new ArrayList<ChildNodePage>(nn);
+            for (int i = 0; i < nn; i++) {
+                int number = readVarInt();
+                int count = readVarInt();
+                pages.add(new ChildNodePage(number, count, readLong(), null));
+            }
+            bundle.setChildNodePages(pages);
+        } else if (nn > 0) {
+            // the entries are the last names in the bundle, so they can
+            // later be decoded with the namespaces seen so far
+            int offset = pos;
+            String[] seen = namespaces.clone();
+            int added = 0;
+            for (int i = 0; i < nn; i++) {
+                added = skipName(added);
+                skip(16);
+            }
+            bundle.setSerializedChildNodeEntries(new SerializedChildNodeEntries(
+                    binding, data, offset, pos - offset, version, seen, nn));
         }
 
         // read shared set
@@ -215,11 +295,11 @@ class BundleReader {
 
     private void readBundleOld(NodePropBundle bundle) throws IOException {
         // read primary type...special handling
-        int a = in.readUnsignedByte();
-        int b = in.readUnsignedByte();
-        int c = in.readUnsignedByte();
+        int a = readUnsignedByte();
+        int b = readUnsignedByte();
+        int c = readUnsignedByte();
         String uri = binding.nsIndex.indexToString(a << 16 | b << 8 | c);
-        String local = binding.nameIndex.indexToString(in.readInt());
+        String local = binding.nameIndex.indexToString(readInt());
         bundle.setNodeTypeName(
                 NameFactoryImpl.getInstance().create(uri, local));
 
@@ -227,7 +307,7 @@ class BundleReader {
         bundle.setParentId(readNodeId());
 
         // definitionId
-        in.readUTF();
+        readUTF();
 
         // mixin types
         Name name = readIndexedQName();
@@ -256,7 +336,7 @@ class BundleReader {
         }
 
         // set referenceable flag
-        bundle.setReferenceable(in.readBoolean());
+        bundle.setReferenceable(readBoolean());
 
         // child nodes (list of uuid/name pairs)
         NodeId childId = readNodeId();
@@ -267,7 +347,7 @@ class BundleReader {
 
         // read modcount, since version 1.0
         if (version >= BundleBinding.VERSION_1) {
-            bundle.setModCount(in.readShort());
+            bundle.setModCount(readShort());
         }
 
         // read shared set, since version 2.0
@@ -302,7 +382,7 @@ class BundleReader {
 
         int count = 1;
         if (version >= BundleBinding.VERSION_3) {
-            int b = in.readUnsignedByte();
+            int b = readUnsignedByte();
 
             entry.setType(b & 0x0f);
 
@@ -319,114 +399,178 @@ class BundleReader {
             entry.setModCount((short) readVarInt());
         } else {
             // type and modcount
-            int type = in.readInt();
+            int type = readInt();
             entry.setModCount((short) ((type >> 16) & 0x0ffff));
             type &= 0x0ffff;
             entry.setType(type);
 
             // multiValued
-            entry.setMultiValued(in.readBoolean());
+            entry.setMultiValued(readBoolean());
 
             // definitionId
-            in.readUTF();
+            readUTF();
 
             // count
-            count = in.readInt();
+            count = readInt();
         }
 
         // values
-        InternalValue[] values = new InternalValue[count];
-        String[] blobIds = new String[count];
-        for (int i = 0; i < count; i++) {
-            InternalValue val;
-            int type = entry.getType();
-            switch (type) {
-                case PropertyType.BINARY:
-                    int size = in.readInt();
-                    if (size == BundleBinding.BINARY_IN_DATA_STORE) {
-                        val = InternalValue.create(binding.dataStore, readString());
-                    } else if (size == BundleBinding.BINARY_IN_BLOB_STORE) {
-                        blobIds[i] = readString();
-                        try {
-                            BLOBStore blobStore = binding.getBlobStore();
-                            if (blobStore instanceof ResourceBasedBLOBStore) {
-                                val = InternalValue.create(((ResourceBasedBLOBStore) blobStore).getResource(blobIds[i]));
-                            } else {
-                                val = InternalValue.create(blobStore.get(blobIds[i]));
-                            }
-                        } catch (IOException e) {
-                            if (binding.errorHandling.ignoreMissingBlobs()) {
-                                log.warn("Ignoring error while reading blob-resource: " + e);
-                                val = InternalValue.create(new byte[0]);
-                            } else {
-                                throw e;
-                            }
-                        } catch (Exception e) {
-                            throw new IOExceptionWithCause("Unable to create property value: " + e.toString(), e);
-                        }
-                    } else {
-                        // short values into memory
-                        byte[] data = new byte[size];
-                        in.readFully(data);
-                        val = InternalValue.create(data);
-                    }
-                    break;
-                case PropertyType.DOUBLE:
-                    val = InternalValue.create(in.readDouble());
-                    break;
-                case PropertyType.DECIMAL:
-                    val = InternalValue.create(readDecimal());
-                    break;
-                case PropertyType.LONG:
-                    if (version >= BundleBinding.VERSION_3) {
-                        val = InternalValue.create(readVarLong());
-                    } else {
-                        val = InternalValue.create(in.readLong());
-                    }
-                    break;
-                case PropertyType.BOOLEAN:
-                    val = InternalValue.create(in.readBoolean());
-                    break;
-                case PropertyType.NAME:
-                    val = InternalValue.create(readQName());
-                    break;
-                case PropertyType.WEAKREFERENCE:
-                    val = InternalValue.create(readNodeId(), true);
-                    break;
-                case PropertyType.REFERENCE:
-                    val = InternalValue.create(readNodeId(), false);
-                    break;
-                case PropertyType.DATE:
-                    if (version >= BundleBinding.VERSION_3) {
-                        val = InternalValue.create(readDate());
-                        break;
-                    } // else fall through
-                default:
-                    if (version >= BundleBinding.VERSION_3) {
-                        val = InternalValue.valueOf(
-                                readString(), entry.getType());
+        int type = entry.getType();
+        if (version >= BundleBinding.VERSION_3
+                && type != PropertyType.BINARY && type != PropertyType.NAME) {
+            // binary values need the blob ids and name values refer to
+            // the namespaces seen so far, so only other values are lazy
+            int offset = pos;
+            for (int i = 0; i < count; i++) {
+                skipValue(type);
+            }
+            entry.setSerializedValues(new SerializedValues(
+                    binding, data, offset, pos - offset, version, type, count));
+        } else {
+            InternalValue[] values = new InternalValue[count];
+            String[] blobIds = new String[count];
+            for (int i = 0; i < count; i++) {
+                if (type == PropertyType.BINARY) {
+                    values[i] = readBinary(blobIds, i);
+                } else {
+                    values[i] = readValue(type);
+                }
+            }
+            entry.setValues(values);
+            entry.setBlobIds(blobIds);
+        }
+
+        return entry;
+    }
+
+    /**
+     * Deserializes a binary value.
+     *
+     * @param blobIds blob ids of the property
+     * @param i index of the value
+     * @return the value
+     * @throws IOException if an I/O error occurs.
+     */
+    private InternalValue readBinary(String[] blobIds, int i)
+            throws IOException {
+        int size;
+        if (version >= BundleBinding.VERSION_4) {
+            size = readVarInt() - 2;
+        } else {
+            size = readInt();
+        }
+        if (size == BundleBinding.BINARY_IN_DATA_STORE) {
+            return InternalValue.create(binding.dataStore, readString());
+        } else if (size == BundleBinding.BINARY_IN_BLOB_STORE) {
+            blobIds[i] = readString();
+            try {
+                BLOBStore blobStore = binding.getBlobStore();
+                if (blobStore instanceof ResourceBasedBLOBStore) {
+                    return InternalValue.create(((ResourceBasedBLOBStore) blobStore).getResource(blobIds[i]));
+                } else {
+                    return InternalValue.create(blobStore.get(blobIds[i]));
+                }
+            } catch (IOException e) {
+                if (binding.errorHandling.ignoreMissingBlobs()) {
+                    log.warn("Ignoring error while reading blob-resource: " + e);
+                    return InternalValue.create(new byte[0]);
+                } else {
+                    throw e;
+                }
+            } catch (Exception e) {
+                throw new IOExceptionWithCause("Unable to create property value: " + e.toString(), e);
+            }
+        } else {
+            // short values into memory
+            return InternalValue.create(readBytes(size));
+        }
+    }
+
+    /**
+     * Deserializes a value that is not of type BINARY.
+     *
+     * @param type property type
+     * @return the value
+     * @throws IOException if an I/O error occurs.
+     */
+    private InternalValue readValue(int type) throws IOException {
+        switch (type) {
+            case PropertyType.DOUBLE:
+                return InternalValue.create(readDouble());
+            case PropertyType.DECIMAL:
+                return InternalValue.create(readDecimal());
+            case PropertyType.LONG:
+                if (version >= BundleBinding.VERSION_3) {
+                    return InternalValue.create(readVarLong());
+                } else {
+                    return InternalValue.create(readLong());
+                }
+            case PropertyType.BOOLEAN:
+                return InternalValue.create(readBoolean());
+            case PropertyType.NAME:
+                return InternalValue.create(readQName());
+            case PropertyType.WEAKREFERENCE:
+                return InternalValue.create(readNodeId(), true);
+            case PropertyType.REFERENCE:
+                return InternalValue.create(readNodeId(), false);
+            case PropertyType.DATE:
+                if (version >= BundleBinding.VERSION_3) {
+                    return InternalValue.create(readDate());
+                } // else fall through
+            default:
+                if (version >= BundleBinding.VERSION_3) {
+                    return InternalValue.valueOf(readString(), type);
                 } else {
                     // because writeUTF(String) has a size limit of 64k,
                     // Strings are serialized as <length><byte[]>
-                    int len = in.readInt();
-                    byte[] bytes = new byte[len];
-                    in.readFully(bytes);
-                    String stringVal = new String(bytes, StandardCharsets.UTF_8);
+                    int len = readInt();
+                    String stringVal = new String(
+                            data, require(len), len, StandardCharsets.UTF_8);
+                    pos += len;
 
                     // https://issues.apache.org/jira/browse/JCR-3083
-                    if (PropertyType.DATE == entry.getType()) {
-                        val = InternalValue.createDate(stringVal);
+                    if (PropertyType.DATE == type) {
+                        return InternalValue.createDate(stringVal);
                     } else {
-                        val = InternalValue.valueOf(stringVal, entry.getType());
+                        return InternalValue.valueOf(stringVal, type);
                     }
                 }
-            }
-            values[i] = val;
         }
-        entry.setValues(values);
-        entry.setBlobIds(blobIds);
+    }
 
-        return entry;
+    /**
+     * Skips a value that is not of type BINARY or NAME written using bundle
+     * serialization version 3 or later.
+     *
+     * @param type property type
+     * @throws IOException if an I/O error occurs.
+     */
+    private void skipValue(int type) throws IOException {
+        switch (type) {
+            case PropertyType.DOUBLE:
+                skip(8);
+                break;
+            case PropertyType.DECIMAL:
+                if (readBoolean()) {
+                    skip(readVarInt());
+                }
+                break;
+            case PropertyType.LONG:
+            case PropertyType.DATE:
+                while ((readUnsignedByte() & 0x80) != 0) {
+                    // skip variable-length long
+                }
+                break;
+            case PropertyType.BOOLEAN:
+                skip(1);
+                break;
+            case PropertyType.WEAKREFERENCE:
+            case PropertyType.REFERENCE:
+                skip(16);
+                break;
+            default:
+                skip(readVarInt());
+        }
     }
 
     /**
@@ -436,9 +580,9 @@ class BundleReader {
      * @throws IOException in an I/O error occurs.
      */
     private NodeId readNodeId() throws IOException {
-        if (version >= BundleBinding.VERSION_3 || in.readBoolean()) {
-            long msb = in.readLong();
-            long lsb = in.readLong();
+        if (version >= BundleBinding.VERSION_3 || readBoolean()) {
+            long msb = readLong();
+            long lsb = readLong();
             return new NodeId(msb, lsb);
         } else {
             return null;
@@ -452,7 +596,7 @@ class BundleReader {
      * @throws IOException in an I/O error occurs.
      */
     private BigDecimal readDecimal() throws IOException {
-        if (in.readBoolean()) {
+        if (readBoolean()) {
             // TODO more efficient serialization format
             return new BigDecimal(readString());
         } else {
@@ -471,8 +615,8 @@ class BundleReader {
             return readName();
         }
 
-        String uri = binding.nsIndex.indexToString(in.readInt());
-        String local = in.readUTF();
+        String uri = binding.nsIndex.indexToString(readInt());
+        String local = readUTF();
         return NameFactoryImpl.getInstance().create(uri, local);
     }
 
@@ -487,12 +631,12 @@ class BundleReader {
             return readName();
         }
 
-        int index = in.readInt();
+        int index = readInt();
         if (index < 0) {
             return null;
         } else {
             String uri = binding.nsIndex.indexToString(index);
-            String local = binding.nameIndex.indexToString(in.readInt());
+            String local = binding.nameIndex.indexToString(readInt());
             return NameFactoryImpl.getInstance().create(uri, local);
         }
     }
@@ -504,7 +648,7 @@ class BundleReader {
      * @throws IOException if an I/O error occurs
      */
     private Name readName() throws IOException {
-        int b = in.readUnsignedByte();
+        int b = readUnsignedByte();
         if ((b & 0x80) == 0) {
             return BundleNames.indexToName(b);
         } else {
@@ -513,16 +657,41 @@ class BundleReader {
             if (ns < namespaces.length && namespaces[ns] != null) {
                 uri = namespaces[ns];
             } else {
-                uri = readString();
+                int len = readVarInt();
+                uri = binding.nameCache.getNamespaceURI(data, require(len), len);
+                pos += len;
                 if (ns < namespaces.length) {
                     namespaces[ns] = uri;
                 }
             }
 
-            String local = new String(readBytes((b & 0x0f) + 1, 0x10), StandardCharsets.UTF_8);
+            int len = readVarInt((b & 0x0f) + 1, 0x10);
+            Name name = binding.nameCache.getName(uri, data, require(len), len);
+            pos += len;
+            return name;
+        }
+    }
 
-            return NameFactoryImpl.getInstance().create(uri, local);
+    /**
+     * Skips a name written using bundle serialization version 3.
+     *
+     * @param added bit mask of the namespaces first written after the
+     *              current position of the bundle was reached
+     * @return updated bit mask of namespaces
+     * @throws IOException if an I/O error occurs
+     */
+    private int skipName(int added) throws IOException {
+        int b = readUnsignedByte();
+        if ((b & 0x80) != 0) {
+            int ns = (b >> 4) & 0x07;
+            if (ns == namespaces.length
+                    || (namespaces[ns] == null && (added & 1 << ns) == 0)) {
+                skip(readVarInt());
+                added |= 1 << ns;
+            }
+            skip(readVarInt((b & 0x0f) + 1, 0x10));
         }
+        return added;
     }
 
     /**
@@ -533,7 +702,7 @@ class BundleReader {
      * @throws IOException if an I/O error occurs
      */
     private int readVarInt() throws IOException {
-        int b = in.readUnsignedByte();
+        int b = readUnsignedByte();
         if ((b & 0x80) == 0) {
             return b;
         } else {
@@ -561,7 +730,7 @@ class BundleReader {
         int bits = 0;
         long b;
         do {
-            b = in.readUnsignedByte();
+            b = readUnsignedByte();
             if (bits < 57) {
                 value = (b & 0x7f) << 57 | value >>> 7;
                 bits += 7;
@@ -660,16 +829,258 @@ class BundleReader {
 
     private String readString() throws IOException {
         if (version >= BundleBinding.VERSION_3) {
-            return new String(readBytes(0, 0), StandardCharsets.UTF_8);
+            int len = readVarInt();
+            String value = new String(
+                    data, require(len), len, StandardCharsets.UTF_8);
+            pos += len;
+            return value;
         } else {
-            return in.readUTF();
+            return readUTF();
         }
     }
 
-    private byte[] readBytes(int len, int base) throws IOException {
-        byte[] bytes = new byte[readVarInt(len, base)];
-        in.readFully(bytes);
+    private byte[] readBytes(int len) throws IOException {
+        byte[] bytes = Arrays.copyOfRange(data, require(len), pos + len);
+        pos += len;
         return bytes;
     }
 
+    /**
+     * Reads a string in the modified UTF-8 format used by
+     * {@link java.io.DataOutput#writeUTF(String)}.
+     */
+    private String readUTF() throws IOException {
+        int len = readUnsignedShort();
+        String value = DataInputStream.readUTF(new DataInputStream(
+                new ByteArrayInputStream(data, require(len) - 2, len + 2)));
+        pos += len;
+        return value;
+    }
+
+    private void skip(int len) throws IOException {
+        pos = require(len) + len;
+    }
+
+    /**
+     * Checks that the given number of bytes is available at the current
+     * position.
+     *
+     * @param len number of bytes
+     * @return the current position
+     * @throws EOFException if the end of the data would be passed
+     */
+    private int require(int len) throws EOFException {
+        if (len < 0 || len > data.length - pos) {
+            throw new EOFException();
+        }
+        return pos;
+    }
+
+    private int readUnsignedByte() throws IOException {
+        int b = data[require(1)] & 0xff;
+        pos++;
+        return b;
+    }
+
+    private boolean readBoolean() throws IOException {
+        return readUnsignedByte() != 0;
+    }
+
+    private int readUnsignedShort() throws IOException {
+        return readUnsignedByte() << 8 | readUnsignedByte();
+    }
+
+    private short readShort() throws IOException {
+        return (short) readUnsignedShort();
+    }
+
+    private int readInt() throws IOException {
+        return readUnsignedShort() << 16 | readUnsignedShort();
+    }
+
+    private long readLong() throws IOException {
+        return ((long) readInt()) << 32 | (readInt() & 0xffffffffL);
+    }
+
+    private double readDouble() throws IOException {
+        return Double.longBitsToDouble(readLong());
+    }
+
+    //----------------------------------------------------< SerializedValues >
+
+    /**
+     * The serialized values of a property, decoded when first accessed.
+     */
+    static class SerializedValues {
+
+        private final BundleBinding binding;
+
+        private final byte[] data;
+
+        private final int offset;
+
+        private final int length;
+
+        private final int version;
+
+        private final int type;
+
+        private final int count;
+
+        SerializedValues(
+                BundleBinding binding, byte[] data, int offset, int length,
+                int version, int type, int count) {
+            this.binding = binding;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.version = version;
+            this.type = type;
+            this.count = count;
+        }
+
+        /**
+         * Returns the number of values.
+         *
+         * @return number of values
+         */
+        int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the number of bytes used by the serialized values.
+         *
+         * @return length of the serialization
+         */
+        int getLength() {
+            return length;
+        }
+
+        /**
+         * Copies the serialized values to the given array.
+         *
+         * @param buffer target array
+         * @param position position in the target array
+         */
+        void copyTo(byte[] buffer, int position) {
+            System.arraycopy(data, offset, buffer, position, length);
+        }
+
+        /**
+         * Decodes the values.
+         *
+         * @return the values
+         * @throws IOException if the values can not be decoded
+         */
+        InternalValue[] decode() throws IOException {
+            BundleReader reader =
+                new BundleReader(binding, data, offset, version);
+            InternalValue[] values = new InternalValue[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = reader.readValue(type);
+            }
+            return values;
+        }
+
+    }
+
+    //-------------------------------------------< SerializedChildNodeEntries >
+
+    /**
+     * The serialized child node entries of a bundle, decoded when first
+     * accessed.
+     */
+    static class SerializedChildNodeEntries {
+
+        private final BundleBinding binding;
+
+        private final byte[] data;
+
+        private final int offset;
+
+        private final int length;
+
+        private final int version;
+
+        /**
+         * The namespaces seen before the child node entries.
+         */
+        private final String[] namespaces;
+
+        private final int count;
+
+        SerializedChildNodeEntries(
+                BundleBinding binding, byte[] data, int offset, int length,
+                int version, String[] namespaces, int count) {
+            this.binding = binding;
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.version = version;
+            this.namespaces = namespaces;
+            this.count = count;
+        }
+
+        /**
+         * Returns the number of child node entries.
+         *
+         * @return number of entries
+         */
+        int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the number of bytes used by the serialized entries.
+         *
+         * @return length of the serialization
+         */
+        int getLength() {
+            return length;
+        }
+
+        /**
+         * Checks whether the serialized entries can be copied as-is to a
+         * bundle that has seen the given namespaces before its child node
+         * entries.
+         *
+         * @param namespaces namespaces seen by the writer
+         * @return <code>true</code> if the namespaces match
+         */
+        boolean canCopyTo(String[] namespaces) {
+            return Arrays.equals(this.namespaces, namespaces);
+        }
+
+        /**
+         * Copies the serialized entries to the given array.
+         *
+         * @param buffer target array
+         * @param position position in the target array
+         */
+        void copyTo(byte[] buffer, int position) {
+            System.arraycopy(data, offset, buffer, position, length);
+        }
+
+        /**
+         * Decodes the child node entries.
+         *
+         * @return the child node entries
+         * @throws IOException if the entries can not be decoded
+         */
+        List<ChildNodeEntry> decode() throws IOException {
+            BundleReader reader =
+                new BundleReader(binding, data, offset, version);
+            System.arraycopy(
+                    namespaces, 0, reader.namespaces, 0, namespaces.length);
+            List<ChildNodeEntry> entries = new ArrayList<ChildNodeEntry>(count);
+            for (int i = 0; i < count; i++) {
+                Name name = reader.readName();
+                entries.add(new ChildNodeEntry(name, reader.readNodeId()));
+            }
+            return entries;
+        }
+
+    }
+
 }
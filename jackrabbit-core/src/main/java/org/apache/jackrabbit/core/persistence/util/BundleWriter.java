@@ -17,15 +17,16 @@
 package org.apache.jackrabbit.core.persistence.util;
 
 import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigDecimal;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.GregorianCalendar;
+import java.util.List;
 
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
@@ -35,13 +36,16 @@ import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.core.id.NodeId;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodeEntry;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodePage;
 import org.apache.jackrabbit.core.persistence.util.NodePropBundle.PropertyEntry;
 import org.apache.jackrabbit.spi.Name;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
- * Bundle serializer.
+ * Bundle serializer. The bundle is first serialized to a per-thread buffer
+ * that is reused for later bundles, and then written to the target stream
+ * in a single call.
  *
  * @see BundleReader
  */
@@ -50,9 +54,34 @@ class BundleWriter {
     /** Logger instance */
     private static Logger log = LoggerFactory.getLogger(BundleWriter.class);
 
+    /**
+     * Maximum size of a serialization buffer that is kept for reuse.
+     */
+    private static final int MAX_REUSED_BUFFER_SIZE = 0x10000; // 64k
+
+    /**
+     * Serialization buffers for reuse by later writers in the same thread.
+     */
+    private static final ThreadLocal<byte[]> BUFFERS =
+        new ThreadLocal<byte[]>() {
+            protected byte[] initialValue() {
+                return new byte[0x1000];
+            }
+        };
+
     private final BundleBinding binding;
 
-    private final DataOutputStream out;
+    private final OutputStream out;
+
+    /**
+     * The serialization buffer.
+     */
+    private byte[] buffer;
+
+    /**
+     * Number of bytes in the serialization buffer.
+     */
+    private int pos;
 
     /**
      * The default namespace and the first six other namespaces used in this
@@ -74,8 +103,8 @@ class BundleWriter {
             throws IOException {
         assert namespaces.length == 7;
         this.binding = binding;
-        this.out = new DataOutputStream(stream);
-        this.out.writeByte(BundleBinding.VERSION_CURRENT);
+        this.out = stream;
+        this.buffer = BUFFERS.get();
     }
 
     /**
@@ -86,7 +115,14 @@ class BundleWriter {
      */
     public void writeBundle(NodePropBundle bundle)
             throws IOException {
-        long size = out.size();
+        List<ChildNodePage> pages = bundle.getChildNodePages();
+        if (pages == null) {
+            writeByte(BundleBinding.VERSION_CURRENT);
+        } else {
+            writeByte(
+                    BundleBinding.VERSION_CURRENT | BundleBinding.CHILD_NODE_PAGES);
+        }
+        int size = pos;
 
         // primaryType
         writeName(bundle.getNodeTypeName());
@@ -103,18 +139,28 @@ class BundleWriter {
 
         Collection<Name> mixins = bundle.getMixinTypeNames();
         Collection<PropertyEntry> properties = bundle.getPropertyEntries();
-        Collection<ChildNodeEntry> nodes = bundle.getChildNodeEntries();
+        BundleReader.SerializedChildNodeEntries serialized = null;
+        if (pages == null) {
+            serialized = bundle.getSerializedChildNodeEntries();
+        }
         Collection<NodeId> shared = bundle.getSharedSet();
 
         int mn = mixins.size();
         int pn = properties.size();
-        int nn = nodes.size();
+        int nn;
+        if (pages != null) {
+            nn = pages.size();
+        } else if (serialized != null) {
+            nn = serialized.getCount();
+        } else {
+            nn = bundle.getChildNodeEntries().size();
+        }
         int sn = shared.size();
         int referenceable = 0;
         if (bundle.isReferenceable()) {
             referenceable = 1;
         }
-        out.writeByte(
+        writeByte(
                 Math.min(mn, 1) << 7
                 | Math.min(pn, 7) << 4
                 | Math.min(nn, 3) << 2
@@ -133,11 +179,21 @@ class BundleWriter {
             writeState(property);
         }
 
-        // child nodes (list of name/uuid pairs)
+        // child nodes (list of name/uuid pairs, or the page directory)
         writeVarInt(nn, 3);
-        for (ChildNodeEntry child : nodes) {
-            writeName(child.getName());   // name
-            writeNodeId(child.getId());   // uuid
+        if (pages != null) {
+            for (ChildNodePage page : pages) {
+                writeVarInt(page.getNumber());
+                writeVarInt(page.getCount());
+                writeLong(page.getFingerprint());
+            }
+        } else if (serialized != null && serialized.canCopyTo(namespaces)) {
+            // entries that were never accessed are copied as-is
+            ensureCapacity(serialized.getLength());
+            serialized.copyTo(buffer, pos);
+            pos += serialized.getLength();
+        } else {
+            writeChildNodeEntries(bundle.getChildNodeEntries());
         }
 
         // write shared set
@@ -147,7 +203,48 @@ class BundleWriter {
         }
 
         // set size of bundle
-        bundle.setSize(out.size() - size);
+        bundle.setSize(pos - size);
+
+        flush();
+    }
+
+    /**
+     * Serializes a page of child node entries that is stored separately
+     * from its bundle. The page consists of the version byte, the number
+     * of entries as a variable-length integer and the name/uuid pairs of
+     * the entries.
+     *
+     * @param entries the entries on the page
+     * @throws IOException if an I/O error occurs.
+     */
+    public void writeChildNodePage(Collection<ChildNodeEntry> entries)
+            throws IOException {
+        writeByte(BundleBinding.VERSION_CURRENT);
+        writeVarInt(entries.size());
+        writeChildNodeEntries(entries);
+        flush();
+    }
+
+    /**
+     * Writes the serialized data to the target stream and returns the
+     * buffer for reuse.
+     *
+     * @throws IOException if an I/O error occurs.
+     */
+    private void flush() throws IOException {
+        out.write(buffer, 0, pos);
+        pos = 0;
+        if (buffer.length <= MAX_REUSED_BUFFER_SIZE) {
+            BUFFERS.set(buffer);
+        }
+    }
+
+    private void writeChildNodeEntries(Collection<ChildNodeEntry> entries)
+            throws IOException {
+        for (ChildNodeEntry child : entries) {
+            writeName(child.getName());   // name
+            writeNodeId(child.getId());   // uuid
+        }
     }
 
     /**
@@ -174,7 +271,8 @@ class BundleWriter {
      * <p>
      * The modification count of the property state is written next as a
      * variable-length integer, followed by the serializations of all the
-     * values of this property.
+     * values of this property. Values that were read from a serialized
+     * bundle but never accessed are copied as-is without decoding them.
      *
      * @param state the property entry to store
      * @throws IOException if an I/O error occurs.
@@ -183,31 +281,46 @@ class BundleWriter {
             throws IOException {
         writeName(state.getName());
 
-        InternalValue[] values = state.getValues();
+        BundleReader.SerializedValues serialized = state.getSerializedValues();
+        InternalValue[] values = null;
+        int count;
+        if (serialized != null) {
+            count = serialized.getCount();
+        } else {
+            values = state.getValues();
+            count = values.length;
+        }
 
         int type = state.getType();
         if (type < 0 || type > 0xf) {
             throw new IOException("Illegal property type " + type);
         }
         if (state.isMultiValued()) {
-            int len = values.length + 1;
+            int len = count + 1;
             if (len < 0x0f) {
-                out.writeByte(len << 4 | type);
+                writeByte(len << 4 | type);
             } else {
-                out.writeByte(0xf0 | type);
+                writeByte(0xf0 | type);
                 writeVarInt(len - 0x0f);
             }
         } else {
-            if (values.length != 1) {
+            if (count != 1) {
                 throw new IOException(
-                        "Single values property with " + values.length + " values: " + 
+                        "Single values property with " + count + " values: " + 
                         state.getName());
             }
-            out.writeByte(type);
+            writeByte(type);
         }
 
         writeVarInt(state.getModCount());
 
+        if (serialized != null) {
+            ensureCapacity(serialized.getLength());
+            serialized.copyTo(buffer, pos);
+            pos += serialized.getLength();
+            return;
+        }
+
         // values
         for (int i = 0; i < values.length; i++) {
             InternalValue val = values[i];
@@ -216,20 +329,20 @@ class BundleWriter {
                     try {
                         long size = val.getLength();
                         if (val.isInDataStore()) {
-                            out.writeInt(BundleBinding.BINARY_IN_DATA_STORE);
+                            writeBinarySize(BundleBinding.BINARY_IN_DATA_STORE);
                             writeString(val.toString());
                         } else if (binding.dataStore != null) {
                             writeSmallBinary(val, state, i);
                         } else if (size < 0) {
                             log.warn("Blob has negative size. Potential loss of data. "
                                     + "id={} idx={}", state.getId(), String.valueOf(i));
-                            out.writeInt(0);
+                            writeBinarySize(0);
                             values[i] = InternalValue.create(new byte[0]);
                             val.discard();
                         } else if (size > binding.getMinBlobSize()) {
                             // special handling required for binary value:
                             // spool binary value to file in blob store
-                            out.writeInt(BundleBinding.BINARY_IN_BLOB_STORE);
+                            writeBinarySize(BundleBinding.BINARY_IN_BLOB_STORE);
                             String blobId = state.getBlobId(i);
                             if (blobId == null) {
                                 BLOBStore blobStore = binding.getBlobStore();
@@ -282,7 +395,7 @@ class BundleWriter {
                     break;
                 case PropertyType.DOUBLE:
                     try {
-                        out.writeDouble(val.getDouble());
+                        writeLong(Double.doubleToLongBits(val.getDouble()));
                     } catch (RepositoryException e) {
                         throw convertToIOException(type, e);
                     }
@@ -303,7 +416,7 @@ class BundleWriter {
                     break;
                 case PropertyType.BOOLEAN:
                     try {
-                        out.writeBoolean(val.getBoolean());
+                        writeByte(val.getBoolean() ? 1 : 0);
                     } catch (RepositoryException e) {
                         throw convertToIOException(type, e);
                     }
@@ -358,7 +471,7 @@ class BundleWriter {
             throws IOException {
         try {
             int size = (int) value.getLength();
-            out.writeInt(size);
+            writeBinarySize(size);
             byte[] data = new byte[size];
             DataInputStream in =
                 new DataInputStream(value.getStream());
@@ -367,7 +480,7 @@ class BundleWriter {
             } finally {
                 IOUtils.closeQuietly(in);
             }
-            out.write(data, 0, data.length);
+            write(data, 0, data.length);
             return data;
         } catch (Exception e) {
             String msg = "Error while storing blob. id="
@@ -384,8 +497,22 @@ class BundleWriter {
      * @throws IOException in an I/O error occurs.
      */
     private void writeNodeId(NodeId id) throws IOException {
-        out.writeLong(id.getMostSignificantBits());
-        out.writeLong(id.getLeastSignificantBits());
+        writeLong(id.getMostSignificantBits());
+        writeLong(id.getLeastSignificantBits());
+    }
+
+    /**
+     * Serializes the size of a binary value, or one of the special
+     * {@link BundleBinding#BINARY_IN_DATA_STORE} and
+     * {@link BundleBinding#BINARY_IN_BLOB_STORE} markers, as a
+     * variable-length integer offset by two. Bundle serialization versions
+     * before 4 used a four-byte integer for this.
+     *
+     * @param size size of the binary value, or a marker
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeBinarySize(int size) throws IOException {
+        writeVarInt(size + 2);
     }
 
     /**
@@ -396,9 +523,9 @@ class BundleWriter {
      */
     private void writeDecimal(BigDecimal decimal) throws IOException {
         if (decimal == null) {
-            out.writeBoolean(false);
+            writeByte(0);
         } else {
-            out.writeBoolean(true);
+            writeByte(1);
             // TODO more efficient serialization format
             writeString(decimal.toString());
         }
@@ -451,7 +578,7 @@ class BundleWriter {
         int index = BundleNames.nameToIndex(name);
         if (index != -1) {
             assert 0 <= index && index < 0x80;
-            out.writeByte(index);
+            writeByte(index);
         } else {
             String uri = name.getNamespaceURI();
             int ns = 0;
@@ -461,14 +588,13 @@ class BundleWriter {
                 ns++;
             }
 
-            String local = name.getLocalName();
-            if (local.length() == 0) {
+            if (name.getLocalName().length() == 0) {
                 throw new IOException("Attempt to write an empty local name: " + name);
             }
-            byte[] bytes = local.getBytes(StandardCharsets.UTF_8);
+            byte[] bytes = binding.nameCache.getLocalNameBytes(name);
             int len = Math.min(bytes.length - 1, 0x0f);
 
-            out.writeByte(0x80 | ns << 4 | len);
+            writeByte(0x80 | ns << 4 | len);
             if (ns == namespaces.length || namespaces[ns] == null) {
                 writeString(uri);
                 if (ns < namespaces.length) {
@@ -476,7 +602,7 @@ class BundleWriter {
                 }
             }
             if (len != 0x0f) {
-                out.write(bytes);
+                write(bytes, 0, bytes.length);
             } else {
                 writeBytes(bytes, 0x0f + 1);
             }
@@ -511,10 +637,10 @@ class BundleWriter {
         while (true) {
             int b = value & 0x7f;
             if (b != value) {
-                out.writeByte(b | 0x80);
+                writeByte(b | 0x80);
                 value >>>= 7; // unsigned shift
             } else {
-                out.writeByte(b);
+                writeByte(b);
                 return;
             }
         }
@@ -548,10 +674,10 @@ class BundleWriter {
         while (true) {
             long b = value & 0x7f;
             if (b != value) {
-                out.writeByte((int) b | 0x80);
+                writeByte((int) b | 0x80);
                 value >>>= 7; // unsigned shift
             } else {
-                out.writeByte((int) b);
+                writeByte((int) b);
                 return;
             }
         }
@@ -703,12 +829,24 @@ class BundleWriter {
      * Serializes a string in UTF-8. The length of the UTF-8 byte sequence
      * is first written as a variable-length string (see
      * {@link #writeVarInt(int)}), and then the sequence itself is written.
+     * ASCII strings are copied directly to the buffer.
      *
      * @param value string value
      * @throws IOException if an I/O error occurs
      */
     private void writeString(String value) throws IOException {
-        writeBytes(value.getBytes(StandardCharsets.UTF_8), 0);
+        int n = value.length();
+        for (int i = 0; i < n; i++) {
+            if (value.charAt(i) >= 0x80) {
+                writeBytes(value.getBytes(StandardCharsets.UTF_8), 0);
+                return;
+            }
+        }
+        writeVarInt(n);
+        ensureCapacity(n);
+        for (int i = 0; i < n; i++) {
+            buffer[pos++] = (byte) value.charAt(i);
+        }
     }
 
     /**
@@ -723,7 +861,32 @@ class BundleWriter {
     private void writeBytes(byte[] bytes, int base) throws IOException {
         assert bytes.length >= base;
         writeVarInt(bytes.length - base);
-        out.write(bytes);
+        write(bytes, 0, bytes.length);
+    }
+
+    private void ensureCapacity(int len) {
+        if (buffer.length - pos < len) {
+            buffer = Arrays.copyOf(
+                    buffer, Math.max(buffer.length * 2, pos + len));
+        }
+    }
+
+    private void write(byte[] bytes, int offset, int len) {
+        ensureCapacity(len);
+        System.arraycopy(bytes, offset, buffer, pos, len);
+        pos += len;
+    }
+
+    private void writeByte(int b) {
+        ensureCapacity(1);
+        buffer[pos++] = (byte) b;
+    }
+
+    private void writeLong(long value) {
+        ensureCapacity(8);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            buffer[pos++] = (byte) (value >>> shift);
+        }
     }
 
 }
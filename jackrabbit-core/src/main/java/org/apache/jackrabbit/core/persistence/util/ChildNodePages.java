@@ -0,0 +1,318 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodeEntry;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodePage;
+
+/**
+ * Layout of the child node entries of a bundle on separately stored pages.
+ * Persistence managers use this class to store the child node list of a
+ * node with many children in pages of limited size, so that adding or
+ * removing a child only rewrites the pages that changed instead of the
+ * whole list.
+ * <p>
+ * A new layout is computed from the page directory of the previously
+ * stored bundle and its current child node entries. Each previous page
+ * whose entries are still present, unchanged and in the same order is kept;
+ * new entries between kept pages are merged into the following page if it
+ * has room, or otherwise stored on new pages; pages whose entries changed
+ * are dropped and their remaining entries are stored again. Entries are
+ * never reordered, so the pages always hold consecutive ranges of the child
+ * node list.
+ * <p>
+ * The layout is computed from the complete list of child node entries, so
+ * only the pages written are limited to the ones that changed; computing
+ * the layout takes time linear in the number of entries.
+ */
+public class ChildNodePages {
+
+    /**
+     * The page directory of the new layout, or <code>null</code> if the
+     * entries should be stored in the bundle itself.
+     */
+    private final List<ChildNodePage> pages;
+
+    /**
+     * Offsets of the entries of each page of the new layout.
+     */
+    private final Map<Integer, Integer> offsets = new HashMap<Integer, Integer>();
+
+    /**
+     * Numbers of the pages that need to be written.
+     */
+    private final Set<Integer> written = new HashSet<Integer>();
+
+    /**
+     * Numbers of the pages that did not exist before.
+     */
+    private final Set<Integer> inserted = new HashSet<Integer>();
+
+    /**
+     * Numbers of the pages that need to be deleted.
+     */
+    private final List<Integer> deleted = new ArrayList<Integer>();
+
+    private final List<ChildNodeEntry> entries;
+
+    private final int pageSize;
+
+    /**
+     * Computes the page layout of the given child node entries.
+     *
+     * @param previous the previous page directory, or <code>null</code> if
+     *                 the entries were stored in the bundle
+     * @param entries the current child node entries
+     * @param pageSize the maximum number of entries per page; child node
+     *                 lists up to this size are not paged
+     */
+    public ChildNodePages(
+            List<ChildNodePage> previous, List<ChildNodeEntry> entries,
+            int pageSize) {
+        this.entries = new ArrayList<ChildNodeEntry>(entries);
+        this.pageSize = pageSize;
+
+        int n = this.entries.size();
+        // once paged, a list is only stored inline again when it shrinks
+        // to half the page size, so that it does not flip back and forth
+        boolean paged = pageSize > 0
+            && (n > pageSize || (previous != null && n > pageSize / 2));
+        if (!paged) {
+            pages = null;
+            if (previous != null) {
+                for (ChildNodePage page : previous) {
+                    deleted.add(page.getNumber());
+                }
+            }
+            return;
+        }
+        if (previous == null) {
+            previous = Collections.emptyList();
+        }
+
+        Map<NodeId, Integer> index = new HashMap<NodeId, Integer>(n * 2);
+        for (int i = n - 1; i >= 0; i--) {
+            index.put(this.entries.get(i).getId(), i);
+        }
+
+        // page numbers of dropped pages are reused before new ones are used
+        List<Integer> free = new ArrayList<Integer>();
+        int next = 0;
+        for (ChildNodePage page : previous) {
+            next = Math.max(next, page.getNumber() + 1);
+        }
+
+        List<ChildNodePage> result = new ArrayList<ChildNodePage>();
+        int pos = 0;
+        for (ChildNodePage page : previous) {
+            Integer idx = page.getFirstId() != null
+                ? index.get(page.getFirstId()) : null;
+            int end = idx != null ? idx + page.getCount() : -1;
+            if (idx == null || idx < pos || end > n
+                    || fingerprint(this.entries, idx, end) != page.getFingerprint()) {
+                free.add(page.getNumber());
+                continue;
+            }
+            int pending = idx - pos;
+            if (pending > 0 && pending + page.getCount() <= pageSize) {
+                // merge the new entries into this page
+                add(result, page.getNumber(), pos, end, false);
+            } else {
+                if (pending > 0) {
+                    next = split(result, free, next, pos, idx);
+                }
+                offsets.put(page.getNumber(), idx);
+                result.add(page);
+            }
+            pos = end;
+        }
+        if (pos < n) {
+            ChildNodePage last = result.isEmpty()
+                ? null : result.get(result.size() - 1);
+            if (last != null && last.getCount() + n - pos <= pageSize) {
+                // append the remaining entries to the last page
+                result.remove(result.size() - 1);
+                written.remove(last.getNumber());
+                add(result, last.getNumber(), offsets.get(last.getNumber()), n,
+                        inserted.remove(last.getNumber()));
+            } else {
+                next = split(result, free, next, pos, n);
+            }
+        }
+        deleted.addAll(free);
+        pages = result;
+    }
+
+    /**
+     * Stores the given range of entries on as few new pages as possible,
+     * with the entries distributed evenly over the pages.
+     *
+     * @return the next unused page number
+     */
+    private int split(
+            List<ChildNodePage> result, List<Integer> free, int next,
+            int from, int to) {
+        int count = (to - from + pageSize - 1) / pageSize;
+        for (int i = 0; i < count; i++) {
+            int start = from + (int) ((long) (to - from) * i / count);
+            int end = from + (int) ((long) (to - from) * (i + 1) / count);
+            if (!free.isEmpty()) {
+                add(result, free.remove(0), start, end, false);
+            } else {
+                add(result, next++, start, end, true);
+            }
+        }
+        return next;
+    }
+
+    private void add(
+            List<ChildNodePage> result, int number, int from, int to,
+            boolean insert) {
+        result.add(new ChildNodePage(
+                number, to - from, fingerprint(entries, from, to),
+                entries.get(from).getId()));
+        offsets.put(number, from);
+        written.add(number);
+        if (insert) {
+            inserted.add(number);
+        }
+    }
+
+    /**
+     * Returns the page directory of this layout.
+     *
+     * @return the pages, or <code>null</code> if the child node entries
+     *         should be stored in the bundle itself
+     */
+    public List<ChildNodePage> getPages() {
+        return pages;
+    }
+
+    /**
+     * Returns the child node entries on the given page of this layout.
+     *
+     * @param page a page of this layout
+     * @return the entries of the page
+     */
+    public List<ChildNodeEntry> getEntries(ChildNodePage page) {
+        int offset = offsets.get(page.getNumber());
+        return entries.subList(offset, offset + page.getCount());
+    }
+
+    /**
+     * Checks whether the given page is new or changed and needs to be
+     * written.
+     *
+     * @param page a page of this layout
+     * @return <code>true</code> if the page needs to be written
+     */
+    public boolean isWritten(ChildNodePage page) {
+        return written.contains(page.getNumber());
+    }
+
+    /**
+     * Checks whether the given page did not exist in the previous layout.
+     *
+     * @param page a page of this layout
+     * @return <code>true</code> if the page needs to be inserted,
+     *         <code>false</code> if an existing page can be updated
+     */
+    public boolean isInserted(ChildNodePage page) {
+        return inserted.contains(page.getNumber());
+    }
+
+    /**
+     * Returns the numbers of the previous pages that are no longer used.
+     *
+     * @return page numbers
+     */
+    public List<Integer> getDeletedPages() {
+        return deleted;
+    }
+
+    /**
+     * Fills the child node entries of a bundle that was read with a page
+     * directory from the loaded pages, and completes the directory with
+     * the ids of the first entries. Returns <code>false</code> if the pages
+     * do not match the directory, which happens if they were read from a
+     * different revision than the bundle.
+     *
+     * @param bundle bundle with a page directory and no child node entries
+     * @param loaded the loaded pages, by page number
+     * @return <code>true</code> if all pages were found and are consistent
+     *         with the directory
+     */
+    public static boolean resolve(
+            NodePropBundle bundle, Map<Integer, List<ChildNodeEntry>> loaded) {
+        List<ChildNodePage> directory = bundle.getChildNodePages();
+        List<ChildNodePage> resolved =
+            new ArrayList<ChildNodePage>(directory.size());
+        for (ChildNodePage page : directory) {
+            List<ChildNodeEntry> list = loaded.get(page.getNumber());
+            if (list == null || list.isEmpty()
+                    || list.size() != page.getCount()
+                    || fingerprint(list, 0, list.size()) != page.getFingerprint()) {
+                return false;
+            }
+            resolved.add(new ChildNodePage(
+                    page.getNumber(), page.getCount(), page.getFingerprint(),
+                    list.get(0).getId()));
+        }
+        List<ChildNodeEntry> children = bundle.getChildNodeEntries();
+        children.clear();
+        for (ChildNodePage page : resolved) {
+            children.addAll(loaded.get(page.getNumber()));
+        }
+        bundle.setChildNodePages(resolved);
+        return true;
+    }
+
+    /**
+     * Computes a 64 bit fingerprint of the names and ids of the given range
+     * of child node entries. Used to detect changed pages.
+     *
+     * @param entries child node entries
+     * @param from index of the first entry, inclusive
+     * @param to index of the last entry, exclusive
+     * @return fingerprint
+     */
+    public static long fingerprint(
+            List<ChildNodeEntry> entries, int from, int to) {
+        long h = to - from;
+        for (ChildNodeEntry entry : entries.subList(from, to)) {
+            h = mix(h, entry.getId().getMostSignificantBits());
+            h = mix(h, entry.getId().getLeastSignificantBits());
+            h = mix(h, entry.getName().hashCode());
+        }
+        return h;
+    }
+
+    private static long mix(long h, long x) {
+        h = (h ^ x) * 0x9e3779b97f4a7c15L;
+        return h ^ (h >>> 32);
+    }
+
+}
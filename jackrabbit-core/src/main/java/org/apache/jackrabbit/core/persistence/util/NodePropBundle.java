@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.persistence.util;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
@@ -73,6 +74,18 @@ public class NodePropBundle {
      */
     private LinkedList<NodePropBundle.ChildNodeEntry> childNodeEntries = new LinkedList<NodePropBundle.ChildNodeEntry>();
 
+    /**
+     * the serialized child node entries that have not yet been decoded
+     */
+    private volatile BundleReader.SerializedChildNodeEntries serializedChildNodeEntries;
+
+    /**
+     * the directory of the pages in which the child node entries are stored
+     * separately from this bundle, or <code>null</code> if the entries are
+     * stored in the bundle itself
+     */
+    private List<ChildNodePage> childNodePages;
+
     /**
      * the properties
      */
@@ -138,6 +151,7 @@ public class NodePropBundle {
         isReferenceable = state.hasPropertyName(NameConstants.JCR_UUID);
         modCount = state.getModCount();
         List<org.apache.jackrabbit.core.state.ChildNodeEntry> list = state.getChildNodeEntries();
+        serializedChildNodeEntries = null;
         childNodeEntries.clear();
         for (org.apache.jackrabbit.core.state.ChildNodeEntry cne : list) {
             addChildNodeEntry(cne.getName(), cne.getId());
@@ -156,7 +170,7 @@ public class NodePropBundle {
         state.setNodeTypeName(nodeTypeName);
         state.setMixinTypeNames(mixinTypeNames);
         state.setModCount(modCount);
-        for (ChildNodeEntry e : childNodeEntries) {
+        for (ChildNodeEntry e : getChildNodeEntries()) {
             state.addChildNodeEntry(e.getName(), e.getId());
         }
         state.setPropertyNames(properties.keySet());
@@ -284,10 +298,27 @@ public class NodePropBundle {
     }
 
     /**
-     * Returns the list of the child node entries.
+     * Returns the list of the child node entries. Entries that were read
+     * from a serialized bundle are decoded on the first call.
      * @return the list of the child node entries.
+     * @throws IllegalStateException if the serialized entries are corrupt
      */
     public List<NodePropBundle.ChildNodeEntry> getChildNodeEntries() {
+        if (serializedChildNodeEntries != null) {
+            synchronized (this) {
+                BundleReader.SerializedChildNodeEntries s =
+                    serializedChildNodeEntries;
+                if (s != null) {
+                    try {
+                        childNodeEntries.addAll(s.decode());
+                    } catch (IOException e) {
+                        throw new IllegalStateException(
+                                "Unable to decode the child nodes of " + id, e);
+                    }
+                    serializedChildNodeEntries = null;
+                }
+            }
+        }
         return childNodeEntries;
     }
 
@@ -297,7 +328,48 @@ public class NodePropBundle {
      * @param id the id of the entry
      */
     public void addChildNodeEntry(Name name, NodeId id) {
-        childNodeEntries.add(new ChildNodeEntry(name, id));
+        getChildNodeEntries().add(new ChildNodeEntry(name, id));
+    }
+
+    /**
+     * Returns the serialized child node entries if they have not yet been
+     * decoded.
+     * @return the serialized entries, or <code>null</code>
+     */
+    BundleReader.SerializedChildNodeEntries getSerializedChildNodeEntries() {
+        return serializedChildNodeEntries;
+    }
+
+    /**
+     * Sets the serialized child node entries to be decoded on first access.
+     * @param serialized the serialized entries
+     */
+    void setSerializedChildNodeEntries(
+            BundleReader.SerializedChildNodeEntries serialized) {
+        childNodeEntries.clear();
+        serializedChildNodeEntries = serialized;
+    }
+
+    /**
+     * Returns the directory of the child node pages, or <code>null</code>
+     * if the child node entries are stored in the bundle itself. The
+     * directory is maintained by the persistence manager and is not
+     * changed by {@link #update(NodeState)}.
+     *
+     * @return the child node pages, or <code>null</code>
+     */
+    public List<ChildNodePage> getChildNodePages() {
+        return childNodePages;
+    }
+
+    /**
+     * Sets the directory of the child node pages.
+     *
+     * @param childNodePages the child node pages, or <code>null</code> if
+     *                       the child node entries are stored in the bundle
+     */
+    public void setChildNodePages(List<ChildNodePage> childNodePages) {
+        this.childNodePages = childNodePages;
     }
 
     /**
@@ -420,7 +492,9 @@ public class NodePropBundle {
         //      + string: 20 + length
         //  + parentId: 160
         //  + id: 160
-        return 500 + size + 300 * (childNodeEntries.size() + properties.size() + 3);
+        BundleReader.SerializedChildNodeEntries s = serializedChildNodeEntries;
+        int children = s != null ? s.getCount() : childNodeEntries.size();
+        return 500 + size + 300 * (children + properties.size() + 3);
     }
 
     /**
@@ -455,7 +529,7 @@ public class NodePropBundle {
         }
         builder.append(properties.values());
         builder.append(" ");
-        builder.append(childNodeEntries);
+        builder.append(getChildNodeEntries());
         return builder.toString();
     }
 
@@ -470,7 +544,7 @@ public class NodePropBundle {
                 && isReferenceable == that.isReferenceable
                 && equalNullSafe(sharedSet, that.sharedSet)
                 && equalNullSafe(properties, that.properties)
-                && equalNullSafe(childNodeEntries, that.childNodeEntries);
+                && equalNullSafe(getChildNodeEntries(), that.getChildNodeEntries());
         }
         return false;
     }
@@ -542,6 +616,91 @@ public class NodePropBundle {
 
     }
 
+    //------------------------------------------------------< ChildNodePage >---
+
+    /**
+     * Directory entry of a page of child node entries that is stored
+     * separately from the bundle. The pages of a bundle hold consecutive
+     * ranges of its child node entries, in order.
+     */
+    public static class ChildNodePage {
+
+        /**
+         * the page number, unique within the bundle
+         */
+        private final int number;
+
+        /**
+         * the number of child node entries on this page
+         */
+        private final int count;
+
+        /**
+         * the fingerprint of the child node entries on this page
+         */
+        private final long fingerprint;
+
+        /**
+         * the id of the first entry on this page, or <code>null</code> if
+         * the page has not been loaded yet
+         */
+        private final NodeId firstId;
+
+        /**
+         * Creates a new page entry.
+         * @param number the page number
+         * @param count the number of entries
+         * @param fingerprint the fingerprint of the entries
+         * @param firstId the id of the first entry, or <code>null</code>
+         */
+        public ChildNodePage(int number, int count, long fingerprint, NodeId firstId) {
+            this.number = number;
+            this.count = count;
+            this.fingerprint = fingerprint;
+            this.firstId = firstId;
+        }
+
+        /**
+         * Returns the page number.
+         * @return the page number.
+         */
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * Returns the number of entries on this page.
+         * @return the number of entries.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Returns the fingerprint of the entries on this page.
+         * @return the fingerprint.
+         * @see ChildNodePages#fingerprint(List, int, int)
+         */
+        public long getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * Returns the id of the first entry on this page.
+         * @return the id of the first entry, or <code>null</code>
+         */
+        public NodeId getFirstId() {
+            return firstId;
+        }
+
+        //----------------------------------------------------------< Object >
+
+        public String toString() {
+            return "page " + number + " (" + count + ")";
+        }
+
+    }
+
     //------------------------------------------------------< PropertyEntry >---
 
     /**
@@ -555,9 +714,14 @@ public class NodePropBundle {
         private final PropertyId id;
 
         /**
-         * the internal value
+         * the internal value, or <code>null</code> if not yet decoded
          */
-        private InternalValue[] values;
+        private volatile InternalValue[] values;
+
+        /**
+         * the serialized values that have not yet been decoded
+         */
+        private volatile BundleReader.SerializedValues serialized;
 
         /**
          * the property type
@@ -623,11 +787,30 @@ public class NodePropBundle {
         }
 
         /**
-         * Retruns the internal values
+         * Retruns the internal values. Values that were read from a
+         * serialized bundle are decoded on the first call.
          * @return the internal values
+         * @throws IllegalStateException if the serialized values are corrupt
          */
         public InternalValue[] getValues() {
-            return values;
+            InternalValue[] v = values;
+            if (v == null) {
+                BundleReader.SerializedValues s = serialized;
+                if (s != null) {
+                    try {
+                        v = s.decode();
+                    } catch (IOException e) {
+                        throw new IllegalStateException(
+                                "Unable to decode the values of " + id, e);
+                    }
+                    values = v;
+                    serialized = null;
+                } else {
+                    // decoded concurrently
+                    v = values;
+                }
+            }
+            return v;
         }
 
         /**
@@ -636,6 +819,24 @@ public class NodePropBundle {
          */
         public void setValues(InternalValue[] values) {
             this.values = values;
+            this.serialized = null;
+        }
+
+        /**
+         * Returns the serialized values if they have not yet been decoded.
+         * @return the serialized values, or <code>null</code>
+         */
+        BundleReader.SerializedValues getSerializedValues() {
+            return serialized;
+        }
+
+        /**
+         * Sets the serialized values to be decoded on first access.
+         * @param serialized the serialized values
+         */
+        void setSerializedValues(BundleReader.SerializedValues serialized) {
+            this.values = null;
+            this.serialized = serialized;
         }
 
         /**
@@ -741,7 +942,7 @@ public class NodePropBundle {
                 builder.append(",multiple");
             }
             builder.append(") = ");
-            builder.append(Arrays.toString(values));
+            builder.append(Arrays.toString(getValues()));
             return builder.toString();
         }
 
@@ -751,7 +952,7 @@ public class NodePropBundle {
                 return id.equals(that.id)
                     && type == that.type
                     && multiValued == that.multiValued
-                    && Arrays.equals(values, that.values);
+                    && Arrays.equals(getValues(), that.getValues());
             } else {
                 return false;
             }
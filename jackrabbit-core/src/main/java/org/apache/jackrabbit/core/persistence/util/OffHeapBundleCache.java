@@ -0,0 +1,481 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cache of serialized bundles that is kept outside of the Java heap, in a
+ * memory-mapped file. It is meant as a second level below the on-heap
+ * bundle cache, so that a large part of the repository can be cached
+ * without increasing the heap size or the garbage collection pauses.
+ * <p>
+ * The file is divided into segments of equal size that are filled one after
+ * the other, like a ring buffer. When the last segment is full, the oldest
+ * segment is cleared and reused, evicting all the entries it contains.
+ * Each entry consists of a header with its length and node id, followed by
+ * the serialized bundle. Only the index from node ids to entry positions is
+ * kept on the heap.
+ * <p>
+ * Each segment has a generation counter that is incremented before the
+ * segment is reused. The index records the generation an entry was
+ * written in, and a position is only written once per generation. A reader
+ * that copied an entry while its segment was being reused detects this and
+ * reports a cache miss. Reads only share a read lock, which keeps the
+ * segments mapped while they are copied. Writes are synchronized on the
+ * cache instance.
+ * <p>
+ * The contents of this cache are not persistent: the file is recreated
+ * when the cache is created, and it is unmapped and deleted when the
+ * cache is closed.
+ */
+public class OffHeapBundleCache {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(OffHeapBundleCache.class);
+
+    /**
+     * The <code>sun.misc.Unsafe</code> instance used to unmap the segments,
+     * or <code>null</code> if it is not available.
+     */
+    private static final Object UNSAFE;
+
+    /**
+     * The <code>Unsafe.invokeCleaner(ByteBuffer)</code> method, or
+     * <code>null</code> if it is not available.
+     */
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field field = c.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception e) {
+            log.debug("Mapped segments are released by the garbage collector", e);
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /**
+     * Default segment size: 64MB.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Entry header: length (int) and node id (two longs).
+     */
+    private static final int HEADER_SIZE = 4 + 8 + 8;
+
+    /**
+     * Number of invalidation stripes, see {@link #getStamp(NodeId)}.
+     */
+    private static final int STRIPES = 1024;
+
+    private final File file;
+
+    private final RandomAccessFile randomAccessFile;
+
+    private final int segmentSize;
+
+    private final MappedByteBuffer[] segments;
+
+    /**
+     * Generation of each segment, incremented whenever a segment is reused.
+     */
+    private final AtomicIntegerArray generations;
+
+    /**
+     * The end of the last entry written to each segment. Guarded by the
+     * monitor of this instance.
+     */
+    private final int[] ends;
+
+    /**
+     * Invalidation counters, incremented when a bundle is removed from the
+     * cache. Used to reject entries that were loaded before the removal.
+     */
+    private final AtomicLong[] stripes = new AtomicLong[STRIPES];
+
+    /**
+     * Position of each cached entry.
+     */
+    private final ConcurrentMap<NodeId, Position> index =
+        new ConcurrentHashMap<NodeId, Position>();
+
+    /**
+     * Held by readers while they copy an entry, and by {@link #close()}
+     * while the segments are unmapped.
+     */
+    private final ReadWriteLock mappingLock = new ReentrantReadWriteLock();
+
+    /**
+     * Whether the cache is closed. Only changed while holding both the
+     * monitor of this instance and the write lock of {@link #mappingLock}.
+     */
+    private boolean closed = false;
+
+    /**
+     * The segment that is currently written to. Guarded by the monitor of
+     * this instance.
+     */
+    private int current = 0;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * Creates a cache with the default segment size, or a single segment if
+     * the cache is smaller than that.
+     *
+     * @param file the file to map, which is overwritten if it exists
+     * @param size the maximum size of the cache in bytes
+     * @throws IOException if the file can not be created or mapped
+     */
+    public OffHeapBundleCache(File file, long size) throws IOException {
+        this(file, size, (int) Math.min(size, DEFAULT_SEGMENT_SIZE));
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param file the file to map, which is overwritten if it exists
+     * @param size the maximum size of the cache in bytes
+     * @param segmentSize the size of a segment in bytes
+     * @throws IOException if the file can not be created or mapped
+     */
+    public OffHeapBundleCache(File file, long size, int segmentSize)
+            throws IOException {
+        if (segmentSize <= HEADER_SIZE) {
+            throw new IllegalArgumentException(
+                    "Segment size too small: " + segmentSize);
+        }
+        int count = (int) Math.max(1, Math.min(size / segmentSize, Integer.MAX_VALUE));
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.segments = new MappedByteBuffer[count];
+        this.generations = new AtomicIntegerArray(count);
+        this.ends = new int[count];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AtomicLong();
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to delete " + file);
+        }
+        randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            randomAccessFile.setLength((long) count * segmentSize);
+            FileChannel channel = randomAccessFile.getChannel();
+            for (int i = 0; i < count; i++) {
+                segments[i] = channel.map(
+                        FileChannel.MapMode.READ_WRITE,
+                        (long) i * segmentSize, segmentSize);
+            }
+        } catch (IOException e) {
+            randomAccessFile.close();
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the serialized bundle with the given id.
+     *
+     * @param id node id
+     * @return the serialized bundle, or <code>null</code> if not cached
+     */
+    public byte[] get(NodeId id) {
+        Position position = index.get(id);
+        if (position != null) {
+            byte[] data;
+            mappingLock.readLock().lock();
+            try {
+                data = closed ? null : read(id, position);
+            } finally {
+                mappingLock.readLock().unlock();
+            }
+            if (data != null) {
+                hitCount.incrementAndGet();
+                return data;
+            }
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    private byte[] read(NodeId id, Position position) {
+        int segment = position.segment;
+        if (generations.get(segment) != position.generation) {
+            // the segment has been reused since the entry was written
+            return null;
+        }
+
+        ByteBuffer buffer = segments[segment].duplicate();
+        buffer.position(position.offset);
+        int length = buffer.getInt();
+        if (buffer.getLong() != id.getMostSignificantBits()
+                || buffer.getLong() != id.getLeastSignificantBits()
+                || length < 0 || length > buffer.remaining()) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        buffer.get(data);
+
+        // make sure the data was read before checking the generation again,
+        // the position is only overwritten after the generation changed
+        VarHandle.loadLoadFence();
+        if (generations.get(segment) != position.generation) {
+            return null;
+        }
+        return data;
+    }
+
+    /**
+     * Returns a stamp for the given id that changes whenever the bundle is
+     * removed from the cache. Callers that load a bundle from the backing
+     * store take a stamp before loading it and pass it to
+     * {@link #put(NodeId, byte[], long)}, so that a bundle that was modified
+     * in the meantime is not cached.
+     *
+     * @param id node id
+     * @return stamp
+     */
+    public long getStamp(NodeId id) {
+        return getStripe(id).get();
+    }
+
+    /**
+     * Adds a serialized bundle to the cache, unless it is bigger than a
+     * segment or the bundle was removed since the given stamp was taken.
+     *
+     * @param id node id
+     * @param data serialized bundle
+     * @param stamp the stamp taken before the bundle was loaded
+     * @return <code>true</code> if the bundle was cached
+     */
+    public synchronized boolean put(NodeId id, byte[] data, long stamp) {
+        int size = HEADER_SIZE + data.length;
+        if (closed || size > segmentSize || getStripe(id).get() != stamp) {
+            return false;
+        }
+        if (ends[current] + size > segmentSize) {
+            current = (current + 1) % segments.length;
+            recycle(current);
+        }
+
+        int offset = ends[current];
+        ByteBuffer buffer = segments[current].duplicate();
+        buffer.position(offset);
+        buffer.putInt(data.length);
+        buffer.putLong(id.getMostSignificantBits());
+        buffer.putLong(id.getLeastSignificantBits());
+        buffer.put(data);
+        ends[current] = offset + size;
+
+        index.put(id, new Position(
+                current, offset, generations.get(current)));
+        return true;
+    }
+
+    /**
+     * Removes all entries of the given segment from the index and marks
+     * the segment as reused. Must be called while holding the monitor of
+     * this instance.
+     */
+    private void recycle(int segment) {
+        ByteBuffer buffer = segments[segment].duplicate();
+        int offset = 0;
+        while (offset < ends[segment]) {
+            buffer.position(offset);
+            int length = buffer.getInt();
+            NodeId id = new NodeId(buffer.getLong(), buffer.getLong());
+            Position position = index.get(id);
+            if (position != null && position.segment == segment
+                    && position.offset == offset && index.remove(id, position)) {
+                evictionCount.incrementAndGet();
+            }
+            offset += HEADER_SIZE + length;
+        }
+        ends[segment] = 0;
+
+        generations.incrementAndGet(segment);
+        // make sure the new generation is visible before the segment is
+        // overwritten
+        VarHandle.storeStoreFence();
+    }
+
+    /**
+     * Removes the bundle with the given id from the cache.
+     *
+     * @param id node id
+     */
+    public synchronized void remove(NodeId id) {
+        getStripe(id).incrementAndGet();
+        index.remove(id);
+    }
+
+    /**
+     * Removes all bundles from the cache.
+     */
+    public synchronized void clear() {
+        for (AtomicLong stripe : stripes) {
+            stripe.incrementAndGet();
+        }
+        index.clear();
+        for (int i = 0; i < segments.length; i++) {
+            ends[i] = 0;
+            generations.incrementAndGet(i);
+        }
+        current = 0;
+    }
+
+    /**
+     * Closes the cache, unmaps its segments and deletes its file. Calls of
+     * {@link #get(NodeId)} that are in progress complete first. If the
+     * segments can not be unmapped explicitly, the mapping is released when
+     * the mapped buffers are garbage collected.
+     */
+    public synchronized void close() {
+        mappingLock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            index.clear();
+            for (int i = 0; i < segments.length; i++) {
+                unmap(segments[i]);
+                segments[i] = null;
+            }
+        } finally {
+            mappingLock.writeLock().unlock();
+        }
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        file.delete();
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (Exception e) {
+                log.debug("Unable to unmap an off-heap bundle cache segment", e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of cached bundles.
+     *
+     * @return number of cached bundles
+     */
+    public long getElementCount() {
+        return index.size();
+    }
+
+    /**
+     * Returns the maximum size of the cache.
+     *
+     * @return maximum size in bytes
+     */
+    public long getMaxMemorySize() {
+        return (long) segments.length * segmentSize;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Gathers the stats of the cache for logging.
+     *
+     * @return cache statistics
+     */
+    public String getCacheInfoAsString() {
+        return "cachename=" + file.getName()
+                + ", elements=" + getElementCount()
+                + ", maxmemorykb=" + getMaxMemorySize() / 1024
+                + ", hit=" + getHitCount()
+                + ", miss=" + getMissCount()
+                + ", evicted=" + getEvictionCount();
+    }
+
+    private AtomicLong getStripe(NodeId id) {
+        return stripes[(id.hashCode() & Integer.MAX_VALUE) % STRIPES];
+    }
+
+    /**
+     * Position of a cached entry and the generation of its segment when the
+     * entry was written.
+     */
+    private static final class Position {
+
+        private final int segment;
+
+        private final int offset;
+
+        private final int generation;
+
+        private Position(int segment, int offset, int generation) {
+            this.segment = segment;
+            this.offset = offset;
+            this.generation = generation;
+        }
+    }
+
+}
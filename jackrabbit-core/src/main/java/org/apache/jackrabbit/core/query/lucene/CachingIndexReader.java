@@ -63,6 +63,24 @@ class CachingIndexReader extends FilterIndexReader {
      */
     private static final int MAX_CACHE_INIT_BATCH_SIZE = 400 * 1000;
 
+    /**
+     * Value in {@link #inSegmentParents} for a node whose parent is not
+     * known yet.
+     */
+    static final int UNKNOWN_PARENT = -1;
+
+    /**
+     * Value in {@link #inSegmentParents} for the root node, which does not
+     * have a parent.
+     */
+    static final int NO_PARENT = -2;
+
+    /**
+     * Value in {@link #inSegmentParents} for a node whose parent is in a
+     * different index segment, see {@link #foreignParents}.
+     */
+    static final int FOREIGN_PARENT = -3;
+
     /**
      * The current value of the global creation tick counter.
      */
@@ -77,17 +95,24 @@ class CachingIndexReader extends FilterIndexReader {
     /**
      * Cache of nodes parent relation. If an entry in the array is >= 0,
      * then that means the node with the document number = array-index has the
-     * node with the value at that position as parent.
+     * node with the value at that position as parent. Otherwise the entry is
+     * one of {@link #UNKNOWN_PARENT}, {@link #NO_PARENT} or
+     * {@link #FOREIGN_PARENT}.
      */
     private final int[] inSegmentParents;
 
     /**
      * Cache of nodes parent relation that point to a foreign index segment.
      */
-    private final Map<Integer, DocId> foreignParentDocIds = new ConcurrentHashMap<Integer, DocId>();
+    private final ForeignParentIds foreignParents = new ForeignParentIds();
+
+    /**
+     * Cache of the parents of shareable nodes.
+     */
+    private final Map<Integer, DocId> shareableParentDocIds = new ConcurrentHashMap<Integer, DocId>();
 
     /**
-     * Initializes the {@link #inSegmentParents} and {@link #foreignParentDocIds}
+     * Initializes the {@link #inSegmentParents} and {@link #foreignParents}
      * caches.
      */
     private final CacheInitializer cacheInitializer;
@@ -130,7 +155,7 @@ class CachingIndexReader extends FilterIndexReader {
         super(delegatee);
         this.cache = cache;
         this.inSegmentParents = new int[delegatee.maxDoc()];
-        Arrays.fill(this.inSegmentParents, -1);
+        Arrays.fill(this.inSegmentParents, UNKNOWN_PARENT);
         this.shareableNodes = initShareableNodes(delegatee);
         this.cacheInitializer = new CacheInitializer(delegatee);
         if (initCache) {
@@ -167,13 +192,20 @@ class CachingIndexReader extends FilterIndexReader {
      * @throws IOException if an error occurs while reading from the index.
      */
     DocId getParent(int n, BitSet deleted) throws IOException {
-        DocId parent;
+        DocId parent = null;
         boolean existing = false;
         int parentDocNum = inSegmentParents[n];
-        if (parentDocNum != -1) {
+        if (parentDocNum >= 0) {
             parent = DocId.create(parentDocNum);
+        } else if (parentDocNum == NO_PARENT) {
+            parent = DocId.NULL;
+        } else if (parentDocNum == FOREIGN_PARENT) {
+            NodeId parentId = foreignParents.getParentId(n);
+            if (parentId != null) {
+                parent = DocId.create(parentId);
+            }
         } else {
-            parent = foreignParentDocIds.get(n);
+            parent = shareableParentDocIds.get(n);
         }
 
         if (parent != null) {
@@ -190,6 +222,7 @@ class CachingIndexReader extends FilterIndexReader {
 
         if (parent == null) {
             int plainDocId = -1;
+            NodeId foreignParentId = null;
             Document doc = document(n, FieldSelectors.UUID_AND_PARENT);
             String[] parentUUIDs = doc.getValues(FieldNames.PARENT);
             if (parentUUIDs.length == 0 || parentUUIDs[0].length() == 0) {
@@ -217,7 +250,8 @@ class CachingIndexReader extends FilterIndexReader {
                     // if still null, then parent is not in this index, or existing
                     // DocId was invalid. thus, only allowed to create DocId from uuid
                     if (parent == null) {
-                        parent = DocId.create(parentUUIDs[0]);
+                        foreignParentId = new NodeId(parentUUIDs[0]);
+                        parent = DocId.create(foreignParentId);
                     }
                 }
             }
@@ -226,21 +260,90 @@ class CachingIndexReader extends FilterIndexReader {
             if (plainDocId != -1) {
                 // PlainDocId
                 inSegmentParents[n] = plainDocId;
+            } else if (foreignParentId != null) {
+                // UUIDDocId, replaces an existing parent reference in
+                // inSegmentParents if that was invalid
+                foreignParents.put(n, foreignParentId);
+                inSegmentParents[n] = FOREIGN_PARENT;
+            } else if (parent == DocId.NULL) {
+                inSegmentParents[n] = NO_PARENT;
             } else {
-                // UUIDDocId
-                foreignParentDocIds.put(n, parent);
-                if (existing) {
-                    // there was an existing parent reference in
-                    // inSegmentParents, which was invalid and is replaced
-                    // with a UUIDDocId (points to a foreign segment).
-                    // mark as unknown
-                    inSegmentParents[n] = -1;
-                }
+                // MultiUUIDDocId
+                shareableParentDocIds.put(n, parent);
+            }
+        }
+        return parent;
+    }
+
+    /**
+     * Returns the document number of the parent of <code>n</code> if the
+     * parent is in this index segment. Otherwise returns {@link #NO_PARENT}
+     * if <code>n</code> is the root node, {@link #FOREIGN_PARENT} if the
+     * parent is in a different segment (see {@link #getForeignParentId(int)}),
+     * or {@link #UNKNOWN_PARENT} if the parent must be resolved with
+     * {@link #getParent(int, BitSet)}. Once the parent of <code>n</code>
+     * is cached, this method does not create any objects.
+     *
+     * @param n the document number.
+     * @param deleted the documents that should be regarded as deleted.
+     * @return the document number of <code>n</code>'s parent or one of the
+     *         values above.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    int getParentDocNumber(int n, BitSet deleted) throws IOException {
+        int parent = inSegmentParents[n];
+        if (parent == UNKNOWN_PARENT && shareableNodes.get(n)) {
+            // shareable nodes have multiple parents
+            return UNKNOWN_PARENT;
+        }
+        if (parent >= 0 ? deleted.get(parent) : parent == UNKNOWN_PARENT) {
+            // not cached yet or the cached parent is not valid anymore
+            getParent(n, deleted);
+            parent = inSegmentParents[n];
+            if (parent >= 0 && deleted.get(parent)) {
+                parent = UNKNOWN_PARENT;
             }
         }
         return parent;
     }
 
+    /**
+     * Returns the id of the parent of <code>n</code>, if the parent is in
+     * a different index segment.
+     *
+     * @param n the document number.
+     * @return the id of the parent node, or <code>null</code> if the parent
+     *         is not known to be in a different segment.
+     */
+    NodeId getForeignParentId(int n) {
+        return foreignParents.getParentId(n);
+    }
+
+    /**
+     * Returns the location where the parent of <code>n</code> was found in a
+     * different index segment.
+     *
+     * @param n the document number.
+     * @return the location as encoded by {@link ForeignParentIds#location},
+     *         or {@link ForeignParentIds#UNKNOWN_LOCATION}.
+     */
+    long getForeignParentLocation(int n) {
+        return foreignParents.getLocation(n);
+    }
+
+    /**
+     * Sets the location where the parent of <code>n</code> was found in a
+     * different index segment. The location is shared by all readers
+     * that use this segment.
+     *
+     * @param n the document number.
+     * @param location the location as encoded by
+     *                 {@link ForeignParentIds#location}.
+     */
+    void setForeignParentLocation(int n, long location) {
+        foreignParents.setLocation(n, location);
+    }
+
     /**
      * Returns the tick value when this reader was created.
      *
@@ -368,7 +471,7 @@ class CachingIndexReader extends FilterIndexReader {
 
     /**
      * Initializes the {@link CachingIndexReader#inSegmentParents} and
-     * {@link CachingIndexReader#foreignParentDocIds} caches.
+     * {@link CachingIndexReader#foreignParents} caches.
      */
     private class CacheInitializer implements Runnable {
 
@@ -449,13 +552,13 @@ class CachingIndexReader extends FilterIndexReader {
 
         /**
          * Initializes the {@link CachingIndexReader#inSegmentParents} and
-         * {@link CachingIndexReader#foreignParentDocIds} caches.
+         * {@link CachingIndexReader#foreignParents} caches.
          *
          * @param reader the underlying index reader.
          * @throws IOException if an error occurs while reading from the index.
          */
         private void initializeParents(IndexReader reader) throws IOException {
-            double foreignParents = 0;
+            double foreignParentCount = 0;
             long time = System.currentTimeMillis();
 
             // initialize in multiple passes with
@@ -550,14 +653,15 @@ class CachingIndexReader extends FilterIndexReader {
                     if (parentDocId != -1) {
                         inSegmentParents[info.docId] = parentDocId;
                     } else if (info.parent != null) {
-                        foreignParents++;
-                        foreignParentDocIds.put(info.docId, DocId.create(info.parent));
+                        foreignParentCount++;
+                        foreignParents.put(info.docId, info.parent);
+                        inSegmentParents[info.docId] = FOREIGN_PARENT;
                     } else if (shareableNodes.get(info.docId)) {
                         Document doc = reader.document(info.docId, FieldSelectors.UUID_AND_PARENT);
-                        foreignParentDocIds.put(info.docId, DocId.create(doc.getValues(FieldNames.PARENT)));
+                        shareableParentDocIds.put(info.docId, DocId.create(doc.getValues(FieldNames.PARENT)));
                     } else {
                         // no parent -> root node
-                        foreignParentDocIds.put(info.docId, DocId.NULL);
+                        inSegmentParents[info.docId] = NO_PARENT;
                     }
                 }
             }
@@ -567,13 +671,13 @@ class CachingIndexReader extends FilterIndexReader {
                 nf.setMaximumFractionDigits(1);
                 time = System.currentTimeMillis() - time;
                 if (inSegmentParents.length > 0) {
-                    foreignParents /= inSegmentParents.length;
+                    foreignParentCount /= inSegmentParents.length;
                 }
                 log.debug("initialized {} DocIds in {} ms, {} foreign parents",
                         new Object[]{
                             inSegmentParents.length,
                             time,
-                            nf.format(foreignParents)
+                            nf.format(foreignParentCount)
                         });
             }
         }
@@ -633,7 +737,8 @@ class CachingIndexReader extends FilterIndexReader {
             try {
                 io = reader.directory().createOutput(FILE_CACHE_NAME_ARRAY);
                 for (int parent : inSegmentParents) {
-                    io.writeInt(parent);
+                    // only the parents within this segment are persisted
+                    io.writeInt(parent >= 0 ? parent : UNKNOWN_PARENT);
                 }
             } catch (Exception e) {
                 log.error(
@@ -77,10 +77,49 @@ public final class CachingMultiIndexReader
      * {@inheritDoc}
      */
     public int[] getParents(int n, int[] docNumbers) throws IOException {
+        int parent = getParentDocNumber(n);
+        if (parent >= 0) {
+            if (docNumbers.length == 1) {
+                docNumbers[0] = parent;
+                return docNumbers;
+            } else {
+                return new int[]{parent};
+            }
+        } else if (parent == CachingIndexReader.NO_PARENT) {
+            return DocId.EMPTY;
+        }
         DocId id = getParentDocId(n);
         return id.getDocumentNumbers(this, docNumbers);
     }
 
+    /**
+     * Returns the document number of the parent of <code>n</code> in this
+     * reader, {@link CachingIndexReader#NO_PARENT} if <code>n</code> is the
+     * root node, or {@link CachingIndexReader#UNKNOWN_PARENT} if the parent
+     * must be resolved with {@link #getParentDocId(int)}. Parents in a
+     * different segment are resolved with the location cached by the segment
+     * of <code>n</code>. Once that location is known, this method does not
+     * create any objects.
+     *
+     * @param n the document number.
+     * @return the document number of <code>n</code>'s parent or one of the
+     *         values above.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    int getParentDocNumber(int n) throws IOException {
+        int i = readerIndex(n);
+        int doc = n - starts[i];
+        int parent = subReaders[i].getParentDocNumber(doc);
+        if (parent >= 0) {
+            return parent + starts[i];
+        } else if (parent == CachingIndexReader.FOREIGN_PARENT) {
+            return getForeignParentDocNumber(
+                    subReaders[i].getBase().getBase(), doc);
+        } else {
+            return parent;
+        }
+    }
+
     /**
      * Returns the DocId of the parent of <code>n</code> or {@link DocId#NULL}
      * if <code>n</code> does not have a parent (<code>n</code> is the root
@@ -203,6 +242,50 @@ public final class CachingMultiIndexReader
         return -1;
     }
 
+    //-----------------------------< internal >---------------------------------
+
+    /**
+     * Returns the document number of the parent of <code>doc</code> in this
+     * reader, where the parent is in a different segment than
+     * <code>doc</code>.
+     *
+     * @param reader the segment of <code>doc</code>.
+     * @param doc    the document number within <code>reader</code>.
+     * @return the document number of the parent, or
+     *         {@link CachingIndexReader#UNKNOWN_PARENT} if the parent is not
+     *         in this reader.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    private int getForeignParentDocNumber(CachingIndexReader reader, int doc)
+            throws IOException {
+        long location = reader.getForeignParentLocation(doc);
+        if (location != ForeignParentIds.UNKNOWN_LOCATION) {
+            long tick = ForeignParentIds.getCreationTick(location);
+            int parent = ForeignParentIds.getDocNumber(location);
+            for (int i = 0; i < subReaders.length; i++) {
+                if (subReaders[i].getCreationTick() == tick) {
+                    if (!subReaders[i].isDeleted(parent)) {
+                        return parent + starts[i];
+                    }
+                    break;
+                }
+            }
+        }
+        // location unknown or not valid anymore
+        NodeId id = reader.getForeignParentId(doc);
+        if (id == null) {
+            return CachingIndexReader.UNKNOWN_PARENT;
+        }
+        ForeignSegmentDocId parent = createDocId(id);
+        if (parent == null) {
+            return CachingIndexReader.UNKNOWN_PARENT;
+        }
+        reader.setForeignParentLocation(doc, ForeignParentIds.location(
+                parent.getCreationTick(), parent.getDocNumber()));
+        int n = getDocumentNumber(parent);
+        return n != -1 ? n : CachingIndexReader.UNKNOWN_PARENT;
+    }
+
     //-----------------------< OffsetTermDocs >---------------------------------
 
     /**
@@ -95,7 +95,8 @@ public class FilterMultiColumnQuery implements MultiColumnQuery {
             }
         };
         if (orderings.length > 0) {
-            hits = new SortedMultiColumnQueryHits(hits, orderings, searcher.getIndexReader());
+            hits = new SortedMultiColumnQueryHits(hits, orderings,
+                    searcher.getIndexReader(), resultFetchHint);
         }
         return hits;
     }
@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+/**
+ * <code>ForeignParentIds</code> maps the document numbers of an index segment
+ * to the node ids of their parents, for parents that are stored in a
+ * different segment. Along with the id it keeps the location where the
+ * parent document was found last, i.e. the creation tick of the segment
+ * and the document number within that segment.
+ * <p>
+ * The map is backed by primitive arrays and does not create objects on
+ * lookups of a location.
+ */
+final class ForeignParentIds {
+
+    /**
+     * Location returned when the location of a parent is not known.
+     */
+    static final long UNKNOWN_LOCATION = -1;
+
+    /**
+     * The document numbers plus one, <code>0</code> marks a free slot.
+     */
+    private int[] keys;
+
+    /**
+     * The most significant bits of the parent ids.
+     */
+    private long[] msbs;
+
+    /**
+     * The least significant bits of the parent ids.
+     */
+    private long[] lsbs;
+
+    /**
+     * The locations of the parent documents.
+     */
+    private long[] locations;
+
+    /**
+     * The number of entries.
+     */
+    private int size = 0;
+
+    ForeignParentIds() {
+        allocate(16);
+    }
+
+    /**
+     * Returns the location of a document in a segment.
+     *
+     * @param creationTick the creation tick of the segment.
+     * @param doc          the document number within the segment.
+     * @return the location, or {@link #UNKNOWN_LOCATION} if the creation tick
+     *         is too large to be encoded.
+     */
+    static long location(long creationTick, int doc) {
+        if (creationTick < 0 || creationTick > Integer.MAX_VALUE) {
+            return UNKNOWN_LOCATION;
+        }
+        return (creationTick << 32) | (doc & 0xffffffffL);
+    }
+
+    /**
+     * @param location a location.
+     * @return the creation tick of the segment of the location.
+     */
+    static long getCreationTick(long location) {
+        return location >>> 32;
+    }
+
+    /**
+     * @param location a location.
+     * @return the document number of the location.
+     */
+    static int getDocNumber(long location) {
+        return (int) location;
+    }
+
+    /**
+     * Sets the parent of a document. The location of the parent is unknown.
+     *
+     * @param doc    the document number.
+     * @param parent the id of the parent node.
+     */
+    synchronized void put(int doc, NodeId parent) {
+        if (size * 2 >= keys.length) {
+            rehash();
+        }
+        int slot = find(doc);
+        if (keys[slot] == 0) {
+            keys[slot] = doc + 1;
+            size++;
+        }
+        msbs[slot] = parent.getMostSignificantBits();
+        lsbs[slot] = parent.getLeastSignificantBits();
+        locations[slot] = UNKNOWN_LOCATION;
+    }
+
+    /**
+     * Returns the parent of a document.
+     *
+     * @param doc the document number.
+     * @return the id of the parent node, or <code>null</code> if the
+     *         document is not in this map.
+     */
+    synchronized NodeId getParentId(int doc) {
+        int slot = find(doc);
+        if (keys[slot] == 0) {
+            return null;
+        }
+        return new NodeId(msbs[slot], lsbs[slot]);
+    }
+
+    /**
+     * Returns the location of the parent of a document.
+     *
+     * @param doc the document number.
+     * @return the location, or {@link #UNKNOWN_LOCATION}.
+     */
+    synchronized long getLocation(int doc) {
+        int slot = find(doc);
+        if (keys[slot] == 0) {
+            return UNKNOWN_LOCATION;
+        }
+        return locations[slot];
+    }
+
+    /**
+     * Sets the location of the parent of a document, if the document is in
+     * this map.
+     *
+     * @param doc      the document number.
+     * @param location the location of the parent document.
+     */
+    synchronized void setLocation(int doc, long location) {
+        int slot = find(doc);
+        if (keys[slot] != 0) {
+            locations[slot] = location;
+        }
+    }
+
+    /**
+     * @return the number of documents in this map.
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    /**
+     * Returns the slot of a document, or the free slot where it would be
+     * inserted.
+     *
+     * @param doc the document number.
+     * @return the slot.
+     */
+    private int find(int doc) {
+        int mask = keys.length - 1;
+        int slot = (doc * 0x9E3779B9) & mask;
+        while (keys[slot] != 0 && keys[slot] != doc + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        msbs = new long[capacity];
+        lsbs = new long[capacity];
+        locations = new long[capacity];
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        long[] oldMsbs = msbs;
+        long[] oldLsbs = lsbs;
+        long[] oldLocations = locations;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = find(oldKeys[i] - 1);
+                keys[slot] = oldKeys[i];
+                msbs[slot] = oldMsbs[i];
+                lsbs[slot] = oldLsbs[i];
+                locations[slot] = oldLocations[i];
+            }
+        }
+    }
+}
@@ -160,6 +160,12 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
 
     private final PerQueryCache cache;
 
+    /**
+     * Set to <code>true</code> when the lucene query contains a query that
+     * may be evaluated by traversing the nodes of the session.
+     */
+    private boolean sessionDependent;
+
     /**
      * Creates a new <code>LuceneQueryBuilder</code> instance.
      *
@@ -228,17 +234,46 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                                     IndexFormatVersion indexFormatVersion,
                                     PerQueryCache cache)
             throws RepositoryException {
+        return newInstance(root, session, sharedItemMgr, nsMappings,
+                analyzer, propReg, synonymProvider, indexFormatVersion,
+                cache).build();
+    }
+
+    /**
+     * Creates a new <code>LuceneQueryBuilder</code> for an abstract query
+     * tree. The parameters are the same as for
+     * {@link #createQuery(QueryRootNode, SessionImpl, ItemStateManager, NamespaceMappings, Analyzer, PropertyTypeRegistry, SynonymProvider, IndexFormatVersion, PerQueryCache)}.
+     *
+     * @return the query builder.
+     */
+    static LuceneQueryBuilder newInstance(QueryRootNode root,
+                                          SessionImpl session,
+                                          ItemStateManager sharedItemMgr,
+                                          NamespaceMappings nsMappings,
+                                          Analyzer analyzer,
+                                          PropertyTypeRegistry propReg,
+                                          SynonymProvider synonymProvider,
+                                          IndexFormatVersion indexFormatVersion,
+                                          PerQueryCache cache) {
         HierarchyManager hmgr = new HierarchyManagerImpl(
                 RepositoryImpl.ROOT_NODE_ID, sharedItemMgr);
-        LuceneQueryBuilder builder = new LuceneQueryBuilder(
+        return new LuceneQueryBuilder(
                 root, session, sharedItemMgr, hmgr, nsMappings,
                 analyzer, propReg, synonymProvider, indexFormatVersion,
                 cache);
+    }
 
-        Query q = builder.createLuceneQuery();
-        if (builder.exceptions.size() > 0) {
+    /**
+     * Translates the abstract query tree of this builder.
+     *
+     * @return the lucene query tree.
+     * @throws RepositoryException if an error occurs during the translation.
+     */
+    Query build() throws RepositoryException {
+        Query q = createLuceneQuery();
+        if (exceptions.size() > 0) {
             StringBuffer msg = new StringBuffer();
-            for (Exception exception : builder.exceptions) {
+            for (Exception exception : exceptions) {
                 msg.append(exception.toString()).append('\n');
             }
             throw new RepositoryException("Exception building query: " + msg.toString());
@@ -246,6 +281,19 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
         return q;
     }
 
+    /**
+     * Returns whether the query built by this builder contains a
+     * {@link ChildAxisQuery}, a {@link DescendantSelfAxisQuery} or a
+     * {@link MatchAllDocsQuery}. These queries may evaluate the hierarchy
+     * with the session that executes the query, their hits then depend on
+     * the access rights and the unsaved changes of that session.
+     *
+     * @return <code>true</code> if the hits may depend on the session.
+     */
+    boolean isSessionDependent() {
+        return sessionDependent;
+    }
+
     /**
      * Starts the tree traversal and returns the lucene
      * {@link org.apache.lucene.search.Query}.
@@ -556,6 +604,7 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
 
         if (node.getIncludeDescendants()) {
             if (nameTest != null) {
+                sessionDependent = true;
                 andQuery.add(new DescendantSelfAxisQuery(context, nameTest, false), Occur.MUST);
             } else {
                 // descendant-or-self with nametest=*
@@ -567,11 +616,13 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                     // otherwise the query for the predicate can be used itself
                     PathQueryNode pathNode = (PathQueryNode) node.getParent();
                     if (pathNode.getPathSteps()[0] != node) {
+                        sessionDependent = true;
                         Query subQuery = new DescendantSelfAxisQuery(context, andQuery, false);
                         andQuery = new BooleanQuery();
                         andQuery.add(subQuery, Occur.MUST);
                     }
                 } else {
+                    sessionDependent = true;
                     // todo this will traverse the whole index, optimize!
                     // only use descendant axis if path is not //*
                     PathQueryNode pathNode = (PathQueryNode) node.getParent();
@@ -591,6 +642,7 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                 }
             }
         } else {
+            sessionDependent = true;
             // name test
             if (nameTest != null) {
                 andQuery.add(new ChildAxisQuery(sharedItemMgr, context,
@@ -617,6 +669,7 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
             String refProperty = resolver.getJCRName(node.getRefProperty());
 
             if (node.getIncludeDescendants()) {
+                sessionDependent = true;
                 Query refPropQuery = Util.createMatchAllQuery(refProperty, indexFormatVersion, cache);
                 context = new DescendantSelfAxisQuery(context, refPropQuery, false);
             }
@@ -955,6 +1008,7 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                                 // if the query is //child[../base], this part of the code is operating
                                 // on the "../base" portion. So we want to return all the child nodes
                                 // of "base", which will then be matched against the non predicate part.
+                                sessionDependent = true;
                                 query = new ChildAxisQuery(sharedItemMgr,
                                                            query,
                                                            null,
@@ -976,6 +1030,7 @@ public class LuceneQueryBuilder implements QueryNodeVisitor {
                     }
 
                     // See the note above on searching parents
+                    sessionDependent = true;
                     query = new ChildAxisQuery(sharedItemMgr,
                                                query,
                                                null,
@@ -216,7 +216,7 @@ public class LuceneQueryFactory {
 
             // TODO depending on the filters, we could push the offset info
             // into the searcher
-            hits = searcher.evaluate(qp.mainQuery, sort, offset + limit);
+            hits = searcher.evaluate(qp.mainQuery, sort, (long) offset + limit);
             int currentNode = 0;
             int addedNodes = 0;
 
@@ -260,6 +260,56 @@ public class LuceneQueryFactory {
         }
     }
 
+    /**
+     * Counts the nodes in the index that match the given selector and
+     * constraint, without loading the nodes. Parts of the constraint that
+     * can not be evaluated on the index are ignored and access rights are
+     * not checked, so the count is an upper bound of the number of rows
+     * {@link #execute(Map, Selector, Constraint, Sort, boolean, long, long)}
+     * would return.
+     *
+     * @param selector the selector
+     * @param constraint the constraint, or <code>null</code>
+     * @param max the number of nodes after which counting stops
+     * @return the number of matching nodes, at most <code>max</code>
+     * @throws RepositoryException
+     * @throws IOException
+     */
+    public long count(Selector selector, Constraint constraint, long max)
+            throws RepositoryException, IOException {
+        final IndexReader reader = index.getIndexReader(true);
+        QueryHits hits = null;
+        try {
+            JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
+                    session, reader, index.getContext().getItemStateManager());
+            searcher.setSimilarity(index.getSimilarity());
+
+            BooleanQuery query = new BooleanQuery();
+            QueryPair qp = new QueryPair(query);
+            query.add(create(selector), MUST);
+            if (constraint != null) {
+                String name = selector.getSelectorName();
+                NodeType type =
+                    ntManager.getNodeType(selector.getNodeTypeName());
+                mapConstraintToQueryAndFilter(qp,
+                        constraint, Collections.singletonMap(name, type),
+                        searcher, reader);
+            }
+
+            hits = searcher.evaluate(qp.mainQuery, new Sort(), max);
+            long count = 0;
+            while (count < max && hits.nextScoreNode() != null) {
+                count++;
+            }
+            return count;
+        } finally {
+            if (hits != null) {
+                hits.close();
+            }
+            Util.closeOrRelease(reader);
+        }
+    }
+
     /**
      * Creates a lucene query for the given QOM selector.
      *
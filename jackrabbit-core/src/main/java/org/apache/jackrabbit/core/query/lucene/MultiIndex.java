@@ -36,6 +36,7 @@ import java.util.concurrent.TimeUnit;
 import javax.jcr.RepositoryException;
 
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
 import org.apache.jackrabbit.core.state.ChildNodeEntry;
 import org.apache.jackrabbit.core.state.ItemStateException;
@@ -158,6 +159,12 @@ public class MultiIndex {
      */
     private CachingMultiIndexReader multiReader;
 
+    /**
+     * Incremented whenever {@link #multiReader} is released, which happens
+     * whenever the content of this index changes.
+     */
+    private volatile long readerVersion = 0;
+
     /**
      * Shared document number cache across all persistent indexes.
      */
@@ -403,6 +410,53 @@ public class MultiIndex {
         }
     }
 
+    /**
+     * Creates an initial index of all the nodes provided by a persistence
+     * manager, using multiple threads. See {@link ParallelIndexBuilder} for
+     * details. If a previous call was interrupted, this method resumes the
+     * unfinished build.
+     *
+     * @param pm         the persistence manager of the workspace.
+     * @param numThreads the number of threads that create documents.
+     * @throws IOException           if an error occurs while indexing the
+     *                               workspace.
+     * @throws IllegalStateException if this index is not empty.
+     */
+    void createInitialIndex(IterablePersistenceManager pm, int numThreads)
+            throws IOException {
+        // only do an initial index if there are no indexes at all
+        if (indexNames.size() == 0) {
+            reindexing = true;
+            try {
+                ParallelIndexBuilder builder = new ParallelIndexBuilder(
+                        this, indexDir, pm, excludedIDs, numThreads,
+                        ParallelIndexBuilder.DEFAULT_BATCH_SIZE);
+                List<PersistentIndex> segments = builder.build();
+                // register the segments, the merger takes care of them
+                executeAndLog(new Start(Action.INTERNAL_TRANSACTION));
+                for (PersistentIndex segment : segments) {
+                    executeAndLog(new AddIndex(
+                            getTransactionId(), segment.getName()));
+                }
+                checkIndexingQueue(true);
+                executeAndLog(new Commit(getTransactionId()));
+                releaseMultiReader();
+                safeFlush();
+                builder.complete();
+            } catch (Exception e) {
+                String msg = "Error indexing workspace";
+                IOException ex = new IOException(msg);
+                ex.initCause(e);
+                throw ex;
+            } finally {
+                reindexing = false;
+                scheduleFlushTask();
+            }
+        } else {
+            throw new IllegalStateException("Index already present");
+        }
+    }
+
     /**
      * Atomically updates the index by removing some documents and adding
      * others.
@@ -841,6 +895,18 @@ public class MultiIndex {
         return indexingQueue;
     }
 
+    /**
+     * Returns a version number of the index content. The number changes
+     * whenever a reader returned by {@link #getIndexReader()} may not reflect
+     * the content of the index anymore. A reader that is acquired after this
+     * method returns reads a content at least as new as the returned version.
+     *
+     * @return the current version of the index content.
+     */
+    long getReaderVersion() {
+        return readerVersion;
+    }
+
     /**
      * @return the base directory of the index.
      */
@@ -999,6 +1065,7 @@ public class MultiIndex {
      * @throws IOException if an error occurs while releasing the reader.
      */
     void releaseMultiReader() throws IOException {
+        readerVersion++;
         if (multiReader != null) {
             try {
                 multiReader.release();
@@ -1047,9 +1114,16 @@ public class MultiIndex {
      * @throws IOException if an error occurs while reading directories.
      */
     private void enqueueUnusedSegments() throws IOException {
+        // keep the segments of an unfinished parallel index build, which
+        // resumes with them
+        Set<String> resumable = ParallelIndexBuilder.readSegmentNames(indexDir);
+        if (indexNames.size() > 0 && !resumable.isEmpty()) {
+            ParallelIndexBuilder.removeSegmentNames(indexDir);
+            resumable.clear();
+        }
         // walk through index segments
         for (String name : directoryManager.getDirectoryNames()) {
-            if (!name.startsWith("_")) {
+            if (!name.startsWith("_") || resumable.contains(name)) {
                 continue;
             }
             long lastUse = indexHistory.getLastUseOf(name);
@@ -0,0 +1,574 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.query.lucene.directory.IndexInputStream;
+import org.apache.jackrabbit.core.query.lucene.directory.IndexOutputStream;
+import org.apache.jackrabbit.core.state.ChildNodeEntry;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.jackrabbit.core.state.NoSuchItemStateException;
+import org.apache.jackrabbit.core.state.NodeState;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.store.Directory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the initial index of a workspace with multiple threads. Instead of
+ * traversing the workspace, the node ids are read in batches from an
+ * {@link IterablePersistenceManager} and distributed to worker threads. Each
+ * worker creates the documents of its batches and adds them to a separate
+ * index segment, which is committed after each batch. The caller registers
+ * the segments with the {@link MultiIndex} when the build is complete, after
+ * which the {@link IndexMerger} merges them.
+ * <p>
+ * The ids of the batches are stored with each commit of a segment and the
+ * names of the segments are stored in the index directory. If the build is
+ * interrupted, for example by a crash, a new build resumes with the existing
+ * segments and only indexes the batches that were not committed yet. This
+ * assumes that the content of the workspace does not change in between.
+ * <p>
+ * Please note that unlike a traversal this also indexes nodes that are not
+ * reachable from the root node anymore. Subtrees of excluded nodes are
+ * determined by a traversal of the persisted nodes below them.
+ */
+class ParallelIndexBuilder {
+
+    /**
+     * The logger instance for this class
+     */
+    private static final Logger log = LoggerFactory.getLogger(ParallelIndexBuilder.class);
+
+    /**
+     * The default number of node ids in a batch.
+     */
+    static final int DEFAULT_BATCH_SIZE = 10000;
+
+    /**
+     * Name of the file in the index directory that contains the names of
+     * the segments of an unfinished build.
+     */
+    static final String SEGMENTS_FILE = "parallel_index";
+
+    /**
+     * Prefix of the commit user data keys that record the indexed batches.
+     * The key is this prefix followed by the id after which the batch
+     * starts, the value is the id of the last node in the batch.
+     */
+    private static final String BATCH_PREFIX = "batch:";
+
+    /**
+     * The number of documents a worker adds to its segment at once.
+     */
+    private static final int ADD_DOCUMENTS_SIZE = 100;
+
+    /**
+     * Marks the end of the batch queue.
+     */
+    private static final Batch END = new Batch(null, Collections.<NodeId>emptyList());
+
+    /**
+     * The index for which documents are created.
+     */
+    private final MultiIndex index;
+
+    /**
+     * The index directory, where the segment names are stored.
+     */
+    private final Directory indexDir;
+
+    /**
+     * The persistence manager that provides the node ids.
+     */
+    private final IterablePersistenceManager pm;
+
+    /**
+     * Ids of the nodes that are excluded with their subtrees.
+     */
+    private final Set<NodeId> excludedIDs;
+
+    /**
+     * The number of worker threads.
+     */
+    private final int numThreads;
+
+    /**
+     * The maximum number of node ids in a batch.
+     */
+    private final int batchSize;
+
+    /**
+     * The segments of this build.
+     */
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    /**
+     * The number of indexed nodes.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * The first error that occurred in a worker thread.
+     */
+    private final AtomicReference<Exception> failure =
+        new AtomicReference<Exception>();
+
+    /**
+     * Creates a new builder.
+     *
+     * @param index the index for which documents are created.
+     * @param indexDir the index directory.
+     * @param pm the persistence manager of the workspace.
+     * @param excludedIDs ids of nodes that should neither be indexed nor
+     *                    their descendants.
+     * @param numThreads the number of worker threads.
+     * @param batchSize the maximum number of node ids in a batch.
+     */
+    ParallelIndexBuilder(MultiIndex index, Directory indexDir,
+                         IterablePersistenceManager pm,
+                         Set<NodeId> excludedIDs,
+                         int numThreads, int batchSize) {
+        this.index = index;
+        this.indexDir = indexDir;
+        this.pm = pm;
+        this.excludedIDs = excludedIDs;
+        this.numThreads = Math.max(1, numThreads);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Indexes all nodes of the persistence manager, resuming a previous
+     * unfinished build if there is one.
+     *
+     * @return the segments that contain the documents.
+     * @throws IOException if an error occurs while writing to a segment.
+     * @throws ItemStateException if the node ids cannot be read.
+     * @throws RepositoryException if the node ids cannot be read.
+     */
+    List<PersistentIndex> build()
+            throws IOException, ItemStateException, RepositoryException {
+        long time = System.currentTimeMillis();
+        Map<String, NodeId> completed = new HashMap<String, NodeId>();
+        for (String name : readSegmentNames(indexDir)) {
+            if (index.hasIndex(name)) {
+                Segment segment = new Segment(index.getOrCreateIndex(name));
+                completed.putAll(segment.batches);
+                requeuePendingDocuments(segment.index);
+                segments.add(segment);
+            }
+        }
+        if (!segments.isEmpty()) {
+            log.info("Resuming index build with {} segments, {} batches "
+                    + "already indexed", segments.size(), completed.size());
+        }
+        while (segments.size() < numThreads) {
+            segments.add(new Segment(index.getOrCreateIndex(null)));
+        }
+        writeSegmentNames();
+
+        Set<NodeId> excluded = getExcludedNodes();
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(numThreads * 2);
+        List<Worker> workers = new ArrayList<Worker>();
+        for (int i = 0; i < numThreads; i++) {
+            Worker worker = new Worker(segments.get(i), queue, excluded);
+            worker.start();
+            workers.add(worker);
+        }
+        try {
+            NodeId after = null;
+            boolean end = false;
+            while (!end && failure.get() == null) {
+                NodeId last = completed.get(getKey(after));
+                if (last != null) {
+                    // skip batch indexed by a previous build
+                    after = last;
+                    continue;
+                }
+                List<NodeId> ids = pm.getAllNodeIds(after, batchSize);
+                end = ids.size() < batchSize;
+                for (int i = 0; i < ids.size(); i++) {
+                    if (completed.containsKey(getKey(ids.get(i)))) {
+                        // next batch was indexed by a previous build
+                        ids = new ArrayList<NodeId>(ids.subList(0, i + 1));
+                        end = false;
+                        break;
+                    }
+                }
+                if (ids.isEmpty()) {
+                    break;
+                }
+                put(queue, new Batch(after, ids));
+                after = ids.get(ids.size() - 1);
+            }
+        } finally {
+            for (int i = 0; i < workers.size(); i++) {
+                put(queue, END);
+            }
+            for (Worker worker : workers) {
+                join(worker);
+            }
+        }
+
+        Exception e = failure.get();
+        if (e instanceof IOException) {
+            throw (IOException) e;
+        } else if (e != null) {
+            IOException ex = new IOException("Error indexing workspace");
+            ex.initCause(e);
+            throw ex;
+        }
+
+        // drop segments that did not receive any documents
+        List<PersistentIndex> result = new ArrayList<PersistentIndex>();
+        for (Segment segment : segments) {
+            if (segment.index.getNumDocuments() > 0) {
+                result.add(segment.index);
+            } else {
+                segment.index.close();
+                index.deleteIndex(segment.index);
+            }
+        }
+        time = System.currentTimeMillis() - time;
+        log.info("Indexed {} nodes into {} segments in {}ms",
+                new Object[]{count.get(), result.size(), time});
+        return result;
+    }
+
+    /**
+     * Removes the segment names of this build from the index directory. Must
+     * be called once the segments are registered with the index.
+     *
+     * @throws IOException if the file cannot be deleted.
+     */
+    void complete() throws IOException {
+        removeSegmentNames(indexDir);
+    }
+
+    /**
+     * Reads the names of the segments of an unfinished build from the given
+     * index directory.
+     *
+     * @param dir the index directory.
+     * @return the segment names, or an empty set if there is no unfinished
+     *         build.
+     * @throws IOException if an error occurs while reading the file.
+     */
+    static Set<String> readSegmentNames(Directory dir) throws IOException {
+        Set<String> names = new HashSet<String>();
+        if (dir.fileExists(SEGMENTS_FILE)) {
+            InputStream in = new BufferedInputStream(new IndexInputStream(
+                    dir.openInput(SEGMENTS_FILE)));
+            try {
+                DataInputStream di = new DataInputStream(in);
+                for (int i = di.readInt(); i > 0; i--) {
+                    names.add(di.readUTF());
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Removes the segment names of an unfinished build from the given index
+     * directory.
+     *
+     * @param dir the index directory.
+     * @throws IOException if the file cannot be deleted.
+     */
+    static void removeSegmentNames(Directory dir) throws IOException {
+        if (dir.fileExists(SEGMENTS_FILE)) {
+            dir.deleteFile(SEGMENTS_FILE);
+        }
+    }
+
+    /**
+     * Writes the names of the segments of this build to the index directory.
+     *
+     * @throws IOException if an error occurs while writing the file.
+     */
+    private void writeSegmentNames() throws IOException {
+        removeSegmentNames(indexDir);
+        OutputStream out = new BufferedOutputStream(new IndexOutputStream(
+                indexDir.createOutput(SEGMENTS_FILE)));
+        try {
+            DataOutputStream dataOut = new DataOutputStream(out);
+            dataOut.writeInt(segments.size());
+            for (Segment segment : segments) {
+                dataOut.writeUTF(segment.index.getName());
+            }
+        } finally {
+            out.close();
+        }
+        indexDir.sync(Collections.singleton(SEGMENTS_FILE));
+    }
+
+    /**
+     * Puts the documents of nodes that still await text extraction in a
+     * segment of a previous build on the indexing queue.
+     *
+     * @param segment the segment.
+     * @throws IOException if an error occurs while reading the segment.
+     */
+    private void requeuePendingDocuments(PersistentIndex segment)
+            throws IOException {
+        List<String> uuids = new ArrayList<String>();
+        IndexReader reader = segment.getIndexReader();
+        TermDocs tDocs = reader.termDocs(
+                new Term(FieldNames.REINDEXING_REQUIRED, ""));
+        try {
+            while (tDocs.next()) {
+                uuids.add(reader.document(tDocs.doc(),
+                        FieldSelectors.UUID).get(FieldNames.UUID));
+            }
+        } finally {
+            tDocs.close();
+        }
+        for (String uuid : uuids) {
+            try {
+                Document existing = index.getIndexingQueue().addDocument(
+                        index.createDocument(new NodeId(uuid)));
+                if (existing != null) {
+                    Util.disposeDocument(existing);
+                }
+            } catch (RepositoryException e) {
+                log.debug("Node with uuid {} does not exist anymore", uuid);
+            }
+        }
+    }
+
+    /**
+     * Returns the ids of the excluded nodes and their persisted descendants.
+     *
+     * @return the ids of the nodes that must not be indexed.
+     * @throws ItemStateException if a node cannot be read.
+     */
+    private Set<NodeId> getExcludedNodes() throws ItemStateException {
+        Set<NodeId> excluded = new HashSet<NodeId>();
+        LinkedList<NodeId> pending = new LinkedList<NodeId>(excludedIDs);
+        while (!pending.isEmpty()) {
+            NodeId id = pending.removeFirst();
+            if (!excluded.add(id)) {
+                continue;
+            }
+            try {
+                NodeState state = pm.load(id);
+                for (ChildNodeEntry child : state.getChildNodeEntries()) {
+                    pending.add(child.getId());
+                }
+            } catch (NoSuchItemStateException e) {
+                // not persisted in this workspace, e.g. a virtual node
+            }
+        }
+        return excluded;
+    }
+
+    /**
+     * Returns the commit user data key of the batch that starts after the
+     * given id.
+     *
+     * @param after the id after which the batch starts, or <code>null</code>
+     *              for the first batch.
+     * @return the key.
+     */
+    private static String getKey(NodeId after) {
+        return after == null ? BATCH_PREFIX : BATCH_PREFIX + after;
+    }
+
+    private static void put(BlockingQueue<Batch> queue, Batch batch) {
+        for (;;) {
+            try {
+                queue.put(batch);
+                return;
+            } catch (InterruptedException e) {
+                // retry
+            }
+        }
+    }
+
+    private static void join(Thread thread) {
+        for (;;) {
+            try {
+                thread.join();
+                return;
+            } catch (InterruptedException e) {
+                // retry
+            }
+        }
+    }
+
+    /**
+     * A batch of node ids.
+     */
+    private static final class Batch {
+
+        /**
+         * The id after which the batch starts, or <code>null</code> for the
+         * first batch.
+         */
+        private final NodeId after;
+
+        /**
+         * The node ids of the batch.
+         */
+        private final List<NodeId> ids;
+
+        Batch(NodeId after, List<NodeId> ids) {
+            this.after = after;
+            this.ids = ids;
+        }
+
+    }
+
+    /**
+     * An index segment and the batches it contains.
+     */
+    private static final class Segment {
+
+        private final PersistentIndex index;
+
+        /**
+         * The commit user data of the segment, one entry per batch.
+         */
+        private final Map<String, NodeId> batches = new HashMap<String, NodeId>();
+
+        Segment(PersistentIndex index) throws IOException {
+            this.index = index;
+            for (Map.Entry<String, String> entry
+                    : index.getCommitUserData().entrySet()) {
+                if (entry.getKey().startsWith(BATCH_PREFIX)) {
+                    batches.put(entry.getKey(), new NodeId(entry.getValue()));
+                }
+            }
+        }
+
+        /**
+         * Commits the segment after the given batch was added.
+         */
+        void commit(Batch batch) throws IOException {
+            batches.put(getKey(batch.after), batch.ids.get(batch.ids.size() - 1));
+            Map<String, String> userData = new HashMap<String, String>();
+            for (Map.Entry<String, NodeId> entry : batches.entrySet()) {
+                userData.put(entry.getKey(), entry.getValue().toString());
+            }
+            index.commit(userData);
+        }
+
+    }
+
+    /**
+     * Creates the documents of the batches it takes from the queue and adds
+     * them to its segment.
+     */
+    private final class Worker extends Thread {
+
+        private final Segment segment;
+
+        private final BlockingQueue<Batch> queue;
+
+        private final Set<NodeId> excluded;
+
+        Worker(Segment segment, BlockingQueue<Batch> queue,
+               Set<NodeId> excluded) {
+            super("ParallelIndexBuilder-" + segment.index.getName());
+            setDaemon(true);
+            this.segment = segment;
+            this.queue = queue;
+            this.excluded = excluded;
+        }
+
+        public void run() {
+            for (;;) {
+                Batch batch;
+                try {
+                    batch = queue.take();
+                } catch (InterruptedException e) {
+                    continue;
+                }
+                if (batch == END) {
+                    return;
+                }
+                // after a failure only drain the queue
+                if (failure.get() == null) {
+                    try {
+                        index(batch);
+                    } catch (Exception e) {
+                        failure.compareAndSet(null, e);
+                    }
+                }
+            }
+        }
+
+        private void index(Batch batch) throws IOException {
+            List<Document> docs = new ArrayList<Document>();
+            int num = 0;
+            for (NodeId id : batch.ids) {
+                if (excluded.contains(id)) {
+                    continue;
+                }
+                try {
+                    docs.add(index.createDocument(id));
+                } catch (RepositoryException e) {
+                    log.warn("Unable to index node {}: {}", id, e.getMessage());
+                }
+                if (docs.size() == ADD_DOCUMENTS_SIZE) {
+                    num += add(docs);
+                }
+            }
+            num += add(docs);
+            segment.commit(batch);
+            log.info("indexing... {} nodes", count.addAndGet(num));
+        }
+
+        private int add(List<Document> docs) throws IOException {
+            int num = docs.size();
+            if (num > 0) {
+                segment.index.addDocuments(docs.toArray(new Document[num]));
+                docs.clear();
+            }
+            return num;
+        }
+    }
+}
@@ -17,6 +17,8 @@
 package org.apache.jackrabbit.core.query.lucene;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
 
 import org.apache.jackrabbit.core.query.lucene.directory.DirectoryManager;
 import org.apache.lucene.analysis.Analyzer;
@@ -115,6 +117,30 @@ class PersistentIndex extends AbstractIndex {
         getIndexWriter().optimize();
     }
 
+    /**
+     * Commits all pending changes together with the given user data. The
+     * user data of the last commit is returned by {@link #getCommitUserData()}.
+     *
+     * @param userData the user data to store with the commit.
+     * @throws IOException if an error occurs while commiting changes.
+     */
+    synchronized void commit(Map<String, String> userData) throws IOException {
+        getIndexWriter().commit(userData);
+    }
+
+    /**
+     * Returns the user data of the last commit of this index.
+     *
+     * @return the user data, or an empty map if this index has no commits.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    Map<String, String> getCommitUserData() throws IOException {
+        if (!IndexReader.indexExists(getDirectory())) {
+            return Collections.emptyMap();
+        }
+        return IndexReader.getCommitUserData(getDirectory());
+    }
+
     /**
      * Copies <code>index</code> into this persistent index. This method should
      * only be called when <code>this</code> index is empty otherwise the
@@ -69,6 +69,12 @@ public class QueryImpl extends AbstractQueryImpl {
      */
     protected final QueryRootNode root;
 
+    /**
+     * Whether the lucene query of the last execution may be evaluated with
+     * the hierarchy seen by the session.
+     */
+    private boolean sessionDependent;
+
     /**
      * Creates a new query instance from a query string.
      *
@@ -106,13 +112,15 @@ public class QueryImpl extends AbstractQueryImpl {
         }
 
         // build lucene query
-        Query query = LuceneQueryBuilder.createQuery(
+        LuceneQueryBuilder builder = LuceneQueryBuilder.newInstance(
                 root, sessionContext.getSessionImpl(),
                 index.getContext().getItemStateManager(),
                 index.getNamespaceMappings(), index.getTextAnalyzer(),
                 propReg, index.getSynonymProvider(),
                 index.getIndexFormatVersion(),
                 cache);
+        Query query = builder.build();
+        sessionDependent = builder.isSessionDependent();
 
         OrderQueryNode orderNode = root.getOrderNode();
 
@@ -207,6 +215,17 @@ public class QueryImpl extends AbstractQueryImpl {
         return this.root.needsSystemTree();
     }
 
+    /**
+     * Returns <code>true</code> if the hits of the last execution of this
+     * query may depend on the access rights or the unsaved changes of the
+     * session. See {@link LuceneQueryBuilder#isSessionDependent()}.
+     *
+     * @return <code>true</code> if the hits may depend on the session.
+     */
+    boolean isSessionDependent() {
+        return sessionDependent;
+    }
+
     /**
      * Returns a column for the given property name and the default selector
      * name.
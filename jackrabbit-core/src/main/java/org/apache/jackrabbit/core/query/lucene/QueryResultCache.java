@@ -0,0 +1,234 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.jackrabbit.spi.Name;
+
+/**
+ * <code>QueryResultCache</code> keeps the hits of recently executed queries.
+ * The hits are stored with the version of the index they were read from
+ * (see {@link MultiIndex#getReaderVersion()}) and are only returned as long
+ * as the index has not changed since. The hits are not filtered by access
+ * rights, so the same cached result serves all sessions. The result is
+ * filtered when it is read by the query result of each session. Queries
+ * whose hits depend on the session are not cached, see
+ * {@link SearchIndex#setResultCacheSize(int)}.
+ * <p>
+ * The hit and miss counters of the cache are the only statistics about it,
+ * they are exposed by {@link QueryResultCacheMXBean}.
+ */
+class QueryResultCache implements QueryResultCacheMXBean {
+
+    /**
+     * The maximum number of entries.
+     */
+    private final int maxSize;
+
+    /**
+     * The maximum number of hits of an entry.
+     */
+    private final int maxHits;
+
+    /**
+     * The cached hits by query key, least recently used first.
+     */
+    private final Map<String, CachedResult> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private volatile boolean enabled = true;
+
+    /**
+     * Creates a new query result cache.
+     *
+     * @param maxSize the maximum number of cached query results.
+     * @param maxHits the maximum number of hits of a cached query result.
+     */
+    QueryResultCache(final int maxSize, int maxHits) {
+        this.maxSize = maxSize;
+        this.maxHits = maxHits;
+        this.entries = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached hits for a query.
+     *
+     * @param key          the query key.
+     * @param version      the current version of the index.
+     * @param selectorName the selector name of the hits.
+     * @return the cached hits, or <code>null</code> if the query result is
+     *         not cached or the index changed since it was cached.
+     */
+    MultiColumnQueryHits get(String key, long version, Name selectorName) {
+        List<ScoreNode> hits = null;
+        synchronized (entries) {
+            CachedResult entry = entries.get(key);
+            if (entry != null) {
+                if (entry.version == version) {
+                    hits = entry.hits;
+                } else {
+                    entries.remove(key);
+                }
+            }
+        }
+        if (hits == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return new QueryHitsAdapter(new DefaultQueryHits(hits), selectorName);
+    }
+
+    /**
+     * Reads the hits of a query and caches them if there are no more than
+     * {@link #getMaxHits()}. The returned hits replace <code>hits</code>,
+     * which are closed if they have been read completely.
+     *
+     * @param key     the query key.
+     * @param version the version of the index the hits are read from.
+     * @param hits    the hits of the query.
+     * @return the hits of the query.
+     * @throws IOException if an error occurs while reading the hits.
+     */
+    MultiColumnQueryHits put(String key, long version,
+                             final MultiColumnQueryHits hits)
+            throws IOException {
+        final List<ScoreNode> read = new ArrayList<ScoreNode>();
+        ScoreNode[] next;
+        while (read.size() <= maxHits && (next = hits.nextScoreNodes()) != null) {
+            read.add(next[0]);
+        }
+        if (read.size() > maxHits) {
+            // too many hits, continue with the remaining ones
+            return new FilterMultiColumnQueryHits(hits) {
+
+                private final Iterator<ScoreNode> it = read.iterator();
+
+                public ScoreNode[] nextScoreNodes() throws IOException {
+                    if (it.hasNext()) {
+                        return new ScoreNode[]{it.next()};
+                    }
+                    return super.nextScoreNodes();
+                }
+
+                public void skip(int n) throws IOException {
+                    while (n > 0 && it.hasNext()) {
+                        it.next();
+                        n--;
+                    }
+                    if (n > 0) {
+                        super.skip(n);
+                    }
+                }
+            };
+        }
+        Name[] selectorNames = hits.getSelectorNames();
+        hits.close();
+        List<ScoreNode> cached = Collections.unmodifiableList(read);
+        if (enabled) {
+            synchronized (entries) {
+                entries.put(key, new CachedResult(version, cached));
+            }
+        }
+        return new QueryHitsAdapter(
+                new DefaultQueryHits(cached), selectorNames[0]);
+    }
+
+    //--------------------------< QueryResultCacheMXBean >----------------------
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            synchronized (entries) {
+                entries.clear();
+            }
+        }
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getMaxHits() {
+        return maxHits;
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        hitCount.set(0);
+        missCount.set(0);
+    }
+
+    /**
+     * The hits of a query and the version of the index they were read from.
+     */
+    private static final class CachedResult {
+
+        private final long version;
+
+        private final List<ScoreNode> hits;
+
+        private CachedResult(long version, List<ScoreNode> hits) {
+            this.version = version;
+            this.hits = hits;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+/**
+ * Management interface of the {@link QueryResultCache} of a
+ * {@link SearchIndex}. The cache can be switched off and on at runtime.
+ */
+public interface QueryResultCacheMXBean {
+
+    /**
+     * Return whether query results are cached.
+     *
+     * @return <code>true</code> if the cache is used
+     */
+    boolean isEnabled();
+
+    /**
+     * Switch the cache on or off. Switching it off drops all cached results.
+     *
+     * @param enabled whether query results are cached
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * Return the number of cached query results.
+     *
+     * @return number of entries
+     */
+    int getSize();
+
+    /**
+     * Return the maximum number of cached query results.
+     *
+     * @return maximum number of entries
+     */
+    int getMaxSize();
+
+    /**
+     * Return the maximum number of hits of a cached query result. Queries
+     * with more hits are not cached.
+     *
+     * @return maximum number of hits
+     */
+    int getMaxHits();
+
+    /**
+     * Return the number of queries answered from the cache.
+     *
+     * @return number of hits
+     */
+    long getHitCount();
+
+    /**
+     * Return the number of cacheable queries that had to be executed.
+     *
+     * @return number of misses
+     */
+    long getMissCount();
+
+    /**
+     * Return the ratio of lookups that were answered from the cache.
+     *
+     * @return hit rate, or <code>0</code> if there were no lookups
+     */
+    double getHitRate();
+
+    /**
+     * Drop all cached results and reset the hit and miss counts.
+     */
+    void clear();
+
+}
@@ -29,6 +29,7 @@ import javax.jcr.RepositoryException;
 import javax.jcr.query.RowIterator;
 
 import org.apache.jackrabbit.api.query.JackrabbitQueryResult;
+import org.apache.jackrabbit.core.id.ItemId;
 import org.apache.jackrabbit.core.session.SessionContext;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.commons.query.qom.ColumnImpl;
@@ -45,6 +46,12 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
      */
     private static final Logger log = LoggerFactory.getLogger(QueryResultImpl.class);
 
+    /**
+     * The maximum number of result rows whose access rights are checked
+     * with a single call to the access manager.
+     */
+    private static final int ACCESS_CHECK_BATCH_SIZE = 64;
+
     /**
      * The search index to execute the query.
      */
@@ -286,7 +293,9 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
         try {
             long time = System.currentTimeMillis();
             long r1 = IOCounters.getReads();
-            result = executeQuery(maxResultSize);
+            // the hits before the offset and the ones the session can't
+            // read are skipped, the query has to provide them as well
+            result = executeQuery(maxResultSize + offset + invalid);
             long r2 = IOCounters.getReads();
             log.debug("query executed in {} ms ({})",
                     System.currentTimeMillis() - time, r2 - r1);
@@ -363,19 +372,81 @@ public abstract class QueryResultImpl implements JackrabbitQueryResult {
                                    List<ScoreNode[]> collector,
                                    long maxResults)
             throws IOException, RepositoryException {
+        List<ScoreNode[]> batch = new ArrayList<ScoreNode[]>();
         while (collector.size() < maxResults) {
-            ScoreNode[] sn = hits.nextScoreNodes();
-            if (sn == null) {
+            // never read more hits than may end up in the collector
+            long size = Math.min(ACCESS_CHECK_BATCH_SIZE, maxResults - collector.size());
+            batch.clear();
+            while (batch.size() < size) {
+                ScoreNode[] sn = hits.nextScoreNodes();
+                if (sn == null) {
+                    break;
+                }
+                batch.add(sn);
+            }
+            if (batch.isEmpty()) {
                 // no more results
                 break;
             }
             // check access
-            if (isAccessGranted(sn)) {
-                collector.add(sn);
-            } else {
-                invalid++;
+            boolean[] granted = isAccessGranted(batch);
+            for (int i = 0; i < granted.length; i++) {
+                if (granted[i]) {
+                    collector.add(batch.get(i));
+                } else {
+                    invalid++;
+                }
+            }
+            if (batch.size() < size) {
+                // no more results
+                break;
+            }
+        }
+    }
+
+    /**
+     * Checks for each row in <code>rows</code> if access is granted to all
+     * of its nodes. The read permissions of all nodes are evaluated with a
+     * single call to the access manager.
+     *
+     * @param rows the rows to check.
+     * @return for each row <code>true</code> if read access is granted to
+     *         all of its nodes.
+     * @throws RepositoryException if an error occurs while checking access
+     *                             rights.
+     */
+    private boolean[] isAccessGranted(List<ScoreNode[]> rows)
+            throws RepositoryException {
+        boolean[] granted = new boolean[rows.size()];
+        List<ItemId> ids = new ArrayList<ItemId>();
+        for (ScoreNode[] nodes : rows) {
+            for (ScoreNode node : nodes) {
+                if (node != null) {
+                    ids.add(node.getNodeId());
+                }
+            }
+        }
+        boolean[] canRead;
+        try {
+            canRead = sessionContext.getAccessManager().canRead(
+                    ids.toArray(new ItemId[ids.size()]));
+        } catch (ItemNotFoundException e) {
+            // node deleted while query was executed, check rows one by one
+            for (int i = 0; i < granted.length; i++) {
+                granted[i] = isAccessGranted(rows.get(i));
+            }
+            return granted;
+        }
+        int index = 0;
+        for (int i = 0; i < granted.length; i++) {
+            granted[i] = true;
+            for (ScoreNode node : rows.get(i)) {
+                if (node != null && !canRead[index++]) {
+                    granted[i] = false;
+                }
             }
         }
+        return granted;
     }
 
     /**
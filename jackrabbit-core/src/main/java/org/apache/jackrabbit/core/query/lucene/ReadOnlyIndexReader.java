@@ -123,6 +123,18 @@ class ReadOnlyIndexReader extends RefCountingIndexReader {
         return getBase().getParent(n, deleted);
     }
 
+    /**
+     * Returns the document number of the parent of <code>n</code>, see
+     * {@link CachingIndexReader#getParentDocNumber(int, BitSet)}.
+     *
+     * @param n the document number.
+     * @return the document number of <code>n</code>'s parent.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    int getParentDocNumber(int n) throws IOException {
+        return getBase().getParentDocNumber(n, deleted);
+    }
+
     /**
      * Returns the {@link SharedIndexReader} this reader is based on.
      *
@@ -19,6 +19,7 @@ package org.apache.jackrabbit.core.query.lucene;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
@@ -36,6 +37,8 @@ import java.util.Set;
 import javax.jcr.PropertyType;
 import javax.jcr.RepositoryException;
 import javax.jcr.query.InvalidQueryException;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
@@ -61,6 +64,8 @@ import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.JournalException;
 import org.apache.jackrabbit.core.journal.Record;
 import org.apache.jackrabbit.core.journal.RecordIterator;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.persistence.PersistenceManager;
 import org.apache.jackrabbit.core.query.AbstractQueryHandler;
 import org.apache.jackrabbit.core.query.ExecutableQuery;
 import org.apache.jackrabbit.core.query.QueryHandler;
@@ -311,6 +316,12 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int extractorPoolSize = 2 * Runtime.getRuntime().availableProcessors();
 
+    /**
+     * reindexThreads config parameter. If greater than one, the initial index
+     * of a workspace is built by that many threads.
+     */
+    private int reindexThreads = 0;
+
     /**
      * extractorBackLog config parameter
      */
@@ -380,6 +391,30 @@ public class SearchIndex extends AbstractQueryHandler {
      */
     private int resultFetchSize = Integer.MAX_VALUE;
 
+    /**
+     * The maximum number of query results kept in the query result cache.
+     * <p>
+     * Default value is: <code>0</code> (no query result cache).
+     */
+    private int resultCacheSize = 0;
+
+    /**
+     * The maximum number of hits of a query result in the query result cache.
+     * <p>
+     * Default value is: <code>1000</code>.
+     */
+    private int resultCacheMaxHits = 1000;
+
+    /**
+     * The query result cache, or <code>null</code> if there is none.
+     */
+    private QueryResultCache resultCache;
+
+    /**
+     * Name of the registered query result cache MBean, or <code>null</code>.
+     */
+    private ObjectName resultCacheName;
+
     /**
      * If set to <code>true</code> the fulltext field is stored and and a term
      * vector is created with offset information.
@@ -580,8 +615,15 @@ public class SearchIndex extends AbstractQueryHandler {
             } else {
                 rootPath = ROOT_PATH;
             }
-            index.createInitialIndex(context.getItemStateManager(),
-                    context.getRootId(), rootPath);
+            PersistenceManager pm = context.getPersistenceManager();
+            if (reindexThreads > 1 && !excludedIDs.isEmpty()
+                    && pm instanceof IterablePersistenceManager) {
+                index.createInitialIndex(
+                        (IterablePersistenceManager) pm, reindexThreads);
+            } else {
+                index.createInitialIndex(context.getItemStateManager(),
+                        context.getRootId(), rootPath);
+            }
             checkPendingJournalChanges(context);
         }
         if (consistencyCheckEnabled
@@ -608,6 +650,11 @@ public class SearchIndex extends AbstractQueryHandler {
         // initialize spell checker
         spellChecker = createSpellChecker();
 
+        if (resultCacheSize > 0) {
+            resultCache = new QueryResultCache(resultCacheSize, resultCacheMaxHits);
+            registerResultCache();
+        }
+
         log.info("Index initialized: {} Version: {}",
                 new Object[]{path, index.getIndexFormatVersion()});
         if (!index.getIndexFormatVersion().equals(getIndexFormatVersion())) {
@@ -840,6 +887,7 @@ public class SearchIndex extends AbstractQueryHandler {
         if (spellChecker != null) {
             spellChecker.close();
         }
+        unregisterResultCache();
         index.close();
         getContext().destroy();
         super.close();
@@ -870,13 +918,26 @@ public class SearchIndex extends AbstractQueryHandler {
             throws IOException {
         checkOpen();
 
+        String cacheKey = getResultCacheKey(
+                queryImpl, query, orderProps, orderSpecs, orderFuncs);
+        // read the version before the reader is acquired, the hits are
+        // then at least as new as the version they are cached with
+        long version = index.getReaderVersion();
+        if (cacheKey != null) {
+            MultiColumnQueryHits hits = resultCache.get(
+                    cacheKey, version, QueryImpl.DEFAULT_SELECTOR_NAME);
+            if (hits != null) {
+                return hits;
+            }
+        }
+
         Sort sort = new Sort(createSortFields(orderProps, orderSpecs, orderFuncs));
 
         final IndexReader reader = getIndexReader(queryImpl.needsSystemTree());
         JackrabbitIndexSearcher searcher = new JackrabbitIndexSearcher(
                 session, reader, getContext().getItemStateManager());
         searcher.setSimilarity(getSimilarity());
-        return new FilterMultiColumnQueryHits(
+        MultiColumnQueryHits hits = new FilterMultiColumnQueryHits(
                 searcher.execute(query, sort, resultFetchHint,
                         QueryImpl.DEFAULT_SELECTOR_NAME)) {
             public void close() throws IOException {
@@ -887,6 +948,94 @@ public class SearchIndex extends AbstractQueryHandler {
                 }
             }
         };
+        if (cacheKey != null) {
+            hits = resultCache.put(cacheKey, version, hits);
+        }
+        return hits;
+    }
+
+    /**
+     * Returns the key of a query in the query result cache. The key consists
+     * of the normalized query tree, the lucene query and the sort order.
+     * The lucene query distinguishes values that are resolved with the
+     * namespace mappings of the session, the query tree covers lucene
+     * queries without a complete string representation. Queries with
+     * location steps that may be evaluated by traversing the nodes of the
+     * session are not cached, their hits depend on the access rights and
+     * the unsaved changes of that session.
+     *
+     * @param queryImpl  the query impl.
+     * @param query      the lucene query.
+     * @param orderProps name of the properties for sort order.
+     * @param orderSpecs the order specs for the sort order properties.
+     * @param orderFuncs functions for the properties for sort order.
+     * @return the key, or <code>null</code> if the result of the query must
+     *         not be cached.
+     */
+    private String getResultCacheKey(AbstractQueryImpl queryImpl,
+                                     Query query,
+                                     Path[] orderProps,
+                                     boolean[] orderSpecs,
+                                     String[] orderFuncs) {
+        // queries on the jcr:system tree also read from the parent index,
+        // whose changes are not tracked by the version of this index
+        if (resultCache == null || !resultCache.isEnabled()
+                || !(queryImpl instanceof QueryImpl)
+                || queryImpl.needsSystemTree()
+                || ((QueryImpl) queryImpl).isSessionDependent()) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder();
+        try {
+            key.append(((QueryImpl) queryImpl).root.dump());
+        } catch (RepositoryException e) {
+            log.debug("Unable to dump query tree, result is not cached", e);
+            return null;
+        }
+        key.append(query);
+        key.append(Arrays.toString(orderProps));
+        key.append(Arrays.toString(orderSpecs));
+        key.append(Arrays.toString(orderFuncs));
+        return key.toString();
+    }
+
+    /**
+     * Returns the query result cache of this search index.
+     *
+     * @return the query result cache, or <code>null</code> if there is none.
+     */
+    public QueryResultCacheMXBean getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Registers the query result cache with the platform MBean server.
+     * Failures are logged, but do not prevent the cache from being used.
+     */
+    private void registerResultCache() {
+        try {
+            ObjectName name = new ObjectName(
+                    "org.apache.jackrabbit:type=QueryResultCache,path="
+                    + ObjectName.quote(path));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(resultCache, name);
+            resultCacheName = name;
+        } catch (JMException e) {
+            log.warn("Unable to register query result cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Unregisters the query result cache, if registered.
+     */
+    private void unregisterResultCache() {
+        if (resultCacheName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(resultCacheName);
+            } catch (JMException e) {
+                log.warn("Unable to unregister query result cache: " + e.getMessage());
+            }
+            resultCacheName = null;
+        }
     }
 
     /**
@@ -1818,6 +1967,17 @@ public class SearchIndex extends AbstractQueryHandler {
          */
         public int[] getParents(int n, int[] docNumbers) throws IOException {
             int i = readerIndex(n);
+            int parent = subReaders[i].getParentDocNumber(n - starts[i]);
+            if (parent >= 0) {
+                if (docNumbers.length == 1) {
+                    docNumbers[0] = parent + starts[i];
+                    return docNumbers;
+                } else {
+                    return new int[]{parent + starts[i]};
+                }
+            } else if (parent == CachingIndexReader.NO_PARENT) {
+                return DocId.EMPTY;
+            }
             DocId id = subReaders[i].getParentDocId(n - starts[i]);
             id = id.applyOffset(starts[i]);
             return id.getDocumentNumbers(this, docNumbers);
@@ -2139,6 +2299,54 @@ public class SearchIndex extends AbstractQueryHandler {
         return resultFetchSize;
     }
 
+    /**
+     * The maximum number of query results kept in the query result cache.
+     * The cache stores the hits of XPath and SQL queries for the current
+     * content of the index and is shared by all sessions. The hits are
+     * filtered by the access rights of the session when they are read. A
+     * value of zero or less disables the cache. The cache is registered
+     * as a {@link QueryResultCacheMXBean}, which allows to switch it off
+     * and on at runtime.
+     * <p>
+     * Only few queries are cached: queries with location steps below the
+     * root node (for example <code>/jcr:root/content//*</code> or a
+     * <code>jcr:path</code> condition in SQL) may traverse the nodes the
+     * session can see, and queries that include the <code>jcr:system</code>
+     * tree read a second index. Neither is cached. In practice the cache
+     * serves queries such as
+     * <code>//element(*, my:type)[@prop = 'value']</code>, where the node
+     * type does not occur under <code>jcr:system</code>.
+     *
+     * @param size the maximum number of cached query results.
+     */
+    public void setResultCacheSize(int size) {
+        resultCacheSize = size;
+    }
+
+    /**
+     * @return the maximum number of cached query results.
+     */
+    public int getResultCacheSize() {
+        return resultCacheSize;
+    }
+
+    /**
+     * The maximum number of hits of a query result in the query result cache.
+     * Results with more hits are not cached.
+     *
+     * @param maxHits the maximum number of hits of a cached query result.
+     */
+    public void setResultCacheMaxHits(int maxHits) {
+        resultCacheMaxHits = maxHits;
+    }
+
+    /**
+     * @return the maximum number of hits of a cached query result.
+     */
+    public int getResultCacheMaxHits() {
+        return resultCacheMaxHits;
+    }
+
     /**
      * The number of background threads for the extractor pool.
      *
@@ -2159,6 +2367,27 @@ public class SearchIndex extends AbstractQueryHandler {
         return extractorPoolSize;
     }
 
+    /**
+     * The number of threads that build the initial index of a workspace when
+     * the index does not exist yet. Values greater than one enable a parallel
+     * build that reads the nodes directly from the persistence manager, if it
+     * is an {@link IterablePersistenceManager}. An interrupted parallel build
+     * is resumed on the next start. The index of the jcr:system tree is
+     * always built by traversal.
+     *
+     * @param numThreads the number of threads.
+     */
+    public void setReindexThreads(int numThreads) {
+        reindexThreads = numThreads;
+    }
+
+    /**
+     * @return the number of threads that build the initial index.
+     */
+    public int getReindexThreads() {
+        return reindexThreads;
+    }
+
     /**
      * The number of extractor jobs that are queued until a new job is executed
      * with the current thread instead of using the thread pool.
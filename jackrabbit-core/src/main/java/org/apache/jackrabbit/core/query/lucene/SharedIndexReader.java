@@ -62,6 +62,19 @@ class SharedIndexReader extends RefCountingIndexReader {
         return getBase().getParent(n, deleted);
     }
 
+    /**
+     * Returns the document number of the parent of <code>n</code>, see
+     * {@link CachingIndexReader#getParentDocNumber(int, BitSet)}.
+     *
+     * @param n the document number.
+     * @param deleted the documents that should be regarded as deleted.
+     * @return the document number of <code>n</code>'s parent.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    int getParentDocNumber(int n, BitSet deleted) throws IOException {
+        return getBase().getParentDocNumber(n, deleted);
+    }
+
     /**
      * Simply passes the call to the wrapped reader as is.<br/>
      * If <code>term</code> is for a {@link FieldNames#UUID} field and this
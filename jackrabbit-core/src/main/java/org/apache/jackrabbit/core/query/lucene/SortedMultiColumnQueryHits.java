@@ -16,6 +16,7 @@
  */
 package org.apache.jackrabbit.core.query.lucene;
 
+import org.apache.jackrabbit.core.query.lucene.sort.TopNSorter;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.FieldComparator;
@@ -23,9 +24,7 @@ import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.SortField;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
@@ -53,30 +52,59 @@ public class SortedMultiColumnQueryHits extends FilterMultiColumnQueryHits {
                                       Ordering[] orderings,
                                       IndexReader reader)
             throws IOException {
+        this(hits, orderings, reader, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Creates sorted query hits. Only the first <code>resultFetchHint</code>
+     * hits are sorted up front, in a single pass over the hits. The remaining
+     * hits are only sorted if they are actually read.
+     *
+     * @param hits            the hits to sort.
+     * @param orderings       the ordering specifications.
+     * @param reader          the current index reader.
+     * @param resultFetchHint a hint on how many hits will be read.
+     * @throws IOException if an error occurs while reading from the index.
+     */
+    public SortedMultiColumnQueryHits(MultiColumnQueryHits hits,
+                                      Ordering[] orderings,
+                                      IndexReader reader,
+                                      long resultFetchHint)
+            throws IOException {
         super(hits);
-        List<ScoreNode[]> sortedHits = new ArrayList<ScoreNode[]>();
-        ScoreNode[] next;
-        while ((next = hits.nextScoreNodes()) != null) {
-            sortedHits.add(next);
-        }
+        // the comparator only compares docs and does not use any slots
+        ScoreNodeComparator comparator = new ScoreNodeComparator(
+                reader, orderings, hits.getSelectorNames(), 1);
+        int n = (int) Math.max(1, Math.min(resultFetchHint, Integer.MAX_VALUE));
+        TopNSorter<ScoreNode[]> sorter =
+            new TopNSorter<ScoreNode[]>(comparator, n);
         try {
-            Collections.sort(sortedHits, new ScoreNodeComparator(
-                    reader, orderings, hits.getSelectorNames(), sortedHits.size()));
+            ScoreNode[] next;
+            while ((next = hits.nextScoreNodes()) != null) {
+                sorter.add(next);
+            }
+            this.it = sorter.iterator();
+            // sort the first hits now to report errors early
+            it.hasNext();
         } catch (RuntimeException e) {
             // might be thrown by ScoreNodeComparator#compare
             throw Util.createIOException(e);
         }
-        this.it = sortedHits.iterator();
     }
 
     /**
      * {@inheritDoc}
      */
     public ScoreNode[] nextScoreNodes() throws IOException {
-        if (it.hasNext()) {
-            return it.next();
-        } else {
-            return null;
+        try {
+            if (it.hasNext()) {
+                return it.next();
+            } else {
+                return null;
+            }
+        } catch (RuntimeException e) {
+            // might be thrown by ScoreNodeComparator#compare
+            throw Util.createIOException(e);
         }
     }
 
@@ -24,6 +24,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -46,6 +47,7 @@ import javax.jcr.query.qom.SameNodeJoinCondition;
 import javax.jcr.query.qom.Selector;
 import javax.jcr.query.qom.Source;
 
+import org.apache.jackrabbit.commons.iterator.AbstractLazyIterator;
 import org.apache.jackrabbit.commons.iterator.RowIterable;
 import org.apache.jackrabbit.commons.iterator.RowIteratorAdapter;
 import org.apache.jackrabbit.commons.query.qom.OperandEvaluator;
@@ -197,18 +199,8 @@ abstract class JoinMerger {
         Map<String, List<Row>> map = buildRightRowValues(rightRows);
 
         if (JCR_JOIN_TYPE_INNER.equals(type) && !map.isEmpty()) {
-            List<Row> rows = new ArrayList<Row>();
-            for (Row leftRow : new RowIterable(leftRows)) {
-                for (String value : getLeftValues(leftRow)) {
-                    List<Row> matchingRows = map.get(value);
-                    if (matchingRows != null) {
-                        for (Row rightRow : matchingRows) {
-                            rows.add(mergeRow(leftRow, rightRow));
-                        }
-                    }
-                }
-            }
-            return asQueryResult(new RowIteratorAdapter(rows));
+            return asQueryResult(new RowIteratorAdapter(new MergingIterator(
+                    leftRows, map, excludingOuterJoinRowsSet, rowComparator)));
         }
 
         if (JCR_JOIN_TYPE_LEFT_OUTER.equals(type)) {
@@ -228,52 +220,87 @@ abstract class JoinMerger {
                         Collections.emptySet()));
             }
 
-            List<Row> rows = new ArrayList<Row>();
-            for (Row leftRow : new RowIterable(leftRows)) {
-                Set<String> leftValues = getLeftValues(leftRow);
-                if(leftValues.isEmpty()){
-                    leftValues.add(null);
+            return asQueryResult(new RowIteratorAdapter(new MergingIterator(
+                    leftRows, map, excludingOuterJoinRowsSet, rowComparator)));
+        }
+        return asQueryResult(new RowIteratorAdapter(Collections.emptySet()));
+    }
+
+    /**
+     * Merges a single row of the left dataset with the matching rows of the
+     * right dataset.
+     *
+     * @param leftRow
+     *            the row of the left dataset
+     * @param map
+     *            the rows of the right dataset by their join values
+     * @param excludingOuterJoinRowsSet
+     *            if not <code>null</code> must be taken into consideration when
+     *            merging OUTER JOINs
+     * @param rowComparator
+     *            a comparator implementation that has to handle the 'is row
+     *            equal to' problem, in the case of outer joins with
+     *            excludingOuterJoinRowsSet
+     * @return the joined rows, possibly empty
+     * @throws RepositoryException
+     */
+    private List<Row> merge(Row leftRow, Map<String, List<Row>> map,
+            Set<Row> excludingOuterJoinRowsSet, Comparator<Row> rowComparator)
+            throws RepositoryException {
+        List<Row> rows = new ArrayList<Row>();
+        if (JCR_JOIN_TYPE_INNER.equals(type)) {
+            for (String value : getLeftValues(leftRow)) {
+                List<Row> matchingRows = map.get(value);
+                if (matchingRows != null) {
+                    for (Row rightRow : matchingRows) {
+                        rows.add(mergeRow(leftRow, rightRow));
+                    }
                 }
-                for (String value : leftValues) {
-                    List<Row> matchingRows = map.get(value);
-                    if (matchingRows != null) {
-                        for (Row rightRow : matchingRows) {
-                            // I have possible WHERE clauses on the join that I
-                            // need to look at for each rightRow
-                            if (excludingOuterJoinRowsSet == null) {
-                                rows.add(mergeRow(leftRow, rightRow));
-                            } else {
-                                boolean isIncluded = false;
-                                // apparently
-                                // 'excludingOuterJoinRowsSet.contains' fails to
-                                // match rows
-
-                                // TODO can 'rightRow.getNode()' break because
-                                // of joins that are bigger than 2 way?
-                                // how does this perform for 3 way joins ?
-                                for (Row r : excludingOuterJoinRowsSet) {
-                                    if(rowComparator.compare(rightRow, r) == 0){
-                                        isIncluded = true;
-                                        break;
-                                    }
-                                }
-                                if (isIncluded) {
-                                    rows.add(mergeRow(leftRow, rightRow));
-                                }
+            }
+            return rows;
+        }
+
+        Set<String> leftValues = getLeftValues(leftRow);
+        if(leftValues.isEmpty()){
+            leftValues.add(null);
+        }
+        for (String value : leftValues) {
+            List<Row> matchingRows = map.get(value);
+            if (matchingRows != null) {
+                for (Row rightRow : matchingRows) {
+                    // I have possible WHERE clauses on the join that I
+                    // need to look at for each rightRow
+                    if (excludingOuterJoinRowsSet == null) {
+                        rows.add(mergeRow(leftRow, rightRow));
+                    } else {
+                        boolean isIncluded = false;
+                        // apparently
+                        // 'excludingOuterJoinRowsSet.contains' fails to
+                        // match rows
+
+                        // TODO can 'rightRow.getNode()' break because
+                        // of joins that are bigger than 2 way?
+                        // how does this perform for 3 way joins ?
+                        for (Row r : excludingOuterJoinRowsSet) {
+                            if(rowComparator.compare(rightRow, r) == 0){
+                                isIncluded = true;
+                                break;
                             }
                         }
-                    } else {
-                        // No matches in an outer join -> add a null row, if
-                        // there are no 'WHERE' conditions
-                        if (excludingOuterJoinRowsSet == null) {
-                            rows.add(mergeRow(leftRow, null));
+                        if (isIncluded) {
+                            rows.add(mergeRow(leftRow, rightRow));
                         }
                     }
                 }
+            } else {
+                // No matches in an outer join -> add a null row, if
+                // there are no 'WHERE' conditions
+                if (excludingOuterJoinRowsSet == null) {
+                    rows.add(mergeRow(leftRow, null));
+                }
             }
-            return asQueryResult(new RowIteratorAdapter(rows));
         }
-        return asQueryResult(new RowIteratorAdapter(Collections.emptySet()));
+        return rows;
     }
 
     private QueryResult asQueryResult(RowIterator rowIterator) {
@@ -309,6 +336,52 @@ abstract class JoinMerger {
                 left, leftSelectors, right, rightSelectors);
     }
 
+    /**
+     * Lazily merges the rows of the left dataset with the matching rows of
+     * the right dataset, one left row at a time, so that joined rows are
+     * only created as they are consumed.
+     */
+    private class MergingIterator extends AbstractLazyIterator<Row> {
+
+        private final RowIterator leftRows;
+
+        private final Map<String, List<Row>> map;
+
+        private final Set<Row> excludingOuterJoinRowsSet;
+
+        private final Comparator<Row> rowComparator;
+
+        private Iterator<Row> merged = Collections.<Row>emptyList().iterator();
+
+        public MergingIterator(RowIterator leftRows,
+                Map<String, List<Row>> map, Set<Row> excludingOuterJoinRowsSet,
+                Comparator<Row> rowComparator) {
+            this.leftRows = leftRows;
+            this.map = map;
+            this.excludingOuterJoinRowsSet = excludingOuterJoinRowsSet;
+            this.rowComparator = rowComparator;
+        }
+
+        @Override
+        protected Row getNext() {
+            while (!merged.hasNext()) {
+                if (!leftRows.hasNext()) {
+                    return null;
+                }
+                Row leftRow = leftRows.nextRow();
+                try {
+                    merged = merge(leftRow, map, excludingOuterJoinRowsSet,
+                            rowComparator).iterator();
+                } catch (RepositoryException e) {
+                    throw new RuntimeException(
+                            "Unable to merge the join row " + leftRow, e);
+                }
+            }
+            return merged.next();
+        }
+
+    }
+
     public abstract Set<String> getLeftValues(Row row)
             throws RepositoryException;
 
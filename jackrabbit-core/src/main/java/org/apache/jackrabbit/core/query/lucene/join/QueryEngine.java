@@ -25,6 +25,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -58,11 +59,14 @@ import javax.jcr.query.qom.Source;
 import org.apache.commons.io.IOUtils;
 import org.apache.jackrabbit.JcrConstants;
 import org.apache.jackrabbit.commons.JcrUtils;
+import org.apache.jackrabbit.commons.iterator.AbstractLazyIterator;
+import org.apache.jackrabbit.commons.iterator.RangeIteratorAdapter;
 import org.apache.jackrabbit.commons.iterator.RowIteratorAdapter;
 import org.apache.jackrabbit.commons.query.qom.OperandEvaluator;
 import org.apache.jackrabbit.core.query.lucene.LuceneQueryFactory;
 import org.apache.jackrabbit.core.query.lucene.sort.DynamicOperandFieldComparatorSource;
 import org.apache.jackrabbit.core.query.lucene.sort.RowComparator;
+import org.apache.jackrabbit.core.query.lucene.sort.TopNSorter;
 import org.apache.lucene.search.Sort;
 import org.apache.lucene.search.SortField;
 import org.slf4j.Logger;
@@ -82,6 +86,37 @@ public class QueryEngine {
     private static final boolean NATIVE_SORT = Boolean.valueOf(System
             .getProperty(NATIVE_SORT_SYSTEM_PROPERTY, "false"));
 
+    /**
+     * System property that selects how the right side of a join is fetched:
+     * {@link #JOIN_STRATEGY_COST} (default), {@link #JOIN_STRATEGY_PUSHDOWN}
+     * or {@link #JOIN_STRATEGY_HASH}.
+     */
+    public static final String JOIN_STRATEGY_SYSTEM_PROPERTY = "sql2JoinStrategy";
+
+    /**
+     * Picks one of the other strategies based on the estimated cost.
+     */
+    public static final String JOIN_STRATEGY_COST = "cost";
+
+    /**
+     * Pushes the join condition down into the query of the right side, as
+     * constraints built from the values of the left side.
+     */
+    public static final String JOIN_STRATEGY_PUSHDOWN = "pushdown";
+
+    /**
+     * Fetches the right side once, only restricted by its own constraints,
+     * and joins both sides in memory on the hashed join values.
+     */
+    public static final String JOIN_STRATEGY_HASH = "hash";
+
+    /**
+     * Relative cost of a join constraint pushed down to the right side
+     * compared to a row that is loaded from the right side. A hash join is
+     * used if the right side has at most this many rows per constraint.
+     */
+    private static final int HASH_JOIN_COST_FACTOR = 4;
+
     private static final int printIndentStep = 4;
     
     private final Session session;
@@ -96,6 +131,8 @@ public class QueryEngine {
 
     private final OperandEvaluator evaluator;
 
+    private final String joinStrategy;
+
     public QueryEngine(Session session, LuceneQueryFactory lqf,
             Map<String, Value> variables) throws RepositoryException {
         this.session = session;
@@ -106,6 +143,8 @@ public class QueryEngine {
         this.valueFactory = session.getValueFactory();
 
         this.evaluator = new OperandEvaluator(valueFactory, variables);
+        this.joinStrategy = System.getProperty(
+                JOIN_STRATEGY_SYSTEM_PROPERTY, JOIN_STRATEGY_COST);
     }
 
     public QueryResult execute(Column[] columns, Source source,
@@ -250,6 +289,13 @@ public class QueryEngine {
                     new RowIteratorAdapter(new TreeSet<Row>()), null, rightCo);
         }
 
+        // a hash join fetches the right side without the join constraints,
+        // the merger then matches the rows on the join values
+        if (isHashJoin(csInfo, rightConstraints, isOuterJoin,
+                printIndentation)) {
+            rightConstraints = Collections.emptyList();
+        }
+
         Set<Row> rightRows = buildRightRowsJoin(csInfo, rightConstraints,
                 isOuterJoin, rightCo, printIndentation + printIndentStep);
 
@@ -274,6 +320,56 @@ public class QueryEngine {
 
     }
 
+    /**
+     * Decides whether the right side of a join is fetched once and joined
+     * in memory, or fetched with the join constraints built from the left
+     * side. The former is cheaper if the right side has few rows compared
+     * to the number of join constraints, which otherwise end up in large
+     * boolean queries that are executed in batches.
+     *
+     * @param csi
+     *            contains 'WHERE' constraints and the source information
+     * @param rightConstraints
+     *            contains 'ON' constraints
+     * @param isOuterJoin
+     *            whether the 'WHERE' constraints are ignored when fetching
+     *            the right side
+     * @param printIndentation
+     *            used in logging
+     * @return <code>true</code> if a hash join should be used
+     * @throws RepositoryException
+     */
+    private boolean isHashJoin(ConstraintSplitInfo csi,
+            List<Constraint> rightConstraints, boolean isOuterJoin,
+            int printIndentation) throws RepositoryException {
+        if (JOIN_STRATEGY_HASH.equals(joinStrategy)) {
+            return true;
+        }
+        Source right = csi.getSource().getRight();
+        if (JOIN_STRATEGY_PUSHDOWN.equals(joinStrategy)
+                || !(right instanceof Selector)) {
+            return false;
+        }
+
+        long max = (long) rightConstraints.size() * HASH_JOIN_COST_FACTOR;
+        Constraint constraint = isOuterJoin ? null : csi.getRightConstraint();
+        long rightSize;
+        try {
+            rightSize = lqf.count((Selector) right, constraint, max + 1);
+        } catch (IOException e) {
+            throw new RepositoryException("Failed to access the query index", e);
+        }
+        boolean hashJoin = rightSize <= max;
+        if (log.isDebugEnabled()) {
+            log.debug(genString(printIndentation) + "SQL2 JOIN RIGHT SIDE has "
+                    + (hashJoin ? "" : "more than ") + Math.min(rightSize, max)
+                    + " rows for " + rightConstraints.size()
+                    + " join constraints, using "
+                    + (hashJoin ? "hash join." : "join constraints."));
+        }
+        return hashJoin;
+    }
+
     private Set<Row> buildLeftRowsJoin(ConstraintSplitInfo csi,
             Comparator<Row> comparator, int printIndentation)
             throws RepositoryException {
@@ -458,8 +554,10 @@ public class QueryEngine {
 
         // if true it means that the LuceneQueryFactory should just let the
         // QueryEngine take care of sorting and applying offset and limit
-        // constraints
-        boolean externalSort = !NATIVE_SORT;
+        // constraints. Without orderings the offset and limit are pushed
+        // down, so that only the requested rows are loaded
+        boolean externalSort = !NATIVE_SORT
+                && orderings != null && orderings.length > 0;
         RowIterator rows = null;
         try {
             rows = new RowIteratorAdapter(lqf.execute(columnMap, selector,
@@ -476,7 +574,7 @@ public class QueryEngine {
         }
         QueryResult result = new SimpleQueryResult(columnNames, selectorNames,
                 rows);
-        if (NATIVE_SORT) {
+        if (!externalSort) {
             return result;
         }
 
@@ -596,6 +694,8 @@ public class QueryEngine {
      * one or more orderings have been specified, this method will iterate
      * through the entire original result set, order the collected rows, and
      * return a new result set based on the sorted collection of rows.
+     * Otherwise the offset and limit are applied lazily while the rows of
+     * the original result set are consumed.
      * 
      * @param result
      *            original query results
@@ -612,33 +712,94 @@ public class QueryEngine {
     protected static QueryResult sort(QueryResult result,
             final Ordering[] orderings, OperandEvaluator evaluator,
             long offset, long limit) throws RepositoryException {
-        if ((orderings != null && orderings.length > 0) || offset != 0
-                || limit >= 0) {
-            List<Row> rows = new ArrayList<Row>();
-
-            RowIterator iterator = result.getRows();
+        if (orderings == null || orderings.length == 0) {
+            if (offset > 0 || limit >= 0) {
+                // no need to collect the rows, just skip the offset and stop
+                // at the limit while the rows are consumed
+                return new SimpleQueryResult(result.getColumnNames(),
+                        result.getSelectorNames(),
+                        page(result.getRows(), offset, limit));
+            }
+            return result;
+        }
+        RowComparator comparator = new RowComparator(orderings, evaluator);
+        RowIterator iterator = result.getRows();
+        long n = Math.max(0, offset) + limit;
+        if (limit >= 0 && n < Integer.MAX_VALUE) {
+            // only keep the rows up to the limit in sort order
+            if (limit == 0) {
+                return new SimpleQueryResult(result.getColumnNames(),
+                        result.getSelectorNames(), new RowIteratorAdapter(
+                                Collections.emptySet()));
+            }
+            TopNSorter<Row> sorter = new TopNSorter<Row>(comparator, (int) n);
             while (iterator.hasNext()) {
-                rows.add(iterator.nextRow());
+                sorter.add(iterator.nextRow());
             }
+            return new SimpleQueryResult(result.getColumnNames(),
+                    result.getSelectorNames(),
+                    page(new RowIteratorAdapter(new RangeIteratorAdapter(
+                            sorter.iterator(), sorter.size())), offset, limit));
+        }
 
-            if (orderings != null && orderings.length > 0) {
-                Collections.sort(rows, new RowComparator(orderings, evaluator));
-            }
+        List<Row> rows = new ArrayList<Row>();
+        while (iterator.hasNext()) {
+            rows.add(iterator.nextRow());
+        }
 
-            if (offset > 0) {
-                int size = rows.size();
-                rows = rows.subList((int) Math.min(offset, size), size);
-            }
+        Collections.sort(rows, comparator);
+
+        if (offset > 0) {
+            int size = rows.size();
+            rows = rows.subList((int) Math.min(offset, size), size);
+        }
+        if (limit >= 0) {
+            int size = rows.size();
+            rows = rows.subList(0, (int) Math.min(limit, size));
+        }
+
+        return new SimpleQueryResult(result.getColumnNames(),
+                result.getSelectorNames(), new RowIteratorAdapter(rows));
+    }
+
+    /**
+     * Returns a view of the given rows that lazily skips the first
+     * <code>offset</code> rows and ends after <code>limit</code> rows.
+     *
+     * @param rows
+     *            the rows
+     * @param offset
+     *            number of rows to skip
+     * @param limit
+     *            maximum number of rows, or a negative value for no limit
+     * @return the requested page of rows
+     */
+    private static RowIterator page(
+            final RowIterator rows, final long offset, final long limit) {
+        long size = rows.getSize();
+        if (size >= 0) {
+            size = Math.max(0, size - Math.max(0, offset));
             if (limit >= 0) {
-                int size = rows.size();
-                rows = rows.subList(0, (int) Math.min(limit, size));
+                size = Math.min(size, limit);
             }
-
-            return new SimpleQueryResult(result.getColumnNames(),
-                    result.getSelectorNames(), new RowIteratorAdapter(rows));
-        } else {
-            return result;
         }
+        Iterator<Row> iterator = new AbstractLazyIterator<Row>() {
+            private long position = 0;
+            @Override
+            protected Row getNext() {
+                while (position < offset && rows.hasNext()) {
+                    rows.nextRow();
+                    position++;
+                }
+                if ((limit >= 0 && position - Math.max(0, offset) >= limit)
+                        || !rows.hasNext()) {
+                    return null;
+                }
+                position++;
+                return rows.nextRow();
+            }
+        };
+        return new RowIteratorAdapter(new RangeIteratorAdapter(iterator, size));
     }
 
 }
@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene.sort;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts elements in a single pass, keeping only the first <code>n</code>
+ * elements in sort order on a bounded heap. All other elements are kept
+ * unsorted and are only sorted once the iteration goes past the first
+ * <code>n</code> elements. Getting the first page of a large result therefore
+ * takes <code>O(size * log(n))</code> instead of <code>O(size * log(size))</code>
+ * comparisons.
+ * <p>
+ * The sort is stable: elements that are equal according to the comparator
+ * are returned in the order they were added.
+ *
+ * @param <T> the type of the sorted elements
+ */
+public class TopNSorter<T> implements Iterable<T> {
+
+    /**
+     * The comparator for the elements.
+     */
+    private final Comparator<? super T> comparator;
+
+    /**
+     * The maximum number of elements on the heap.
+     */
+    private final int n;
+
+    /**
+     * The first <code>n</code> elements, the last one in sort order on top.
+     */
+    private final PriorityQueue<Element<T>> heap;
+
+    /**
+     * The elements that are not among the first <code>n</code>, unsorted.
+     */
+    private final List<Element<T>> rest = new ArrayList<Element<T>>();
+
+    /**
+     * The number of elements added so far.
+     */
+    private int size = 0;
+
+    /**
+     * Creates a new sorter.
+     *
+     * @param comparator the comparator for the elements.
+     * @param n          the number of elements to keep in sort order.
+     */
+    public TopNSorter(final Comparator<? super T> comparator, int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("n must be positive: " + n);
+        }
+        this.comparator = comparator;
+        this.n = n;
+        this.heap = new PriorityQueue<Element<T>>(Math.min(n, 1024),
+                Collections.reverseOrder(new ElementComparator()));
+    }
+
+    /**
+     * Adds an element.
+     *
+     * @param element the element to add.
+     */
+    public void add(T element) {
+        Element<T> e = new Element<T>(element, size++);
+        if (heap.size() < n) {
+            heap.add(e);
+        } else if (compare(e, heap.peek()) < 0) {
+            rest.add(heap.poll());
+            heap.add(e);
+        } else {
+            rest.add(e);
+        }
+    }
+
+    /**
+     * @return the number of elements added to this sorter.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the elements in sort order. This method must only be called
+     * once all elements have been added.
+     *
+     * @return the sorted elements.
+     */
+    public Iterator<T> iterator() {
+        final List<Element<T>> first = new ArrayList<Element<T>>(heap);
+        Collections.sort(first, new ElementComparator());
+        return new Iterator<T>() {
+
+            private Iterator<Element<T>> it = first.iterator();
+
+            private boolean sortedRest = false;
+
+            public boolean hasNext() {
+                if (!it.hasNext() && !sortedRest) {
+                    // the iteration continues past the first n elements
+                    Collections.sort(rest, new ElementComparator());
+                    it = rest.iterator();
+                    sortedRest = true;
+                }
+                return it.hasNext();
+            }
+
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return it.next().value;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private int compare(Element<T> e1, Element<T> e2) {
+        int c = comparator.compare(e1.value, e2.value);
+        if (c == 0) {
+            c = e1.index < e2.index ? -1 : (e1.index == e2.index ? 0 : 1);
+        }
+        return c;
+    }
+
+    /**
+     * An element together with the position at which it was added.
+     */
+    private static final class Element<T> {
+
+        private final T value;
+
+        private final int index;
+
+        private Element(T value, int index) {
+            this.value = value;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Compares elements and their position for elements that are equal.
+     */
+    private final class ElementComparator implements Comparator<Element<T>> {
+
+        public int compare(Element<T> e1, Element<T> e2) {
+            return TopNSorter.this.compare(e1, e2);
+        }
+    }
+}
@@ -206,6 +206,28 @@ public interface AccessManager {
      */
     boolean canRead(Path itemPath, ItemId itemId) throws RepositoryException;
 
+    /**
+     * Determines for each of the given persisted items whether it can be
+     * read. The result is equivalent to calling
+     * {@link #canRead(Path, ItemId)} with a <code>null</code> path for every
+     * id, but allows an implementation to share the evaluation of common
+     * ancestors across the batch. The default implementation tests the
+     * items one by one.
+     *
+     * @param itemIds Ids of the items to be tested.
+     * @return an array of the same length as <code>itemIds</code> where each
+     * element indicates whether the item at the same index can be read.
+     * @throws RepositoryException if one of the items is NEW or does not
+     * exist or if another error occurs.
+     */
+    default boolean[] canRead(ItemId[] itemIds) throws RepositoryException {
+        boolean[] granted = new boolean[itemIds.length];
+        for (int i = 0; i < itemIds.length; i++) {
+            granted[i] = canRead(null, itemIds[i]);
+        }
+        return granted;
+    }
+
     /**
      * Determines whether the subject of the current context is granted access
      * to the given workspace. Note that an implementation is free to test for
@@ -266,6 +266,20 @@ public class DefaultAccessManager extends AbstractAccessControlManager implement
         }
     }
 
+    /**
+     * @see AccessManager#canRead(org.apache.jackrabbit.core.id.ItemId[])
+     */
+    public boolean[] canRead(ItemId[] itemIds) throws RepositoryException {
+        checkInitialized();
+        if (compiledPermissions.canReadAll()) {
+            boolean[] granted = new boolean[itemIds.length];
+            Arrays.fill(granted, true);
+            return granted;
+        } else {
+            return compiledPermissions.canRead(itemIds);
+        }
+    }
+
     /**
      * @see AccessManager#canAccess(String)
      */
@@ -120,6 +120,28 @@ public interface CompiledPermissions {
      */
     boolean canRead(Path itemPath, ItemId itemId) throws RepositoryException;
 
+    /**
+     * Batch version of {@link #canRead(Path, ItemId)}: returns for each of
+     * the given <i>existing</i> items whether READ permission is granted.
+     * Implementations are expected to share the evaluation of access control
+     * content between items, for example between the properties of a node
+     * or the children of a common parent. The default implementation
+     * evaluates the items one by one.
+     *
+     * @param itemIds The ids of existing items.
+     * @return An array containing the READ permission of each item, in the
+     * order of <code>itemIds</code>.
+     * @throws RepositoryException If no item exists with one of the specified
+     * itemIds or if some other error occurs.
+     */
+    default boolean[] canRead(ItemId[] itemIds) throws RepositoryException {
+        boolean[] granted = new boolean[itemIds.length];
+        for (int i = 0; i < itemIds.length; i++) {
+            granted[i] = canRead(null, itemIds[i]);
+        }
+        return granted;
+    }
+
     /**
      * Static implementation of a <code>CompiledPermissions</code> that doesn't
      * grant any permissions at all.
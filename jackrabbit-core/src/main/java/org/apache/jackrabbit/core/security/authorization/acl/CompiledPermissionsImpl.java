@@ -44,6 +44,7 @@ import javax.jcr.RepositoryException;
 import java.security.Principal;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -74,6 +75,15 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
     @SuppressWarnings("unchecked")
     private final Map<ItemId, Boolean> readCache = new GrowingLRUMap(1024, MAX_CACHE_SIZE);
 
+    /*
+     * Read permissions shared by all items below an access controlled node
+     * (up to the next access controlled descendant), keyed by the id of that
+     * node. A null value marks nodes where entries with restrictions apply
+     * and the permission has to be evaluated for each item.
+     */
+    @SuppressWarnings("unchecked")
+    private final Map<NodeId, Boolean> subtreeReadCache = new GrowingLRUMap(64, MAX_CACHE_SIZE);
+
     private final Object monitor = new Object();
 
     CompiledPermissionsImpl(Set<Principal> principals, SessionImpl session,
@@ -222,6 +232,7 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
     protected void clearCache() {
         synchronized (monitor) {
             readCache.clear();
+            subtreeReadCache.clear();
         }
         super.clearCache();
     }
@@ -273,10 +284,15 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
                      (see special treatment of remove, create or ac-specific
                       permissions).
                      */
-                    for (Entry ace : entryCollector.collectEntries(node, filter)) {
-                        if (ace.getPrivilegeBits().includesRead()) {
-                            canRead = ace.isAllow();
-                            break;
+                    Boolean subtreeRead = canReadSubtree(node);
+                    if (subtreeRead != null) {
+                        canRead = subtreeRead;
+                    } else {
+                        for (Entry ace : entryCollector.collectEntries(node, filter)) {
+                            if (ace.getPrivilegeBits().includesRead()) {
+                                canRead = ace.isAllow();
+                                break;
+                            }
                         }
                     }
                 }
@@ -286,6 +302,158 @@ class CompiledPermissionsImpl extends AbstractCompiledPermissions implements Acc
         return canRead;
     }
 
+    /**
+     * Evaluates the items grouped by the node whose access control entries
+     * apply to them, i.e. the item itself for nodes and the parent node for
+     * properties. The entries of each node are collected only once, and
+     * entries with restrictions are matched against the path of each item.
+     *
+     * @see org.apache.jackrabbit.core.security.authorization.CompiledPermissions#canRead(ItemId[])
+     */
+    @Override
+    public boolean[] canRead(ItemId[] itemIds) throws RepositoryException {
+        boolean[] granted = new boolean[itemIds.length];
+        synchronized (monitor) {
+            Map<NodeId, List<Integer>> groups = new LinkedHashMap<NodeId, List<Integer>>();
+            for (int i = 0; i < itemIds.length; i++) {
+                ItemId id = itemIds[i];
+                Boolean cached = readCache.get(id);
+                if (cached != null) {
+                    granted[i] = cached;
+                } else {
+                    NodeId nodeId = (id.denotesNode()) ? (NodeId) id : ((PropertyId) id).getParentId();
+                    List<Integer> group = groups.get(nodeId);
+                    if (group == null) {
+                        group = new ArrayList<Integer>();
+                        groups.put(nodeId, group);
+                    }
+                    group.add(i);
+                }
+            }
+
+            ItemManager itemMgr = session.getItemManager();
+            for (Map.Entry<NodeId, List<Integer>> group : groups.entrySet()) {
+                List<Integer> indexes = group.getValue();
+                NodeImpl node = (NodeImpl) itemMgr.getItem(group.getKey());
+                if (indexes.size() == 1 || util.isAcItem(node)) {
+                    // nothing to share or regular evaluation required
+                    for (int i : indexes) {
+                        granted[i] = canRead(null, itemIds[i]);
+                    }
+                    continue;
+                }
+
+                Boolean subtreeRead = canReadSubtree(node);
+                if (subtreeRead != null) {
+                    for (int i : indexes) {
+                        granted[i] = subtreeRead;
+                        readCache.put(itemIds[i], subtreeRead);
+                    }
+                    continue;
+                }
+
+                List<Entry> entries = entryCollector.collectEntries(
+                        node, new EntryFilterImpl(principalNames));
+                boolean hasRestrictions = false;
+                for (Entry ace : entries) {
+                    hasRestrictions |= ace.hasRestrictions();
+                }
+                Boolean common = null;
+                for (int i : indexes) {
+                    boolean canRead;
+                    if (common != null) {
+                        canRead = common;
+                    } else {
+                        EntryFilterImpl filter = new EntryFilterImpl(principalNames, itemIds[i], session);
+                        canRead = false;
+                        for (Entry ace : entries) {
+                            if (ace.hasRestrictions() && !ace.matches(filter.getPath())) {
+                                continue;
+                            }
+                            if (ace.getPrivilegeBits().includesRead()) {
+                                canRead = ace.isAllow();
+                                break;
+                            }
+                        }
+                        if (!hasRestrictions) {
+                            // same result for all items of this node
+                            common = canRead;
+                        }
+                    }
+                    granted[i] = canRead;
+                    readCache.put(itemIds[i], canRead);
+                }
+            }
+        }
+        return granted;
+    }
+
+    /**
+     * Returns the read permission shared by the given node and all other
+     * nodes below the same access controlled node. The permission is
+     * calculated once per access controlled node, such that resolving it
+     * for any descendant only requires to find the nearest access controlled
+     * ancestor.
+     *
+     * @param node A node that doesn't define access control content.
+     * @return the read permission or <code>null</code> if entries with
+     * restrictions apply and the permission has to be evaluated separately.
+     * @throws RepositoryException If an error occurs.
+     */
+    private Boolean canReadSubtree(NodeImpl node) throws RepositoryException {
+        NodeId controlledId;
+        try {
+            controlledId = getAccessControlledNodeId(node.getNodeId());
+        } catch (ItemNotFoundException e) {
+            // not (yet) visible to the entry collector -> regular evaluation
+            return null;
+        }
+        if (subtreeReadCache.containsKey(controlledId)) {
+            return subtreeReadCache.get(controlledId);
+        }
+
+        Boolean canRead = null;
+        boolean hasRestrictions = false;
+        for (Entry ace : entryCollector.collectEntries(node, new EntryFilterImpl(principalNames))) {
+            if (ace.hasRestrictions()) {
+                // the permission depends on the path of the item
+                hasRestrictions = true;
+                break;
+            }
+            if (canRead == null && ace.getPrivilegeBits().includesRead()) {
+                canRead = ace.isAllow();
+            }
+        }
+        if (hasRestrictions) {
+            canRead = null;
+        } else if (canRead == null) {
+            canRead = Boolean.FALSE;
+        }
+        subtreeReadCache.put(controlledId, canRead);
+        return canRead;
+    }
+
+    /**
+     * Returns the id of the nearest access controlled node, starting with
+     * the node identified by the given id itself, or the root node id if none
+     * of the nodes is access controlled.
+     *
+     * @param nodeId The id of the node to start with.
+     * @return the id of the nearest access controlled node.
+     * @throws RepositoryException If an error occurs.
+     */
+    private NodeId getAccessControlledNodeId(NodeId nodeId) throws RepositoryException {
+        NodeId id = nodeId;
+        while (true) {
+            NodeImpl n = entryCollector.getNodeById(id);
+            NodeId parentId = n.getParentId();
+            if (parentId == null || ACLProvider.isAccessControlled(n)) {
+                return id;
+            }
+            id = parentId;
+        }
+    }
+
     //----------------------------------------< ACLModificationListener >---
     /**
      * @see org.apache.jackrabbit.core.security.authorization.AccessControlListener#acModified(org.apache.jackrabbit.core.security.authorization.AccessControlModifications)
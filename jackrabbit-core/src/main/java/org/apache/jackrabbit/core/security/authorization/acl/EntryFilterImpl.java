@@ -52,6 +52,18 @@ class EntryFilterImpl implements EntryFilter {
         };
     }
 
+    /**
+     * Creates a filter that only takes the principal names into account:
+     * entries with restrictions are accepted regardless of the target path,
+     * and must be matched against the path of each item afterwards.
+     *
+     * @param principalNames
+     */
+    EntryFilterImpl(Collection<String> principalNames) {
+        this.principalNames = principalNames;
+        this.pathProvider = null;
+    }
+
     EntryFilterImpl(Collection<String> principalNames, final Path absPath, final PathResolver pathResolver) {
         this.principalNames = principalNames;
         this.pathProvider = new PathProvider() {
@@ -100,9 +112,10 @@ class EntryFilterImpl implements EntryFilter {
 
     private boolean matches(Entry entry) {
         if (principalNames == null || principalNames.contains(entry.getPrincipalName())) {
-            if (!entry.hasRestrictions()) {
-                // short cut: there is no glob-restriction -> the entry matches
-                // because it is either defined on the node or inherited.
+            if (!entry.hasRestrictions() || pathProvider == null) {
+                // short cut: there is no glob-restriction (or no target path)
+                // -> the entry matches because it is either defined on the
+                // node or inherited.
                 return true;
             } else {
                 // there is a glob-restriction: check if the target path matches
@@ -55,6 +55,7 @@ import javax.jcr.security.AccessControlPolicy;
 import javax.jcr.security.Privilege;
 
 import java.security.Principal;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -561,6 +562,16 @@ public class UserAccessControlProvider extends AbstractAccessControlProvider
             return canReadAll();
         }
 
+        /**
+         * @see CompiledPermissions#canRead(ItemId[])
+         */
+        @Override
+        public boolean[] canRead(ItemId[] itemIds) throws RepositoryException {
+            boolean[] granted = new boolean[itemIds.length];
+            Arrays.fill(granted, canReadAll());
+            return granted;
+        }
+
         //--------------------------------------------------< EventListener >---
         /**
          * Event listener is only interested in changes of group-membership
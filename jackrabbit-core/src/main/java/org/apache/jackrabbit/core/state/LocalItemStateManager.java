@@ -16,6 +16,10 @@
  */
 package org.apache.jackrabbit.core.state;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 import javax.jcr.InvalidItemStateException;
 import javax.jcr.ReferentialIntegrityException;
 import javax.jcr.RepositoryException;
@@ -230,6 +234,27 @@ public class LocalItemStateManager
         return sharedStateMgr.hasNodeReferences(id);
     }
 
+    /**
+     * Prefetches the given node states, so that they can subsequently be
+     * retrieved without accessing the persistence manager one by one. This
+     * is only a hint; node states that are already cached or not available
+     * are ignored.
+     *
+     * @param ids ids of the node states
+     * @see SharedItemStateManager#prefetch(Collection)
+     */
+    public void prefetch(Collection<NodeId> ids) {
+        List<NodeId> missing = new ArrayList<NodeId>(ids.size());
+        for (NodeId id : ids) {
+            if (!cache.isCached(id)) {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            sharedStateMgr.prefetch(missing);
+        }
+    }
+
 
     //--------------------------------------------< UpdatableItemStateManager >
     /**
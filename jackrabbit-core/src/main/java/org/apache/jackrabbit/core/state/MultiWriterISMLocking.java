@@ -0,0 +1,355 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import static org.apache.jackrabbit.data.core.TransactionContext.getCurrentThreadId;
+import static org.apache.jackrabbit.data.core.TransactionContext.isSameThreadId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+
+/**
+ * Item state locking strategy that admits multiple concurrent writers as
+ * long as their change logs do not intersect.
+ * <p>
+ * Locks are tracked per node: a change log locks every node it adds,
+ * modifies or deletes, the parent node of every property it touches and the
+ * target node of every node references entry it contains. Two change logs
+ * conflict when their node sets overlap, and a read lock for an item
+ * conflicts with a change log that contains the node of that item (the node
+ * itself or the parent node of a property).
+ * <p>
+ * Change logs that add, modify or remove <code>REFERENCE</code> properties
+ * are given an exclusive write lock, because the node references entries
+ * they update are only computed after the write lock has been acquired and
+ * could otherwise be updated concurrently by another writer.
+ * <p>
+ * A downgraded write lock keeps its node set locked against other writers
+ * until it is released, but no longer blocks readers.
+ * <p>
+ * This strategy can be selected with the following workspace configuration:
+ * <pre>
+ * &lt;ISMLocking class="org.apache.jackrabbit.core.state.MultiWriterISMLocking"/&gt;
+ * </pre>
+ */
+public class MultiWriterISMLocking implements ISMLocking {
+
+    /**
+     * The currently active (not downgraded) write locks.
+     */
+    private final List<WriteLockImpl> writers = new ArrayList<WriteLockImpl>();
+
+    /**
+     * Write locks that have been downgraded, but not yet released.
+     */
+    private final List<WriteLockImpl> downgraded = new ArrayList<WriteLockImpl>();
+
+    /**
+     * Number of read locks per locked node.
+     */
+    private final Map<NodeId, Integer> readers = new HashMap<NodeId, Integer>();
+
+    /**
+     * Number of read locks acquired without an item id. Such read locks
+     * block all writers.
+     */
+    private int anonymousReaders = 0;
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized ReadLock acquireReadLock(ItemId id)
+            throws InterruptedException {
+        Object currentId = getCurrentThreadId();
+        NodeId nodeId = getNodeId(id);
+        while (isReadBlocked(nodeId, currentId)) {
+            wait();
+        }
+
+        if (nodeId == null) {
+            anonymousReaders++;
+        } else {
+            Integer count = readers.get(nodeId);
+            readers.put(nodeId, count == null ? 1 : count + 1);
+        }
+        return new ReadLockImpl(nodeId);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized WriteLock acquireWriteLock(ChangeLog changeLog)
+            throws InterruptedException {
+        Object currentId = getCurrentThreadId();
+        WriteLockImpl lock = new WriteLockImpl(currentId, getLockedNodes(changeLog));
+        while (isWriteBlocked(lock)) {
+            wait();
+        }
+
+        writers.add(lock);
+        return lock;
+    }
+
+    //----------------------------< internal >----------------------------------
+
+    /**
+     * Checks whether a read lock for the given node must wait. Readers are
+     * only blocked by active writers that lock the node. A thread that holds
+     * a write lock is never blocked: while preparing its update it reads
+     * ancestors and other nodes outside of its own change log, and waiting
+     * for another writer there could deadlock when that writer in turn reads
+     * nodes of this change log. This method must be called while holding the
+     * monitor of this instance.
+     *
+     * @param nodeId the node to read, or <code>null</code> for an anonymous
+     *               read lock
+     * @param currentId the current thread identifier
+     * @return <code>true</code> if the reader must wait
+     */
+    private boolean isReadBlocked(NodeId nodeId, Object currentId) {
+        for (WriteLockImpl writer : writers) {
+            if (isSameThreadId(writer.threadId, currentId)) {
+                // holders of a write lock can always read
+                return false;
+            }
+        }
+        for (WriteLockImpl writer : writers) {
+            if (nodeId == null || writer.locks(nodeId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks whether the given write lock must wait. A writer is blocked by
+     * read locks on any of its nodes, by anonymous read locks and by active
+     * or downgraded write locks of other threads with an overlapping node
+     * set. Write locks of the same thread never block each other. This
+     * method must be called while holding the monitor of this instance.
+     *
+     * @param lock the write lock to acquire
+     * @return <code>true</code> if the writer must wait
+     */
+    private boolean isWriteBlocked(WriteLockImpl lock) {
+        for (WriteLockImpl writer : writers) {
+            if (!isSameThreadId(writer.threadId, lock.threadId)
+                    && writer.intersects(lock)) {
+                return true;
+            }
+        }
+        for (WriteLockImpl writer : downgraded) {
+            if (!isSameThreadId(writer.threadId, lock.threadId)
+                    && writer.intersects(lock)) {
+                return true;
+            }
+        }
+        if (anonymousReaders > 0) {
+            return true;
+        }
+        if (lock.nodes == null) {
+            return !readers.isEmpty();
+        }
+        if (readers.size() < lock.nodes.size()) {
+            for (NodeId id : readers.keySet()) {
+                if (lock.nodes.contains(id)) {
+                    return true;
+                }
+            }
+        } else {
+            for (NodeId id : lock.nodes) {
+                if (readers.containsKey(id)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private synchronized void releaseReadLock(NodeId nodeId) {
+        if (nodeId == null) {
+            anonymousReaders--;
+        } else {
+            Integer count = readers.get(nodeId);
+            if (count == null) {
+                throw new IllegalStateException("No lock present for id: " + nodeId);
+            } else if (count == 1) {
+                readers.remove(nodeId);
+            } else {
+                readers.put(nodeId, count - 1);
+            }
+        }
+        notifyAll();
+    }
+
+    private synchronized void releaseWriteLock(WriteLockImpl lock, boolean downgrade) {
+        if (writers.remove(lock)) {
+            if (downgrade) {
+                downgraded.add(lock);
+            }
+        } else if (!downgrade) {
+            downgraded.remove(lock);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Returns the node that is locked for reading the given item.
+     *
+     * @param id an item id or <code>null</code>
+     * @return the node id, the parent node id of a property or
+     *         <code>null</code> if <code>id</code> is <code>null</code>
+     */
+    private static NodeId getNodeId(ItemId id) {
+        if (id == null) {
+            return null;
+        } else if (id.denotesNode()) {
+            return (NodeId) id;
+        } else {
+            return ((PropertyId) id).getParentId();
+        }
+    }
+
+    /**
+     * Returns the set of nodes touched by the given change log.
+     *
+     * @param changeLog the change log
+     * @return the locked nodes, or <code>null</code> if the change log
+     *         requires an exclusive lock
+     */
+    private static Set<NodeId> getLockedNodes(ChangeLog changeLog) {
+        Set<NodeId> nodes = new HashSet<NodeId>();
+        if (!addLockedNodes(nodes, changeLog.addedStates())
+                || !addLockedNodes(nodes, changeLog.modifiedStates())
+                || !addLockedNodes(nodes, changeLog.deletedStates())) {
+            return null;
+        }
+        for (NodeReferences refs : changeLog.modifiedRefs()) {
+            nodes.add(refs.getTargetId());
+        }
+        return nodes;
+    }
+
+    private static boolean addLockedNodes(
+            Set<NodeId> nodes, Iterable<ItemState> states) {
+        for (ItemState state : states) {
+            if (state.isNode()) {
+                nodes.add((NodeId) state.getId());
+            } else if (isReference((PropertyState) state)) {
+                return false;
+            } else {
+                nodes.add(state.getParentId());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the given property is, or was before the change, a
+     * <code>REFERENCE</code> property.
+     */
+    private static boolean isReference(PropertyState state) {
+        if (state.getType() == PropertyType.REFERENCE) {
+            return true;
+        }
+        if (state.hasOverlayedState()) {
+            ItemState overlayed = state.getOverlayedState();
+            return !overlayed.isNode()
+                    && ((PropertyState) overlayed).getType() == PropertyType.REFERENCE;
+        }
+        return false;
+    }
+
+    private final class WriteLockImpl implements WriteLock {
+
+        /**
+         * Identifier of the thread or transaction that holds this lock.
+         */
+        private final Object threadId;
+
+        /**
+         * The locked nodes, or <code>null</code> for an exclusive lock.
+         */
+        private final Set<NodeId> nodes;
+
+        WriteLockImpl(Object threadId, Set<NodeId> nodes) {
+            this.threadId = threadId;
+            this.nodes = nodes;
+        }
+
+        boolean locks(NodeId id) {
+            return nodes == null || nodes.contains(id);
+        }
+
+        boolean intersects(WriteLockImpl other) {
+            if (nodes == null || other.nodes == null) {
+                return true;
+            }
+            Set<NodeId> smaller = nodes;
+            Set<NodeId> larger = other.nodes;
+            if (smaller.size() > larger.size()) {
+                smaller = other.nodes;
+                larger = nodes;
+            }
+            for (NodeId id : smaller) {
+                if (larger.contains(id)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        public void release() {
+            releaseWriteLock(this, false);
+        }
+
+        public ReadLock downgrade() {
+            releaseWriteLock(this, true);
+            return new ReadLock() {
+                public void release() {
+                    releaseWriteLock(WriteLockImpl.this, false);
+                }
+            };
+        }
+
+    }
+
+    private final class ReadLockImpl implements ReadLock {
+
+        private final NodeId nodeId;
+
+        ReadLockImpl(NodeId nodeId) {
+            this.nodeId = nodeId;
+        }
+
+        public void release() {
+            releaseReadLock(nodeId);
+        }
+
+    }
+
+}
@@ -16,6 +16,8 @@
  */
 package org.apache.jackrabbit.core.state;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -42,6 +44,7 @@ import org.apache.jackrabbit.core.observation.EventStateCollection;
 import org.apache.jackrabbit.core.observation.EventStateCollectionFactory;
 import org.apache.jackrabbit.core.persistence.CachingPersistenceManager;
 import org.apache.jackrabbit.core.persistence.PersistenceManager;
+import org.apache.jackrabbit.core.persistence.PrefetchingPersistenceManager;
 import org.apache.jackrabbit.core.value.InternalValue;
 import org.apache.jackrabbit.core.virtual.VirtualItemStateProvider;
 import org.apache.jackrabbit.spi.Name;
@@ -179,6 +182,14 @@ public class SharedItemStateManager
      */
     private ISMLocking ismLocking;
 
+    /**
+     * Monitor used to notify listeners about one persisted change log at a
+     * time. Depending on the {@link ISMLocking} strategy in use, updates with
+     * disjoint change logs may be committed concurrently, but listeners do
+     * not expect concurrent notifications.
+     */
+    private final Object notificationMonitor = new Object();
+
     /**
      * Update event channel. By default this is a dummy channel that simply
      * ignores all events (so we don't need to check for null all the time),
@@ -331,6 +342,33 @@ public class SharedItemStateManager
         return false;
     }
 
+    /**
+     * Prefetches the given node states from the persistence manager, if it
+     * supports this (see {@link PrefetchingPersistenceManager}). Node states
+     * that are already cached are skipped. Failures are logged and otherwise
+     * ignored, as the node states are loaded again when they are accessed.
+     *
+     * @param ids ids of the node states
+     */
+    public void prefetch(Collection<NodeId> ids) {
+        if (!(persistMgr instanceof PrefetchingPersistenceManager)) {
+            return;
+        }
+        List<NodeId> missing = new ArrayList<NodeId>(ids.size());
+        for (NodeId id : ids) {
+            if (!cache.isCached(id)) {
+                missing.add(id);
+            }
+        }
+        if (!missing.isEmpty()) {
+            try {
+                ((PrefetchingPersistenceManager) persistMgr).prefetch(missing);
+            } catch (ItemStateException e) {
+                log.debug("Unable to prefetch " + missing.size() + " node states", e);
+            }
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -830,15 +868,17 @@ public class SharedItemStateManager
                 readLock = writeLock.downgrade();
                 writeLock = null;
 
-                // Let the shared item listeners know about the change
-                // JCR-2171: This must happen after downgrading the lock!
-                shared.persisted();
+                synchronized (notificationMonitor) {
+                    // Let the shared item listeners know about the change
+                    // JCR-2171: This must happen after downgrading the lock!
+                    shared.persisted();
 
-                /* notify virtual providers about node references */
-                for (int i = 0; i < virtualNodeReferences.length; i++) {
-                    ChangeLog virtualRefs = virtualNodeReferences[i];
-                    if (virtualRefs != null) {
-                        virtualProviders[i].setNodeReferences(virtualRefs);
+                    /* notify virtual providers about node references */
+                    for (int i = 0; i < virtualNodeReferences.length; i++) {
+                        ChangeLog virtualRefs = virtualNodeReferences[i];
+                        if (virtualRefs != null) {
+                            virtualProviders[i].setNodeReferences(virtualRefs);
+                        }
                     }
                 }
 
@@ -869,6 +909,13 @@ public class SharedItemStateManager
                 }
 
             }
+
+            // wait for the cluster, now that other updates may proceed
+            try {
+                eventChannel.updateFinished(this);
+            } catch (ClusterException e) {
+                throw new ItemStateException(e.getMessage(), e);
+            }
         }
 
         /**
@@ -1630,7 +1677,9 @@ public class SharedItemStateManager
                 shared.deleted(state);
             }
         }
-        shared.persisted();
+        synchronized (notificationMonitor) {
+            shared.persisted();
+        }
     }
 
     /**
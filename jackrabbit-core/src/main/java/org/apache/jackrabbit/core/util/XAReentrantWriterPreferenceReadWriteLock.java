@@ -30,6 +30,15 @@ public class XAReentrantWriterPreferenceReadWriteLock extends ReentrantWriterPre
 	
 	private Object activeWriter;
     
+    /**
+     * Returns whether there are threads waiting to acquire the write lock.
+     *
+     * @return <code>true</code> if the write lock is contended
+     */
+    public synchronized boolean hasWaitingWriters() {
+        return waitingWriters_ > 0;
+    }
+
     /**
      * {@inheritDoc}
      */
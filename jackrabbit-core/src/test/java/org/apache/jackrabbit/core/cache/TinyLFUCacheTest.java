@@ -0,0 +1,282 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+import junit.framework.TestCase;
+
+/**
+ * Test cases for the {@link TinyLFUCache} class.
+ */
+public class TinyLFUCacheTest extends TestCase {
+
+    private static final long ENTRY_SIZE = 1000;
+
+    /**
+     * Checks that excess entries are evicted and that the memory use
+     * estimate matches the cached entries.
+     */
+    public void testEviction() {
+        TinyLFUCache<NodeId, NodeId> cache = createCache(100);
+        for (int i = 0; i < 1000; i++) {
+            NodeId id = NodeId.randomId();
+            cache.put(id, id, ENTRY_SIZE);
+            assertTrue(cache.getMemoryUsed() <= 100 * ENTRY_SIZE);
+        }
+        assertEquals(cache.getElementCount() * ENTRY_SIZE, cache.getMemoryUsed());
+        assertTrue(cache.getElementCount() > 90);
+
+        cache.clear();
+        assertEquals(0, cache.getElementCount());
+        assertEquals(0, cache.getMemoryUsed());
+        assertTrue(cache.isEmpty());
+    }
+
+    /**
+     * Checks that entries which are accessed repeatedly survive a scan over
+     * many entries that are accessed only once.
+     */
+    public void testScanResistance() {
+        TinyLFUCache<NodeId, NodeId> cache = createCache(100);
+        NodeId[] hot = new NodeId[50];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = NodeId.randomId();
+            cache.put(hot[i], hot[i], ENTRY_SIZE);
+        }
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < hot.length; i++) {
+                assertNotNull(cache.get(hot[i]));
+            }
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            NodeId id = NodeId.randomId();
+            assertNull(cache.get(id));
+            cache.put(id, id, ENTRY_SIZE);
+        }
+
+        int cached = 0;
+        for (int i = 0; i < hot.length; i++) {
+            if (cache.containsKey(hot[i])) {
+                cached++;
+            }
+        }
+        assertTrue("only " + cached + " hot entries left", cached >= 45);
+    }
+
+    /**
+     * Checks that concurrent loads of the same entry invoke the loader
+     * only once.
+     */
+    public void testSingleFlightLoad() throws Exception {
+        final TinyLFUCache<NodeId, NodeId> cache = createCache(100);
+        final NodeId key = NodeId.randomId();
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final TinyLFUCache.Loader<NodeId, NodeId, InterruptedException> loader =
+            new TinyLFUCache.Loader<NodeId, NodeId, InterruptedException>() {
+                public NodeId load(NodeId id) throws InterruptedException {
+                    loads.incrementAndGet();
+                    release.await();
+                    return id;
+                }
+                public long getSize(NodeId value) {
+                    return ENTRY_SIZE;
+                }
+            };
+
+        final NodeId[] results = new NodeId[8];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[index] = cache.load(key, loader);
+                    } catch (InterruptedException e) {
+                        // leave the result empty
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        while (loads.get() == 0) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(100);
+        release.countDown();
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+            assertSame(key, results[i]);
+        }
+
+        assertEquals(1, loads.get());
+        assertSame(key, cache.get(key));
+    }
+
+    /**
+     * Checks that a failed load is not cached and can be retried.
+     */
+    public void testFailedLoad() throws Exception {
+        TinyLFUCache<NodeId, NodeId> cache = createCache(100);
+        NodeId key = NodeId.randomId();
+        try {
+            cache.load(key, new TestLoader(true));
+            fail("load should have failed");
+        } catch (IOException expected) {
+        }
+        assertFalse(cache.containsKey(key));
+        assertSame(key, cache.load(key, new TestLoader(false)));
+        assertTrue(cache.containsKey(key));
+    }
+
+    /**
+     * Checks that a value loaded while the entry was removed is not cached.
+     */
+    public void testRemoveDuringLoad() throws Exception {
+        final TinyLFUCache<NodeId, NodeId> cache = createCache(100);
+        NodeId key = NodeId.randomId();
+        NodeId loaded = cache.load(key, new TestLoader(false) {
+            public NodeId load(NodeId id) {
+                cache.remove(id);
+                return id;
+            }
+        });
+        assertSame(key, loaded);
+        assertFalse(cache.containsKey(key));
+    }
+
+    /**
+     * Checks that a bulk load caches the loaded entries, skips the cached
+     * ones and does not cache entries removed during the load.
+     */
+    public void testLoadAll() throws Exception {
+        final TinyLFUCache<NodeId, NodeId> cache = createCache(100);
+        NodeId cached = NodeId.randomId();
+        cache.put(cached, cached, ENTRY_SIZE);
+        final NodeId removed = NodeId.randomId();
+        NodeId absent = NodeId.randomId();
+        List<NodeId> keys = new ArrayList<NodeId>();
+        keys.add(cached);
+        keys.add(removed);
+        keys.add(absent);
+        for (int i = 0; i < 10; i++) {
+            keys.add(NodeId.randomId());
+        }
+
+        final List<NodeId> loaded = new ArrayList<NodeId>();
+        cache.loadAll(keys, new TestBulkLoader() {
+            public Map<NodeId, NodeId> loadAll(Collection<NodeId> ids) {
+                loaded.addAll(ids);
+                cache.remove(removed);
+                Map<NodeId, NodeId> values = new HashMap<NodeId, NodeId>();
+                for (NodeId id : ids) {
+                    values.put(id, id);
+                }
+                return values;
+            }
+        });
+        assertEquals(keys.size() - 1, loaded.size());
+        assertFalse(loaded.contains(cached));
+        assertFalse(cache.containsKey(removed));
+        for (NodeId key : keys) {
+            assertEquals(key != removed, cache.containsKey(key));
+        }
+
+        // keys without a value are not cached
+        final NodeId other = NodeId.randomId();
+        cache.loadAll(Collections.singleton(other), new TestBulkLoader() {
+            public Map<NodeId, NodeId> loadAll(Collection<NodeId> ids) {
+                return new HashMap<NodeId, NodeId>();
+            }
+        });
+        assertFalse(cache.containsKey(other));
+        assertSame(other, cache.load(other, new TestLoader(false)));
+    }
+
+    /**
+     * Checks that putIfAbsent keeps a cached entry and does not invalidate
+     * a load in progress.
+     */
+    public void testPutIfAbsent() throws Exception {
+        final TinyLFUCache<NodeId, NodeId> cache = createCache(100);
+        NodeId key = NodeId.randomId();
+        NodeId other = NodeId.randomId();
+        assertNull(cache.putIfAbsent(key, key, ENTRY_SIZE));
+        assertSame(key, cache.putIfAbsent(key, other, ENTRY_SIZE));
+        assertSame(key, cache.get(key));
+
+        final NodeId loading = NodeId.randomId();
+        cache.load(loading, new TestLoader(false) {
+            public NodeId load(NodeId id) {
+                cache.putIfAbsent(id, id, ENTRY_SIZE);
+                return id;
+            }
+        });
+        assertTrue(cache.containsKey(loading));
+    }
+
+    private static TinyLFUCache<NodeId, NodeId> createCache(int entries) {
+        TinyLFUCache<NodeId, NodeId> cache =
+            new TinyLFUCache<NodeId, NodeId>("test");
+        cache.setMaxMemorySize(entries * ENTRY_SIZE);
+        return cache;
+    }
+
+    private static class TestLoader
+            implements TinyLFUCache.Loader<NodeId, NodeId, IOException> {
+
+        private final boolean fail;
+
+        TestLoader(boolean fail) {
+            this.fail = fail;
+        }
+
+        public NodeId load(NodeId id) throws IOException {
+            if (fail) {
+                throw new IOException("test");
+            }
+            return id;
+        }
+
+        public long getSize(NodeId value) {
+            return ENTRY_SIZE;
+        }
+
+    }
+
+    private abstract static class TestBulkLoader extends TestLoader
+            implements TinyLFUCache.BulkLoader<NodeId, NodeId, IOException> {
+
+        TestBulkLoader() {
+            super(false);
+        }
+
+    }
+
+}
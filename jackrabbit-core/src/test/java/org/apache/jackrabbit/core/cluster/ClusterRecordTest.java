@@ -18,6 +18,7 @@ package org.apache.jackrabbit.core.cluster;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
 import javax.jcr.RepositoryException;
 
@@ -29,10 +30,13 @@ import org.apache.jackrabbit.core.cluster.SimpleEventListener.UnlockEvent;
 import org.apache.jackrabbit.core.cluster.SimpleEventListener.UpdateEvent;
 import org.apache.jackrabbit.core.config.ClusterConfig;
 import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.journal.AbstractRecord;
 import org.apache.jackrabbit.core.journal.Journal;
 import org.apache.jackrabbit.core.journal.JournalFactory;
 import org.apache.jackrabbit.core.journal.MemoryJournal;
 import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.spi.Name;
 import org.apache.jackrabbit.spi.PrivilegeDefinition;
 import org.apache.jackrabbit.spi.QNodeTypeDefinition;
@@ -54,6 +58,11 @@ public class ClusterRecordTest extends JUnitTest {
      */
     private static final String DEFAULT_WORKSPACE = "default";
 
+    /**
+     * Other workspace name.
+     */
+    private static final String OTHER_WORKSPACE = "other";
+
     /**
      * Default sync delay: 5 seconds.
      */
@@ -145,6 +154,124 @@ public class ClusterRecordTest extends JUnitTest {
         assertEquals(listener.getClusterEvents().get(0), update);
     }
 
+    /**
+     * Test producing updates in the compact record format, compressed and
+     * uncompressed, and consuming them.
+     */
+    public void testCompactUpdateOperation() throws Exception {
+        MemoryJournal journal = (MemoryJournal) master.getJournal();
+        journal.setRecordVersion(AbstractRecord.FORMAT_VERSION_2);
+
+        UpdateEvent update = factory.createUpdateOperation();
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        commit(channel, update);
+        journal.setCompressionThreshold(0);
+        UpdateEvent compressed = factory.createUpdateOperation();
+        commit(channel, compressed);
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.setCatchUpThreshold(0);
+        slave.sync();
+
+        assertEquals(2, listener.getClusterEvents().size());
+        assertEquals(listener.getClusterEvents().get(0), update);
+        assertEquals(listener.getClusterEvents().get(1), compressed);
+    }
+
+    /**
+     * Test consuming many updates in catch-up mode, where consecutive updates
+     * of a workspace are delivered together.
+     */
+    public void testCatchUp() throws Exception {
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        UpdateEventChannel other = master.createUpdateChannel(OTHER_WORKSPACE);
+        for (int i = 0; i < 10; i++) {
+            commit(channel, factory.createUpdateOperation());
+        }
+        for (int i = 0; i < 10; i++) {
+            commit(other, factory.createUpdateOperation());
+        }
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        SimpleEventListener otherListener = new SimpleEventListener();
+        slave.createUpdateChannel(OTHER_WORKSPACE).setListener(otherListener);
+        slave.setCatchUpThreshold(5);
+        slave.setCatchUpThreads(2);
+        slave.sync();
+
+        assertEquals(2, listener.getClusterEvents().size());
+        assertEquals(2, otherListener.getClusterEvents().size());
+        UpdateEvent update = (UpdateEvent) listener.getClusterEvents().get(0);
+        assertEquals(20, update.getEvents().size());
+        assertEquals(0, count(update.getChanges().addedStates()));
+        assertEquals(15, count(update.getChanges().modifiedStates()));
+        assertEquals(10, count(update.getChanges().deletedStates()));
+        assertEquals(master.getRevision(), slave.getRevision());
+    }
+
+    /**
+     * Test that the updates of a workspace applied in catch-up mode after an
+     * update of another workspace failed are not applied again by the next
+     * synchronization.
+     */
+    public void testCatchUpPartialFailure() throws Exception {
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        UpdateEventChannel other = master.createUpdateChannel(OTHER_WORKSPACE);
+        for (int i = 0; i < 10; i++) {
+            commit(channel, factory.createUpdateOperation());
+            commit(other, factory.createUpdateOperation());
+        }
+
+        final boolean[] fail = new boolean[] { true };
+        SimpleEventListener listener = new SimpleEventListener() {
+            @Override
+            public void externalUpdate(ChangeLog changes, List events,
+                    long timestamp, String userData) throws RepositoryException {
+                if (fail[0]) {
+                    throw new RepositoryException(new IllegalStateException("failed"));
+                }
+                super.externalUpdate(changes, events, timestamp, userData);
+            }
+        };
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        SimpleEventListener otherListener = new SimpleEventListener();
+        slave.createUpdateChannel(OTHER_WORKSPACE).setListener(otherListener);
+        slave.setCatchUpThreshold(20);
+        slave.setCatchUpThreads(2);
+        slave.sync();
+
+        assertEquals(0, listener.getClusterEvents().size());
+        assertEquals(1, otherListener.getClusterEvents().size());
+        assertTrue(slave.getRevision() < master.getRevision());
+
+        fail[0] = false;
+        slave.sync();
+
+        assertEquals(1, listener.getClusterEvents().size());
+        assertEquals(1, otherListener.getClusterEvents().size());
+        assertEquals(master.getRevision(), slave.getRevision());
+    }
+
+    /**
+     * Test consuming many updates with catch-up mode disabled.
+     */
+    public void testCatchUpDisabled() throws Exception {
+        UpdateEventChannel channel = master.createUpdateChannel(DEFAULT_WORKSPACE);
+        for (int i = 0; i < 10; i++) {
+            commit(channel, factory.createUpdateOperation());
+        }
+
+        SimpleEventListener listener = new SimpleEventListener();
+        slave.createUpdateChannel(DEFAULT_WORKSPACE).setListener(listener);
+        slave.setCatchUpThreshold(0);
+        slave.sync();
+
+        assertEquals(10, listener.getClusterEvents().size());
+        assertEquals(master.getRevision(), slave.getRevision());
+    }
+
     /**
      * Test producing and consuming a lock operation.
      * @throws Exception
@@ -305,6 +432,21 @@ public class ClusterRecordTest extends JUnitTest {
      * @param id cluster node id
      * @param records memory journal's list of records
      */
+    private static void commit(UpdateEventChannel channel, UpdateEvent update)
+            throws Exception {
+        channel.updateCreated(update);
+        channel.updatePrepared(update);
+        channel.updateCommitted(update, null);
+    }
+
+    private static int count(Iterable<ItemState> states) {
+        int count = 0;
+        for (ItemState state : states) {
+            count++;
+        }
+        return count;
+    }
+
     private ClusterNode createClusterNode(
             String id, ArrayList<MemoryRecord> records) throws Exception {
         final MemoryJournal journal = new MemoryJournal();
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.Session;
+import javax.jcr.SimpleCredentials;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.config.RepositoryConfig;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Tests concurrent saves on a cluster node whose database journal uses
+ * group commit.
+ */
+public class DbGroupCommitTest extends JUnitTest {
+
+    private static final SimpleCredentials ADMIN =
+        new SimpleCredentials("admin", "admin".toCharArray());
+
+    private static final int THREADS = 8;
+
+    private static final int SAVES = 10;
+
+    public void setUp() throws Exception {
+        deleteAll();
+        File config = new File(
+                "./src/test/resources/org/apache/jackrabbit/core/cluster/repository-h2.xml");
+        String xml = FileUtils.readFileToString(config, "UTF-8");
+        FileUtils.writeStringToFile(
+                new File("./target/dbClusterTest/node1/repository.xml"),
+                xml.replace("<param name=\"databaseType\" value=\"h2\"/>",
+                        "<param name=\"databaseType\" value=\"h2\"/>\n"
+                        + "            <param name=\"groupCommitSize\" value=\"4\"/>"),
+                "UTF-8");
+        FileUtils.copyFile(config,
+                new File("./target/dbClusterTest/node2/repository.xml"));
+    }
+
+    public void tearDown() throws Exception {
+        deleteAll();
+    }
+
+    private static void deleteAll() throws IOException {
+        FileUtils.deleteDirectory(new File("./target/dbClusterTest"));
+    }
+
+    public void testConcurrentSaves() throws Exception {
+        final RepositoryImpl rep1 = RepositoryImpl.create(RepositoryConfig.create(
+                new File("./target/dbClusterTest/node1")));
+        final RepositoryImpl rep2 = RepositoryImpl.create(RepositoryConfig.create(
+                new File("./target/dbClusterTest/node2")));
+        try {
+            Session s1 = rep1.login(ADMIN);
+            for (int i = 0; i < THREADS; i++) {
+                s1.getRootNode().addNode("test" + i);
+            }
+            s1.save();
+            s1.logout();
+
+            final List<Throwable> errors =
+                Collections.synchronizedList(new ArrayList<Throwable>());
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < THREADS; i++) {
+                final String name = "test" + i;
+                threads.add(new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            Session s = rep1.login(ADMIN);
+                            Session other = rep2.login(ADMIN);
+                            try {
+                                Node parent = s.getRootNode().getNode(name);
+                                for (int j = 0; j < SAVES; j++) {
+                                    parent.addNode("child" + j);
+                                    s.save();
+                                    // the record is committed once save returns
+                                    other.refresh(false);
+                                    if (!other.nodeExists("/" + name + "/child" + j)) {
+                                        throw new AssertionError(
+                                                "Not committed: " + name + "/child" + j);
+                                    }
+                                }
+                            } finally {
+                                other.logout();
+                                s.logout();
+                            }
+                        } catch (Throwable e) {
+                            errors.add(e);
+                        }
+                    }
+                }));
+            }
+            for (Thread t : threads) {
+                t.start();
+            }
+            for (Thread t : threads) {
+                t.join();
+            }
+            assertEquals(Collections.emptyList(), errors);
+
+            // all changes are visible on the other cluster node
+            Session s2 = rep2.login(ADMIN);
+            s2.refresh(true);
+            for (int i = 0; i < THREADS; i++) {
+                assertEquals(SAVES, s2.getRootNode().getNode("test" + i).getNodes().getSize());
+            }
+            s2.logout();
+
+            // the global revision covers all records
+            Connection con = DriverManager.getConnection(
+                    "jdbc:h2:./target/dbClusterTest/db", "sa", "sa");
+            try {
+                Statement stmt = con.createStatement();
+                ResultSet rs = stmt.executeQuery(
+                        "select max(REVISION_ID) from JOURNAL_JOURNAL");
+                assertTrue(rs.next());
+                long max = rs.getLong(1);
+                rs = stmt.executeQuery(
+                        "select REVISION_ID from JOURNAL_GLOBAL_REVISION");
+                assertTrue(rs.next());
+                assertEquals(max, rs.getLong(1));
+                stmt.close();
+            } finally {
+                con.close();
+            }
+        } finally {
+            rep1.shutdown();
+            rep2.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.cluster;
+
+import java.util.ArrayList;
+import java.util.Properties;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.jackrabbit.core.cluster.SimpleEventListener.LockEvent;
+import org.apache.jackrabbit.core.config.BeanConfig;
+import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.journal.Journal;
+import org.apache.jackrabbit.core.journal.JournalFactory;
+import org.apache.jackrabbit.core.journal.MemoryJournal;
+import org.apache.jackrabbit.core.journal.MemoryJournal.MemoryRecord;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for the notification channels.
+ */
+public class NotificationChannelTest extends JUnitTest {
+
+    /** Sync delay: 1 hour, so that only notifications trigger a sync. */
+    private static final long SYNC_DELAY = 60 * 60 * 1000;
+
+    /** Time to wait for a notification. */
+    private static final long TIMEOUT = 10000;
+
+    /** Records shared among multiple memory journals. */
+    private final ArrayList<MemoryRecord> records = new ArrayList<MemoryRecord>();
+
+    /**
+     * Verify that a cluster node synchronizes as soon as another cluster
+     * node notifies it about a new revision.
+     */
+    public void testLoopback() throws Exception {
+        Properties params = new Properties();
+        params.setProperty("name", getName());
+        BeanConfig config = new BeanConfig(
+                LoopbackNotificationChannel.class.getName(), params);
+
+        ClusterNode master = createClusterNode("master", config);
+        ClusterNode slave = createClusterNode("slave", config);
+        master.start();
+        slave.start();
+        try {
+            LockEventChannel channel = master.createLockChannel("default");
+            SimpleEventListener listener = new SimpleEventListener();
+            slave.createLockChannel("default").setListener(listener);
+
+            LockEvent event = new LockEvent(NodeId.randomId(), true, "admin");
+            channel.create(event.getNodeId(), event.isDeep(), event.getUserId()).ended(true);
+
+            long end = System.currentTimeMillis() + TIMEOUT;
+            while (slave.getRevision() != master.getRevision()
+                    && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            assertEquals(master.getRevision(), slave.getRevision());
+            assertEquals(1, listener.clusterEvents.size());
+            assertEquals(event, listener.clusterEvents.get(0));
+        } finally {
+            slave.stop();
+            master.stop();
+        }
+    }
+
+    /**
+     * Verify that datagram notifications reach the configured peers.
+     */
+    public void testDatagram() throws Exception {
+        final long[] received = new long[] {-1};
+        RevisionListener listener = new RevisionListener() {
+            public void revisionAppended(String clusterNodeId, long revision) {
+                synchronized (received) {
+                    if ("sender".equals(clusterNodeId)) {
+                        received[0] = revision;
+                    }
+                    received.notifyAll();
+                }
+            }
+        };
+        DatagramNotificationChannel receiver = new DatagramNotificationChannel();
+        receiver.start("receiver", listener);
+        DatagramNotificationChannel sender = new DatagramNotificationChannel();
+        sender.setPeers("localhost:" + receiver.getLocalPort());
+        sender.start("sender", listener);
+        try {
+            sender.notifyRevision(42);
+            synchronized (received) {
+                long end = System.currentTimeMillis() + TIMEOUT;
+                while (received[0] == -1 && System.currentTimeMillis() < end) {
+                    received.wait(100);
+                }
+            }
+            assertEquals(42, received[0]);
+        } finally {
+            sender.close();
+            receiver.close();
+        }
+    }
+
+    /**
+     * Create a cluster node, with a memory journal referencing the shared
+     * list of records.
+     *
+     * @param id cluster node id
+     * @param notification notification channel configuration
+     */
+    private ClusterNode createClusterNode(String id, BeanConfig notification)
+            throws Exception {
+        final MemoryJournal journal = new MemoryJournal();
+        JournalFactory jf = new JournalFactory() {
+            public Journal getJournal(NamespaceResolver resolver)
+                    throws RepositoryException {
+                return journal;
+            }
+        };
+        ClusterConfig cc = new ClusterConfig(id, SYNC_DELAY, 1000, jf, notification);
+        SimpleClusterContext context = new SimpleClusterContext(cc);
+
+        journal.setRepositoryHome(context.getRepositoryHome());
+        journal.init(id, context.getNamespaceResolver());
+        journal.setRecords(records);
+
+        ClusterNode clusterNode = new ClusterNode();
+        clusterNode.init(context);
+        return clusterNode;
+    }
+}
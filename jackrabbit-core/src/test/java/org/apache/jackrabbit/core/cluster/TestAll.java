@@ -41,7 +41,9 @@ public class TestAll extends TestCase {
         suite.addTestSuite(ClusterSyncTest.class);
         suite.addTestSuite(DbClusterTest.class);
         suite.addTestSuite(DbClusterTestJCR3162.class);
+        suite.addTestSuite(DbGroupCommitTest.class);
         suite.addTestSuite(FailUpdateOnJournalExceptionTest.class);
+        suite.addTestSuite(NotificationChannelTest.class);
 
         return suite;
     }
@@ -19,10 +19,13 @@ package org.apache.jackrabbit.core.config;
  import junit.framework.TestCase;
 import org.xml.sax.InputSource;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.ClosedInputStream;
 import org.apache.jackrabbit.core.cluster.ClusterNode;
+import org.apache.jackrabbit.core.cluster.LoopbackNotificationChannel;
 import org.apache.jackrabbit.core.security.authorization.WorkspaceAccessManager;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -282,6 +285,31 @@ public class RepositoryConfigTest extends TestCase {
         }
     }
 
+    public void testNotificationConfig() throws Exception {
+        assertNotNull(ConfigurationEntityResolver.INSTANCE.resolveEntity(
+                "-//The Apache Software Foundation//DTD Jackrabbit 2.24//EN", null));
+        assertNotNull(ConfigurationEntityResolver.INSTANCE.resolveEntity(
+                null, "http://jackrabbit.apache.org/dtd/repository-2.24-elements.dtd"));
+
+        System.setProperty("cluster.syncDelay", "10");
+        try {
+            InputStream in = getClass().getResourceAsStream(
+                    "/org/apache/jackrabbit/core/cluster/repository.xml");
+            String xml = IOUtils.toString(in, "UTF-8")
+                    .replace("DTD Jackrabbit 1.6//EN", "DTD Jackrabbit 2.24//EN")
+                    .replace("repository-1.6.dtd", "repository-2.24.dtd")
+                    .replace("</Journal>", "</Journal>\n        <Notification class=\""
+                            + LoopbackNotificationChannel.class.getName() + "\"/>");
+            RepositoryConfig config = RepositoryConfig.create(
+                    new ByteArrayInputStream(xml.getBytes("UTF-8")), DIR.getPath());
+
+            assertTrue(config.getClusterConfig().getNotificationChannel()
+                    instanceof LoopbackNotificationChannel);
+        } finally {
+            System.clearProperty("cluster.syncDelay");
+        }
+    }
+
     /**
      * Test that a RepositoryConfig can be copied into a new instance.
      *
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.ObjectName;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.jackrabbit.core.cluster.SimpleClusterContext;
+import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.util.db.ConnectionFactory;
+import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
+import org.apache.jackrabbit.test.JUnitTest;
+
+/**
+ * Test cases for the revision table janitor and the statistics of the
+ * database journal.
+ */
+public class DatabaseJournalTest extends JUnitTest {
+
+    /**
+     * Test directory.
+     */
+    private static final File DIRECTORY = new File("target/databaseJournalTest");
+
+    private ConnectionFactory connectionFactory;
+
+    protected void setUp() throws Exception {
+        FileUtils.deleteDirectory(DIRECTORY);
+        connectionFactory = new ConnectionFactory();
+        super.setUp();
+    }
+
+    protected void tearDown() throws Exception {
+        connectionFactory.close();
+        FileUtils.deleteDirectory(DIRECTORY);
+        super.tearDown();
+    }
+
+    /**
+     * Verify that the janitor deletes the revisions consumed by all cluster
+     * nodes in batches, and that the statistics reflect this.
+     *
+     * @throws Exception
+     */
+    public void testCleanUpInBatches() throws Exception {
+        DatabaseJournal journal = createJournal("node1");
+        DatabaseJournal other = createJournal("node2");
+        try {
+            RecordProducer producer = journal.getProducer("test");
+            for (int i = 0; i < 10; i++) {
+                Record record = producer.append();
+                record.writeString("record" + i);
+                record.update();
+            }
+            journal.getInstanceRevision().set(10);
+            other.getInstanceRevision().set(7);
+
+            journal.new RevisionTableJanitor().cleanUpOldRevisions();
+
+            DatabaseJournalStatsMXBean stats = journal.getStatistics();
+            assertEquals(6, stats.getCleanedRevisions());
+            assertEquals(1, stats.getCleanUpRuns());
+            assertEquals(10, stats.getGlobalRevision());
+            assertEquals(7, stats.getOldestRevision());
+            assertEquals(4, stats.getJournalSize());
+            Map<String, Long> lag = stats.getLocalRevisionLag();
+            assertEquals(Long.valueOf(0), lag.get("node1"));
+            assertEquals(Long.valueOf(3), lag.get("node2"));
+
+            // records not consumed by all nodes are still available
+            RecordIterator iterator = other.getRecords(7);
+            try {
+                for (int i = 7; i < 10; i++) {
+                    assertEquals("record" + i, iterator.nextRecord().readString());
+                }
+                assertFalse(iterator.hasNext());
+            } finally {
+                iterator.close();
+            }
+
+            // the statistics are registered as MBean
+            ObjectName name = new ObjectName(
+                    "org.apache.jackrabbit:type=DatabaseJournal,id=\"node1\"");
+            assertEquals(Long.valueOf(4), ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(name, "JournalSize"));
+        } finally {
+            journal.close();
+            other.close();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                new ObjectName("org.apache.jackrabbit:type=DatabaseJournal,id=\"node1\"")));
+    }
+
+    private DatabaseJournal createJournal(String id) throws Exception {
+        DatabaseJournal journal = new DatabaseJournal();
+        journal.setConnectionFactory(connectionFactory);
+        journal.setDriver("org.h2.Driver");
+        journal.setUrl("jdbc:h2:./" + DIRECTORY.getPath() + "/db");
+        journal.setDatabaseType("h2");
+        journal.setUser("sa");
+        journal.setPassword("sa");
+        journal.setJanitorBatchSize(4);
+
+        File home = new File(DIRECTORY, id);
+        home.mkdirs();
+        journal.setRepositoryHome(home);
+        ClusterConfig cc = new ClusterConfig(id, 5000, null);
+        NamespaceResolver resolver =
+            new SimpleClusterContext(cc, home).getNamespaceResolver();
+        journal.init(id, resolver);
+        return journal;
+    }
+}
@@ -24,6 +24,11 @@ import org.apache.commons.io.FileUtils;
 import org.apache.jackrabbit.core.cluster.ClusterNode;
 import org.apache.jackrabbit.core.cluster.SimpleClusterContext;
 import org.apache.jackrabbit.core.config.ClusterConfig;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
 import org.apache.jackrabbit.spi.commons.namespace.NamespaceResolver;
 import org.apache.jackrabbit.test.JUnitTest;
 
@@ -173,4 +178,131 @@ public class FileJournalTest extends JUnitTest {
 
         clusterNode.stop();
     }
+
+    /**
+     * Append records in both formats, compressed and uncompressed, to the
+     * same journal file. Verify that all of them are read back in order.
+     *
+     * @throws Exception
+     */
+    public void testRecordVersions() throws Exception {
+        FileJournal journal = new FileJournal();
+        journal.setDirectory(journalDirectory.getPath());
+        journal.setRepositoryHome(repositoryHome);
+        journal.setCompressionThreshold(200);
+        ClusterConfig cc = new ClusterConfig(CLUSTER_NODE_ID, SYNC_DELAY, null);
+        SimpleClusterContext context = new SimpleClusterContext(cc, repositoryHome);
+        journal.init(CLUSTER_NODE_ID, context.getNamespaceResolver());
+
+        int[] versions = {
+                AbstractRecord.FORMAT_VERSION_1, AbstractRecord.FORMAT_VERSION_2,
+                AbstractRecord.FORMAT_VERSION_2, AbstractRecord.FORMAT_VERSION_1 };
+        int[] counts = { 1, 1, 100, 100 };
+        NodeId nodeId = NodeId.randomId();
+        Path path = PathFactoryImpl.getInstance().create(
+                PathFactoryImpl.getInstance().getRootPath(), NameConstants.JCR_CONTENT, true);
+        try {
+            RecordProducer producer = journal.getProducer("test");
+            File log = new File(journalDirectory, "journal.log");
+            long[] sizes = new long[versions.length];
+            for (int i = 0; i < versions.length; i++) {
+                journal.setRecordVersion(versions[i]);
+                Record record = producer.append();
+                record.writeString("record" + i);
+                for (int j = 0; j < counts[i]; j++) {
+                    record.writeChar('N');
+                    record.writeInt(j - 1);
+                    record.writeLong(System.currentTimeMillis());
+                    record.writeNodeId(nodeId);
+                    record.writeQName(NameConstants.JCR_PRIMARYTYPE);
+                    record.writePath(path);
+                    record.writeString(j % 2 == 0 ? null : "value" + j);
+                }
+                record.writeChar('\0');
+                record.update();
+                sizes[i] = log.length();
+            }
+            // the compressed record is much smaller
+            assertTrue(sizes[2] - sizes[1] < (sizes[3] - sizes[2]) / 4);
+
+            RecordIterator iterator = journal.getRecords(0);
+            try {
+                for (int i = 0; i < versions.length; i++) {
+                    assertTrue(iterator.hasNext());
+                    Record record = iterator.nextRecord();
+                    assertEquals("record" + i, record.readString());
+                    for (int j = 0; j < counts[i]; j++) {
+                        assertEquals('N', record.readChar());
+                        assertEquals(j - 1, record.readInt());
+                        assertTrue(record.readLong() > 0);
+                        assertEquals(nodeId, record.readNodeId());
+                        Name name = record.readQName();
+                        assertEquals(NameConstants.JCR_PRIMARYTYPE, name);
+                        assertEquals(path, record.readPath());
+                        assertEquals(j % 2 == 0 ? null : "value" + j, record.readString());
+                    }
+                    assertEquals('\0', record.readChar());
+                }
+                assertFalse(iterator.hasNext());
+            } finally {
+                iterator.close();
+            }
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Append records and verify that the revision index and the limited
+     * record iterator find them, also after reopening the journal.
+     *
+     * @throws Exception
+     */
+    public void testRevisionIndex() throws Exception {
+        FileJournal journal = createJournal();
+        long[] revisions = new long[5];
+        try {
+            assertNull(journal.getRevisionIndex().getRevision(System.currentTimeMillis()));
+            RecordProducer producer = journal.getProducer("test");
+            for (int i = 0; i < revisions.length; i++) {
+                Record record = producer.append();
+                record.writeString("record" + i);
+                record.update();
+                revisions[i] = record.getRevision();
+            }
+            long last = revisions[revisions.length - 1];
+            assertEquals(Long.valueOf(last), journal.getRevisionIndex().getRevision(
+                    System.currentTimeMillis() + 1));
+
+            RecordIterator iterator = journal.getRecords(revisions[1], 2);
+            try {
+                assertEquals("record2", iterator.nextRecord().readString());
+                assertEquals("record3", iterator.nextRecord().readString());
+                assertFalse(iterator.hasNext());
+            } finally {
+                iterator.close();
+            }
+        } finally {
+            journal.close();
+        }
+
+        // the index is seeded from the journal files
+        journal = createJournal();
+        try {
+            assertEquals(Long.valueOf(revisions[revisions.length - 1]),
+                    journal.getRevisionIndex().getRevision(System.currentTimeMillis() + 1));
+        } finally {
+            journal.close();
+        }
+    }
+
+    private FileJournal createJournal() throws Exception {
+        FileJournal journal = new FileJournal();
+        journal.setDirectory(journalDirectory.getPath());
+        journal.setRepositoryHome(repositoryHome);
+        ClusterConfig cc = new ClusterConfig(CLUSTER_NODE_ID, SYNC_DELAY, null);
+        SimpleClusterContext context = new SimpleClusterContext(cc, repositoryHome);
+        journal.init(CLUSTER_NODE_ID, context.getNamespaceResolver());
+        return journal;
+    }
 }
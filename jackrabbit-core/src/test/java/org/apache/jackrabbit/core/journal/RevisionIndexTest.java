@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.journal;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests the {@link RevisionIndex}.
+ */
+public class RevisionIndexTest extends TestCase {
+
+    public void testGetRevision() {
+        RevisionIndex index = new RevisionIndex();
+        assertNull(index.getRevision(Long.MAX_VALUE));
+        index.put(1000, 10);
+        index.put(3000, 30);
+        index.put(5000, 50);
+        assertNull(index.getRevision(1000));
+        assertEquals(Long.valueOf(10), index.getRevision(1001));
+        assertEquals(Long.valueOf(10), index.getRevision(3000));
+        assertEquals(Long.valueOf(30), index.getRevision(4000));
+        assertEquals(Long.valueOf(50), index.getRevision(Long.MAX_VALUE));
+    }
+
+    public void testSuperseded() {
+        RevisionIndex index = new RevisionIndex();
+        index.put(3000, 30);
+        // covered by an earlier entry
+        index.put(4000, 20);
+        assertEquals(1, index.size());
+        // supersedes the later entry
+        index.put(2000, 40);
+        assertEquals(1, index.size());
+        assertEquals(Long.valueOf(40), index.getRevision(2001));
+    }
+
+    public void testResolution() {
+        RevisionIndex index = new RevisionIndex();
+        for (int i = 0; i < 100; i++) {
+            index.put(i * 100, i);
+        }
+        // about one entry per second
+        assertTrue(index.size() <= 100 * 100 / RevisionIndex.RESOLUTION + 2);
+        // the most recent entry is always kept
+        assertEquals(Long.valueOf(99), index.getRevision(Long.MAX_VALUE));
+        assertEquals(Long.valueOf(0), index.getRevision(1));
+    }
+
+    public void testMaxEntries() {
+        RevisionIndex index = new RevisionIndex();
+        int count = RevisionIndex.MAX_ENTRIES * 3;
+        for (int i = 0; i < count; i++) {
+            index.put(i * RevisionIndex.RESOLUTION, i);
+        }
+        assertTrue(index.size() <= RevisionIndex.MAX_ENTRIES);
+        // coarser, but still correct
+        long timestamp = count / 2 * RevisionIndex.RESOLUTION;
+        Long revision = index.getRevision(timestamp);
+        assertNotNull(revision);
+        assertTrue(revision < count / 2);
+        assertTrue(revision > count / 2 - 10);
+    }
+
+}
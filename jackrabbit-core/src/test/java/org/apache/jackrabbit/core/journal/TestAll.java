@@ -39,6 +39,8 @@ public class TestAll extends TestCase {
 
         suite.addTestSuite(FileJournalTest.class);
         suite.addTestSuite(LockableFileRevisionTest.class);
+        suite.addTestSuite(DatabaseJournalTest.class);
+        suite.addTestSuite(RevisionIndexTest.class);
 
         return suite;
     }
@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.apache.jackrabbit.api.stats.RepositoryStatistics;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.stats.RepositoryStatisticsImpl;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * Tests event delivery of an {@link ObservationDispatcher} that uses
+ * multiple notification threads.
+ */
+public class ConcurrentDispatchTest extends AbstractJCRTest {
+
+    private static final int COLLECTIONS = 10;
+
+    private RepositoryStatisticsImpl statistics;
+
+    private ObservationDispatcher dispatcher;
+
+    private ObservationManagerImpl obsMgr;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        statistics = new RepositoryStatisticsImpl();
+        dispatcher = new ObservationDispatcher(2, 5, statistics);
+        obsMgr = new ObservationManagerImpl(
+                dispatcher, (SessionImpl) superuser, null);
+    }
+
+    protected void tearDown() throws Exception {
+        dispatcher.dispose();
+        dispatcher = null;
+        obsMgr = null;
+        statistics = null;
+        super.tearDown();
+    }
+
+    public void testSlowListener() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingListener slow = new RecordingListener(release);
+        RecordingListener fast = new RecordingListener(null);
+        obsMgr.addEventListener(slow, Event.PERSIST, "/", true, null, null, false);
+        obsMgr.addEventListener(fast, Event.PERSIST, "/", true, null, null, false);
+
+        List<Integer> expected = new ArrayList<Integer>();
+        int total = 0;
+        for (int i = 1; i <= COLLECTIONS; i++) {
+            EventStateCollection events = new EventStateCollection(
+                    dispatcher, (SessionImpl) superuser, null);
+            for (int j = 0; j < i; j++) {
+                events.addAll(Collections.singletonList(
+                        EventState.persist(superuser, false)));
+            }
+            events.dispatch();
+            expected.add(i);
+            total += i;
+        }
+
+        // the fast listener gets all events while the slow one is blocked
+        fast.await(COLLECTIONS);
+        assertEquals(expected, fast.getSizes());
+        assertTrue(dispatcher.isEventQueueOverloaded());
+
+        release.countDown();
+        slow.await(COLLECTIONS);
+        assertEquals(expected, slow.getSizes());
+
+        dispatcher.dispose();
+        assertFalse(dispatcher.isEventQueueOverloaded());
+        assertEquals(2 * total, statistics.getCounter(
+                RepositoryStatistics.Type.OBSERVATION_EVENT_COUNTER).get());
+    }
+
+    public void testRemoveListener() throws Exception {
+        RecordingListener listener = new RecordingListener(null);
+        obsMgr.addEventListener(listener, Event.PERSIST, "/", true, null, null, false);
+        EventStateCollection events = new EventStateCollection(
+                dispatcher, (SessionImpl) superuser, null);
+        events.addAll(Collections.singletonList(
+                EventState.persist(superuser, false)));
+        events.dispatch();
+        listener.await(1);
+        obsMgr.removeEventListener(listener);
+
+        events = new EventStateCollection(
+                dispatcher, (SessionImpl) superuser, null);
+        events.addAll(Collections.singletonList(
+                EventState.persist(superuser, false)));
+        events.dispatch();
+        dispatcher.dispose();
+        assertEquals(Collections.singletonList(1), listener.getSizes());
+    }
+
+    /**
+     * Records the number of events of each delivery, optionally waiting
+     * for a latch first.
+     */
+    private static class RecordingListener implements EventListener {
+
+        private final CountDownLatch latch;
+
+        private final List<Integer> sizes = new ArrayList<Integer>();
+
+        RecordingListener(CountDownLatch latch) {
+            this.latch = latch;
+        }
+
+        public void onEvent(EventIterator events) {
+            try {
+                if (latch != null) {
+                    latch.await();
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            int size = 0;
+            while (events.hasNext()) {
+                events.nextEvent();
+                size++;
+            }
+            synchronized (this) {
+                sizes.add(size);
+                notifyAll();
+            }
+        }
+
+        synchronized List<Integer> getSizes() {
+            return new ArrayList<Integer>(sizes);
+        }
+
+        synchronized void await(int deliveries) throws InterruptedException {
+            long end = System.currentTimeMillis() + 10000;
+            while (sizes.size() < deliveries) {
+                long wait = end - System.currentTimeMillis();
+                assertTrue("timeout waiting for events", wait > 0);
+                wait(wait);
+            }
+        }
+
+    }
+
+}
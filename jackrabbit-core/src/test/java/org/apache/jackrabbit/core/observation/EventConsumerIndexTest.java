@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.observation;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.Path;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+import org.apache.jackrabbit.spi.commons.name.PathFactoryImpl;
+import org.apache.jackrabbit.test.AbstractJCRTest;
+
+/**
+ * Tests the routing of events by {@link EventConsumerIndex}.
+ */
+public class EventConsumerIndexTest extends AbstractJCRTest {
+
+    private static final Set<Name> NO_MIXINS = Collections.emptySet();
+
+    private SessionImpl session;
+
+    private ObservationManagerImpl obsMgr;
+
+    private EventConsumer deepA;
+
+    private EventConsumer exactAB;
+
+    private EventConsumer removedA;
+
+    private EventConsumer persist;
+
+    private EventConsumer blockAll;
+
+    private EventConsumerIndex index;
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        session = (SessionImpl) superuser;
+        obsMgr = (ObservationManagerImpl) session.getWorkspace().getObservationManager();
+        deepA = consumer(Event.NODE_ADDED, "/a", true);
+        exactAB = consumer(Event.NODE_ADDED | Event.PROPERTY_ADDED, "/a/b", false);
+        removedA = consumer(Event.NODE_REMOVED, "/a", true);
+        persist = consumer(Event.PERSIST, "/x", false);
+        blockAll = new EventConsumer(session, new NoopListener(), EventFilter.BLOCK_ALL);
+        index = new EventConsumerIndex(Arrays.asList(
+                deepA, exactAB, removedA, persist, blockAll));
+    }
+
+    protected void tearDown() throws Exception {
+        session = null;
+        obsMgr = null;
+        deepA = null;
+        exactAB = null;
+        removedA = null;
+        persist = null;
+        blockAll = null;
+        index = null;
+        super.tearDown();
+    }
+
+    public void testPaths() throws Exception {
+        assertRouted(nodeAdded("/a/b"), deepA, exactAB);
+        assertRouted(nodeAdded("/a/b/c"), deepA);
+        assertRouted(nodeAdded("/a"), deepA);
+        assertRouted(nodeAdded("/"));
+        assertRouted(nodeAdded("/other/a"));
+    }
+
+    public void testEventTypes() throws Exception {
+        assertRouted(propertyAdded("/a/b"), exactAB);
+        assertRouted(propertyAdded("/a/b/c"));
+        assertRouted(EventState.persist(session, false), persist);
+    }
+
+    public void testMultipleEvents() throws Exception {
+        EventStateCollection events = new EventStateCollection(null, session, null);
+        events.addAll(Arrays.asList(
+                nodeAdded("/a/b"), propertyAdded("/other"),
+                EventState.persist(session, false)));
+        assertEquals(set(deepA, exactAB, persist), index.getConsumers(events));
+        assertEquals(Collections.<EventConsumer>emptySet(),
+                new EventConsumerIndex(Collections.<EventConsumer>emptySet()).getConsumers(events));
+    }
+
+    private void assertRouted(EventState state, EventConsumer... expected)
+            throws RepositoryException {
+        EventStateCollection events = new EventStateCollection(null, session, null);
+        events.addAll(Collections.singletonList(state));
+        assertEquals(set(expected), index.getConsumers(events));
+        // the index agrees with the filters
+        for (EventConsumer c : Arrays.asList(deepA, exactAB, removedA, persist, blockAll)) {
+            assertEquals(set(expected).contains(c), !c.getEventFilter().blocks(state));
+        }
+    }
+
+    private EventConsumer consumer(int types, String path, boolean deep)
+            throws RepositoryException {
+        EventFilter filter = obsMgr.createEventFilter(
+                types, Collections.singletonList(path), deep,
+                null, null, false, false, false);
+        return new EventConsumer(session, new NoopListener(), filter);
+    }
+
+    private EventState nodeAdded(String parent) throws RepositoryException {
+        return EventState.childNodeAdded(NodeId.randomId(), session.getQPath(parent),
+                NodeId.randomId(), child("c"), NameConstants.NT_UNSTRUCTURED,
+                NO_MIXINS, session);
+    }
+
+    private EventState propertyAdded(String parent) throws RepositoryException {
+        return EventState.propertyAdded(NodeId.randomId(), session.getQPath(parent),
+                child("p"), NameConstants.NT_UNSTRUCTURED, NO_MIXINS, session);
+    }
+
+    private static Path child(String name) {
+        return PathFactoryImpl.getInstance().create(
+                NameFactoryImpl.getInstance().create("", name));
+    }
+
+    private static Set<EventConsumer> set(EventConsumer... consumers) {
+        return new HashSet<EventConsumer>(Arrays.asList(consumers));
+    }
+
+    private static class NoopListener implements EventListener {
+        public void onEvent(EventIterator events) {
+        }
+    }
+
+}
@@ -17,7 +17,12 @@
 package org.apache.jackrabbit.core.persistence;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.jcr.PropertyType;
 
@@ -32,8 +37,11 @@ import org.apache.jackrabbit.core.id.PropertyId;
 import org.apache.jackrabbit.core.persistence.mem.InMemBundlePersistenceManager;
 import org.apache.jackrabbit.core.persistence.mem.InMemPersistenceManager;
 import org.apache.jackrabbit.core.persistence.obj.ObjectPersistenceManager;
+import org.apache.jackrabbit.core.persistence.util.NodeInfo;
 import org.apache.jackrabbit.core.persistence.xml.XMLPersistenceManager;
+import org.apache.jackrabbit.api.stats.RepositoryStatistics;
 import org.apache.jackrabbit.core.state.ChangeLog;
+import org.apache.jackrabbit.core.state.ChildNodeEntry;
 import org.apache.jackrabbit.core.state.ItemState;
 import org.apache.jackrabbit.core.state.NoSuchItemStateException;
 import org.apache.jackrabbit.core.state.NodeReferences;
@@ -61,6 +69,8 @@ public class PersistenceManagerTest extends TestCase {
 
     private File database;
 
+    private RepositoryStatisticsImpl statistics;
+
     protected void setUp() throws Exception {
         directory = File.createTempFile("jackrabbit-persistence-", "-test");
         directory.delete();
@@ -109,6 +119,19 @@ public class PersistenceManagerTest extends TestCase {
         assertPersistenceManager(manager);
     }
 
+    public void testDerbyPoolPersistenceManagerWithOffHeapBundleCache()
+            throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager();
+        manager.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        manager.setUrl("jdbc:derby:" + database.getPath() + ";create=true");
+        manager.setConnectionFactory(new ConnectionFactory());
+        // serve all bundle cache misses from the off-heap bundle cache
+        manager.setBundleCacheSize("0");
+        manager.setOffHeapBundleCacheSize("1");
+        assertPersistenceManager(manager);
+    }
+
     public void testH2PoolPersistenceManager() throws Exception {
         org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
             new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager();
@@ -118,8 +141,103 @@ public class PersistenceManagerTest extends TestCase {
         assertPersistenceManager(manager);
     }
 
-    private void assertPersistenceManager(PersistenceManager manager)
+    /**
+     * Checks that bundle and reference reads of a pool persistence manager
+     * can run concurrently with each other and with writes.
+     */
+    public void testDerbyPoolPersistenceManagerConcurrentReads()
             throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager();
+        manager.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        manager.setUrl("jdbc:derby:" + database.getPath() + ";create=true");
+        manager.setConnectionFactory(new ConnectionFactory());
+        // bypass the bundle cache so that all reads go to the database
+        manager.setBundleCacheSize("0");
+        init(manager);
+        try {
+            assertConcurrentReads(manager);
+        } finally {
+            manager.close();
+        }
+    }
+
+    /**
+     * Checks that a pool persistence manager with long long keys loads
+     * prefetched bundles in batches.
+     */
+    public void testDerbyPoolPersistenceManagerPrefetch() throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager();
+        manager.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        manager.setUrl("jdbc:derby:" + database.getPath() + ";create=true");
+        manager.setConnectionFactory(new ConnectionFactory());
+        init(manager);
+        try {
+            assertPrefetch(manager);
+        } finally {
+            manager.close();
+        }
+    }
+
+    /**
+     * Checks that a pool persistence manager with binary keys loads
+     * prefetched bundles in batches.
+     */
+    public void testH2PoolPersistenceManagerPrefetch() throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager();
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:mem:" + database.getPath());
+        manager.setConnectionFactory(new ConnectionFactory());
+        init(manager);
+        try {
+            assertPrefetch(manager);
+        } finally {
+            manager.close();
+        }
+    }
+
+    /**
+     * Checks that a pool persistence manager with longlong keys stores the
+     * child node entries of large child node lists in separate pages.
+     */
+    public void testDerbyPoolPersistenceManagerChildNodePages() throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.DerbyPersistenceManager();
+        manager.setDriver("org.apache.derby.jdbc.EmbeddedDriver");
+        manager.setUrl("jdbc:derby:" + database.getPath() + ";create=true");
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setChildNodePageSize("10");
+        init(manager);
+        try {
+            assertChildNodePages(manager);
+        } finally {
+            manager.close();
+        }
+    }
+
+    /**
+     * Checks that a pool persistence manager with binary keys stores the
+     * child node entries of large child node lists in separate pages.
+     */
+    public void testH2PoolPersistenceManagerChildNodePages() throws Exception {
+        org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager manager =
+            new org.apache.jackrabbit.core.persistence.pool.H2PersistenceManager();
+        manager.setDriver("org.h2.Driver");
+        manager.setUrl("jdbc:h2:mem:" + database.getPath());
+        manager.setConnectionFactory(new ConnectionFactory());
+        manager.setChildNodePageSize("10");
+        init(manager);
+        try {
+            assertChildNodePages(manager);
+        } finally {
+            manager.close();
+        }
+    }
+
+    private void init(PersistenceManager manager) throws Exception {
+        statistics = new RepositoryStatisticsImpl();
         manager.init(new PMContext(
                 directory,
                 new MemoryFileSystem(),
@@ -127,7 +245,12 @@ public class PersistenceManagerTest extends TestCase {
                 new NamespaceRegistryImpl(new MemoryFileSystem()),
                 null,
                 null,
-                new RepositoryStatisticsImpl()));
+                statistics));
+    }
+
+    private void assertPersistenceManager(PersistenceManager manager)
+            throws Exception {
+        init(manager);
         try {
             assertCreateNewNode(manager);
             assertCreateNewProperty(manager);
@@ -258,6 +381,163 @@ public class PersistenceManagerTest extends TestCase {
         assertFalse(manager.existsReferencesTo(CHILD_ID));
     }
 
+    private void assertConcurrentReads(final PersistenceManager manager)
+            throws Exception {
+        final NodeState node = new NodeState(
+                NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
+                ItemState.STATUS_NEW, true);
+        node.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+        final NodeReferences references = new NodeReferences(NODE_ID);
+        references.addReference(PROPERTY_ID);
+        ChangeLog create = new ChangeLog();
+        create.added(node);
+        create.modified(references);
+        manager.store(create);
+        node.setStatus(ItemState.STATUS_EXISTING);
+
+        final List<Throwable> errors =
+            Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] readers = new Thread[8];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            assertEquals(NODE_ID, manager.load(NODE_ID).getId());
+                            assertTrue(manager.existsReferencesTo(NODE_ID));
+                            assertEquals(references, manager.loadReferencesTo(NODE_ID));
+                            assertFalse(manager.exists(CHILD_ID));
+                        }
+                    } catch (Throwable t) {
+                        errors.add(t);
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (int i = 0; i < 20; i++) {
+            ChangeLog update = new ChangeLog();
+            update.modified(node);
+            manager.store(update);
+        }
+        for (int i = 0; i < readers.length; i++) {
+            readers[i].join();
+        }
+        if (!errors.isEmpty()) {
+            throw new AssertionError(errors.get(0));
+        }
+    }
+
+    private void assertPrefetch(PersistenceManager manager) throws Exception {
+        NodeState node = new NodeState(
+                NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
+                ItemState.STATUS_NEW, true);
+        node.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+        ChangeLog create = new ChangeLog();
+        create.added(node);
+        List<NodeState> children = new ArrayList<NodeState>();
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 250; i++) {
+            NodeState child = new NodeState(
+                    NodeId.randomId(), TEST, NODE_ID, ItemState.STATUS_NEW, true);
+            child.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+            node.addChildNodeEntry(TEST, child.getNodeId());
+            create.added(child);
+            children.add(child);
+            ids.add(child.getNodeId());
+        }
+        manager.store(create);
+        NodeId missing = NodeId.randomId();
+        ids.add(missing);
+
+        // new bundles are not cached when they are stored
+        AtomicLong reads = statistics.getCounter(
+                RepositoryStatistics.Type.BUNDLE_CACHE_MISS_COUNTER);
+        long before = reads.get();
+        ((PrefetchingPersistenceManager) manager).prefetch(ids);
+        assertEquals(before + ids.size(), reads.get());
+
+        for (NodeState child : children) {
+            assertEquals(child, manager.load(child.getNodeId()));
+        }
+        assertFalse(manager.exists(missing));
+        assertEquals(before + ids.size(), reads.get());
+    }
+
+    private void assertChildNodePages(IterablePersistenceManager manager)
+            throws Exception {
+        NodeState node = new NodeState(
+                NODE_ID, TEST, RepositoryImpl.ROOT_NODE_ID,
+                ItemState.STATUS_NEW, true);
+        node.addPropertyName(NameConstants.JCR_PRIMARYTYPE);
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 55; i++) {
+            ids.add(NodeId.randomId());
+            node.addChildNodeEntry(TEST, ids.get(i));
+        }
+        ChangeLog create = new ChangeLog();
+        create.added(node);
+        manager.store(create);
+        node.setStatus(ItemState.STATUS_EXISTING);
+        assertEquals(node, manager.load(NODE_ID));
+        assertStoredChildren(manager, ids);
+
+        // append some entries
+        for (int i = 0; i < 3; i++) {
+            ids.add(NodeId.randomId());
+            node.addChildNodeEntry(TEST, ids.get(ids.size() - 1));
+        }
+        assertStoredChildren(manager, ids, node);
+
+        // remove a range in the middle
+        for (NodeId id : new ArrayList<NodeId>(ids.subList(12, 32))) {
+            node.removeChildNodeEntry(id);
+            ids.remove(id);
+        }
+        assertStoredChildren(manager, ids, node);
+
+        // move an entry to the front
+        NodeId last = ids.remove(ids.size() - 1);
+        ids.add(0, last);
+        List<ChildNodeEntry> entries =
+            new ArrayList<ChildNodeEntry>(node.getChildNodeEntries());
+        entries.add(0, entries.remove(entries.size() - 1));
+        node.setChildNodeEntries(entries);
+        assertStoredChildren(manager, ids, node);
+
+        // shrink back to a single bundle
+        for (NodeId id : new ArrayList<NodeId>(ids.subList(2, ids.size()))) {
+            node.removeChildNodeEntry(id);
+            ids.remove(id);
+        }
+        assertStoredChildren(manager, ids, node);
+
+        ChangeLog delete = new ChangeLog();
+        delete.deleted(node);
+        manager.store(delete);
+        assertFalse(manager.exists(NODE_ID));
+        assertTrue(manager.getAllNodeInfos(null, 0).isEmpty());
+    }
+
+    private void assertStoredChildren(
+            IterablePersistenceManager manager, List<NodeId> ids,
+            NodeState node) throws Exception {
+        ChangeLog update = new ChangeLog();
+        update.modified(node);
+        manager.store(update);
+        assertEquals(node, manager.load(NODE_ID));
+        assertStoredChildren(manager, ids);
+    }
+
+    private void assertStoredChildren(
+            IterablePersistenceManager manager, List<NodeId> ids)
+            throws Exception {
+        // node infos are always read from the database
+        Map<NodeId, NodeInfo> infos = manager.getAllNodeInfos(null, 0);
+        assertEquals(1, infos.size());
+        assertEquals(ids, infos.get(NODE_ID).getChildren());
+    }
+
     private void assertEquals(NodeState expected, NodeState actual) {
         assertEquals(expected.getId(), actual.getId());
         assertEquals(expected.getNodeId(), actual.getNodeId());
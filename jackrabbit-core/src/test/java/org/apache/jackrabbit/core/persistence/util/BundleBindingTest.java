@@ -286,6 +286,137 @@ public class BundleBindingTest extends TestCase {
                 10, 1, 0, 0, 0, 0, 0, 0, 0, 5, 0, 0, 0, 0, 0, 0, 0, 6, 0 });
     }
 
+    /**
+     * Tests reading a bundle written using serialization version 3, and
+     * checks that the binary value header is shorter in version 4.
+     */
+    public void testVersion3Bundle() throws Exception {
+        NodePropBundle bundle = new NodePropBundle(new NodeId(1, 2));
+        bundle.setParentId(new NodeId(3, 4));
+        bundle.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        bundle.setMixinTypeNames(Collections.<Name>emptySet());
+        bundle.setSharedSet(Collections.<NodeId>emptySet());
+        addProperty(bundle, "binary", PropertyType.BINARY,
+                InternalValue.create(new byte[] { 1, 2, 3 }));
+        addProperty(bundle, "string", PropertyType.STRING,
+                InternalValue.create("a"), InternalValue.create("b"));
+        addProperty(bundle, "long", PropertyType.LONG,
+                InternalValue.create(42));
+        addProperty(bundle, "name", PropertyType.NAME,
+                InternalValue.create(factory.create("ns1", "test")));
+        addProperty(bundle, "date", PropertyType.DATE, InternalValue.valueOf(
+                "2010-10-10T10:10:10.100Z", PropertyType.DATE));
+        bundle.addChildNodeEntry(
+                factory.create("ns1", "child"), new NodeId(5, 6));
+
+        byte[] data = new byte[] {
+                3, 0, 0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 0, 0, 0, 0, 0, 4, 0,
+                84, -125, 108, 111, 110, 103, 3, 0, 84, -125, 110, 97, 109,
+                101, 7, 0, -109, 3, 110, 115, 49, 116, 101, 115, 116, -125,
+                100, 97, 116, 101, 5, 0, -52, -122, -88, -105, -62, -115, 1,
+                -123, 98, 105, 110, 97, 114, 121, 2, 0, 0, 0, 0, 3, 1, 2, 3,
+                -123, 115, 116, 114, 105, 110, 103, 49, 0, 1, 97, 1, 98, -108,
+                99, 104, 105, 108, 100, 0, 0, 0, 0, 0, 0, 0, 5, 0, 0, 0, 0, 0,
+                0, 0, 6 };
+        assertBundleSerialization(bundle, data);
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        binding.writeBundle(buffer, binding.readBundle(data, bundle.getId()));
+        byte[] current = buffer.toByteArray();
+        assertEquals(BundleBinding.VERSION_CURRENT, current[0]);
+        assertEquals(data.length - 3, current.length);
+        assertEquals(bundle, binding.readBundle(current, bundle.getId()));
+    }
+
+    /**
+     * Tests that property values are only decoded when accessed, and that
+     * values that were never accessed are written back unchanged.
+     */
+    public void testLazyValues() throws Exception {
+        NodePropBundle bundle = new NodePropBundle(NodeId.randomId());
+        bundle.setParentId(NodeId.randomId());
+        bundle.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        bundle.setMixinTypeNames(Collections.<Name>emptySet());
+        bundle.setSharedSet(Collections.<NodeId>emptySet());
+        addProperty(bundle, "string", PropertyType.STRING,
+                InternalValue.create("a"), InternalValue.create("\u00e4"));
+        addProperty(bundle, "decimal", PropertyType.DECIMAL,
+                InternalValue.create(new BigDecimal("1.5")));
+        addProperty(bundle, "double", PropertyType.DOUBLE,
+                InternalValue.create(1.5));
+        addProperty(bundle, "reference", PropertyType.REFERENCE,
+                InternalValue.create(NodeId.randomId()));
+        addProperty(bundle, "name", PropertyType.NAME,
+                InternalValue.create(factory.create("ns1", "test")));
+        bundle.addChildNodeEntry(
+                factory.create("ns1", "child"), NodeId.randomId());
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        binding.writeBundle(buffer, bundle);
+        byte[] data = buffer.toByteArray();
+
+        NodePropBundle result = binding.readBundle(data, bundle.getId());
+        for (PropertyEntry entry : result.getPropertyEntries()) {
+            if (entry.getType() == PropertyType.NAME) {
+                assertNull(entry.getSerializedValues());
+            } else {
+                assertNotNull(entry.getSerializedValues());
+            }
+        }
+
+        buffer = new ByteArrayOutputStream();
+        binding.writeBundle(buffer, result);
+        assertTrue(Arrays.equals(data, buffer.toByteArray()));
+
+        assertEquals(bundle, result);
+        for (PropertyEntry entry : result.getPropertyEntries()) {
+            assertNull(entry.getSerializedValues());
+        }
+    }
+
+    /**
+     * Tests that child node entries are only decoded when accessed, and
+     * that entries that were never accessed are written back unchanged
+     * unless the namespaces used before them have changed.
+     */
+    public void testLazyChildNodeEntries() throws Exception {
+        NodePropBundle bundle = new NodePropBundle(NodeId.randomId());
+        bundle.setParentId(NodeId.randomId());
+        bundle.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        bundle.setMixinTypeNames(Collections.<Name>emptySet());
+        bundle.setSharedSet(Collections.<NodeId>emptySet());
+        addProperty(bundle, "name", PropertyType.NAME,
+                InternalValue.create(factory.create("ns1", "test")));
+        for (int i = 0; i < 10; i++) {
+            bundle.addChildNodeEntry(
+                    factory.create("ns" + (i % 3), "child" + i),
+                    NodeId.randomId());
+        }
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        binding.writeBundle(buffer, bundle);
+        byte[] data = buffer.toByteArray();
+
+        NodePropBundle result = binding.readBundle(data, bundle.getId());
+        assertNotNull(result.getSerializedChildNodeEntries());
+        buffer = new ByteArrayOutputStream();
+        binding.writeBundle(buffer, result);
+        assertTrue(Arrays.equals(data, buffer.toByteArray()));
+        assertNotNull(result.getSerializedChildNodeEntries());
+
+        // a property in another namespace changes the namespace indexes
+        result = binding.readBundle(data, bundle.getId());
+        result.removeProperty(factory.create("", "name"), null);
+        addProperty(result, "name", PropertyType.NAME,
+                InternalValue.create(factory.create("ns2", "test")));
+        buffer = new ByteArrayOutputStream();
+        binding.writeBundle(buffer, result);
+        result = binding.readBundle(buffer.toByteArray(), bundle.getId());
+        assertEquals(
+                bundle.getChildNodeEntries(), result.getChildNodeEntries());
+        assertNull(result.getSerializedChildNodeEntries());
+    }
+
     /**
      * Tests serialization of custom namespaces.
      */
@@ -333,6 +464,11 @@ public class BundleBindingTest extends TestCase {
         assertValueSerialization(InternalValue.create(Long.MIN_VALUE));
     }
 
+    public void testBinarySerialization() throws Exception {
+        assertValueSerialization(InternalValue.create(new byte[0]));
+        assertValueSerialization(InternalValue.create(new byte[1000]));
+    }
+
     public void testDoubleSerialization() throws Exception {
         assertValueSerialization(InternalValue.create(0.0));
         assertValueSerialization(InternalValue.create(1.0));
@@ -443,6 +579,18 @@ public class BundleBindingTest extends TestCase {
         }
     }
 
+    private static void addProperty(
+            NodePropBundle bundle, String name, int type,
+            InternalValue... values) {
+        PropertyEntry property = new PropertyEntry(
+                new PropertyId(bundle.getId(), factory.create("", name)));
+        property.setType(type);
+        property.setMultiValued(values.length > 1);
+        property.setValues(values);
+        property.setBlobIds(new String[values.length]);
+        bundle.addProperty(property);
+    }
+
     private void assertDateSerialization(String date) throws Exception {
         assertValueSerialization(
                 InternalValue.valueOf(date, PropertyType.DATE));
@@ -0,0 +1,218 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodeEntry;
+import org.apache.jackrabbit.core.persistence.util.NodePropBundle.ChildNodePage;
+import org.apache.jackrabbit.spi.Name;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+import org.apache.jackrabbit.spi.commons.name.NameFactoryImpl;
+
+/**
+ * Test cases for the {@link ChildNodePages} class.
+ */
+public class ChildNodePagesTest extends TestCase {
+
+    private static final Name TEST =
+        NameFactoryImpl.getInstance().create("", "test");
+
+    /**
+     * Checks that small child node lists are not paged, and that a paged
+     * list is stored inline again when it shrinks.
+     */
+    public void testThreshold() {
+        List<ChildNodeEntry> entries = createEntries(10);
+        ChildNodePages layout = new ChildNodePages(null, entries, 10);
+        assertNull(layout.getPages());
+        assertTrue(layout.getDeletedPages().isEmpty());
+
+        entries.add(createEntry());
+        layout = new ChildNodePages(null, entries, 10);
+        assertEquals(2, layout.getPages().size());
+        assertCovers(layout, entries);
+
+        List<ChildNodePage> pages = layout.getPages();
+        layout = new ChildNodePages(pages, entries.subList(0, 6), 10);
+        assertEquals(1, layout.getPages().size());
+        layout = new ChildNodePages(pages, entries.subList(0, 5), 10);
+        assertNull(layout.getPages());
+        assertEquals(2, layout.getDeletedPages().size());
+    }
+
+    /**
+     * Checks that appending an entry only writes the last page.
+     */
+    public void testAppend() {
+        List<ChildNodeEntry> entries = createEntries(100);
+        ChildNodePages layout = new ChildNodePages(null, entries, 10);
+        assertEquals(10, layout.getPages().size());
+        assertCovers(layout, entries);
+
+        // the last page is full, so a new one is added
+        entries.add(createEntry());
+        layout = new ChildNodePages(layout.getPages(), entries, 10);
+        assertCovers(layout, entries);
+        assertEquals(11, layout.getPages().size());
+        assertEquals(1, countWritten(layout));
+        assertTrue(layout.isInserted(last(layout.getPages())));
+
+        // which is then rewritten
+        entries.add(createEntry());
+        layout = new ChildNodePages(layout.getPages(), entries, 10);
+        assertCovers(layout, entries);
+        assertEquals(11, layout.getPages().size());
+        assertEquals(1, countWritten(layout));
+        assertTrue(layout.isWritten(last(layout.getPages())));
+        assertFalse(layout.isInserted(last(layout.getPages())));
+        assertTrue(layout.getDeletedPages().isEmpty());
+    }
+
+    /**
+     * Checks that removing and inserting entries only rewrites the
+     * affected pages.
+     */
+    public void testRemoveAndInsert() {
+        List<ChildNodeEntry> entries = createEntries(100);
+        ChildNodePages layout = new ChildNodePages(null, entries, 10);
+        assertEquals(10, layout.getPages().size());
+
+        entries.remove(42);
+        layout = new ChildNodePages(layout.getPages(), entries, 10);
+        assertCovers(layout, entries);
+        assertEquals(1, countWritten(layout));
+        assertEquals(10, layout.getPages().size());
+
+        entries.add(0, createEntry());
+        layout = new ChildNodePages(layout.getPages(), entries, 10);
+        assertCovers(layout, entries);
+        assertEquals(1, countWritten(layout));
+        assertEquals(11, layout.getPages().size());
+        assertTrue(layout.isInserted(layout.getPages().get(0)));
+
+        // removing all entries of a page frees it
+        List<ChildNodePage> pages = layout.getPages();
+        int number = pages.get(5).getNumber();
+        for (int i = 0; i < pages.get(5).getCount(); i++) {
+            entries.remove(offset(pages, 5));
+        }
+        layout = new ChildNodePages(pages, entries, 10);
+        assertCovers(layout, entries);
+        assertEquals(0, countWritten(layout));
+        assertEquals(1, layout.getDeletedPages().size());
+        assertEquals(number, layout.getDeletedPages().get(0).intValue());
+    }
+
+    /**
+     * Checks that pages read back from their serialized form can be
+     * resolved against the page directory of a bundle.
+     */
+    public void testResolve() throws Exception {
+        BundleBinding binding = new BundleBinding(
+                null, null, new HashMapIndex(), new HashMapIndex(), null);
+        NodePropBundle bundle = new NodePropBundle(NodeId.randomId());
+        bundle.setParentId(NodeId.randomId());
+        bundle.setNodeTypeName(NameConstants.NT_UNSTRUCTURED);
+        bundle.setMixinTypeNames(new HashSet<Name>());
+        bundle.setSharedSet(new HashSet<NodeId>());
+        List<ChildNodeEntry> entries = createEntries(25);
+        ChildNodePages layout = new ChildNodePages(null, entries, 10);
+        bundle.setChildNodePages(layout.getPages());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        binding.writeBundle(out, bundle);
+        NodePropBundle read = binding.readBundle(
+                new ByteArrayInputStream(out.toByteArray()), bundle.getId());
+        assertEquals(3, read.getChildNodePages().size());
+        assertTrue(read.getChildNodeEntries().isEmpty());
+
+        Map<Integer, List<ChildNodeEntry>> loaded =
+            new HashMap<Integer, List<ChildNodeEntry>>();
+        for (ChildNodePage page : layout.getPages()) {
+            out = new ByteArrayOutputStream();
+            binding.writeChildNodePage(out, layout.getEntries(page));
+            loaded.put(page.getNumber(), binding.readChildNodePage(
+                    new ByteArrayInputStream(out.toByteArray())));
+        }
+        assertTrue(ChildNodePages.resolve(read, loaded));
+        assertEquals(entries, read.getChildNodeEntries());
+        assertEquals(entries.get(0).getId(),
+                read.getChildNodePages().get(0).getFirstId());
+
+        // pages from another revision are detected
+        read.setChildNodePages(layout.getPages());
+        List<ChildNodeEntry> page = loaded.get(layout.getPages().get(1).getNumber());
+        page.set(3, createEntry());
+        assertFalse(ChildNodePages.resolve(read, loaded));
+    }
+
+    private void assertCovers(
+            ChildNodePages layout, List<ChildNodeEntry> entries) {
+        List<ChildNodeEntry> all = new ArrayList<ChildNodeEntry>();
+        for (ChildNodePage page : layout.getPages()) {
+            assertTrue(page.getCount() > 0 && page.getCount() <= 10);
+            assertEquals(page.getCount(), layout.getEntries(page).size());
+            all.addAll(layout.getEntries(page));
+        }
+        assertEquals(entries, all);
+    }
+
+    private static int countWritten(ChildNodePages layout) {
+        int count = 0;
+        for (ChildNodePage page : layout.getPages()) {
+            if (layout.isWritten(page)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static int offset(List<ChildNodePage> pages, int index) {
+        int offset = 0;
+        for (int i = 0; i < index; i++) {
+            offset += pages.get(i).getCount();
+        }
+        return offset;
+    }
+
+    private static ChildNodePage last(List<ChildNodePage> pages) {
+        return pages.get(pages.size() - 1);
+    }
+
+    private static List<ChildNodeEntry> createEntries(int count) {
+        List<ChildNodeEntry> entries = new ArrayList<ChildNodeEntry>();
+        for (int i = 0; i < count; i++) {
+            entries.add(createEntry());
+        }
+        return entries;
+    }
+
+    private static ChildNodeEntry createEntry() {
+        return new ChildNodeEntry(TEST, NodeId.randomId());
+    }
+
+}
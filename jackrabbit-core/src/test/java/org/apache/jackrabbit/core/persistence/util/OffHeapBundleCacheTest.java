@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.persistence.util;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+public class OffHeapBundleCacheTest extends TestCase {
+
+    private File file;
+
+    private OffHeapBundleCache cache;
+
+    protected void setUp() throws Exception {
+        file = File.createTempFile("jackrabbit-bundlecache-", ".mmap");
+        // four segments of 1kB
+        cache = new OffHeapBundleCache(file, 4096, 1024);
+    }
+
+    protected void tearDown() throws Exception {
+        cache.close();
+        assertFalse(file.exists());
+    }
+
+    public void testPutGet() {
+        NodeId id = NodeId.randomId();
+        assertNull(cache.get(id));
+
+        byte[] data = createData(100, 1);
+        assertTrue(cache.put(id, data, cache.getStamp(id)));
+        assertTrue(Arrays.equals(data, cache.get(id)));
+
+        byte[] updated = createData(50, 2);
+        assertTrue(cache.put(id, updated, cache.getStamp(id)));
+        assertTrue(Arrays.equals(updated, cache.get(id)));
+
+        assertEquals(1, cache.getElementCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testTooLarge() {
+        NodeId id = NodeId.randomId();
+        assertFalse(cache.put(id, createData(1024, 1), cache.getStamp(id)));
+        assertNull(cache.get(id));
+    }
+
+    public void testRemove() {
+        NodeId id = NodeId.randomId();
+        long stamp = cache.getStamp(id);
+        assertTrue(cache.put(id, createData(10, 1), stamp));
+        cache.remove(id);
+        assertNull(cache.get(id));
+
+        // a bundle loaded before the removal is not cached
+        assertFalse(cache.put(id, createData(10, 1), stamp));
+        assertNull(cache.get(id));
+        assertTrue(cache.put(id, createData(10, 1), cache.getStamp(id)));
+        assertNotNull(cache.get(id));
+    }
+
+    public void testEviction() {
+        NodeId[] ids = new NodeId[40];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+            assertTrue(cache.put(ids[i], createData(300, i), cache.getStamp(ids[i])));
+        }
+
+        // three 320 byte entries fit in a segment, so only the entries
+        // of the last three to four segments are still cached
+        assertTrue(cache.getElementCount() <= 12);
+        assertTrue(cache.getElementCount() >= 9);
+        assertEquals(ids.length - cache.getElementCount(), cache.getEvictionCount());
+        for (int i = 0; i < ids.length; i++) {
+            byte[] data = cache.get(ids[i]);
+            if (i >= ids.length - 9) {
+                assertTrue(Arrays.equals(createData(300, i), data));
+            } else if (data != null) {
+                assertTrue(Arrays.equals(createData(300, i), data));
+            }
+        }
+    }
+
+    public void testClear() {
+        NodeId id = NodeId.randomId();
+        assertTrue(cache.put(id, createData(10, 1), cache.getStamp(id)));
+        cache.clear();
+        assertNull(cache.get(id));
+        assertEquals(0, cache.getElementCount());
+    }
+
+    public void testClose() {
+        NodeId id = NodeId.randomId();
+        assertTrue(cache.put(id, createData(10, 1), cache.getStamp(id)));
+        cache.close();
+        assertFalse(file.exists());
+        assertNull(cache.get(id));
+        assertFalse(cache.put(id, createData(10, 1), cache.getStamp(id)));
+        // closing again is a no-op
+        cache.close();
+    }
+
+    public void testConcurrentRecycle() throws Exception {
+        final NodeId[] ids = new NodeId[40];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = NodeId.randomId();
+        }
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<String> error = new AtomicReference<String>();
+        Thread[] readers = new Thread[2];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread() {
+                public void run() {
+                    while (!stop.get()) {
+                        for (int i = 0; i < ids.length; i++) {
+                            byte[] data = cache.get(ids[i]);
+                            if (data != null
+                                    && !Arrays.equals(createData(300, i), data)) {
+                                error.set("Torn read of entry " + i);
+                                return;
+                            }
+                        }
+                    }
+                }
+            };
+            readers[r].start();
+        }
+        try {
+            // the segments are recycled over and over, so readers copy
+            // entries while their slots are overwritten by other entries
+            for (int n = 0; n < 20000 && error.get() == null; n++) {
+                int i = n % ids.length;
+                cache.put(ids[i], createData(300, i), cache.getStamp(ids[i]));
+            }
+        } finally {
+            stop.set(true);
+            for (Thread reader : readers) {
+                reader.join();
+            }
+        }
+        assertNull(error.get());
+    }
+
+    private static byte[] createData(int length, int seed) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31 + seed);
+        }
+        return data;
+    }
+
+}
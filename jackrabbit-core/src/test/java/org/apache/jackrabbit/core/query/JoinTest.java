@@ -22,6 +22,8 @@ import javax.jcr.nodetype.NodeType;
 import javax.jcr.query.Query;
 import javax.jcr.query.QueryResult;
 
+import org.apache.jackrabbit.core.query.lucene.join.QueryEngine;
+
 /**
  * Test case for JOIN queries with JCR_SQL2
  */
@@ -167,4 +169,43 @@ public class JoinTest extends AbstractQueryTest {
         checkResult(qm.createQuery(join.toString(), Query.JCR_SQL2).execute(),
                 2);
     }
+
+    public void testOuterJoin() throws Exception {
+        String join = "SELECT a.*, b.*"
+                + " FROM [nt:unstructured] AS a"
+                + " LEFT OUTER JOIN [nt:unstructured] AS b ON ISCHILDNODE(b, a)"
+                + " WHERE ISDESCENDANTNODE(a, '" + node.getPath() + "')";
+        checkResult(qm.createQuery(join, Query.JCR_SQL2).execute(), 6);
+    }
+
+    /**
+     * Runs the join queries with each of the strategies to fetch the right
+     * side of the join.
+     */
+    public void testJoinStrategies() throws Exception {
+        String[] strategies = new String[] {
+                QueryEngine.JOIN_STRATEGY_PUSHDOWN,
+                QueryEngine.JOIN_STRATEGY_HASH,
+                QueryEngine.JOIN_STRATEGY_COST };
+        String property = QueryEngine.JOIN_STRATEGY_SYSTEM_PROPERTY;
+        String previous = System.getProperty(property);
+        try {
+            for (String strategy : strategies) {
+                System.setProperty(property, strategy);
+                testMultiValuedReferenceJoin();
+                testJoinWithOR();
+                testJoinWithOR2();
+                testJoinWithOR3();
+                testJoinWithOR4();
+                testJoinWithOR5();
+                testOuterJoin();
+            }
+        } finally {
+            if (previous == null) {
+                System.clearProperty(property);
+            } else {
+                System.setProperty(property, previous);
+            }
+        }
+    }
 }
@@ -156,6 +156,47 @@ public class SQL2OffsetLimitTest extends AbstractQueryTest {
         assertTrue(expected.isEmpty());
     }
 
+    public void testPaginationWithoutOrdering() throws Exception {
+        List<String> expected = new ArrayList<String>(c);
+        Query q = qm.createQuery("SELECT * FROM [nt:base] WHERE ISCHILDNODE(["
+                + testRoot + "])", Query.JCR_SQL2);
+
+        for (int i = 0; i < c.size(); i += 2) {
+            q.setOffset(i);
+            q.setLimit(2);
+            QueryResult result = q.execute();
+            int size = Math.min(2, c.size() - i);
+            assertEquals(size, result.getRows().getSize());
+            List<String> out = qrToPaths(q.execute());
+            assertEquals(size, out.size());
+            for (String s : out) {
+                assertTrue(expected.remove(s));
+            }
+        }
+        assertTrue(expected.isEmpty());
+    }
+
+    public void testJoinPaginationWithoutOrdering() throws Exception {
+        List<String> expected = new ArrayList<String>(c);
+        Query q = qm.createQuery("SELECT * FROM [nt:base] AS p"
+                + " INNER JOIN [nt:base] AS c ON ISCHILDNODE(c, p)"
+                + " WHERE ISSAMENODE(p, [" + testRoot + "])", Query.JCR_SQL2);
+
+        for (int i = 0; i < c.size(); i += 2) {
+            q.setOffset(i);
+            q.setLimit(2);
+            List<String> out = new ArrayList<String>();
+            for (Row row : JcrUtils.getRows(q.execute())) {
+                out.add(row.getNode("c").getName());
+            }
+            assertEquals(Math.min(2, c.size() - i), out.size());
+            for (String s : out) {
+                assertTrue(expected.remove(s));
+            }
+        }
+        assertTrue(expected.isEmpty());
+    }
+
     private List<String> qrToPaths(QueryResult qr) throws RepositoryException {
         List<String> ret = new ArrayList<String>();
         for (Row row : JcrUtils.getRows(qr)) {
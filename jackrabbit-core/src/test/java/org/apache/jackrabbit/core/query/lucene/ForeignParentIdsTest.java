@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.id.NodeId;
+
+/**
+ * <code>ForeignParentIdsTest</code> checks the primitive map of parent ids
+ * used by {@link CachingIndexReader}.
+ */
+public class ForeignParentIdsTest extends TestCase {
+
+    public void testPutAndGet() {
+        ForeignParentIds ids = new ForeignParentIds();
+        Map<Integer, NodeId> expected = new HashMap<Integer, NodeId>();
+        // enough entries to grow the map several times
+        for (int doc = 0; doc < 1000; doc += 3) {
+            NodeId id = NodeId.randomId();
+            ids.put(doc, id);
+            expected.put(doc, id);
+        }
+        assertEquals(expected.size(), ids.size());
+        for (int doc = 0; doc < 1000; doc++) {
+            assertEquals(expected.get(doc), ids.getParentId(doc));
+        }
+
+        // replace a parent
+        NodeId id = NodeId.randomId();
+        ids.put(3, id);
+        assertEquals(expected.size(), ids.size());
+        assertEquals(id, ids.getParentId(3));
+    }
+
+    public void testLocation() {
+        ForeignParentIds ids = new ForeignParentIds();
+        ids.put(7, NodeId.randomId());
+        assertEquals(ForeignParentIds.UNKNOWN_LOCATION, ids.getLocation(7));
+
+        long location = ForeignParentIds.location(42, Integer.MAX_VALUE);
+        ids.setLocation(7, location);
+        assertEquals(location, ids.getLocation(7));
+        assertEquals(42, ForeignParentIds.getCreationTick(location));
+        assertEquals(Integer.MAX_VALUE, ForeignParentIds.getDocNumber(location));
+
+        // unknown documents do not get a location
+        ids.setLocation(8, location);
+        assertEquals(ForeignParentIds.UNKNOWN_LOCATION, ids.getLocation(8));
+
+        // a new parent resets the location
+        ids.put(7, NodeId.randomId());
+        assertEquals(ForeignParentIds.UNKNOWN_LOCATION, ids.getLocation(7));
+
+        assertEquals(ForeignParentIds.UNKNOWN_LOCATION,
+                ForeignParentIds.location(1L << 40, 0));
+    }
+}
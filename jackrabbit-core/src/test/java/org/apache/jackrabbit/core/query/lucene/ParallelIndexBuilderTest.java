@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.Node;
+
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.RepositoryImpl;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.persistence.IterablePersistenceManager;
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.jackrabbit.core.state.ItemStateException;
+import org.apache.lucene.store.Directory;
+
+/**
+ * <code>ParallelIndexBuilderTest</code> checks that the parallel index build
+ * indexes every node once and resumes an interrupted build.
+ */
+public class ParallelIndexBuilderTest extends AbstractIndexingTest {
+
+    private static final int BATCH_SIZE = 10;
+
+    public void testResume() throws Exception {
+        List<NodeId> ids = new ArrayList<NodeId>();
+        for (int i = 0; i < 50; i++) {
+            Node n = testRootNode.addNode("node" + i);
+            ids.add(((NodeImpl) n).getNodeId());
+        }
+        session.save();
+
+        SearchIndex handler = getSearchIndex();
+        MultiIndex index = handler.getIndex();
+        Directory dir = handler.getDirectoryManager().getDirectory(".");
+        IterablePersistenceManager pm = (IterablePersistenceManager)
+                handler.getContext().getPersistenceManager();
+
+        List<PersistentIndex> segments = new ArrayList<PersistentIndex>();
+        try {
+            // interrupt the first build after a few batches
+            try {
+                createBuilder(index, dir, failAfter(pm, 3)).build();
+                fail("build must fail");
+            } catch (ItemStateException expected) {
+            }
+            Set<String> names = ParallelIndexBuilder.readSegmentNames(dir);
+            assertEquals(2, names.size());
+            int indexed = 0;
+            for (String name : names) {
+                indexed += index.getOrCreateIndex(name).getNumDocuments();
+            }
+            assertTrue(indexed > 0);
+
+            segments.addAll(createBuilder(index, dir, pm).build());
+            for (PersistentIndex segment : segments) {
+                assertTrue(names.contains(segment.getName()));
+            }
+            for (NodeId id : ids) {
+                assertEquals(1, count(segments, id));
+            }
+            assertEquals(1, count(segments, RepositoryImpl.ROOT_NODE_ID));
+            assertEquals(0, count(segments, RepositoryImpl.SYSTEM_ROOT_NODE_ID));
+        } finally {
+            for (String name : ParallelIndexBuilder.readSegmentNames(dir)) {
+                PersistentIndex segment = index.getOrCreateIndex(name);
+                segment.close();
+                index.deleteIndex(segment);
+            }
+            ParallelIndexBuilder.removeSegmentNames(dir);
+            dir.close();
+        }
+    }
+
+    /*
+     * use default ws
+     */
+    protected String getWorkspaceName() {
+        return null;
+    }
+
+    private static ParallelIndexBuilder createBuilder(
+            MultiIndex index, Directory dir, IterablePersistenceManager pm) {
+        return new ParallelIndexBuilder(index, dir, pm,
+                Collections.singleton(RepositoryImpl.SYSTEM_ROOT_NODE_ID),
+                2, BATCH_SIZE);
+    }
+
+    private static int count(List<PersistentIndex> segments, NodeId id)
+            throws IOException {
+        int count = 0;
+        for (PersistentIndex segment : segments) {
+            count += segment.getIndexReader().docFreq(
+                    TermFactory.createUUIDTerm(id.toString()));
+        }
+        return count;
+    }
+
+    /**
+     * Returns a persistence manager that fails to return node ids after the
+     * given number of batches.
+     */
+    private static IterablePersistenceManager failAfter(
+            final IterablePersistenceManager pm, final int batches) {
+        return (IterablePersistenceManager) Proxy.newProxyInstance(
+                IterablePersistenceManager.class.getClassLoader(),
+                new Class<?>[]{IterablePersistenceManager.class},
+                new InvocationHandler() {
+                    private int calls = 0;
+                    public Object invoke(Object proxy, Method method, Object[] args)
+                            throws Throwable {
+                        if (method.getName().equals("getAllNodeIds")
+                                && ++calls > batches) {
+                            throw new ItemStateException("test");
+                        }
+                        try {
+                            return method.invoke(pm, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+    }
+
+}
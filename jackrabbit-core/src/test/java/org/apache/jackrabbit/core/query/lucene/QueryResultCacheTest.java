@@ -0,0 +1,175 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import javax.jcr.query.QueryResult;
+import javax.jcr.security.Privilege;
+import javax.management.ObjectName;
+
+import org.apache.jackrabbit.commons.jackrabbit.authorization.AccessControlUtils;
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.query.AbstractIndexingTest;
+import org.apache.jackrabbit.core.security.principal.EveryonePrincipal;
+
+/**
+ * <code>QueryResultCacheTest</code> checks the query result cache, which is
+ * enabled for workspace query-result-cache.
+ */
+public class QueryResultCacheTest extends AbstractIndexingTest {
+
+    private static final String WORKSPACE_NAME = "query-result-cache";
+
+    protected String getWorkspaceName() {
+        return WORKSPACE_NAME;
+    }
+
+    public void testCacheEntries() throws Exception {
+        QueryResultCache cache = new QueryResultCache(2, 3);
+        assertNull(cache.get("a", 1, QueryImpl.DEFAULT_SELECTOR_NAME));
+        assertEquals(3, read(cache.put("a", 1, hits(3))).size());
+        assertEquals(1, cache.getSize());
+        assertEquals(3, read(cache.get("a", 1, QueryImpl.DEFAULT_SELECTOR_NAME)).size());
+
+        // index changed
+        assertNull(cache.get("a", 2, QueryImpl.DEFAULT_SELECTOR_NAME));
+        assertEquals(0, cache.getSize());
+
+        // too many hits
+        MultiColumnQueryHits hits = cache.put("b", 2, hits(5));
+        hits.skip(1);
+        assertEquals(4, read(hits).size());
+        assertNull(cache.get("b", 2, QueryImpl.DEFAULT_SELECTOR_NAME));
+
+        // least recently used entry is evicted
+        cache.put("c", 2, hits(1)).close();
+        cache.put("d", 2, hits(1)).close();
+        assertNotNull(cache.get("c", 2, QueryImpl.DEFAULT_SELECTOR_NAME));
+        cache.put("e", 2, hits(1)).close();
+        assertNull(cache.get("d", 2, QueryImpl.DEFAULT_SELECTOR_NAME));
+        assertNotNull(cache.get("c", 2, QueryImpl.DEFAULT_SELECTOR_NAME));
+        assertEquals(3, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+
+        cache.setEnabled(false);
+        assertEquals(0, cache.getSize());
+        cache.clear();
+        assertEquals(0, cache.getHitCount());
+        assertEquals(0.0, cache.getHitRate());
+    }
+
+    public void testCachedQuery() throws Exception {
+        SearchIndex index = getSearchIndex();
+        QueryResultCacheMXBean cache = index.getResultCache();
+        assertNotNull(cache);
+        assertFalse(ManagementFactory.getPlatformMBeanServer().queryNames(
+                new ObjectName("org.apache.jackrabbit:type=QueryResultCache,*"),
+                null).isEmpty());
+
+        Node n1 = testRootNode.addNode("node1");
+        n1.setProperty("cached", "value");
+        testRootNode.save();
+        // a descendant step with a node type neither traverses the
+        // session nor includes the jcr:system index
+        String stmt = "//element(*, nt:unstructured)[@cached = 'value']";
+
+        // the index may still change in the background,
+        // a repeated query must hit the cache eventually
+        long hits = cache.getHitCount();
+        for (int i = 0; i < 10 && cache.getHitCount() == hits; i++) {
+            checkResult(qm.createQuery(stmt, Query.XPATH).execute(), new Node[]{n1});
+        }
+        assertTrue(cache.getHitCount() > hits);
+
+        // a change of the index invalidates the cached result
+        Node n2 = testRootNode.addNode("node2");
+        n2.setProperty("cached", "value");
+        testRootNode.save();
+        checkResult(qm.createQuery(stmt, Query.XPATH).execute(), new Node[]{n1, n2});
+
+        n1.remove();
+        testRootNode.save();
+        checkResult(qm.createQuery(stmt, Query.XPATH).execute(), new Node[]{n2});
+    }
+
+    public void testSessionDependentQuery() throws Exception {
+        QueryResultCacheMXBean cache = getSearchIndex().getResultCache();
+        Node a = testRootNode.addNode("a");
+        Node b = a.addNode("b");
+        testRootNode.save();
+        String[] read = new String[]{Privilege.JCR_READ};
+        AccessControlUtils.addAccessControlEntry(session, a.getPath(),
+                EveryonePrincipal.getInstance(), read, false);
+        AccessControlUtils.addAccessControlEntry(session, b.getPath(),
+                EveryonePrincipal.getInstance(), read, true);
+        session.save();
+
+        // the descendant axis is evaluated by traversing the nodes the
+        // session can read, which excludes b for the anonymous session
+        String stmt = testPath + "//*";
+        Session anonymous = getHelper().getReadOnlySession(getWorkspaceName());
+        try {
+            long hits = cache.getHitCount();
+            assertTrue(contains(qm.createQuery(stmt, Query.XPATH).execute(), b));
+            QueryManager anonymousQm = anonymous.getWorkspace().getQueryManager();
+            checkResult(anonymousQm.createQuery(stmt, Query.XPATH).execute(), new Node[0]);
+            assertEquals(hits, cache.getHitCount());
+        } finally {
+            anonymous.logout();
+        }
+    }
+
+    private static boolean contains(QueryResult result, Node node)
+            throws RepositoryException {
+        for (NodeIterator it = result.getNodes(); it.hasNext(); ) {
+            if (it.nextNode().isSame(node)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static MultiColumnQueryHits hits(int size) {
+        List<ScoreNode> nodes = new ArrayList<ScoreNode>();
+        for (int i = 0; i < size; i++) {
+            nodes.add(new ScoreNode(NodeId.randomId(), 1.0f));
+        }
+        return new QueryHitsAdapter(
+                new DefaultQueryHits(nodes), QueryImpl.DEFAULT_SELECTOR_NAME);
+    }
+
+    private static List<ScoreNode> read(MultiColumnQueryHits hits)
+            throws IOException {
+        List<ScoreNode> nodes = new ArrayList<ScoreNode>();
+        ScoreNode[] next;
+        while ((next = hits.nextScoreNodes()) != null) {
+            nodes.add(next[0]);
+        }
+        hits.close();
+        return nodes;
+    }
+}
@@ -53,6 +53,10 @@ public class TestAll extends TestCase {
         suite.addTestSuite(ArrayHitsTest.class);
         suite.addTestSuite(IndexFormatVersionTest.class);
         suite.addTestSuite(SynonymProviderTest.class);
+        suite.addTestSuite(ParallelIndexBuilderTest.class);
+        suite.addTestSuite(TopNSorterTest.class);
+        suite.addTestSuite(QueryResultCacheTest.class);
+        suite.addTestSuite(ForeignParentIdsTest.class);
 
         return suite;
     }
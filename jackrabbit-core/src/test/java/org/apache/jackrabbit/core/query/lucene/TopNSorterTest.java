@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.query.lucene;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.jackrabbit.core.query.lucene.sort.TopNSorter;
+
+/**
+ * <code>TopNSorterTest</code> checks that {@link TopNSorter} returns the
+ * same order as a stable full sort.
+ */
+public class TopNSorterTest extends TestCase {
+
+    /**
+     * Compares the values only, ignoring the insertion position.
+     */
+    private static final Comparator<int[]> COMPARATOR = new Comparator<int[]>() {
+        public int compare(int[] o1, int[] o2) {
+            return o1[0] < o2[0] ? -1 : (o1[0] == o2[0] ? 0 : 1);
+        }
+    };
+
+    public void testSortOrder() {
+        Random random = new Random(42);
+        for (int n : new int[] {1, 2, 10, 99, 100, 1000}) {
+            List<int[]> values = new ArrayList<int[]>();
+            TopNSorter<int[]> sorter = new TopNSorter<int[]>(COMPARATOR, n);
+            for (int i = 0; i < 100; i++) {
+                // few distinct values to check the order of equal elements
+                int[] value = new int[] {random.nextInt(10), i};
+                values.add(value);
+                sorter.add(value);
+            }
+            assertEquals(values.size(), sorter.size());
+            Collections.sort(values, COMPARATOR);
+            Iterator<int[]> it = sorter.iterator();
+            for (int[] expected : values) {
+                assertTrue(it.hasNext());
+                assertSame("n=" + n, expected, it.next());
+            }
+            assertFalse(it.hasNext());
+        }
+    }
+
+    public void testEmpty() {
+        TopNSorter<int[]> sorter = new TopNSorter<int[]>(COMPARATOR, 10);
+        assertEquals(0, sorter.size());
+        assertFalse(sorter.iterator().hasNext());
+    }
+
+    public void testInvalidSize() {
+        try {
+            new TopNSorter<int[]>(COMPARATOR, 0);
+            fail("n must be positive");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -21,14 +21,21 @@ import org.apache.jackrabbit.api.JackrabbitSession;
 import org.apache.jackrabbit.api.security.JackrabbitAccessControlList;
 import org.apache.jackrabbit.api.security.user.Authorizable;
 import org.apache.jackrabbit.api.security.user.Group;
+import org.apache.jackrabbit.core.NodeImpl;
+import org.apache.jackrabbit.core.PropertyImpl;
+import org.apache.jackrabbit.core.SessionImpl;
+import org.apache.jackrabbit.core.id.ItemId;
+import org.apache.jackrabbit.core.security.AccessManager;
 import org.apache.jackrabbit.core.security.authorization.AbstractEvaluationTest;
 import org.apache.jackrabbit.core.security.authorization.AccessControlConstants;
 import org.apache.jackrabbit.test.NotExecutableException;
+import org.apache.jackrabbit.util.Text;
 import org.junit.Test;
 
 import javax.jcr.AccessDeniedException;
 import javax.jcr.Node;
 import javax.jcr.PathNotFoundException;
+import javax.jcr.Property;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.Value;
@@ -484,6 +491,80 @@ public class ReadTest extends AbstractEvaluationTest {
         }
     }
 
+    public void testCanReadBatch() throws Exception {
+        Node n = superuser.getNode(path);
+        Property p1 = n.setProperty(propertyName1, "a");
+        Property p2 = n.setProperty(propertyName2, "b");
+        Node n3 = n.addNode(nodeName3, testNodeType);
+        Node child = superuser.getNode(childNPath);
+        superuser.save();
+
+        Privilege[] privileges = privilegesFromName(Privilege.JCR_READ);
+
+        /* deny READ privilege for the first property only */
+        ValueFactory vf = superuser.getValueFactory();
+        Map<String, Value> restrictions = new HashMap<String, Value>(getRestrictions(superuser, path));
+        restrictions.put(AccessControlConstants.P_GLOB.toString(), vf.createValue("/" + propertyName1));
+        withdrawPrivileges(path, privileges, restrictions);
+        /* deny READ privilege for the child node and its properties */
+        withdrawPrivileges(childNPath, privileges, getRestrictions(superuser, childNPath));
+
+        ItemId[] ids = new ItemId[] {
+                ((NodeImpl) n).getNodeId(),
+                ((PropertyImpl) n.getProperty(JcrConstants.JCR_PRIMARYTYPE)).getId(),
+                ((PropertyImpl) p1).getId(),
+                ((PropertyImpl) p2).getId(),
+                ((NodeImpl) child).getNodeId(),
+                ((PropertyImpl) child.getProperty(JcrConstants.JCR_PRIMARYTYPE)).getId(),
+                ((NodeImpl) n3).getNodeId()
+        };
+        boolean[] expected = new boolean[] {true, true, false, true, false, false, true};
+
+        boolean[] granted = ((SessionImpl) getTestSession()).getAccessManager().canRead(ids);
+        assertEquals(ids.length, granted.length);
+        // compare with the evaluation of single items in a separate session
+        Session s = getHelper().getRepository().login(creds);
+        try {
+            AccessManager accessMgr = ((SessionImpl) s).getAccessManager();
+            for (int i = 0; i < ids.length; i++) {
+                assertEquals(ids[i].toString(), expected[i], granted[i]);
+                assertEquals(ids[i].toString(), expected[i], accessMgr.canRead(null, ids[i]));
+            }
+        } finally {
+            s.logout();
+        }
+    }
+
+    public void testReadSubtreeModified() throws Exception {
+        Node deep = superuser.getNode(childNPath).addNode(nodeName3, testNodeType).addNode(nodeName4, testNodeType);
+        superuser.save();
+        String deepPath = deep.getPath();
+        String deepParentPath = Text.getRelativeParent(deepPath, 1);
+
+        Session testSession = getTestSession();
+        assertTrue(testSession.nodeExists(deepPath));
+
+        Privilege[] privileges = privilegesFromName(Privilege.JCR_READ);
+
+        /* deny READ privilege for testUser at 'path' */
+        withdrawPrivileges(path, privileges, getRestrictions(superuser, path));
+        assertFalse(testSession.nodeExists(deepParentPath));
+        assertFalse(testSession.nodeExists(deepPath));
+
+        /* allow READ privilege for testUser at 'childNPath' */
+        givePrivileges(childNPath, privileges, getRestrictions(superuser, childNPath));
+        assertTrue(testSession.nodeExists(deepParentPath));
+        assertTrue(testSession.nodeExists(deepPath));
+
+        /* deny READ privilege for the deepest node only */
+        ValueFactory vf = superuser.getValueFactory();
+        Map<String, Value> restrictions = new HashMap<String, Value>(getRestrictions(superuser, childNPath));
+        restrictions.put(AccessControlConstants.P_GLOB.toString(), vf.createValue("/" + nodeName3 + "/" + nodeName4));
+        withdrawPrivileges(childNPath, privileges, restrictions);
+        assertTrue(testSession.nodeExists(deepParentPath));
+        assertFalse(testSession.nodeExists(deepPath));
+    }
+
     public void testRemoveMixin() throws Exception {
         Node n = superuser.getNode(path);
         
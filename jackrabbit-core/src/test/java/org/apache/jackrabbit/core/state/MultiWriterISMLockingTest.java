@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.jackrabbit.core.state;
+
+import javax.jcr.PropertyType;
+
+import org.apache.jackrabbit.core.id.NodeId;
+import org.apache.jackrabbit.core.id.PropertyId;
+import org.apache.jackrabbit.core.state.ISMLocking.ReadLock;
+import org.apache.jackrabbit.core.state.ISMLocking.WriteLock;
+import org.apache.jackrabbit.spi.commons.name.NameConstants;
+
+/**
+ * <code>MultiWriterISMLockingTest</code> executes the test cases implemented
+ * in {@link AbstractISMLockingTest} and checks that writers with disjoint
+ * change logs do not block each other.
+ */
+public class MultiWriterISMLockingTest extends AbstractISMLockingTest {
+
+    public ISMLocking createISMLocking() {
+        return new MultiWriterISMLocking();
+    }
+
+    public void testDisjointWrites() throws InterruptedException {
+        WriteLock wLock = locking.acquireWriteLock(logs.get(2));
+        verifyNotBlocked(startWriterThread(locking, createModifiedNodeLog()));
+        wLock.release();
+    }
+
+    public void testDisjointWriteAndRead() throws InterruptedException {
+        WriteLock wLock = locking.acquireWriteLock(logs.get(2));
+        verifyNotBlocked(startReaderThread(locking, NodeId.randomId()));
+        wLock.release();
+    }
+
+    public void testPropertyLocksParent() throws InterruptedException {
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.modified(new PropertyState(
+                new PropertyId(state.getNodeId(), NameConstants.JCR_CREATED),
+                ItemState.STATUS_EXISTING, true));
+        WriteLock wLock = locking.acquireWriteLock(changeLog);
+        verifyBlocked(startReaderThread(locking, state.getId()));
+        verifyBlocked(startWriterThread(locking, logs.get(2)));
+        wLock.release();
+    }
+
+    public void testDowngradeBlocksIntersectingWrite() throws InterruptedException {
+        WriteLock wLock = locking.acquireWriteLock(logs.get(2));
+        ReadLock rLock = wLock.downgrade();
+        verifyBlocked(startWriterThread(locking, logs.get(0)));
+        verifyNotBlocked(startWriterThread(locking, createModifiedNodeLog()));
+        rLock.release();
+        verifyNotBlocked(startWriterThread(locking, logs.get(0)));
+    }
+
+    public void testReferenceChangeIsExclusive() throws InterruptedException {
+        PropertyState reference = new PropertyState(
+                new PropertyId(NodeId.randomId(), NameConstants.JCR_CHILDVERSIONHISTORY),
+                ItemState.STATUS_NEW, true);
+        reference.setType(PropertyType.REFERENCE);
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.added(reference);
+
+        WriteLock wLock = locking.acquireWriteLock(changeLog);
+        verifyBlocked(startWriterThread(locking, createModifiedNodeLog()));
+        wLock.release();
+
+        ReadLock rLock = locking.acquireReadLock(NodeId.randomId());
+        verifyBlocked(startWriterThread(locking, changeLog));
+        rLock.release();
+    }
+
+    private ChangeLog createModifiedNodeLog() {
+        ChangeLog changeLog = new ChangeLog();
+        changeLog.modified(new NodeState(
+                NodeId.randomId(), NameConstants.NT_BASE, null,
+                ItemState.STATUS_EXISTING, true));
+        return changeLog;
+    }
+
+}
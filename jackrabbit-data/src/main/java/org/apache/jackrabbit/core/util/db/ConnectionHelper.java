@@ -22,9 +22,8 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.sql.DataSource;
 
@@ -53,8 +52,10 @@ import org.slf4j.LoggerFactory;
  *
  * <p>
  *
- * This class is not thread-safe and if it is to be used by multiple threads then the clients must make sure
- * that access to this class is properly synchronized.
+ * Statements that are executed outside of a batch each borrow their own {@code Connection} from the
+ * {@code DataSource}, so they can be executed by multiple threads concurrently. A batch is bound to the thread
+ * (or transaction) that started it; clients must make sure that batches of different threads do not interfere
+ * with each other.
  *
  * <p>
  *
@@ -80,7 +81,7 @@ public class ConnectionHelper {
 
     protected final DataSource dataSource;
 
-    private Map<Object, Connection> batchConnectionMap = Collections.synchronizedMap(new HashMap<Object, Connection>());
+    private Map<Object, Connection> batchConnectionMap = new ConcurrentHashMap<Object, Connection>();
 
     /**
      * The default fetchSize is '0'. This means the fetchSize Hint will be ignored 
@@ -353,6 +354,60 @@ public class ConnectionHelper {
         }
     }
 
+    /**
+     * Executes an update or delete statement on a connection that is managed by the client and returns
+     * the update count. Unlike a batch, the connection is not bound to the current thread, so a transaction
+     * may span multiple threads. The statement is not retried, but its parameters are set like those of
+     * the other statements of this helper, e.g. with the special blob handling of the Oracle helpers.
+     *
+     * @param con the connection to use, which is neither committed nor closed
+     * @param sql an SQL statement string
+     * @param params the parameters for the SQL statement
+     * @return the update count
+     * @throws SQLException on error
+     */
+    public final int update(Connection con, String sql, Object... params) throws SQLException {
+        PreparedStatement stmt = null;
+        long start = System.currentTimeMillis();
+        try {
+            stmt = con.prepareStatement(sql);
+            return execute(stmt, params).getUpdateCount();
+        } finally {
+            DbUtility.close(null, stmt, null);
+            log.debug("SQL-Execution [{}] took [{}] ms.", sql, (System.currentTimeMillis() - start) );
+        }
+    }
+
+    /**
+     * Executes a SQL query on a connection that is managed by the client and returns the
+     * {@link ResultSet}, which should be closed by clients. See {@link #update(Connection, String, Object...)}.
+     *
+     * @param con the connection to use, which is neither committed nor closed
+     * @param sql an SQL statement string
+     * @param params the parameters for the SQL statement
+     * @return a {@link ResultSet}
+     * @throws SQLException on error
+     */
+    public final ResultSet query(Connection con, String sql, Object... params) throws SQLException {
+        PreparedStatement stmt = null;
+        long start = System.currentTimeMillis();
+        try {
+            stmt = con.prepareStatement(sql);
+            stmt.setFetchSize(fetchSize);
+            ResultSet rs = execute(stmt, params).getResultSet();
+            if (rs == null) {
+                DbUtility.close(null, stmt, null);
+                return null;
+            }
+            return ResultSetWrapper.newInstance(null, stmt, rs);
+        } catch (SQLException e) {
+            DbUtility.close(null, stmt, null);
+            throw e;
+        } finally {
+            log.debug("SQL-Execution [{}] took [{}] ms.", sql, (System.currentTimeMillis() - start) );
+        }
+    }
+
     /**
      * Executes a SQL query and returns the {@link ResultSet}. The
      * returned {@link ResultSet} should be closed by clients.
@@ -31,6 +31,14 @@ import org.apache.jackrabbit.api.stats.TimeSeries;
 public class RepositoryStatisticsImpl implements
         Iterable<Map.Entry<String, TimeSeries>>, RepositoryStatistics {
 
+    /**
+     * Name of the bundle cache hit counter. The {@link Type} enumeration is
+     * defined by the Jackrabbit API, so statistics that are specific to this
+     * implementation are identified by name.
+     */
+    public static final String BUNDLE_CACHE_HIT_COUNTER =
+            "BUNDLE_CACHE_HIT_COUNTER";
+
     private final Map<String, TimeSeriesRecorder> recorders =
             new HashMap<String, TimeSeriesRecorder>();
 